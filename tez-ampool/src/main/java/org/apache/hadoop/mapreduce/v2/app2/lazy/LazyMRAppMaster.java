@@ -178,7 +178,7 @@ public class LazyMRAppMaster extends MRAppMaster {
   @Override
   protected ContainerAllocator createAMScheduler(ContainerRequestor requestor,
       AppContext appContext) {
-    return new LazyRMContainerAllocator(requestor, context);
+    return new LazyRMContainerAllocator(requestor, context, metrics);
   }
 
 
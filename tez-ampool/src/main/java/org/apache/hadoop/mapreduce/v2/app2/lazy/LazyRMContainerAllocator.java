@@ -23,6 +23,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.mapreduce.v2.app2.AppContext;
 import org.apache.hadoop.mapreduce.v2.app2.job.Job;
 import org.apache.hadoop.mapreduce.v2.app2.job.impl.NotRunningJob;
+import org.apache.hadoop.mapreduce.v2.app2.metrics.MRAppMetrics;
 import org.apache.hadoop.mapreduce.v2.app2.rm.ContainerRequestor;
 import org.apache.hadoop.mapreduce.v2.app2.rm.RMContainerAllocator;
 
@@ -32,8 +33,8 @@ public class LazyRMContainerAllocator extends RMContainerAllocator {
       LazyRMContainerAllocator.class);
 
   public LazyRMContainerAllocator(ContainerRequestor requestor,
-      AppContext appContext) {
-    super(requestor, appContext);
+      AppContext appContext, MRAppMetrics metrics) {
+    super(requestor, appContext, metrics);
   }
 
   @Override
@@ -0,0 +1,41 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.api;
+
+import java.io.IOException;
+
+/**
+ * {@link BatchInput} is an {@link Input} which can also be read a
+ * {@link RecordBatch} of serialized key/value pairs at a time.
+ * 
+ * A consumer reads an input either by batch or by key/values, never both.
+ */
+public interface BatchInput extends Input {
+
+  /**
+   * Replace the contents of <code>batch</code> with the next records.
+   * 
+   * @param batch the batch to fill
+   * @return true if records were read, false if there are no more records
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public boolean nextBatch(RecordBatch batch)
+      throws IOException, InterruptedException;
+
+}
@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.api;
+
+import java.io.IOException;
+
+/**
+ * {@link BatchOutput} is an {@link Output} which can also be written a
+ * {@link RecordBatch} of serialized key/value pairs at a time.
+ */
+public interface BatchOutput extends Output {
+
+  /**
+   * Write all the records in <code>batch</code>. The batch may be reused by
+   * the caller once this returns.
+   * 
+   * @param batch the records to write, in the serialized form of the output's
+   *          key and value classes
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public void write(RecordBatch batch)
+      throws IOException, InterruptedException;
+
+}
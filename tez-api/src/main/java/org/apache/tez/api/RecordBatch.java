@@ -0,0 +1,216 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.api;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+/**
+ * {@link RecordBatch} is a reusable batch of serialized key/value pairs, moved
+ * between a {@link BatchInput}, a {@link Processor} and a {@link BatchOutput}
+ * in one call rather than one call per record.
+ * 
+ * Records are stored back to back in a single buffer. Keys and values are in
+ * the serialized form of the key and value classes the producer of the batch
+ * sets with {@link #setClasses(Class, Class)}, which consumers check against
+ * the classes they expect.
+ */
+public class RecordBatch {
+
+  public static final int DEFAULT_MAX_RECORDS = 1024;
+  public static final int DEFAULT_MAX_BYTES = 256 * 1024;
+
+  private final int maxRecords;
+  private final int maxBytes;
+
+  private final DataOutputBuffer buffer;
+  private final int[] keyStarts;
+  private final int[] valueStarts;
+  private final int[] recordEnds;
+  private int size;
+  private Class<?> keyClass;
+  private Class<?> valueClass;
+
+  public RecordBatch() {
+    this(DEFAULT_MAX_RECORDS, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param maxRecords the maximum number of records in the batch
+   * @param maxBytes the number of bytes after which the batch is full. A
+   *          batch always takes at least one record, however large.
+   */
+  public RecordBatch(int maxRecords, int maxBytes) {
+    if (maxRecords <= 0) {
+      throw new IllegalArgumentException("Invalid maxRecords: " + maxRecords);
+    }
+    this.maxRecords = maxRecords;
+    this.maxBytes = maxBytes;
+    this.buffer = new DataOutputBuffer(maxBytes);
+    this.keyStarts = new int[maxRecords];
+    this.valueStarts = new int[maxRecords];
+    this.recordEnds = new int[maxRecords];
+  }
+
+  /**
+   * Set the classes the keys and values of the batch are serialized as. They
+   * are kept when the batch is cleared.
+   */
+  public void setClasses(Class<?> keyClass, Class<?> valueClass) {
+    this.keyClass = keyClass;
+    this.valueClass = valueClass;
+  }
+
+  /**
+   * @return the class the keys are serialized as, <code>null</code> if not set
+   */
+  public Class<?> getKeyClass() {
+    return keyClass;
+  }
+
+  /**
+   * @return the class the values are serialized as, <code>null</code> if not
+   *         set
+   */
+  public Class<?> getValueClass() {
+    return valueClass;
+  }
+
+  /**
+   * Empty the batch, keeping its buffers.
+   */
+  public void clear() {
+    buffer.reset();
+    size = 0;
+  }
+
+  /**
+   * @return the number of records in the batch
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return true if no more records should be added to the batch
+   */
+  public boolean isFull() {
+    return size == maxRecords || buffer.getLength() >= maxBytes;
+  }
+
+  /**
+   * Append a record, copying the remaining bytes of <code>key</code> and
+   * <code>value</code> i.e. from their position to their length.
+   */
+  public void append(DataInputBuffer key, DataInputBuffer value) {
+    checkNotFull();
+    keyStarts[size] = buffer.getLength();
+    write(key);
+    valueStarts[size] = buffer.getLength();
+    write(value);
+    recordEnds[size] = buffer.getLength();
+    ++size;
+  }
+
+  private void write(DataInputBuffer in) {
+    try {
+      buffer.write(in.getData(), in.getPosition(),
+          in.getLength() - in.getPosition());
+    } catch (IOException e) {
+      // DataOutputBuffer writes to memory
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The buffer which serializers append records to, each of which must be
+   * delimited by calls to {@link #startKey()}, {@link #startValue()} and
+   * {@link #endRecord()}.
+   */
+  public DataOutputBuffer getOutput() {
+    return buffer;
+  }
+
+  public void startKey() {
+    checkNotFull();
+    keyStarts[size] = buffer.getLength();
+  }
+
+  public void startValue() {
+    valueStarts[size] = buffer.getLength();
+  }
+
+  public void endRecord() {
+    recordEnds[size] = buffer.getLength();
+    ++size;
+  }
+
+  private void checkNotFull() {
+    if (size == maxRecords) {
+      throw new IllegalStateException("Batch is full: " + size + " records");
+    }
+  }
+
+  /**
+   * Point <code>key</code> at the serialized key of record <code>i</code>.
+   */
+  public void getKey(int i, DataInputBuffer key) {
+    key.reset(buffer.getData(), keyStarts[i], valueStarts[i] - keyStarts[i]);
+  }
+
+  /**
+   * Point <code>value</code> at the serialized value of record <code>i</code>.
+   */
+  public void getValue(int i, DataInputBuffer value) {
+    value.reset(buffer.getData(), valueStarts[i],
+        recordEnds[i] - valueStarts[i]);
+  }
+
+  /**
+   * @return the serialized records; record <code>i</code> is at
+   *         [{@link #getKeyStart(int)}, {@link #getRecordEnd(int)})
+   */
+  public byte[] getData() {
+    return buffer.getData();
+  }
+
+  public int getKeyStart(int i) {
+    return keyStarts[i];
+  }
+
+  public int getValueStart(int i) {
+    return valueStarts[i];
+  }
+
+  public int getRecordEnd(int i) {
+    return recordEnds[i];
+  }
+
+  /**
+   * @return the number of serialized bytes in the batch
+   */
+  public int getLength() {
+    return buffer.getLength();
+  }
+}
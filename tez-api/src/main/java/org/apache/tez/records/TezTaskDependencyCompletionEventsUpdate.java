@@ -20,18 +20,45 @@ package org.apache.tez.records;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
+/**
+ * A range of completion events of the tasks a task depends on.
+ *
+ * The events are written in a compact form: the job id, which all events
+ * share, is written once, and task types and http addresses are written once
+ * per update, and referred to by index after that.
+ */
 public class TezTaskDependencyCompletionEventsUpdate implements Writable {
   TezDependentTaskCompletionEvent[] events;
+  int offset;
+  int length;
   boolean reset;
 
   public TezTaskDependencyCompletionEventsUpdate() { }
 
   public TezTaskDependencyCompletionEventsUpdate(
       TezDependentTaskCompletionEvent[] events, boolean reset) {
+    this(events, 0, events.length, reset);
+  }
+
+  /**
+   * An update with the <code>length</code> events starting at
+   * <code>offset</code> in <code>events</code>, which are not copied.
+   */
+  public TezTaskDependencyCompletionEventsUpdate(
+      TezDependentTaskCompletionEvent[] events, int offset, int length,
+      boolean reset) {
     this.events = events;
+    this.offset = offset;
+    this.length = length;
     this.reset = reset;
   }
 
@@ -40,26 +67,92 @@ public class TezTaskDependencyCompletionEventsUpdate implements Writable {
   }
 
   public TezDependentTaskCompletionEvent[] getDependentTaskCompletionEvents() {
+    if (offset != 0 || length != events.length) {
+      events = Arrays.copyOfRange(events, offset, offset + length);
+      offset = 0;
+    }
     return events;
   }
 
   @Override
   public void write(DataOutput out) throws IOException {
     out.writeBoolean(reset);
-    out.writeInt(events.length);
-    for (TezDependentTaskCompletionEvent event : events) {
-      event.write(out);
+    WritableUtils.writeVInt(out, length);
+    if (length == 0) {
+      return;
+    }
+    TezJobID jobId = events[offset].getTaskAttemptID().getJobID();
+    jobId.write(out);
+    Map<String, Integer> strings = new HashMap<String, Integer>();
+    for (int i = offset; i < offset + length; ++i) {
+      TezDependentTaskCompletionEvent event = events[i];
+      TezTaskAttemptID attemptId = event.getTaskAttemptID();
+      TezTaskID taskId = attemptId.getTaskID();
+      if (!jobId.equals(taskId.getJobID())) {
+        throw new IOException("Completion events of more than one job: "
+            + jobId + ", " + taskId.getJobID());
+      }
+      out.writeByte((event.getStatus().ordinal() << 1)
+          | (event.isMapTask() ? 1 : 0));
+      writeString(out, taskId.getTaskType(), strings);
+      WritableUtils.writeVInt(out, taskId.getId());
+      WritableUtils.writeVInt(out, attemptId.getId());
+      writeString(out, event.getTaskTrackerHttp(), strings);
+      WritableUtils.writeVInt(out, event.getTaskRunTime());
+      WritableUtils.writeVInt(out, event.getEventId());
     }
   }
 
   @Override
   public void readFields(DataInput in) throws IOException {
     reset = in.readBoolean();
-    events = new TezDependentTaskCompletionEvent[in.readInt()];
-    for (int i = 0; i < events.length; ++i) {
-      events[i] = new TezDependentTaskCompletionEvent();
-      events[i].readFields(in);
+    length = WritableUtils.readVInt(in);
+    offset = 0;
+    events = new TezDependentTaskCompletionEvent[length];
+    if (length == 0) {
+      return;
+    }
+    TezJobID jobId = new TezJobID();
+    jobId.readFields(in);
+    TezDependentTaskCompletionEvent.Status[] statuses =
+        TezDependentTaskCompletionEvent.Status.values();
+    List<String> strings = new ArrayList<String>();
+    for (int i = 0; i < length; ++i) {
+      byte flags = in.readByte();
+      String type = readString(in, strings);
+      int taskNum = WritableUtils.readVInt(in);
+      int attemptNum = WritableUtils.readVInt(in);
+      String taskTrackerHttp = readString(in, strings);
+      int taskRunTime = WritableUtils.readVInt(in);
+      int eventId = WritableUtils.readVInt(in);
+      events[i] = new TezDependentTaskCompletionEvent(eventId,
+          new TezTaskAttemptID(new TezTaskID(jobId, type, taskNum),
+              attemptNum),
+          (flags & 1) != 0, statuses[flags >> 1], taskTrackerHttp);
+      events[i].setTaskRunTime(taskRunTime);
     }
   }
 
+  private static void writeString(DataOutput out, String s,
+      Map<String, Integer> strings) throws IOException {
+    Integer index = strings.get(s);
+    if (index != null) {
+      WritableUtils.writeVInt(out, index);
+      return;
+    }
+    WritableUtils.writeVInt(out, strings.size());
+    WritableUtils.writeString(out, s);
+    strings.put(s, strings.size());
+  }
+
+  private static String readString(DataInput in, List<String> strings)
+      throws IOException {
+    int index = WritableUtils.readVInt(in);
+    if (index < strings.size()) {
+      return strings.get(index);
+    }
+    String s = WritableUtils.readString(in);
+    strings.add(s);
+    return s;
+  }
 }
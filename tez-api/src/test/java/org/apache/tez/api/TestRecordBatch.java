@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.junit.Test;
+
+public class TestRecordBatch {
+
+  @Test
+  public void testAppendAndRead() throws IOException {
+    RecordBatch batch = new RecordBatch(4, 1024);
+    assertTrue(batch.isEmpty());
+    batch.append(serialize(new IntWritable(1)), serialize(new Text("one")));
+    batch.append(serialize(new IntWritable(2)), serialize(new Text("two")));
+
+    assertEquals(2, batch.size());
+    assertFalse(batch.isFull());
+    assertRecord(batch, 0, 1, "one");
+    assertRecord(batch, 1, 2, "two");
+    assertEquals(batch.getRecordEnd(1), batch.getLength());
+  }
+
+  @Test
+  public void testAppendCopiesFromPosition() throws IOException {
+    RecordBatch batch = new RecordBatch(4, 1024);
+    DataInputBuffer key = serialize(new IntWritable(7));
+    DataInputBuffer value = serialize(new Text("seven"));
+    // Only the remaining bytes of the buffers are part of the record
+    new IntWritable().readFields(key);
+    batch.append(key, value);
+
+    DataInputBuffer in = new DataInputBuffer();
+    batch.getKey(0, in);
+    assertEquals(0, in.getLength() - in.getPosition());
+    assertRecordValue(batch, 0, "seven");
+  }
+
+  @Test
+  public void testSerializedRecords() throws IOException {
+    RecordBatch batch = new RecordBatch(4, 1024);
+    DataOutputBuffer out = batch.getOutput();
+    for (int i = 0; i < 3; ++i) {
+      batch.startKey();
+      new IntWritable(i).write(out);
+      batch.startValue();
+      new Text("v" + i).write(out);
+      batch.endRecord();
+    }
+
+    assertEquals(3, batch.size());
+    for (int i = 0; i < 3; ++i) {
+      assertRecord(batch, i, i, "v" + i);
+    }
+  }
+
+  @Test
+  public void testFull() throws IOException {
+    RecordBatch batch = new RecordBatch(2, 1024);
+    batch.append(serialize(new IntWritable(1)), serialize(new Text("a")));
+    batch.append(serialize(new IntWritable(2)), serialize(new Text("b")));
+    assertTrue(batch.isFull());
+    try {
+      batch.append(serialize(new IntWritable(3)), serialize(new Text("c")));
+      fail("Appended to a full batch");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    try {
+      batch.startKey();
+      fail("Started a record in a full batch");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    // A record larger than maxBytes is still taken by an empty batch
+    batch = new RecordBatch(2, 8);
+    batch.append(serialize(new IntWritable(1)),
+        serialize(new Text("larger than the batch")));
+    assertEquals(1, batch.size());
+    assertTrue(batch.isFull());
+  }
+
+  @Test
+  public void testClear() throws IOException {
+    RecordBatch batch = new RecordBatch(2, 1024);
+    assertNull(batch.getKeyClass());
+    assertNull(batch.getValueClass());
+    batch.setClasses(IntWritable.class, Text.class);
+    batch.append(serialize(new IntWritable(1)), serialize(new Text("a")));
+    batch.append(serialize(new IntWritable(2)), serialize(new Text("b")));
+
+    batch.clear();
+    assertTrue(batch.isEmpty());
+    assertFalse(batch.isFull());
+    assertEquals(0, batch.getLength());
+    // The classes are kept for the next records
+    assertSame(IntWritable.class, batch.getKeyClass());
+    assertSame(Text.class, batch.getValueClass());
+
+    batch.append(serialize(new IntWritable(3)), serialize(new Text("c")));
+    assertEquals(1, batch.size());
+    assertRecord(batch, 0, 3, "c");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMaxRecords() {
+    new RecordBatch(0, 1024);
+  }
+
+  private static void assertRecord(RecordBatch batch, int i, int key,
+      String value) throws IOException {
+    DataInputBuffer in = new DataInputBuffer();
+    batch.getKey(i, in);
+    IntWritable k = new IntWritable();
+    k.readFields(in);
+    assertEquals(key, k.get());
+    assertEquals(in.getLength(), in.getPosition());
+    assertRecordValue(batch, i, value);
+  }
+
+  private static void assertRecordValue(RecordBatch batch, int i,
+      String value) throws IOException {
+    DataInputBuffer in = new DataInputBuffer();
+    batch.getValue(i, in);
+    Text v = new Text();
+    v.readFields(in);
+    assertEquals(value, v.toString());
+    assertEquals(in.getLength(), in.getPosition());
+  }
+
+  private static DataInputBuffer serialize(Writable w)
+      throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    w.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    return in;
+  }
+}
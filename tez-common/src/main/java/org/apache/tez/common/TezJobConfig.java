@@ -157,6 +157,32 @@ public class TezJobConfig {
       "tez.engine.shuffle.use.in-memory";
   public static final boolean DEFAULT_TEZ_ENGINE_SHUFFLE_USE_IN_MEMORY = false;
   
+  /**
+   * Number of i/o worker threads of the shuffle server shared by all tasks
+   * running in a container.
+   */
+  public static final String TEZ_ENGINE_SHUFFLE_SERVER_WORKER_THREADS =
+      "tez.engine.shuffle.server.worker.threads";
+  public static final int DEFAULT_TEZ_ENGINE_SHUFFLE_SERVER_WORKER_THREADS = 4;
+
+  /**
+   * Total size of the task outputs the shuffle server shared by all tasks
+   * running in a container keeps in memory. Beyond it, the oldest outputs
+   * are written to disk and served from there.
+   */
+  public static final String TEZ_ENGINE_SHUFFLE_SERVER_MEMORY_LIMIT_BYTES =
+      "tez.engine.shuffle.server.memory.limit.bytes";
+  public static final long
+      DEFAULT_TEZ_ENGINE_SHUFFLE_SERVER_MEMORY_LIMIT_BYTES = 128 * 1024 * 1024;
+
+  /**
+   * Whether sorted outputs are broadcast, i.e. every consumer reads the same,
+   * single partition. Consumers on a node share one fetched copy.
+   */
+  public static final String TEZ_ENGINE_SHUFFLE_BROADCAST =
+      "tez.engine.shuffle.broadcast";
+  public static final boolean DEFAULT_TEZ_ENGINE_SHUFFLE_BROADCAST = false;
+
   /**
    * 
    */
@@ -171,6 +197,14 @@ public class TezJobConfig {
       "tez.engine.metrics.session.id";
   public static final String DEFAULT_TEZ_ENGINE_METRICS_SESSION_ID = "";
 
+  /**
+   * Number of slowest hosts, by average fetch latency, a reducer reports in
+   * its counters.
+   */
+  public static final String TEZ_ENGINE_SHUFFLE_METRICS_SLOWEST_HOSTS =
+      "tez.engine.shuffle.metrics.slowest.hosts";
+  public static final int DEFAULT_TEZ_ENGINE_SHUFFLE_METRICS_SLOWEST_HOSTS = 5;
+
   /**
    * 
    */
@@ -250,4 +284,14 @@ public class TezJobConfig {
   public static final String TEZ_ENGINE_INPUT_BUFFER_PERCENT = 
       "tez.engine.task.input.buffer.percent";
   public static final float DEFAULT_TEZ_ENGINE_INPUT_BUFFER_PERCENT = 0.0f;
+
+  /**
+   * Whether iterators over sorted input group records by comparing serialized
+   * keys, deserializing a key only for the first record of a group, and
+   * recycle their key and value instances. Keys and values must then not be
+   * held on to once the iterator has moved past them.
+   */
+  public static final String TEZ_ENGINE_INPUT_OBJECT_REUSE =
+      "tez.engine.task.input.object-reuse";
+  public static final boolean DEFAULT_TEZ_ENGINE_INPUT_OBJECT_REUSE = false;
 }
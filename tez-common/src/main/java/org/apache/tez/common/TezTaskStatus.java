@@ -85,6 +85,12 @@ public interface TezTaskStatus extends Writable {
 
   public abstract void setCounters(TezCounters counters);
 
+  /**
+   * Whether {@link #getCounters()} only holds the counters which changed since
+   * the last status update, rather than all the counters of the task.
+   */
+  public abstract boolean isCountersDelta();
+
   public abstract List<TezTaskAttemptID> getFailedDependencies();
 
   public abstract void addFailedDependency(TezTaskAttemptID taskAttempttId);
@@ -93,6 +99,9 @@ public interface TezTaskStatus extends Writable {
 
   public abstract void statusUpdate(float f, String string, TezCounters counters);
 
+  public abstract void statusUpdate(float f, String string, TezCounters counters,
+      boolean countersDelta);
+
   public abstract long getLocalOutputSize();
 
   public abstract void setOutputSize(long l);
@@ -110,14 +110,20 @@ public abstract class AbstractCounterGroup<T extends TezCounter>
     return findCounterImpl(Limits.filterCounterName(counterName), create);
   }
 
-  // Lock the object. Cannot simply use concurrent constructs on the counters
-  // data-structure (like putIfAbsent) because of localization, limits etc.
-  private synchronized T findCounterImpl(String counterName, boolean create) {
+  // Lock the object to add counters. Cannot simply use concurrent constructs
+  // on the counters data-structure (like putIfAbsent) because of
+  // localization, limits etc. Existing counters are looked up without it.
+  private T findCounterImpl(String counterName, boolean create) {
     T counter = counters.get(counterName);
     if (counter == null && create) {
-      String localized =
-          ResourceBundles.getCounterName(getName(), counterName, counterName);
-      return addCounterImpl(counterName, localized, 0);
+      synchronized (this) {
+        counter = counters.get(counterName);
+        if (counter == null) {
+          String localized = ResourceBundles.getCounterName(getName(),
+              counterName, counterName);
+          counter = addCounterImpl(counterName, localized, 0);
+        }
+      }
     }
     return counter;
   }
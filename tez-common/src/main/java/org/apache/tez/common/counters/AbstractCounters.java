@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.apache.commons.logging.Log;
@@ -59,7 +60,7 @@ public abstract class AbstractCounters<C extends TezCounter,
   /**
    * A cache from enum values to the associated counter.
    */
-  private Map<Enum<?>, C> cache = Maps.newIdentityHashMap();
+  private final ConcurrentMap<Enum<?>, C> cache = Maps.newConcurrentMap();
   //framework & fs groups
   private Map<String, G> fgroups = new ConcurrentSkipListMap<String, G>();
   // other groups
@@ -155,11 +156,15 @@ public abstract class AbstractCounters<C extends TezCounter,
    * @param key the counter key
    * @return the matching counter object
    */
-  public synchronized C findCounter(Enum<?> key) {
+  public C findCounter(Enum<?> key) {
+    // Not synchronized, this is called for every record on hot paths
     C counter = cache.get(key);
     if (counter == null) {
       counter = findCounter(key.getDeclaringClass().getName(), key.name());
-      cache.put(key, counter);
+      C previous = cache.putIfAbsent(key, counter);
+      if (previous != null) {
+        counter = previous;
+      }
     }
     return counter;
   }
@@ -343,6 +348,20 @@ public abstract class AbstractCounters<C extends TezCounter,
     }
   }
 
+  /**
+   * Set the value of each of the counters in other on the matching counter,
+   * creating it if necessary. Counters missing from other are left as is.
+   * @param other the counters holding the values to set
+   */
+  public synchronized void setAllCounters(AbstractCounters<C, G> other) {
+    for (G right : other) {
+      G left = getGroup(right.getName());
+      for (C counter : right) {
+        left.findCounter(counter.getName()).setValue(counter.getValue());
+      }
+    }
+  }
+
   @Override
   @SuppressWarnings("unchecked")
   public boolean equals(Object genericRight) {
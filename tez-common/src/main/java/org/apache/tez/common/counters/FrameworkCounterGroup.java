@@ -25,6 +25,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -47,7 +48,8 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
   private static final Log LOG = LogFactory.getLog(FrameworkCounterGroup.class);
   
   private final Class<T> enumClass; // for Enum.valueOf
-  private final Object[] counters;  // local casts are OK and save a class ref
+  // Counters are looked up and created concurrently, without locking
+  private final AtomicReferenceArray<C> counters;
   private String displayName = null;
 
   /**
@@ -58,7 +60,7 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
   public static class FrameworkCounter<T extends Enum<T>> extends AbstractCounter {
     final T key;
     final String groupName;
-    private long value;
+    private final StripedLong value = new StripedLong();
 
     public FrameworkCounter(T ref, String groupName) {
       key = ref;
@@ -77,17 +79,17 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
 
     @Override
     public long getValue() {
-      return value;
+      return value.get();
     }
 
     @Override
     public void setValue(long value) {
-      this.value = value;
+      this.value.set(value);
     }
 
     @Override
     public void increment(long incr) {
-      value += incr;
+      value.add(incr);
     }
 
     @Override
@@ -106,11 +108,10 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
     }
   }
 
-  @SuppressWarnings("unchecked")
   public FrameworkCounterGroup(Class<T> enumClass) {
     this.enumClass = enumClass;
     T[] enums = enumClass.getEnumConstants();
-    counters = new Object[enums.length];
+    counters = new AtomicReferenceArray<C>(enums.length);
   }
 
   @Override
@@ -169,13 +170,16 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
     return findCounter(valueOf(counterName));
   }
 
-  @SuppressWarnings("unchecked")
   private C findCounter(T key) {
     int i = key.ordinal();
-    if (counters[i] == null) {
-      counters[i] = newCounter(key);
+    C counter = counters.get(i);
+    if (counter == null) {
+      // Only one of the threads racing to create the counter wins, and all of
+      // them use its counter
+      counters.compareAndSet(i, null, newCounter(key));
+      counter = counters.get(i);
     }
-    return (C) counters[i];
+    return counter;
   }
 
   /**
@@ -188,8 +192,8 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
   @Override
   public int size() {
     int n = 0;
-    for (int i = 0; i < counters.length; ++i) {
-      if (counters[i] != null) ++n;
+    for (int i = 0; i < counters.length(); ++i) {
+      if (counters.get(i) != null) ++n;
     }
     return n;
   }
@@ -210,11 +214,10 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
    * FrameworkGroup ::= #counter (key value)*
    */
   @Override
-  @SuppressWarnings("unchecked")
   public void write(DataOutput out) throws IOException {
     WritableUtils.writeVInt(out, size());
-    for (int i = 0; i < counters.length; ++i) {
-      TezCounter counter = (C) counters[i];
+    for (int i = 0; i < counters.length(); ++i) {
+      TezCounter counter = counters.get(i);
       if (counter != null) {
         WritableUtils.writeVInt(out, i);
         WritableUtils.writeVLong(out, counter.getValue());
@@ -229,15 +232,15 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
     T[] enums = enumClass.getEnumConstants();
     for (int i = 0; i < len; ++i) {
       int ord = WritableUtils.readVInt(in);
-      TezCounter counter = newCounter(enums[ord]);
+      C counter = newCounter(enums[ord]);
       counter.setValue(WritableUtils.readVLong(in));
-      counters[ord] = counter;
+      counters.set(ord, counter);
     }
   }
 
   private void clear() {
-    for (int i = 0; i < counters.length; ++i) {
-      counters[i] = null;
+    for (int i = 0; i < counters.length(); ++i) {
+      counters.set(i, null);
     }
   }
 
@@ -247,9 +250,8 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
       int i = 0;
       @Override
       protected C computeNext() {
-        while (i < counters.length) {
-          @SuppressWarnings("unchecked")
-          C counter = (C) counters[i++];
+        while (i < counters.length()) {
+          C counter = counters.get(i++);
           if (counter != null) return counter;
         }
         return endOfData();
@@ -270,6 +272,10 @@ public abstract class FrameworkCounterGroup<T extends Enum<T>,
   @Override
   public synchronized int hashCode() {
     // need to be deep as counters is an array
-    return Arrays.deepHashCode(new Object[]{enumClass, counters, displayName});
+    Object[] values = new Object[counters.length()];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = counters.get(i);
+    }
+    return Arrays.deepHashCode(new Object[]{enumClass, values, displayName});
   }
 }
@@ -34,7 +34,7 @@ public class GenericCounter extends AbstractCounter {
 
   private String name;
   private String displayName;
-  private long value = 0;
+  private final StripedLong value = new StripedLong();
 
   public GenericCounter() {
     // mostly for readFields
@@ -48,7 +48,7 @@ public class GenericCounter extends AbstractCounter {
   public GenericCounter(String name, String displayName, long value) {
     this.name = name;
     this.displayName = displayName;
-    this.value = value;
+    this.value.set(value);
   }
 
   @Override @Deprecated
@@ -60,7 +60,7 @@ public class GenericCounter extends AbstractCounter {
   public synchronized void readFields(DataInput in) throws IOException {
     name = Text.readString(in);
     displayName = in.readBoolean() ? Text.readString(in) : name;
-    value = WritableUtils.readVLong(in);
+    value.set(WritableUtils.readVLong(in));
   }
 
   /**
@@ -74,7 +74,7 @@ public class GenericCounter extends AbstractCounter {
     if (distinctDisplayName) {
       Text.writeString(out, displayName);
     }
-    WritableUtils.writeVLong(out, value);
+    WritableUtils.writeVLong(out, value.get());
   }
 
   @Override
@@ -87,19 +87,21 @@ public class GenericCounter extends AbstractCounter {
     return displayName;
   }
 
+  // The value is not guarded by the lock, counters are updated per record.
+
   @Override
-  public synchronized long getValue() {
-    return value;
+  public long getValue() {
+    return value.get();
   }
 
   @Override
-  public synchronized void setValue(long value) {
-    this.value = value;
+  public void setValue(long value) {
+    this.value.set(value);
   }
 
   @Override
-  public synchronized void increment(long incr) {
-    value += incr;
+  public void increment(long incr) {
+    value.add(incr);
   }
 
   @Override
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.common.counters;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A long which many threads can add to without locking and with little
+ * contention, backing the values of counters.
+ *
+ * Additions go to a single base value as long as there is no contention. Once
+ * two threads collide, each thread adds to a cell picked by its thread id, and
+ * the value is the sum of the base and the cells. Cells are padded so that
+ * they don't share cache lines, and are only allocated for contended longs.
+ */
+@InterfaceAudience.Private
+class StripedLong {
+
+  private static final int NUM_CELLS;
+  static {
+    int n = 1;
+    int processors = Runtime.getRuntime().availableProcessors();
+    while (n < processors && n < 64) {
+      n <<= 1;
+    }
+    NUM_CELLS = n;
+  }
+
+  // longs per cell, so that each cell is on a cache-line of its own
+  private static final int CELL_STRIDE = 8;
+
+  private static final AtomicLongFieldUpdater<StripedLong> BASE_UPDATER =
+      AtomicLongFieldUpdater.newUpdater(StripedLong.class, "base");
+
+  private volatile long base;
+  private volatile AtomicLongArray cells;
+
+  StripedLong() {
+  }
+
+  StripedLong(long value) {
+    this.base = value;
+  }
+
+  void add(long x) {
+    AtomicLongArray cs = cells;
+    if (cs == null) {
+      long b = base;
+      if (BASE_UPDATER.compareAndSet(this, b, b + x)) {
+        return;
+      }
+      cs = createCells();
+    }
+    cs.getAndAdd(cellIndex(), x);
+  }
+
+  long get() {
+    long sum = base;
+    AtomicLongArray cs = cells;
+    if (cs != null) {
+      for (int i = 0; i < cs.length(); i += CELL_STRIDE) {
+        sum += cs.get(i);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Set the value. Additions made concurrently may be lost.
+   */
+  void set(long value) {
+    AtomicLongArray cs = cells;
+    if (cs != null) {
+      for (int i = 0; i < cs.length(); i += CELL_STRIDE) {
+        cs.set(i, 0);
+      }
+    }
+    base = value;
+  }
+
+  private synchronized AtomicLongArray createCells() {
+    if (cells == null) {
+      cells = new AtomicLongArray(NUM_CELLS * CELL_STRIDE);
+    }
+    return cells;
+  }
+
+  private static int cellIndex() {
+    long id = Thread.currentThread().getId();
+    // Thread ids are sequential, spread them over the cells
+    int h = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    h ^= h >>> 16;
+    return (h & (NUM_CELLS - 1)) * CELL_STRIDE;
+  }
+}
@@ -51,5 +51,11 @@ public enum TaskCounter {
   CPU_MILLISECONDS,
   PHYSICAL_MEMORY_BYTES,
   VIRTUAL_MEMORY_BYTES,
-  COMMITTED_HEAP_BYTES
+  COMMITTED_HEAP_BYTES,
+  SHUFFLE_BYTES_TO_MEM,
+  SHUFFLE_BYTES_TO_DISK,
+  SHUFFLE_MILLIS,
+  SHUFFLE_BYTES_PER_SEC,
+  SHUFFLE_MERGE_STALL_MILLIS,
+  SHUFFLE_RESERVE_WAIT_MILLIS
 }
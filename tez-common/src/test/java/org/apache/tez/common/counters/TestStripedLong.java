@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.common.counters;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestStripedLong {
+
+  private static final int NUM_THREADS = 8;
+  private static final int ADDS_PER_THREAD = 100 * 1000;
+
+  @Test
+  public void testAddAndSet() {
+    StripedLong value = new StripedLong(5);
+    assertEquals(5, value.get());
+    value.add(3);
+    value.add(-10);
+    assertEquals(-2, value.get());
+    value.set(42);
+    assertEquals(42, value.get());
+    assertEquals(0, new StripedLong().get());
+  }
+
+  @Test
+  public void testConcurrentAdds() throws Exception {
+    final StripedLong value = new StripedLong();
+    TestTezCounters.runConcurrently(NUM_THREADS, new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < ADDS_PER_THREAD; ++i) {
+          value.add(1);
+        }
+      }
+    });
+    assertEquals((long) NUM_THREADS * ADDS_PER_THREAD, value.get());
+
+    // Setting the value clears the cells of the contended additions
+    value.set(7);
+    assertEquals(7, value.get());
+    value.add(1);
+    assertEquals(8, value.get());
+  }
+}
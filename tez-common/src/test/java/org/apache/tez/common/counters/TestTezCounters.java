@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.common.counters;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+public class TestTezCounters {
+
+  private static final int NUM_THREADS = 8;
+  private static final int ROUNDS = 200;
+  private static final int INCREMENTS_PER_THREAD = 100;
+
+  @Test
+  public void testConcurrentFrameworkCounterCreation() throws Exception {
+    // Every round races the threads on the first lookup of the counters
+    for (int round = 0; round < ROUNDS; ++round) {
+      final TezCounters counters = new TezCounters();
+      runConcurrently(NUM_THREADS, new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < INCREMENTS_PER_THREAD; ++i) {
+            counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).increment(1);
+            counters.findCounter(TaskCounter.class.getName(),
+                TaskCounter.MAP_OUTPUT_RECORDS.name()).increment(1);
+          }
+        }
+      });
+      long expected = NUM_THREADS * INCREMENTS_PER_THREAD;
+      assertEquals(expected,
+          counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue());
+      assertEquals(expected,
+          counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue());
+      assertSame(counters.findCounter(TaskCounter.MAP_INPUT_RECORDS),
+          counters.findCounter(TaskCounter.class.getName(),
+              TaskCounter.MAP_INPUT_RECORDS.name()));
+    }
+  }
+
+  @Test
+  public void testConcurrentGenericCounterCreation() throws Exception {
+    for (int round = 0; round < ROUNDS; ++round) {
+      final TezCounters counters = new TezCounters();
+      runConcurrently(NUM_THREADS, new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < INCREMENTS_PER_THREAD; ++i) {
+            counters.findCounter("group", "counter").increment(1);
+          }
+        }
+      });
+      assertEquals(NUM_THREADS * INCREMENTS_PER_THREAD,
+          counters.findCounter("group", "counter").getValue());
+      assertEquals(1, counters.getGroup("group").size());
+    }
+  }
+
+  @Test
+  public void testWriteAndReadFields() throws Exception {
+    TezCounters counters = new TezCounters();
+    counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).increment(3);
+    counters.findCounter(TaskCounter.SPILLED_RECORDS).increment(5);
+    counters.findCounter("group", "counter").increment(7);
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    counters.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    TezCounters read = new TezCounters();
+    read.readFields(in);
+
+    assertEquals(counters, read);
+    assertEquals(3,
+        read.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue());
+    assertEquals(5, read.findCounter(TaskCounter.SPILLED_RECORDS).getValue());
+    assertEquals(2, read.getGroup(TaskCounter.class.getName()).size());
+    assertEquals(7, read.findCounter("group", "counter").getValue());
+  }
+
+  /**
+   * Run <code>task</code> on <code>numThreads</code> threads started
+   * together, and rethrow the first failure of any of them.
+   */
+  static void runConcurrently(int numThreads, final Runnable task)
+      throws Exception {
+    final CyclicBarrier barrier = new CyclicBarrier(numThreads);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; ++i) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            barrier.await();
+            task.run();
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+  }
+}
@@ -26,14 +26,20 @@ import org.apache.hadoop.io.BytesWritable;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.serializer.Deserializer;
+import org.apache.hadoop.io.serializer.SerializationFactory;
 import org.apache.hadoop.util.Progressable;
-import org.apache.tez.api.Input;
+import org.apache.tez.api.BatchInput;
 import org.apache.tez.api.Master;
+import org.apache.tez.api.RecordBatch;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.TezTaskReporter;
+import org.apache.tez.common.counters.TaskCounter;
 import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.engine.common.ConfigUtils;
 import org.apache.tez.engine.common.sort.impl.TezRawKeyValueIterator;
 
 @SuppressWarnings({ "unchecked", "rawtypes" })
-public class CombineInput implements Input {
+public class CombineInput implements BatchInput {
 
   private final TezRawKeyValueIterator input;
   private TezCounter inputValueCounter;
@@ -47,9 +53,13 @@ public class CombineInput implements Input {
   protected Progressable reporter;
   private Deserializer keyDeserializer;
   private Deserializer valueDeserializer;
+  private Class<?> keyClass;
+  private Class<?> valueClass;
   private DataInputBuffer buffer = new DataInputBuffer();
   private BytesWritable currentRawKey = new BytesWritable();
   private ValueIterable iterable = new ValueIterable();
+  private boolean reuseObjects;
+  private boolean started = false;
   
   public CombineInput(TezRawKeyValueIterator kvIter) {
     this.input = kvIter;
@@ -57,9 +67,31 @@ public class CombineInput implements Input {
 
   public void initialize(Configuration conf, Master master) throws IOException,
       InterruptedException {
+    reuseObjects = 
+        conf.getBoolean(
+            TezJobConfig.TEZ_ENGINE_INPUT_OBJECT_REUSE, 
+            TezJobConfig.DEFAULT_TEZ_ENGINE_INPUT_OBJECT_REUSE);
+    comparator = ConfigUtils.getOutputKeyComparator(conf);
+    SerializationFactory serializationFactory = new SerializationFactory(conf);
+    keyClass = ConfigUtils.getMapOutputKeyClass(conf);
+    valueClass = ConfigUtils.getMapOutputValueClass(conf);
+    keyDeserializer = serializationFactory.getDeserializer(keyClass);
+    keyDeserializer.open(buffer);
+    valueDeserializer = serializationFactory.getDeserializer(valueClass);
+    valueDeserializer.open(buffer);
+    if (master instanceof TezTaskReporter) {
+      reporter = (TezTaskReporter)master;
+      inputValueCounter = 
+          ((TezTaskReporter)master).getCounter(
+              TaskCounter.COMBINE_INPUT_RECORDS);
+    }
   }
 
   public boolean hasNext() throws IOException, InterruptedException {
+    if (!started) {
+      hasMore = input.next();
+      started = true;
+    }
     while (hasMore && nextKeyIsSame) {
       nextKeyValue();
     }
@@ -81,10 +113,13 @@ public class CombineInput implements Input {
     }
     firstValue = !nextKeyIsSame;
     DataInputBuffer nextKey = input.getKey();
-    currentRawKey.set(nextKey.getData(), nextKey.getPosition(), 
-                      nextKey.getLength() - nextKey.getPosition());
-    buffer.reset(currentRawKey.getBytes(), 0, currentRawKey.getLength());
-    key = keyDeserializer.deserialize(key);
+    // with object reuse, the key is only deserialized once per group
+    if (firstValue || !reuseObjects) {
+      currentRawKey.set(nextKey.getData(), nextKey.getPosition(), 
+                        nextKey.getLength() - nextKey.getPosition());
+      buffer.reset(currentRawKey.getBytes(), 0, currentRawKey.getLength());
+      key = keyDeserializer.deserialize(key);
+    }
     DataInputBuffer nextVal = input.getValue();
     buffer.reset(nextVal.getData(), nextVal.getPosition(), nextVal.getLength());
     value = valueDeserializer.deserialize(value);
@@ -101,7 +136,9 @@ public class CombineInput implements Input {
     } else {
       nextKeyIsSame = false;
     }
-    inputValueCounter.increment(1);
+    if (inputValueCounter != null) {
+      inputValueCounter.increment(1);
+    }
     return true;
   }
 
@@ -114,6 +151,19 @@ public class CombineInput implements Input {
     return iterable;
   }
 
+  public boolean nextBatch(RecordBatch batch)
+      throws IOException, InterruptedException {
+    batch.clear();
+    batch.setClasses(keyClass, valueClass);
+    while (!batch.isFull() && input.next()) {
+      batch.append(input.getKey(), input.getValue());
+    }
+    if (inputValueCounter != null) {
+      inputValueCounter.increment(batch.size());
+    }
+    return !batch.isEmpty();
+  }
+
   public float getProgress() throws IOException, InterruptedException {
     return input.getProgress().getProgress();
   }
@@ -20,14 +20,18 @@ package org.apache.tez.engine.common.combine;
 import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.tez.api.BatchOutput;
 import org.apache.tez.api.Master;
-import org.apache.tez.api.Output;
+import org.apache.tez.api.RecordBatch;
 import org.apache.tez.engine.common.sort.impl.IFile.Writer;
 import org.apache.tez.records.OutputContext;
 
-public class CombineOutput implements Output {
+public class CombineOutput implements BatchOutput {
 
   private final Writer writer;
+  private final DataInputBuffer batchKey = new DataInputBuffer();
+  private final DataInputBuffer batchValue = new DataInputBuffer();
   
   public CombineOutput(Writer writer) {
     this.writer = writer;
@@ -44,6 +48,15 @@ public class CombineOutput implements Output {
     writer.append(key, value);
   }
 
+  public void write(RecordBatch batch) throws IOException,
+      InterruptedException {
+    for (int i = 0; i < batch.size(); ++i) {
+      batch.getKey(i, batchKey);
+      batch.getValue(i, batchValue);
+      writer.append(batchKey, batchValue);
+    }
+  }
+
   @Override
   public OutputContext getOutputContext() {
     return null;
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.engine.common.shuffle.impl;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.records.TezTaskAttemptID;
+
+/**
+ * Node-local cache of broadcast map-outputs.
+ *
+ * The first task on a node to fetch a broadcast map-output stores it, exactly
+ * as it was received i.e. {@link ShuffleHeader} followed by the (compressed)
+ * IFile segment, in the application's local directories. These are shared by
+ * all containers of the application on the node, so every other consuming
+ * task on the node reads the cached copy instead of fetching it again over
+ * HTTP.
+ *
+ * Only the fetch is shared. Each consuming task still copies the output into
+ * its own {@link MergeManager}, in memory or on disk, as for any other
+ * map-output.
+ *
+ * Cached outputs are cleaned up along with the application's local
+ * directories.
+ */
+class BroadcastCache {
+
+  private static final Log LOG = LogFactory.getLog(BroadcastCache.class);
+
+  private static final String BROADCAST_DIR = "broadcast";
+  private static final int BYTES_TO_COPY = 64 * 1024;
+
+  private final Configuration conf;
+  private final FileSystem localFs;
+  private final LocalDirAllocator localDirAllocator;
+
+  BroadcastCache(Configuration conf) throws IOException {
+    this.conf = conf;
+    this.localFs = FileSystem.getLocal(conf).getRaw();
+    this.localDirAllocator = new LocalDirAllocator(TezJobConfig.LOCAL_DIR);
+  }
+
+  private static String getRelativePath(TezTaskAttemptID mapId) {
+    return BROADCAST_DIR + Path.SEPARATOR + mapId.toString() + ".out";
+  }
+
+  /**
+   * Get the cached copy of the output of <code>mapId</code>.
+   * @return the path of the cached copy, <code>null</code> if there is none
+   */
+  Path lookup(TezTaskAttemptID mapId) throws IOException {
+    String relativePath = getRelativePath(mapId);
+    if (!localDirAllocator.ifExists(relativePath, conf)) {
+      return null;
+    }
+    return localDirAllocator.getLocalPathToRead(relativePath, conf);
+  }
+
+  DataInputStream open(Path cached) throws IOException {
+    return new DataInputStream(localFs.open(cached));
+  }
+
+  /**
+   * Store a map-output being read off the wire. <code>input</code> must be
+   * positioned right after <code>header</code>.
+   * @return the path of the cached copy
+   */
+  Path store(TezTaskAttemptID mapId, ShuffleHeader header, InputStream input)
+      throws IOException {
+    String relativePath = getRelativePath(mapId);
+    Path path = localDirAllocator.getLocalPathForWrite(relativePath,
+        header.getCompressedLength(), conf);
+    Path tmpPath = path.suffix("." + Thread.currentThread().getId() + "." +
+        System.nanoTime());
+
+    FSDataOutputStream out = localFs.create(tmpPath);
+    try {
+      header.write(out);
+      long bytesLeft = header.getCompressedLength();
+      byte[] buf = new byte[(int)Math.min(bytesLeft + 1, BYTES_TO_COPY)];
+      while (bytesLeft > 0) {
+        int n = input.read(buf, 0, (int)Math.min(bytesLeft, buf.length));
+        if (n < 0) {
+          throw new IOException("read past end of stream reading " + mapId);
+        }
+        out.write(buf, 0, n);
+        bytesLeft -= n;
+      }
+      out.close();
+      out = null;
+    } catch (IOException ioe) {
+      IOUtils.cleanup(LOG, out);
+      localFs.delete(tmpPath, false);
+      throw ioe;
+    }
+
+    // Another task on the node may have cached the same output meanwhile,
+    // either copy is as good as the other
+    if (!localFs.rename(tmpPath, path)) {
+      localFs.delete(tmpPath, false);
+      if (!localFs.exists(path)) {
+        throw new IOException("Failed to cache output of " + mapId +
+            " at " + path);
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Cached output of " + mapId + " at " + path);
+    }
+    return path;
+  }
+
+  /**
+   * Drop a cached copy which turned out to be unusable.
+   */
+  void evict(TezTaskAttemptID mapId, Path cached) {
+    try {
+      localFs.delete(cached, false);
+    } catch (IOException ioe) {
+      LOG.info("Failed to evict cached output of " + mapId, ioe);
+    }
+  }
+}
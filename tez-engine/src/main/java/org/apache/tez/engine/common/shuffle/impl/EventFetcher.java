@@ -41,6 +41,7 @@ class EventFetcher extends Thread {
   private ExceptionReporter exceptionReporter = null;
   
   private int maxMapRuntime = 0;
+  private final boolean broadcast;
 
   private volatile boolean stopped = false;
   
@@ -48,7 +49,8 @@ class EventFetcher extends Thread {
                       Master umbilical,
                       ShuffleScheduler scheduler,
                       ExceptionReporter reporter,
-                      int maxEventsToFetch) {
+                      int maxEventsToFetch,
+                      boolean broadcast) {
     setName("EventFetcher for fetching Map Completion Events");
     setDaemon(true);    
     this.reduce = reduce;
@@ -56,6 +58,7 @@ class EventFetcher extends Thread {
     this.scheduler = scheduler;
     exceptionReporter = reporter;
     this.maxEventsToFetch = maxEventsToFetch;
+    this.broadcast = broadcast;
   }
 
   @Override
@@ -188,7 +191,8 @@ class EventFetcher extends Thread {
     baseUrl.append("mapOutput?job=");
     baseUrl.append(reduce.getJobID());
     baseUrl.append("&reduce=");
-    baseUrl.append(reduce.getTaskID().getId());
+    // All consumers of broadcast outputs read the same, single partition
+    baseUrl.append(broadcast ? 0 : reduce.getTaskID().getId());
     baseUrl.append("&map=");
     URI u = URI.create(baseUrl.toString());
     return u;
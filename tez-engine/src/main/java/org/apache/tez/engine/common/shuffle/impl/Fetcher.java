@@ -26,6 +26,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -37,6 +38,7 @@ import javax.net.ssl.HttpsURLConnection;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.compress.CodecPool;
 import org.apache.hadoop.io.compress.CompressionCodec;
@@ -63,6 +65,9 @@ class Fetcher extends Thread {
   
   /** Basic/unit connection timeout (in milliseconds) */
   private final static int UNIT_CONNECT_TIMEOUT = 60 * 1000;
+
+  /** Size of the chunks map-outputs are copied in */
+  private final static int BYTES_TO_READ = 64 * 1024;
   
   private final Progressable reporter;
   private static enum ShuffleErrors{IO_ERROR, WRONG_LENGTH, BAD_ID, WRONG_MAP,
@@ -91,8 +96,17 @@ class Fetcher extends Thread {
   private final Decompressor decompressor;
   private final SecretKey jobTokenSecret;
 
+  // Node-local cache of broadcast map-outputs, null unless broadcast
+  private final BroadcastCache broadcastCache;
+
   private volatile boolean stopped = false;
 
+  // Time at which reserving memory for a map-output first stalled
+  private long reserveStallStart = 0;
+
+  // Copy buffer for on-disk map-outputs, reused across map-outputs
+  private final byte[] copyBuffer = new byte[BYTES_TO_READ];
+
   private Configuration job;
 
   private static boolean sslShuffle;
@@ -101,7 +115,8 @@ class Fetcher extends Thread {
   public Fetcher(Configuration job, TezTaskAttemptID reduceId, 
       ShuffleScheduler scheduler, MergeManager merger,
       TezTaskReporter reporter, ShuffleClientMetrics metrics,
-      ExceptionReporter exceptionReporter, SecretKey jobTokenSecret) {
+      ExceptionReporter exceptionReporter, SecretKey jobTokenSecret,
+      BroadcastCache broadcastCache) {
     this.job = job;
     this.reporter = reporter;
     this.scheduler = scheduler;
@@ -109,7 +124,9 @@ class Fetcher extends Thread {
     this.metrics = metrics;
     this.exceptionReporter = exceptionReporter;
     this.id = ++nextId;
-    this.reduce = reduceId.getTaskID().getId();
+    this.broadcastCache = broadcastCache;
+    // All consumers of broadcast outputs read the same, single partition
+    this.reduce = (broadcastCache != null) ? 0 : reduceId.getTaskID().getId();
     this.jobTokenSecret = jobTokenSecret;
     ioErrs = reporter.getCounter(SHUFFLE_ERR_GRP_NAME,
         ShuffleErrors.IO_ERROR.toString());
@@ -164,7 +181,9 @@ class Fetcher extends Thread {
         MapHost host = null;
         try {
           // If merge is on, block
+          long mergeWaitStart = System.currentTimeMillis();
           merger.waitForInMemoryMerge();
+          metrics.mergeStalled(System.currentTimeMillis() - mergeWaitStart);
 
           // Get a host to shuffle from
           host = scheduler.getHost();
@@ -197,6 +216,10 @@ class Fetcher extends Thread {
     if (sslFactory != null) {
       sslFactory.destroy();
     }
+    // Hand the decompressor back so that later tasks in the container reuse it
+    if (decompressor != null && !isAlive()) {
+      CodecPool.returnDecompressor(decompressor);
+    }
   }
 
   @VisibleForTesting
@@ -239,6 +262,21 @@ class Fetcher extends Thread {
     // List of maps to be fetched yet
     Set<TezTaskAttemptID> remaining = new HashSet<TezTaskAttemptID>(maps);
     
+    // Broadcast map-outputs already fetched by another task on this node
+    // are read from the node-local cache
+    if (broadcastCache != null) {
+      if (!copyFromBroadcastCache(host, remaining)) {
+        for (TezTaskAttemptID left : remaining) {
+          scheduler.putBackKnownMapOutput(host, left);
+        }
+        return;
+      }
+      if (remaining.isEmpty()) {
+        return;
+      }
+      maps = new ArrayList<TezTaskAttemptID>(remaining);
+    }
+    
     // Construct the url and connect
     DataInputStream input;
     boolean connectSucceeded = false;
@@ -311,7 +349,11 @@ class Fetcher extends Thread {
       // yet_to_be_fetched list and marking the failed tasks.
       TezTaskAttemptID[] failedTasks = null;
       while (!remaining.isEmpty() && failedTasks == null) {
-        failedTasks = copyMapOutput(host, input, remaining);
+        if (broadcastCache != null) {
+          failedTasks = cacheAndCopyMapOutput(host, input, remaining);
+        } else {
+          failedTasks = copyMapOutput(host, input, remaining);
+        }
       }
       
       if(failedTasks != null && failedTasks.length > 0) {
@@ -381,9 +423,16 @@ class Fetcher extends Thread {
       // Check if we can shuffle *now* ...
       if (mapOutput.getType() == Type.WAIT) {
         LOG.info("fetcher#" + id + " - MergerManager returned Status.WAIT ...");
+        if (reserveStallStart == 0) {
+          reserveStallStart = startTime;
+        }
         //Not an error but wait to process data.
         return EMPTY_ATTEMPT_ID_ARRAY;
       } 
+      if (reserveStallStart != 0) {
+        metrics.reserveWaited(System.currentTimeMillis() - reserveStallStart);
+        reserveStallStart = 0;
+      }
       
       // Go!
       LOG.info("fetcher#" + id + " about to shuffle output of map " + 
@@ -404,6 +453,8 @@ class Fetcher extends Thread {
       // Note successful shuffle
       remaining.remove(mapId);
       metrics.successFetch();
+      metrics.fetchSucceeded(host.getHostName(), compressedLength,
+          endTime - startTime, mapOutput.getType() == Type.MEMORY);
       return null;
     } catch (IOException ioe) {
       ioErrs.increment(1);
@@ -429,6 +480,85 @@ class Fetcher extends Thread {
 
   }
   
+  /**
+   * Copy the map-outputs in <code>remaining</code> which are available in the
+   * node-local broadcast cache.
+   * @return false if the copy has to wait for the merge to free memory
+   */
+  private boolean copyFromBroadcastCache(MapHost host,
+      Set<TezTaskAttemptID> remaining) {
+    for (TezTaskAttemptID mapId : new ArrayList<TezTaskAttemptID>(remaining)) {
+      Path cached = null;
+      DataInputStream input = null;
+      try {
+        cached = broadcastCache.lookup(mapId);
+        if (cached == null) {
+          continue;
+        }
+        input = broadcastCache.open(cached);
+        TezTaskAttemptID[] failedTasks = 
+            copyMapOutput(host, input, remaining);
+        if (failedTasks != null) {
+          if (failedTasks.length == 0) {
+            return false;
+          }
+          // Fetch it from the source instead
+          LOG.warn("Dropping unusable cached output of " + mapId);
+          broadcastCache.evict(mapId, cached);
+        }
+      } catch (IOException ioe) {
+        LOG.warn("Failed to read cached output of " + mapId, ioe);
+      } finally {
+        IOUtils.cleanup(LOG, input);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Store the next broadcast map-output on the wire in the node-local cache,
+   * and copy it from there.
+   */
+  private TezTaskAttemptID[] cacheAndCopyMapOutput(MapHost host,
+      DataInputStream input, Set<TezTaskAttemptID> remaining) {
+    TezTaskAttemptID mapId = null;
+    Path cached = null;
+    try {
+      ShuffleHeader header = new ShuffleHeader();
+      header.readFields(input);
+      mapId = IDUtils.toTaskAttemptId(header.mapId);
+      if (!verifySanity(header.compressedLength, header.uncompressedLength,
+          header.forReduce, remaining, mapId)) {
+        return new TezTaskAttemptID[] {mapId};
+      }
+      cached = broadcastCache.store(mapId, header, input);
+    } catch (IllegalArgumentException e) {
+      badIdErrs.increment(1);
+      LOG.warn("Invalid map id ", e);
+      return remaining.toArray(new TezTaskAttemptID[remaining.size()]);
+    } catch (IOException ioe) {
+      ioErrs.increment(1);
+      LOG.warn("Failed to cache output of " + mapId + 
+               " from " + host.getHostName(), ioe);
+      if (mapId == null) {
+        return remaining.toArray(new TezTaskAttemptID[remaining.size()]);
+      }
+      return new TezTaskAttemptID[] {mapId};
+    }
+
+    DataInputStream cachedInput = null;
+    try {
+      cachedInput = broadcastCache.open(cached);
+      return copyMapOutput(host, cachedInput, remaining);
+    } catch (IOException ioe) {
+      ioErrs.increment(1);
+      LOG.warn("Failed to read cached output of " + mapId, ioe);
+      return new TezTaskAttemptID[] {mapId};
+    } finally {
+      IOUtils.cleanup(LOG, cachedInput);
+    }
+  }
+
   /**
    * Do some basic verification on the input received -- Being defensive
    * @param compressedLength
@@ -549,13 +679,23 @@ class Fetcher extends Thread {
       input = codec.createInputStream(input, decompressor);
     }
   
-    // Copy map-output into an in-memory buffer
+    // Copy map-output into an in-memory buffer, decompressing (and 
+    // checksumming) it chunk by chunk as it arrives off the wire
     byte[] shuffleData = mapOutput.getMemory();
     
     try {
-      IOUtils.readFully(input, shuffleData, 0, shuffleData.length);
-      metrics.inputBytes(shuffleData.length);
-      reporter.progress();
+      int offset = 0;
+      while (offset < shuffleData.length) {
+        int n = input.read(shuffleData, offset, 
+            Math.min(shuffleData.length - offset, BYTES_TO_READ));
+        if (n < 0) {
+          throw new IOException("read past end of stream reading " + 
+                                mapOutput.getMapId());
+        }
+        offset += n;
+        metrics.inputBytes(n);
+        reporter.progress();
+      }
       LOG.info("Read " + shuffleData.length + " bytes from map-output for " +
                mapOutput.getMapId());
     } catch (IOException ioe) {      
@@ -576,8 +716,9 @@ class Fetcher extends Thread {
     OutputStream output = mapOutput.getDisk();
     long bytesLeft = compressedLength;
     try {
-      final int BYTES_TO_READ = 64 * 1024;
-      byte[] buf = new byte[BYTES_TO_READ];
+      // Compressed map-outputs are kept as-is, they are decompressed exactly
+      // once while being merged
+      final byte[] buf = copyBuffer;
       while (bytesLeft > 0) {
         int n = input.read(buf, 0, (int) Math.min(bytesLeft, BYTES_TO_READ));
         if (n < 0) {
@@ -71,7 +71,7 @@ public class Shuffle implements ExceptionReporter {
     this.metrics = 
         new ShuffleClientMetrics(
             task.getTaskAttemptId(), this.conf, 
-            this.task.getUser(), this.task.getJobName());
+            this.task.getUser(), this.task.getJobName(), reporter);
     this.tasksInDegree = tasksInDegree;
     
     FileSystem localFS = FileSystem.getLocal(this.conf);
@@ -118,10 +118,17 @@ public class Shuffle implements ExceptionReporter {
         MAX_RPC_OUTSTANDING_EVENTS / tasksInDegree);
     int maxEventsToFetch = Math.min(MAX_EVENTS_TO_FETCH, eventsPerReducer);
 
+    final boolean broadcast = 
+        conf.getBoolean(
+            TezJobConfig.TEZ_ENGINE_SHUFFLE_BROADCAST,
+            TezJobConfig.DEFAULT_TEZ_ENGINE_SHUFFLE_BROADCAST);
+    final BroadcastCache broadcastCache = 
+        broadcast ? new BroadcastCache(conf) : null;
+
     // Start the map-completion events fetcher thread
     final EventFetcher eventFetcher = 
       new EventFetcher(task.getTaskAttemptId(), reporter, scheduler, this,
-          maxEventsToFetch);
+          maxEventsToFetch, broadcast);
     eventFetcher.start();
     
     // Start the map-output fetcher threads
@@ -134,7 +141,8 @@ public class Shuffle implements ExceptionReporter {
       fetchers[i] = new Fetcher(conf, task.getTaskAttemptId(), 
                                      scheduler, merger, 
                                      reporter, metrics, this, 
-                                     task.getJobTokenSecret());
+                                     task.getJobTokenSecret(),
+                                     broadcastCache);
       fetchers[i].start();
     }
     
@@ -161,6 +169,7 @@ public class Shuffle implements ExceptionReporter {
     
     // stop the scheduler
     scheduler.close();
+    metrics.shuffleFinished();
 
     copyPhase.complete(); // copy is already complete
     task.getStatus().setPhase(TezTaskStatus.Phase.SORT);
@@ -17,6 +17,15 @@
  */
 package org.apache.tez.engine.common.shuffle.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.metrics.MetricsContext;
 import org.apache.hadoop.metrics.MetricsRecord;
@@ -24,23 +33,78 @@ import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.tez.common.Constants;
 import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.TezTaskReporter;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.records.TezTaskAttemptID;
 
+/**
+ * Shuffle instrumentation of a single reducer. Besides the periodic metrics
+ * record, fetch latencies, throughput, the memory/disk split and the time
+ * spent stalled on merges and memory reservations are exported as task
+ * counters, which makes them available through the AM web services.
+ */
 class ShuffleClientMetrics implements Updater {
 
+  private static final Log LOG = LogFactory.getLog(ShuffleClientMetrics.class);
+
+  static final String FETCH_LATENCY_GROUP_NAME = "Shuffle Fetch Latency";
+  static final String SLOWEST_HOSTS_GROUP_NAME = "Shuffle Slowest Hosts (ms)";
+
+  // Upper bounds (exclusive) of the fetch latency histogram buckets
+  private static final long[] LATENCY_BUCKET_BOUNDS =
+      { 10, 100, 1000, 10000, Long.MAX_VALUE };
+  private static final String[] LATENCY_BUCKET_NAMES =
+      { "0-10ms", "10-100ms", "100ms-1s", "1-10s", "10s+" };
+
   private MetricsRecord shuffleMetrics = null;
   private int numFailedFetches = 0;
   private int numSuccessFetches = 0;
   private long numBytes = 0;
   private int numThreadsBusy = 0;
   private final int numCopiers;
-  
+
+  private final TezCounter bytesToMemCounter;
+  private final TezCounter bytesToDiskCounter;
+  private final TezCounter shuffleMillisCounter;
+  private final TezCounter bytesPerSecCounter;
+  private final TezCounter mergeStallMillisCounter;
+  private final TezCounter reserveWaitMillisCounter;
+  private final TezCounter[] latencyCounters;
+  private final TezTaskReporter reporter;
+  private final int numSlowestHosts;
+
+  private final Map<String, HostStats> hostStats =
+      new HashMap<String, HostStats>();
+  private final long startTime = System.currentTimeMillis();
+  private long totalFetchedBytes = 0;
+
   ShuffleClientMetrics(TezTaskAttemptID reduceId, Configuration jobConf, 
-      String user, String jobName) {
+      String user, String jobName, TezTaskReporter reporter) {
     this.numCopiers = 
         jobConf.getInt(
             TezJobConfig.TEZ_ENGINE_SHUFFLE_PARALLEL_COPIES, 
             TezJobConfig.DEFAULT_TEZ_ENGINE_SHUFFLE_PARALLEL_COPIES);
+    this.numSlowestHosts =
+        jobConf.getInt(
+            TezJobConfig.TEZ_ENGINE_SHUFFLE_METRICS_SLOWEST_HOSTS,
+            TezJobConfig.DEFAULT_TEZ_ENGINE_SHUFFLE_METRICS_SLOWEST_HOSTS);
+
+    this.reporter = reporter;
+    bytesToMemCounter = reporter.getCounter(TaskCounter.SHUFFLE_BYTES_TO_MEM);
+    bytesToDiskCounter = reporter.getCounter(TaskCounter.SHUFFLE_BYTES_TO_DISK);
+    shuffleMillisCounter = reporter.getCounter(TaskCounter.SHUFFLE_MILLIS);
+    bytesPerSecCounter =
+        reporter.getCounter(TaskCounter.SHUFFLE_BYTES_PER_SEC);
+    mergeStallMillisCounter =
+        reporter.getCounter(TaskCounter.SHUFFLE_MERGE_STALL_MILLIS);
+    reserveWaitMillisCounter =
+        reporter.getCounter(TaskCounter.SHUFFLE_RESERVE_WAIT_MILLIS);
+    latencyCounters = new TezCounter[LATENCY_BUCKET_NAMES.length];
+    for (int i = 0; i < LATENCY_BUCKET_NAMES.length; ++i) {
+      latencyCounters[i] = 
+          reporter.getCounter(FETCH_LATENCY_GROUP_NAME, LATENCY_BUCKET_NAMES[i]);
+    }
 
     MetricsContext metricsContext = MetricsUtil.getContext(Constants.TEZ);
     this.shuffleMetrics = 
@@ -70,6 +134,81 @@ class ShuffleClientMetrics implements Updater {
   public synchronized void threadFree() {
     --numThreadsBusy;
   }
+
+  /**
+   * Record a map-output successfully fetched from <code>host</code>.
+   */
+  public synchronized void fetchSucceeded(String host, long bytes, 
+      long millis, boolean toMemory) {
+    if (toMemory) {
+      bytesToMemCounter.increment(bytes);
+    } else {
+      bytesToDiskCounter.increment(bytes);
+    }
+    for (int i = 0; i < LATENCY_BUCKET_BOUNDS.length; ++i) {
+      if (millis < LATENCY_BUCKET_BOUNDS[i]) {
+        latencyCounters[i].increment(1);
+        break;
+      }
+    }
+
+    HostStats stats = hostStats.get(host);
+    if (stats == null) {
+      stats = new HostStats(host);
+      hostStats.put(host, stats);
+    }
+    stats.fetches++;
+    stats.bytes += bytes;
+    stats.millis += millis;
+    stats.maxMillis = Math.max(stats.maxMillis, millis);
+
+    totalFetchedBytes += bytes;
+    long elapsed = System.currentTimeMillis() - startTime;
+    shuffleMillisCounter.setValue(elapsed);
+    bytesPerSecCounter.setValue(totalFetchedBytes * 1000 / (elapsed + 1));
+  }
+
+  /**
+   * Record time a fetcher was blocked waiting for the in-memory merge.
+   */
+  public void mergeStalled(long millis) {
+    mergeStallMillisCounter.increment(millis);
+  }
+
+  /**
+   * Record time a fetcher waited to reserve memory for a map-output.
+   */
+  public void reserveWaited(long millis) {
+    reserveWaitMillisCounter.increment(millis);
+  }
+
+  /**
+   * Publish the slowest hosts, by average fetch latency, once the copy phase
+   * is complete.
+   */
+  public synchronized void shuffleFinished() {
+    shuffleMillisCounter.setValue(System.currentTimeMillis() - startTime);
+
+    List<HostStats> hosts = new ArrayList<HostStats>(hostStats.values());
+    Collections.sort(hosts, new Comparator<HostStats>() {
+      @Override
+      public int compare(HostStats h1, HostStats h2) {
+        long l1 = h1.getAverageMillis();
+        long l2 = h2.getAverageMillis();
+        return l1 > l2 ? -1 : (l1 < l2 ? 1 : 0);
+      }
+    });
+    for (int i = 0; i < hosts.size(); ++i) {
+      HostStats stats = hosts.get(i);
+      if (i < numSlowestHosts) {
+        reporter.getCounter(SLOWEST_HOSTS_GROUP_NAME, stats.host)
+            .setValue(stats.getAverageMillis());
+      }
+      if (LOG.isDebugEnabled() || i < numSlowestHosts) {
+        LOG.info("Shuffle from " + stats);
+      }
+    }
+  }
   public void doUpdates(MetricsContext unused) {
     synchronized (this) {
       shuffleMetrics.incrMetric("shuffle_input_bytes", numBytes);
@@ -89,4 +228,27 @@ class ShuffleClientMetrics implements Updater {
     }
     shuffleMetrics.update();
   }
+
+  private static class HostStats {
+    final String host;
+    int fetches = 0;
+    long bytes = 0;
+    long millis = 0;
+    long maxMillis = 0;
+
+    HostStats(String host) {
+      this.host = host;
+    }
+
+    long getAverageMillis() {
+      return fetches == 0 ? 0 : millis / fetches;
+    }
+
+    @Override
+    public String toString() {
+      return host + ": fetches=" + fetches + " bytes=" + bytes +
+          " avgMillis=" + getAverageMillis() + " maxMillis=" + maxMillis +
+          " bytesPerSec=" + (bytes * 1000 / (millis + 1));
+    }
+  }
 }
@@ -35,7 +35,11 @@ import java.net.InetSocketAddress;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -70,6 +74,7 @@ import org.apache.tez.engine.common.security.SecureShuffleUtils;
 import org.apache.tez.engine.common.shuffle.impl.ShuffleHeader;
 import org.apache.tez.engine.common.sort.impl.ExternalSorter;
 import org.apache.tez.records.TezJobID;
+import org.apache.tez.records.TezTaskAttemptID;
 import org.jboss.netty.bootstrap.ServerBootstrap;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
@@ -136,7 +141,21 @@ public class ShuffleHandler extends AbstractService
 
   public static final int DEFAULT_SUFFLE_SSL_FILE_BUFFER_SIZE = 60 * 1024;
 
-  private ExternalSorter sorter;
+  // Index of the outputs currently served, keyed by task attempt id
+  private final Map<String, ExternalSorter> outputs =
+      new ConcurrentHashMap<String, ExternalSorter>();
+
+  // Sizes of the outputs held in memory, oldest first, and their total
+  private final LinkedHashMap<String, Long> inMemoryOutputs =
+      new LinkedHashMap<String, Long>();
+  private long inMemoryBytes = 0;
+  private long maxInMemoryBytes;
+
+  // The servers shared by the tasks running in this JVM, one per job and
+  // job token
+  private static final Map<SharedInstanceKey, ShuffleHandler> sharedInstances =
+      new HashMap<SharedInstanceKey, ShuffleHandler>();
+  private static int numSharedInstances = 0;
   
   @Metrics(about="Shuffle output metrics", context="mapred")
   static class ShuffleMetrics implements ChannelFutureListener {
@@ -161,15 +180,170 @@ public class ShuffleHandler extends AbstractService
   }
 
   final ShuffleMetrics metrics;
+  private final MetricsSystem metricsSystem;
+  private final String metricsName;
 
   ShuffleHandler(MetricsSystem ms) {
+    this(ms, null);
+  }
+
+  private ShuffleHandler(MetricsSystem ms, String metricsName) {
     super("httpshuffle");
-    metrics = ms.register(new ShuffleMetrics());
+    metricsSystem = ms;
+    this.metricsName = metricsName;
+    if (metricsName == null) {
+      metrics = ms.register(new ShuffleMetrics());
+    } else {
+      metrics = ms.register(metricsName, null, new ShuffleMetrics());
+    }
   }
 
-  public ShuffleHandler(ExternalSorter sorter) {
+  public ShuffleHandler() {
     this(DefaultMetricsSystem.instance());
-    this.sorter = sorter;
+  }
+
+  /**
+   * Get the shuffle server shared by the tasks of the job of the given task
+   * which run in this JVM, starting it on first use. Tasks of other jobs, or
+   * with another job token, get a server of their own, which verifies
+   * requests with their job token. Outputs are served once registered via
+   * {@link #registerOutput(ExternalSorter)}.
+   */
+  public static synchronized ShuffleHandler getSharedInstance(
+      Configuration conf, TezTask task) {
+    SharedInstanceKey key = new SharedInstanceKey(
+        task.getTaskAttemptId().getJobID(), task.getJobTokenSecret());
+    ShuffleHandler shuffleHandler = sharedInstances.get(key);
+    if (shuffleHandler == null) {
+      shuffleHandler = new ShuffleHandler(DefaultMetricsSystem.instance(),
+          "ShuffleMetrics-" + key.jobId + "-" + (++numSharedInstances));
+      shuffleHandler.init(conf, task);
+      shuffleHandler.start();
+      sharedInstances.put(key, shuffleHandler);
+    }
+    return shuffleHandler;
+  }
+
+  /**
+   * Stop serving the output of a failed or killed task attempt from the
+   * shuffle servers shared by the tasks running in this JVM, irrespective of
+   * whether it has been fetched.
+   */
+  public static synchronized void unregisterSharedOutput(
+      TezTaskAttemptID taskAttemptId) {
+    for (ShuffleHandler shuffleHandler : sharedInstances.values()) {
+      shuffleHandler.unregisterOutput(taskAttemptId);
+    }
+  }
+
+  /**
+   * Stop the shuffle servers shared by the tasks running in this JVM,
+   * releasing all the outputs they serve.
+   */
+  public static synchronized void stopSharedInstances() {
+    for (ShuffleHandler shuffleHandler : sharedInstances.values()) {
+      shuffleHandler.stop();
+    }
+    sharedInstances.clear();
+  }
+
+  private static class SharedInstanceKey {
+
+    final TezJobID jobId;
+    final byte[] jobTokenSecret;
+
+    SharedInstanceKey(TezJobID jobId, SecretKey jobTokenSecret) {
+      this.jobId = jobId;
+      this.jobTokenSecret =
+          jobTokenSecret == null ? null : jobTokenSecret.getEncoded();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof SharedInstanceKey)) {
+        return false;
+      }
+      SharedInstanceKey other = (SharedInstanceKey) obj;
+      return jobId.equals(other.jobId)
+          && Arrays.equals(jobTokenSecret, other.jobTokenSecret);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * jobId.hashCode() + Arrays.hashCode(jobTokenSecret);
+    }
+  }
+
+  public void registerOutput(ExternalSorter sorter) {
+    outputs.put(sorter.getTaskAttemptId().toString(), sorter);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Registered output of " + sorter.getTaskAttemptId() +
+          ", serving " + outputs.size() + " outputs");
+    }
+  }
+
+  /**
+   * Account for a registered output which is served from memory. If the
+   * outputs held in memory then exceed the limit, the oldest ones are written
+   * to disk.
+   */
+  public void addInMemoryOutput(ExternalSorter sorter, long bytes) {
+    List<String> toSpill = new ArrayList<String>();
+    synchronized (inMemoryOutputs) {
+      inMemoryOutputs.put(sorter.getTaskAttemptId().toString(), bytes);
+      inMemoryBytes += bytes;
+      Iterator<Map.Entry<String, Long>> it =
+          inMemoryOutputs.entrySet().iterator();
+      while (inMemoryBytes > maxInMemoryBytes && it.hasNext()) {
+        Map.Entry<String, Long> output = it.next();
+        it.remove();
+        inMemoryBytes -= output.getValue();
+        toSpill.add(output.getKey());
+      }
+    }
+    // Write to disk without holding the lock
+    for (String taskAttemptId : toSpill) {
+      ExternalSorter spilled = outputs.get(taskAttemptId);
+      if (spilled == null) {
+        continue;
+      }
+      try {
+        long freed = spilled.spillOutputToDisk();
+        LOG.info("Moved " + freed + " bytes of output of " + taskAttemptId +
+            " from memory to disk");
+      } catch (IOException e) {
+        // Consumers report the output as lost, and it is regenerated
+        LOG.warn("Failed to move output of " + taskAttemptId +
+            " to disk, no longer serving it", e);
+        unregisterOutput(spilled.getTaskAttemptId());
+      }
+    }
+  }
+
+  /**
+   * Stop serving the output of the given task attempt and release it.
+   */
+  public void unregisterOutput(TezTaskAttemptID taskAttemptId) {
+    ExternalSorter sorter = outputs.remove(taskAttemptId.toString());
+    if (sorter != null) {
+      sorter.release();
+    }
+    synchronized (inMemoryOutputs) {
+      Long bytes = inMemoryOutputs.remove(taskAttemptId.toString());
+      if (bytes != null) {
+        inMemoryBytes -= bytes;
+      }
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Unregistered output of " + taskAttemptId +
+          ", serving " + outputs.size() + " outputs");
+    }
+  }
+
+  private void unregisterAllOutputs() {
+    for (ExternalSorter sorter : outputs.values()) {
+      unregisterOutput(sorter.getTaskAttemptId());
+    }
   }
 
   /**
@@ -242,6 +416,12 @@ public class ShuffleHandler extends AbstractService
     TezJobID jobId = new TezJobID(Long.toString(appId.getClusterTimestamp()), appId.getId());
     secretManager.removeTokenForJob(jobId.toString());
     userRsrc.remove(jobId.toString());
+    for (ExternalSorter sorter : outputs.values()) {
+      TezTaskAttemptID taskAttemptId = sorter.getTaskAttemptId();
+      if (jobId.equals(taskAttemptId.getJobID())) {
+        unregisterOutput(taskAttemptId);
+      }
+    }
   }
 
   public synchronized void init(Configuration conf, TezTask task) {
@@ -253,14 +433,23 @@ public class ShuffleHandler extends AbstractService
   public synchronized void init(Configuration conf) {
     ThreadFactory bossFactory = new ThreadFactoryBuilder()
       .setNameFormat("ShuffleHandler Netty Boss #%d")
+      .setDaemon(true)
       .build();
     ThreadFactory workerFactory = new ThreadFactoryBuilder()
       .setNameFormat("ShuffleHandler Netty Worker #%d")
+      .setDaemon(true)
       .build();
     
+    int workerThreads = conf.getInt(
+        TezJobConfig.TEZ_ENGINE_SHUFFLE_SERVER_WORKER_THREADS,
+        TezJobConfig.DEFAULT_TEZ_ENGINE_SHUFFLE_SERVER_WORKER_THREADS);
+    maxInMemoryBytes = conf.getLong(
+        TezJobConfig.TEZ_ENGINE_SHUFFLE_SERVER_MEMORY_LIMIT_BYTES,
+        TezJobConfig.DEFAULT_TEZ_ENGINE_SHUFFLE_SERVER_MEMORY_LIMIT_BYTES);
     selector = new NioServerSocketChannelFactory(
         Executors.newCachedThreadPool(bossFactory),
-        Executors.newCachedThreadPool(workerFactory));    
+        Executors.newCachedThreadPool(workerFactory),
+        workerThreads);
     super.init(new Configuration(conf));
   }
 
@@ -290,10 +479,14 @@ public class ShuffleHandler extends AbstractService
 
   @Override
   public synchronized void stop() {
+    unregisterAllOutputs();
     accepted.close().awaitUninterruptibly(10, TimeUnit.SECONDS);
     ServerBootstrap bootstrap = new ServerBootstrap(selector);
     bootstrap.releaseExternalResources();
     pipelineFact.destroy();
+    if (metricsName != null) {
+      metricsSystem.unregisterSource(metricsName);
+    }
     super.stop();
   }
 
@@ -436,17 +629,19 @@ public class ShuffleHandler extends AbstractService
       for (String mapId : mapIds) {
         try {
           // TODO: Error handling - validate mapId via TezTaskAttemptId.forName
-          if (!mapId.equals(sorter.getTaskAttemptId().toString())) {
+          ExternalSorter sorter = outputs.get(mapId);
+          if (sorter == null) {
             String errorMessage =
                 "Illegal shuffle request mapId: " + mapId
-                    + " while actual mapId is " + sorter.getTaskAttemptId(); 
+                    + " isn't served by this shuffle handler";
             LOG.warn(errorMessage);
-            sendError(ctx, errorMessage, BAD_REQUEST);
+            sendError(ctx, errorMessage, NOT_FOUND);
             return;
           }
 
           lastMap =
-            sendMapOutput(ctx, ch, userRsrc.get(jobId), jobId, mapId, reduceId);
+            sendMapOutput(ctx, ch, sorter, userRsrc.get(jobId), jobId, mapId,
+                reduceId);
           if (null == lastMap) {
             sendError(ctx, NOT_FOUND);
             return;
@@ -496,9 +691,12 @@ public class ShuffleHandler extends AbstractService
     }
 
     protected ChannelFuture sendMapOutput(ChannelHandlerContext ctx, Channel ch,
-        String user, String jobId, String mapId, int reduce)
+        ExternalSorter sorter, String user, String jobId, String mapId, int reduce)
         throws IOException {
       final ShuffleHeader header = sorter.getShuffleHeader(reduce);
+      if (header == null) {
+        return null;
+      }
       final DataOutputBuffer dob = new DataOutputBuffer();
       header.write(dob);
       ch.write(wrappedBuffer(dob.getData(), 0, dob.getLength()));
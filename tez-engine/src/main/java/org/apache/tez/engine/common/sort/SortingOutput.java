@@ -17,6 +17,7 @@
  */
 package org.apache.tez.engine.common.sort;
 
+import org.apache.tez.api.BatchOutput;
 import org.apache.tez.api.Output;
 import org.apache.tez.common.TezTask;
 
@@ -24,7 +25,7 @@ import org.apache.tez.common.TezTask;
  * {@link SortingOutput} is an {@link Output} which sorts incoming key/value
  * pairs.
  */
-public interface SortingOutput extends Output {
+public interface SortingOutput extends BatchOutput {
   
   public void setTask(TezTask task);
   
@@ -30,9 +30,11 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.io.serializer.Deserializer;
 import org.apache.hadoop.io.serializer.SerializationFactory;
 import org.apache.hadoop.io.serializer.Serializer;
 import org.apache.hadoop.util.IndexedSorter;
@@ -42,6 +44,7 @@ import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.tez.api.Master;
 import org.apache.tez.api.Partitioner;
 import org.apache.tez.api.Processor;
+import org.apache.tez.api.RecordBatch;
 import org.apache.tez.common.Constants;
 import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.TezTask;
@@ -69,6 +72,58 @@ public abstract class ExternalSorter {
   public abstract void write(Object key, Object value) throws IOException,
       InterruptedException;
 
+  /**
+   * Write a batch of records serialized as the map output key and value
+   * classes. Sorters which can collect serialized records as they are should
+   * override this; by default every record is deserialized and written.
+   */
+  public void write(RecordBatch batch) throws IOException,
+      InterruptedException {
+    checkBatchClasses(batch);
+    for (int i = 0; i < batch.size(); ++i) {
+      deserializeBatchRecord(batch, i);
+      write(batchKey, batchVal);
+    }
+  }
+
+  /**
+   * Check that the records of <code>batch</code> are serialized as the map
+   * output key and value classes, as {@link #write(Object, Object)} does for
+   * each record.
+   */
+  protected void checkBatchClasses(RecordBatch batch) throws IOException {
+    if (batch.getKeyClass() != keyClass) {
+      throw new IOException("Type mismatch in key from map: expected "
+          + keyClass.getName() + ", received "
+          + (batch.getKeyClass() == null ? null
+              : batch.getKeyClass().getName()));
+    }
+    if (batch.getValueClass() != valClass) {
+      throw new IOException("Type mismatch in value from map: expected "
+          + valClass.getName() + ", received "
+          + (batch.getValueClass() == null ? null
+              : batch.getValueClass().getName()));
+    }
+  }
+
+  /**
+   * Deserialize record <code>i</code> of <code>batch</code> into
+   * {@link #batchKey} and {@link #batchVal}, which are reused across records.
+   */
+  protected void deserializeBatchRecord(RecordBatch batch, int i)
+      throws IOException {
+    if (batchKeyDeserializer == null) {
+      batchKeyDeserializer = serializationFactory.getDeserializer(keyClass);
+      batchKeyDeserializer.open(batchKeyIn);
+      batchValDeserializer = serializationFactory.getDeserializer(valClass);
+      batchValDeserializer.open(batchValIn);
+    }
+    batch.getKey(i, batchKeyIn);
+    batchKey = batchKeyDeserializer.deserialize(batchKey);
+    batch.getValue(i, batchValIn);
+    batchVal = batchValDeserializer.deserialize(batchVal);
+  }
+
   protected Processor combineProcessor;
   protected Partitioner partitioner;
   protected TezTask task;
@@ -76,12 +131,21 @@ public abstract class ExternalSorter {
   protected FileSystem rfs;
   protected TezTaskOutput mapOutputFile;
   protected int partitions;
+  protected boolean broadcast;
   protected Class keyClass;
   protected Class valClass;
   protected RawComparator comparator;
   protected SerializationFactory serializationFactory;
   protected Serializer keySerializer;
   protected Serializer valSerializer;
+
+  // Deserialization of records written in batches
+  protected Deserializer batchKeyDeserializer;
+  protected Deserializer batchValDeserializer;
+  protected final DataInputBuffer batchKeyIn = new DataInputBuffer();
+  protected final DataInputBuffer batchValIn = new DataInputBuffer();
+  protected Object batchKey;
+  protected Object batchVal;
   
   protected IndexedSorter sorter;
 
@@ -102,7 +166,12 @@ public abstract class ExternalSorter {
     LOG.info("TEZ_ENGINE_TASK_ATTEMPT_ID: " + 
         job.get(Constants.TEZ_ENGINE_TASK_ATTEMPT_ID));
 
-    partitions = 
+    broadcast =
+        job.getBoolean(
+            TezJobConfig.TEZ_ENGINE_SHUFFLE_BROADCAST,
+            TezJobConfig.DEFAULT_TEZ_ENGINE_SHUFFLE_BROADCAST);
+    // All consumers of a broadcast output read the same, single partition
+    partitions = broadcast ? 1 :
         job.getInt(
             TezJobConfig.TEZ_ENGINE_TASK_OUTDEGREE, 
             TezJobConfig.DEFAULT_TEZ_ENGINE_TASK_OUTDEGREE);
@@ -169,6 +238,10 @@ public abstract class ExternalSorter {
     this.partitioner = task.getPartitioner();
   }
 
+  protected int getPartition(Object key, Object value) {
+    return broadcast ? 0 : partitioner.getPartition(key, value, partitions);
+  }
+
   public TezTaskAttemptID getTaskAttemptId() {
     return task.getTaskAttemptId();
   }
@@ -220,7 +293,7 @@ public abstract class ExternalSorter {
     super();
   }
 
-  public InputStream getSortedStream(int partition) {
+  public InputStream getSortedStream(int partition) throws IOException {
     throw new UnsupportedOperationException("getSortedStream isn't supported!");
   }
 
@@ -228,6 +301,22 @@ public abstract class ExternalSorter {
     throw new UnsupportedOperationException("getShuffleHeader isn't supported!");
   }
 
+  /**
+   * Release the resources held to serve the output, once the shuffle server
+   * no longer serves it.
+   */
+  public void release() {
+  }
+
+  /**
+   * Write the output to disk if it is held in memory, and serve it from disk
+   * from then on.
+   * @return the number of bytes of memory freed
+   */
+  public long spillOutputToDisk() throws IOException {
+    return 0;
+  }
+
   public OutputContext getOutputContext() {
     return null;
   }
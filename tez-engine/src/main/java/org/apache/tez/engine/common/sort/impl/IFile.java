@@ -115,6 +115,19 @@ public class IFile {
         Class keyClass, Class valueClass,
         CompressionCodec codec, TezCounter writesCounter)
         throws IOException {
+      this(conf, out, keyClass, valueClass, codec, writesCounter,
+          keyClass != null ? new SerializationFactory(conf) : null);
+    }
+
+    /**
+     * Create a writer which gets its serializers from the given factory, so
+     * that a sorter writing many segments need not build a factory for each.
+     */
+    public Writer(Configuration conf, FSDataOutputStream out, 
+        Class keyClass, Class valueClass,
+        CompressionCodec codec, TezCounter writesCounter,
+        SerializationFactory serializationFactory)
+        throws IOException {
       this.writtenRecordsCounter = writesCounter;
       this.checksumOut = new IFileOutputStream(out);
       this.rawOut = out;
@@ -138,8 +151,6 @@ public class IFile {
       this.valueClass = valueClass;
 
       if (keyClass != null) {
-        SerializationFactory serializationFactory = 
-          new SerializationFactory(conf);
         this.keySerializer = serializationFactory.getSerializer(keyClass);
         this.keySerializer.open(buffer);
         this.valueSerializer = serializationFactory.getSerializer(valueClass);
@@ -44,6 +44,7 @@ import org.apache.hadoop.util.IndexedSortable;
 import org.apache.hadoop.util.IndexedSorter;
 import org.apache.hadoop.util.Progress;
 import org.apache.tez.api.Master;
+import org.apache.tez.api.RecordBatch;
 import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.TezTask;
 import org.apache.tez.engine.common.ConfigUtils;
@@ -201,7 +202,7 @@ public class PipelinedSorter extends ExternalSorter implements SortingOutput {
   public void write(Object key, Object value) 
       throws IOException, InterruptedException {
     collect(
-        key, value, partitioner.getPartition(key, value, partitions));
+        key, value, getPartition(key, value));
   }
 
   /**
@@ -246,13 +247,64 @@ public class PipelinedSorter extends ExternalSorter implements SortingOutput {
       return;
     }
 
-    int prefix = 0;
+    putMetadata(partition, hasher != null ? hasher.getHashCode(key) : 0,
+        keystart, valstart, valend);
+    task.getTaskReporter().progress();
+  }
+
+  /**
+   * Collect a batch of serialized records, copying them into the current span
+   * as they are. Records are only deserialized if they have to be partitioned
+   * or hashed.
+   */
+  @Override
+  public synchronized void write(RecordBatch batch)
+      throws IOException, InterruptedException {
+    checkBatchClasses(batch);
+    final boolean deserialize = partitions > 1 || hasher != null;
+    for (int i = 0; i < batch.size(); ++i) {
+      int partition = 0;
+      int hash = 0;
+      if (deserialize) {
+        deserializeBatchRecord(batch, i);
+        partition = getPartition(batchKey, batchVal);
+        if (partition < 0 || partition >= partitions) {
+          throw new IOException("Illegal partition for " + batchKey + " (" +
+              partition + ")");
+        }
+        if (hasher != null) {
+          hash = hasher.getHashCode(batchKey);
+        }
+      }
+      collectRaw(batch, i, partition, hash);
+    }
+    task.getTaskReporter().progress();
+  }
 
-    if(hasher != null) {
-      prefix = hasher.getHashCode(key);
+  private void collectRaw(RecordBatch batch, int i, int partition, int hash)
+      throws IOException {
+    if(span.kvmeta.remaining() < METASIZE) {
+      this.sort();
+    }
+    final int keylen = batch.getValueStart(i) - batch.getKeyStart(i);
+    final int reclen = batch.getRecordEnd(i) - batch.getKeyStart(i);
+    int keystart = span.kvbuffer.position();
+    try {
+      span.kvbuffer.put(batch.getData(), batch.getKeyStart(i), reclen);
+    } catch(BufferOverflowException overflow) {
+      // nothing was written
+      this.sort();
+      // try again
+      this.collectRaw(batch, i, partition, hash);
+      return;
     }
+    putMetadata(partition, hash, keystart, keystart + keylen,
+        keystart + reclen);
+  }
 
-    prefix = (partition << (32 - partitionBits)) | (prefix >>> partitionBits);
+  private void putMetadata(int partition, int hash, int keystart,
+      int valstart, int valend) {
+    int prefix = (partition << (32 - partitionBits)) | (hash >>> partitionBits);
 
     /* maintain order as in PARTITION, KEYSTART, VALSTART, VALLEN */
     span.kvmeta.put(prefix);
@@ -267,7 +319,6 @@ public class PipelinedSorter extends ExternalSorter implements SortingOutput {
     }
     mapOutputRecordCounter.increment(1);
     mapOutputByteCounter.increment(valend - keystart);
-    task.getTaskReporter().progress();
   }
 
   public void spill() throws IOException { 
@@ -288,7 +339,7 @@ public class PipelinedSorter extends ExternalSorter implements SortingOutput {
         long segmentStart = out.getPos();
         Writer writer =
           new Writer(job, out, keyClass, valClass, codec,
-              spilledRecordsCounter);
+              spilledRecordsCounter, serializationFactory);
         writer.setRLE(merger.needsRLE());
         if (combineProcessor == null) {
           while(kvIter.next()) {
@@ -399,7 +450,7 @@ public class PipelinedSorter extends ExternalSorter implements SortingOutput {
       long segmentStart = finalOut.getPos();
       Writer writer =
           new Writer(job, finalOut, keyClass, valClass, codec,
-                           spilledRecordsCounter);
+                           spilledRecordsCounter, serializationFactory);
       writer.setRLE(merger.needsRLE());
       if (combineProcessor == null || numSpills < minSpillsForCombine) {
         TezMerger.writeFile(kvIter, writer, task.getTaskReporter(), job);
@@ -40,6 +40,7 @@ import org.apache.hadoop.util.IndexedSortable;
 import org.apache.hadoop.util.Progress;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.tez.api.Master;
+import org.apache.tez.api.RecordBatch;
 import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.TezTask;
 import org.apache.tez.engine.common.ConfigUtils;
@@ -199,7 +200,7 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
   public void write(Object key, Object value) 
       throws IOException, InterruptedException {
     collect(
-        key, value, partitioner.getPartition(key, value, partitions));
+        key, value, getPartition(key, value));
   }
 
   /**
@@ -225,6 +226,86 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
           partition + ")");
     }
     checkSpillException();
+    reserveMetadata();
+
+    try {
+      // serialize key bytes into buffer
+      int keystart = bufindex;
+      keySerializer.serialize(key);
+      if (bufindex < keystart) {
+        // wrapped the key; must make contiguous
+        bb.shiftBufferedKey();
+        keystart = 0;
+      }
+      // serialize value bytes into buffer
+      final int valstart = bufindex;
+      valSerializer.serialize(value);
+      finishRecord(keystart, valstart, partition);
+    } catch (MapBufferTooSmallException e) {
+      LOG.info("Record too large for in-memory buffer: " + e.getMessage());
+      spillSingleRecord(key, value, partition);
+      mapOutputRecordCounter.increment(1);
+      return;
+    }
+  }
+
+  /**
+   * Collect a batch of serialized records, copying them into the buffer as
+   * they are. Records are only deserialized to be partitioned, and not at all
+   * if there is a single partition.
+   */
+  @Override
+  public synchronized void write(RecordBatch batch)
+      throws IOException, InterruptedException {
+    task.getTaskReporter().progress();
+    checkBatchClasses(batch);
+    final byte[] data = batch.getData();
+    for (int i = 0; i < batch.size(); ++i) {
+      boolean deserialized = false;
+      int partition = 0;
+      if (partitions > 1) {
+        deserializeBatchRecord(batch, i);
+        deserialized = true;
+        partition = getPartition(batchKey, batchVal);
+        if (partition < 0 || partition >= partitions) {
+          throw new IOException("Illegal partition for " + batchKey + " (" +
+              partition + ")");
+        }
+      }
+      checkSpillException();
+      reserveMetadata();
+
+      try {
+        // copy key bytes into buffer
+        int keystart = bufindex;
+        bb.write(data, batch.getKeyStart(i),
+            batch.getValueStart(i) - batch.getKeyStart(i));
+        if (bufindex < keystart) {
+          // wrapped the key; must make contiguous
+          bb.shiftBufferedKey();
+          keystart = 0;
+        }
+        // copy value bytes into buffer
+        final int valstart = bufindex;
+        bb.write(data, batch.getValueStart(i),
+            batch.getRecordEnd(i) - batch.getValueStart(i));
+        finishRecord(keystart, valstart, partition);
+      } catch (MapBufferTooSmallException e) {
+        LOG.info("Record too large for in-memory buffer: " + e.getMessage());
+        if (!deserialized) {
+          deserializeBatchRecord(batch, i);
+        }
+        spillSingleRecord(batchKey, batchVal, partition);
+        mapOutputRecordCounter.increment(1);
+      }
+    }
+  }
+
+  /**
+   * Account for the metadata of the next record, starting a spill if the soft
+   * limit has been reached.
+   */
+  private void reserveMetadata() throws IOException {
     bufferRemaining -= METASIZE;
     if (bufferRemaining <= 0) {
       // start spill if the thread is not running and the soft limit has been
@@ -284,48 +365,37 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
         spillLock.unlock();
       }
     }
+  }
 
-    try {
-      // serialize key bytes into buffer
-      int keystart = bufindex;
-      keySerializer.serialize(key);
-      if (bufindex < keystart) {
-        // wrapped the key; must make contiguous
-        bb.shiftBufferedKey();
-        keystart = 0;
-      }
-      // serialize value bytes into buffer
-      final int valstart = bufindex;
-      valSerializer.serialize(value);
-      // It's possible for records to have zero length, i.e. the serializer
-      // will perform no writes. To ensure that the boundary conditions are
-      // checked and that the kvindex invariant is maintained, perform a
-      // zero-length write into the buffer. The logic monitoring this could be
-      // moved into collect, but this is cleaner and inexpensive. For now, it
-      // is acceptable.
-      bb.write(b0, 0, 0);
-
-      // the record must be marked after the preceding write, as the metadata
-      // for this record are not yet written
-      int valend = bb.markRecord();
-
-      mapOutputRecordCounter.increment(1);
-      mapOutputByteCounter.increment(
-          distanceTo(keystart, valend, bufvoid));
-
-      // write accounting info
-      kvmeta.put(kvindex + INDEX, kvindex);
-      kvmeta.put(kvindex + PARTITION, partition);
-      kvmeta.put(kvindex + KEYSTART, keystart);
-      kvmeta.put(kvindex + VALSTART, valstart);
-      // advance kvindex
-      kvindex = (kvindex - NMETA + kvmeta.capacity()) % kvmeta.capacity();
-    } catch (MapBufferTooSmallException e) {
-      LOG.info("Record too large for in-memory buffer: " + e.getMessage());
-      spillSingleRecord(key, value, partition);
-      mapOutputRecordCounter.increment(1);
-      return;
-    }
+  /**
+   * Finish collecting a record whose key and value have been written to the
+   * buffer at <code>keystart</code> and <code>valstart</code>.
+   */
+  private void finishRecord(int keystart, int valstart, int partition)
+      throws IOException {
+    // It's possible for records to have zero length, i.e. the serializer
+    // will perform no writes. To ensure that the boundary conditions are
+    // checked and that the kvindex invariant is maintained, perform a
+    // zero-length write into the buffer. The logic monitoring this could be
+    // moved into collect, but this is cleaner and inexpensive. For now, it
+    // is acceptable.
+    bb.write(b0, 0, 0);
+
+    // the record must be marked after the preceding write, as the metadata
+    // for this record are not yet written
+    int valend = bb.markRecord();
+
+    mapOutputRecordCounter.increment(1);
+    mapOutputByteCounter.increment(
+        distanceTo(keystart, valend, bufvoid));
+
+    // write accounting info
+    kvmeta.put(kvindex + INDEX, kvindex);
+    kvmeta.put(kvindex + PARTITION, partition);
+    kvmeta.put(kvindex + KEYSTART, keystart);
+    kvmeta.put(kvindex + VALSTART, valstart);
+    // advance kvindex
+    kvindex = (kvindex - NMETA + kvmeta.capacity()) % kvmeta.capacity();
   }
 
   /**
@@ -652,6 +722,14 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
     // release sort buffer before the merge
     //FIXME
     //kvbuffer = null;
+    finalizeOutput();
+  }
+
+  /**
+   * Produce the final output once all records have been sorted and spilled.
+   * By default this merges the spills into a single output file.
+   */
+  protected void finalizeOutput() throws IOException, InterruptedException {
     mergeParts();
     Path outputPath = mapOutputFile.getOutputFile();
     fileOutputByteCounter.increment(rfs.getFileStatus(outputPath).getLen());
@@ -769,7 +847,7 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
         try {
           long segmentStart = out.getPos();
           writer = new Writer(job, out, keyClass, valClass, codec,
-                                    spilledRecordsCounter);
+                                    spilledRecordsCounter, serializationFactory);
           if (combineProcessor == null) {
             // spill directly
             DataInputBuffer key = new DataInputBuffer();
@@ -859,7 +937,8 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
           long segmentStart = out.getPos();
           // Create a new codec, don't care!
           writer = new IFile.Writer(job, out, keyClass, valClass, codec,
-                                          spilledRecordsCounter);
+                                          spilledRecordsCounter,
+                                          serializationFactory);
 
           if (i == partition) {
             final long recordStart = out.getPos();
@@ -1038,7 +1117,8 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
         for (int i = 0; i < partitions; i++) {
           long segmentStart = finalOut.getPos();
           Writer writer =
-            new Writer(job, finalOut, keyClass, valClass, codec, null);
+            new Writer(job, finalOut, keyClass, valClass, codec, null,
+                serializationFactory);
           writer.close();
           
           TezIndexRecord rec = 
@@ -1099,7 +1179,7 @@ public class DefaultSorter extends ExternalSorter implements IndexedSortable {
         long segmentStart = finalOut.getPos();
         Writer writer =
             new Writer(job, finalOut, keyClass, valClass, codec,
-                             spilledRecordsCounter);
+                             spilledRecordsCounter, serializationFactory);
         if (combineProcessor == null || numSpills < minSpillsForCombine) {
           TezMerger.writeFile(kvIter, writer, task.getTaskReporter(), job);
           writer.close();
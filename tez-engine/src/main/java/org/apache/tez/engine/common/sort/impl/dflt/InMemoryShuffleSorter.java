@@ -18,43 +18,69 @@
 
 package org.apache.tez.engine.common.sort.impl.dflt;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.io.WritableUtils;
-import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.tez.api.Master;
+import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.TezTask;
 import org.apache.tez.engine.common.shuffle.impl.ShuffleHeader;
 import org.apache.tez.engine.common.shuffle.server.ShuffleHandler;
-import org.apache.tez.engine.common.sort.impl.IFile;
+import org.apache.tez.engine.common.sort.impl.IFile.Writer;
+import org.apache.tez.engine.common.sort.impl.TezIndexRecord;
+import org.apache.tez.engine.common.sort.impl.TezRawKeyValueIterator;
+import org.apache.tez.engine.common.sort.impl.TezSpillRecord;
 import org.apache.tez.records.OutputContext;
 
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 
+/**
+ * {@link InMemoryShuffleSorter} is a {@link DefaultSorter} which keeps the
+ * final sorted output in memory and serves it to consumers through the
+ * {@link ShuffleHandler} shared by all tasks running in the container.
+ *
+ * The output is materialized as regular, checksummed (and possibly
+ * compressed) IFile segments laid out exactly like a spill file. If the
+ * output does not fit into the sort buffer, i.e. a spill is triggered before
+ * the output is flushed, the sorter falls back to the on-disk path and serves
+ * the final merged output file instead.
+ *
+ * The output is served for as long as it may be fetched: by retried and
+ * speculative consumers, and by every consumer of a broadcast output. Its
+ * buffers are only released when the shuffle server stops serving it, i.e.
+ * when it is unregistered or the shuffle server is stopped. The shuffle
+ * server caps the memory held by the outputs of all the tasks run in the
+ * container, see
+ * {@link TezJobConfig#TEZ_ENGINE_SHUFFLE_SERVER_MEMORY_LIMIT_BYTES}, by
+ * moving the oldest outputs to disk.
+ */
+@SuppressWarnings({"unchecked", "rawtypes"})
 public class InMemoryShuffleSorter extends DefaultSorter {
 
   private static final Log LOG = LogFactory.getLog(InMemoryShuffleSorter.class);
-  
-  static final int IFILE_EOF_LENGTH = 
-      2 * WritableUtils.getVIntSize(IFile.EOF_MARKER);
-  static final int IFILE_CHECKSUM_LENGTH = DataChecksum.Type.CRC32.size;
-  
-  private List<Integer> spillIndices = new ArrayList<Integer>();
-  private List<ShuffleHeader> shuffleHeaders = new ArrayList<ShuffleHeader>();
-
-  ShuffleHandler shuffleHandler = new ShuffleHandler(this);
-  
-  byte[] kvbuffer;
-  IntBuffer kvmeta;
-  
+
+  ShuffleHandler shuffleHandler;
+
+  // the final output, either in outputBuffer or in outputFile
+  private byte[] outputBuffer;
+  private long outputLength;
+  private Path outputFile;
+  private TezSpillRecord outputIndex;
+  private ShuffleHeader[] shuffleHeaders;
+
+  private boolean released = false;
+
   @Inject
   public InMemoryShuffleSorter(
       @Assisted TezTask task
@@ -66,79 +92,255 @@ public class InMemoryShuffleSorter extends DefaultSorter {
   public void initialize(Configuration conf, Master master) throws IOException,
       InterruptedException {
     super.initialize(conf, master);
-    shuffleHandler.init(conf, task);
+
+    // Get hold of the shuffle server right away so that the port is available
+    // to the OutputContext irrespective of when the output is flushed
+    shuffleHandler = ShuffleHandler.getSharedInstance(conf, task);
+    shuffleHandler.registerOutput(this);
   }
 
   @Override
-  protected void spill(int mstart, int mend) 
+  protected void spill(int mstart, int mend)
       throws IOException, InterruptedException {
-    // Start the shuffleHandler
-    shuffleHandler.start();
+    // Only the final spill from flush(), which runs under spillLock, may be
+    // kept in memory. Spills from the SpillThread run without the lock and
+    // always go to disk, as does everything after the first spill.
+    if (!spillLock.isHeldByCurrentThread() || numSpills > 0) {
+      // The output doesn't fit in the sort buffer, fall back to disk
+      if (numSpills == 0) {
+        LOG.info("Output of " + task.getTaskAttemptId() +
+            " doesn't fit in memory, falling back to on-disk spills");
+      }
+      super.spill(mstart, mend);
+      return;
+    }
+    keepInMemory(mstart, mend);
+  }
 
-    // Don't spill!
-    
-    // Make a copy
-    this.kvbuffer = super.kvbuffer;
-    this.kvmeta = super.kvmeta;
+  private void keepInMemory(int mstart, int mend)
+      throws IOException, InterruptedException {
+    final int size = bufend >= bufstart
+        ? bufend - bufstart
+        : (bufvoid - bufstart) + bufend;
+    final DataOutputBuffer buffer = new DataOutputBuffer(size);
+    final FSDataOutputStream out = new FSDataOutputStream(buffer, null);
+    final TezSpillRecord spillRec = new TezSpillRecord(partitions);
 
-    // Just save spill-indices for serving later
     int spindex = mstart;
+    final DataInputBuffer key = new DataInputBuffer();
+    final InMemValBytes value = createInMemValBytes();
     for (int i = 0; i < partitions; ++i) {
-      spillIndices.add(spindex);
-      
-      int length = 0;
-      while (spindex < mend &&
-          kvmeta.get(offsetFor(spindex) + PARTITION) == i) {
-
-        final int kvoff = offsetFor(spindex);
-        int keyLen = 
-            kvmeta.get(kvoff + VALSTART) - kvmeta.get(kvoff + KEYSTART);
-        int valLen = getInMemVBytesLength(kvoff);
-        length += 
-            (keyLen + WritableUtils.getVIntSize(keyLen)) + 
-            (valLen + WritableUtils.getVIntSize(valLen));
-
-        ++spindex;
+      long segmentStart = out.getPos();
+      // Nothing is spilled, hence no spilled-records counter
+      Writer writer =
+          new Writer(job, out, keyClass, valClass, codec, null,
+              serializationFactory);
+      if (combineProcessor == null) {
+        while (spindex < mend &&
+            kvmeta.get(offsetFor(spindex) + PARTITION) == i) {
+          final int kvoff = offsetFor(spindex);
+          key.reset(
+              kvbuffer,
+              kvmeta.get(kvoff + KEYSTART),
+              (kvmeta.get(kvoff + VALSTART) - kvmeta.get(kvoff + KEYSTART))
+              );
+          getVBytesForOffset(kvoff, value);
+          writer.append(key, value);
+          ++spindex;
+        }
+      } else {
+        int spstart = spindex;
+        while (spindex < mend &&
+            kvmeta.get(offsetFor(spindex) + PARTITION) == i) {
+          ++spindex;
+        }
+        if (spstart != spindex) {
+          TezRawKeyValueIterator kvIter =
+              new MRResultIterator(spstart, spindex);
+          runCombineProcessor(kvIter, writer);
+        }
       }
-      length += IFILE_EOF_LENGTH;
-      
-      shuffleHeaders.add( 
-          new ShuffleHeader(
-              task.getTaskAttemptId().toString(), 
-              length + IFILE_CHECKSUM_LENGTH, length, i)
-          );
-      LOG.info("shuffleHeader[" + i + "]:" +
-      		" rawLen=" + length + " partLen=" + (length + IFILE_CHECKSUM_LENGTH) + 
-          " spillIndex=" + spillIndices.get(i));
-    }
-    
-    LOG.info("Saved " + spillIndices.size() + " spill-indices and " + 
-        shuffleHeaders.size() + " shuffle headers");
+      writer.close();
+
+      spillRec.putIndex(
+          new TezIndexRecord(
+              segmentStart,
+              writer.getRawLength(),
+              writer.getCompressedLength()),
+          i);
+    }
+    out.close();
+
+    outputBuffer = buffer.getData();
+    outputLength = buffer.getLength();
+    outputIndex = spillRec;
+    LOG.info("Kept " + buffer.getLength() + " bytes of output for " +
+        partitions + " partitions in memory");
   }
 
   @Override
-  public InputStream getSortedStream(int partition) {
-    return new SortBufferInputStream(this, partition);
+  protected void finalizeOutput() throws IOException, InterruptedException {
+    if (numSpills > 0) {
+      super.finalizeOutput();
+      outputFile = mapOutputFile.getOutputFile();
+      outputIndex =
+          new TezSpillRecord(mapOutputFile.getOutputIndexFile(), job);
+    } else {
+      if (outputIndex == null) {
+        // No records were collected, serve empty segments
+        keepInMemory(0, 0);
+      }
+      fileOutputByteCounter.increment(outputLength);
+      sortPhase.complete();
+    }
+
+    // The sort buffer is no longer needed
+    kvbuffer = null;
+    kvmeta = null;
+
+    synchronized (this) {
+      shuffleHeaders = new ShuffleHeader[partitions];
+      for (int i = 0; i < partitions; ++i) {
+        TezIndexRecord rec = outputIndex.getIndex(i);
+        shuffleHeaders[i] =
+            new ShuffleHeader(
+                task.getTaskAttemptId().toString(),
+                rec.getPartLength(), rec.getRawLength(), i);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("shuffleHeader[" + i + "]:" +
+              " rawLen=" + rec.getRawLength() +
+              " partLen=" + rec.getPartLength() +
+              " offset=" + rec.getStartOffset());
+        }
+      }
+    }
+
+    if (outputBuffer != null) {
+      shuffleHandler.addInMemoryOutput(this, outputLength);
+    }
   }
 
   @Override
-  public void close() throws IOException, InterruptedException{
-    // FIXME
-    //shuffleHandler.stop();
+  public long spillOutputToDisk() throws IOException {
+    byte[] buffer;
+    synchronized (this) {
+      if (released || outputBuffer == null) {
+        return 0;
+      }
+      buffer = outputBuffer;
+    }
+    // The buffer is laid out exactly like the output file, and the index
+    // stays the same
+    Path file = mapOutputFile.getOutputFileForWrite(outputLength);
+    FSDataOutputStream out = rfs.create(file);
+    try {
+      out.write(buffer, 0, (int)outputLength);
+    } finally {
+      out.close();
+    }
+    synchronized (this) {
+      if (released) {
+        return 0;
+      }
+      outputFile = file;
+      outputBuffer = null;
+    }
+    return outputLength;
   }
 
   @Override
-  public ShuffleHeader getShuffleHeader(int reduce) {
-    return shuffleHeaders.get(reduce);
+  public synchronized InputStream getSortedStream(int partition)
+      throws IOException {
+    if (released || outputIndex == null) {
+      throw new IOException("Output of " + task.getTaskAttemptId() +
+          " is not available");
+    }
+    TezIndexRecord rec = outputIndex.getIndex(partition);
+    if (outputBuffer != null) {
+      return new ByteArrayInputStream(
+          outputBuffer, (int)rec.getStartOffset(), (int)rec.getPartLength());
+    }
+    FSDataInputStream in = rfs.open(outputFile);
+    in.seek(rec.getStartOffset());
+    return new PartitionInputStream(in, rec.getPartLength());
   }
 
-  public int getSpillIndex(int partition) {
-    return spillIndices.get(partition);
+  @Override
+  public synchronized ShuffleHeader getShuffleHeader(int reduce) {
+    if (released || shuffleHeaders == null) {
+      return null;
+    }
+    return shuffleHeaders[reduce];
+  }
+
+  @Override
+  public synchronized void release() {
+    if (released) {
+      return;
+    }
+    released = true;
+    outputBuffer = null;
+    outputIndex = null;
+    shuffleHeaders = null;
+    LOG.info("Released output of " + task.getTaskAttemptId());
   }
 
   @Override
   public OutputContext getOutputContext() {
     return new OutputContext(shuffleHandler.getPort());
   }
-  
+
+  /**
+   * Limits the stream to a single partition of the output file.
+   */
+  private static class PartitionInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    PartitionInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int b = super.read();
+      if (b != -1) {
+        --remaining;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int n = super.read(b, off, (int)Math.min(len, remaining));
+      if (n > 0) {
+        remaining -= n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int)Math.min(super.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+  }
 }
@@ -23,6 +23,7 @@ import java.io.IOException;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.tez.common.TezTaskReporter;
 import org.apache.tez.common.counters.TezCounter;
@@ -48,4 +49,10 @@ extends ValuesIterator<KEY,VALUE> {
     combineInputCounter.increment(1);
     return super.next();
   }
+
+  @Override
+  public DataInputBuffer nextRaw() throws IOException {
+    combineInputCounter.increment(1);
+    return super.nextRaw();
+  }
 }
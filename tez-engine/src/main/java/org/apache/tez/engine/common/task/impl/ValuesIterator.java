@@ -24,13 +24,22 @@ import java.util.NoSuchElementException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.serializer.Deserializer;
 import org.apache.hadoop.io.serializer.SerializationFactory;
 import org.apache.hadoop.util.Progressable;
+import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.engine.common.sort.impl.TezRawKeyValueIterator;
 
-/** Iterates values while keys match in sorted input. */
+/**
+ * Iterates values while keys match in sorted input.
+ * 
+ * With {@link TezJobConfig#TEZ_ENGINE_INPUT_OBJECT_REUSE} set, keys are
+ * grouped by comparing their serialized form, and a single key instance is
+ * deserialized into once per group. The serialized key and values are also
+ * available, for consumers which can work on them directly.
+ */
 public class ValuesIterator<KEY,VALUE> implements Iterator<VALUE> {
   protected TezRawKeyValueIterator in; //input iterator
   private KEY key;               // current key
@@ -44,6 +53,14 @@ public class ValuesIterator<KEY,VALUE> implements Iterator<VALUE> {
   private Deserializer<VALUE> valDeserializer;
   private DataInputBuffer keyIn = new DataInputBuffer();
   private DataInputBuffer valueIn = new DataInputBuffer();
+
+  // object reuse: the serialized current key, and the raw value last read
+  private final boolean reuseObjects;
+  private DataOutputBuffer rawKey;
+  private boolean groupStarted;
+  private DataInputBuffer rawKeyIn;
+  private DataOutputBuffer rawValue;
+  private DataInputBuffer rawValueIn;
   
   public ValuesIterator (TezRawKeyValueIterator in, 
                          RawComparator<KEY> comparator, 
@@ -59,6 +76,20 @@ public class ValuesIterator<KEY,VALUE> implements Iterator<VALUE> {
     this.keyDeserializer.open(keyIn);
     this.valDeserializer = serializationFactory.getDeserializer(valClass);
     this.valDeserializer.open(this.valueIn);
+    this.reuseObjects = 
+        conf.getBoolean(
+            TezJobConfig.TEZ_ENGINE_INPUT_OBJECT_REUSE, 
+            TezJobConfig.DEFAULT_TEZ_ENGINE_INPUT_OBJECT_REUSE);
+    if (reuseObjects) {
+      rawKey = new DataOutputBuffer();
+      rawKeyIn = new DataInputBuffer();
+      rawValue = new DataOutputBuffer();
+      rawValueIn = new DataInputBuffer();
+      readNextKey();
+      startGroup();
+      hasNext = more;
+      return;
+    }
     readNextKey();
     key = nextKey;
     nextKey = null; // force new instance creation
@@ -86,6 +117,30 @@ public class ValuesIterator<KEY,VALUE> implements Iterator<VALUE> {
     return value;
   }
 
+  /**
+   * Move to the next value without deserializing it. Only available if
+   * objects are reused.
+   * @return the serialized value, valid until the iterator is next advanced
+   */
+  public DataInputBuffer nextRaw() throws IOException {
+    if (!reuseObjects) {
+      throw new IllegalStateException("Raw values need " + 
+          TezJobConfig.TEZ_ENGINE_INPUT_OBJECT_REUSE);
+    }
+    if (!hasNext) {
+      throw new NoSuchElementException("iterate past last value");
+    }
+    // copy the value, the underlying buffer may change as the input advances
+    DataInputBuffer nextValueBytes = in.getValue();
+    rawValue.reset();
+    rawValue.write(nextValueBytes.getData(), nextValueBytes.getPosition(),
+        nextValueBytes.getLength() - nextValueBytes.getPosition());
+    rawValueIn.reset(rawValue.getData(), 0, rawValue.getLength());
+    readNextKey();
+    reporter.progress();
+    return rawValueIn;
+  }
+
   public void remove() { throw new RuntimeException("not implemented"); }
 
   /// Auxiliary methods
@@ -97,6 +152,12 @@ public class ValuesIterator<KEY,VALUE> implements Iterator<VALUE> {
       readNextKey();
     }
     ++ctr;
+
+    if (reuseObjects) {
+      startGroup();
+      hasNext = more;
+      return;
+    }
     
     // move the next key to the current one
     KEY tmpKey = key;
@@ -115,11 +176,38 @@ public class ValuesIterator<KEY,VALUE> implements Iterator<VALUE> {
     return key; 
   }
 
+  /**
+   * The serialized current key. Only available if objects are reused.
+   * @return the serialized key, valid until the next key is started
+   */
+  public DataInputBuffer getRawKey() {
+    if (!reuseObjects) {
+      throw new IllegalStateException("Raw keys need " + 
+          TezJobConfig.TEZ_ENGINE_INPUT_OBJECT_REUSE);
+    }
+    rawKeyIn.reset(rawKey.getData(), 0, rawKey.getLength());
+    return rawKeyIn;
+  }
+
   /** 
    * read the next key 
    */
   private void readNextKey() throws IOException {
     more = in.next();
+    if (reuseObjects) {
+      // compare serialized keys, the next key is only deserialized if it
+      // starts a new group
+      if (more) {
+        DataInputBuffer nextKeyBytes = in.getKey();
+        hasNext = groupStarted &&
+            comparator.compare(rawKey.getData(), 0, rawKey.getLength(),
+                nextKeyBytes.getData(), nextKeyBytes.getPosition(),
+                nextKeyBytes.getLength() - nextKeyBytes.getPosition()) == 0;
+      } else {
+        hasNext = false;
+      }
+      return;
+    }
     if (more) {
       DataInputBuffer nextKeyBytes = in.getKey();
       keyIn.reset(nextKeyBytes.getData(), nextKeyBytes.getPosition(), nextKeyBytes.getLength());
@@ -130,6 +218,23 @@ public class ValuesIterator<KEY,VALUE> implements Iterator<VALUE> {
     }
   }
 
+  /**
+   * Make the record the input is positioned at the first of the current
+   * group, deserializing its key into the recycled key instance.
+   */
+  private void startGroup() throws IOException {
+    rawKey.reset();
+    groupStarted = more;
+    if (!more) {
+      return;
+    }
+    DataInputBuffer keyBytes = in.getKey();
+    rawKey.write(keyBytes.getData(), keyBytes.getPosition(),
+        keyBytes.getLength() - keyBytes.getPosition());
+    keyIn.reset(rawKey.getData(), 0, rawKey.getLength());
+    key = keyDeserializer.deserialize(key);
+  }
+
   /**
    * Read the next value
    * @throws IOException
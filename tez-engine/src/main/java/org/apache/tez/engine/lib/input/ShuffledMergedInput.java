@@ -22,11 +22,14 @@ import java.io.IOException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.tez.api.BatchInput;
 import org.apache.tez.api.Input;
 import org.apache.tez.api.Master;
+import org.apache.tez.api.RecordBatch;
 import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.TezTask;
 import org.apache.tez.common.TezTaskReporter;
+import org.apache.tez.engine.common.ConfigUtils;
 import org.apache.tez.engine.common.combine.CombineInput;
 import org.apache.tez.engine.common.shuffle.impl.Shuffle;
 import org.apache.tez.engine.common.sort.impl.TezRawKeyValueIterator;
@@ -37,8 +40,11 @@ import com.google.inject.assistedinject.Assisted;
 /**
  * {@link ShuffledMergedInput} in an {@link Input} which shuffles intermediate
  * sorted data, merges them and provides key/<values> to the consumer. 
+ * 
+ * Read as a {@link BatchInput}, it provides the merged records as they were
+ * serialized by the producers, in sorted order.
  */
-public class ShuffledMergedInput implements Input {
+public class ShuffledMergedInput implements BatchInput {
 
   static final Log LOG = LogFactory.getLog(ShuffledMergedInput.class);
   TezRawKeyValueIterator rIter = null;
@@ -47,6 +53,8 @@ public class ShuffledMergedInput implements Input {
   
   private Configuration conf;
   private CombineInput raw;
+  private Class<?> keyClass;
+  private Class<?> valueClass;
 
   @Inject
   public ShuffledMergedInput(
@@ -61,6 +69,8 @@ public class ShuffledMergedInput implements Input {
   public void initialize(Configuration conf, Master master) throws IOException,
       InterruptedException {
     this.conf = conf;
+    keyClass = ConfigUtils.getMapOutputKeyClass(conf);
+    valueClass = ConfigUtils.getMapOutputValueClass(conf);
     
     Shuffle shuffle = 
       new Shuffle(
@@ -89,6 +99,18 @@ public class ShuffledMergedInput implements Input {
     return raw.getNextValues();
   }
 
+  @Override
+  public boolean nextBatch(RecordBatch batch)
+      throws IOException, InterruptedException {
+    TezRawKeyValueIterator iter = getIterator();
+    batch.clear();
+    batch.setClasses(keyClass, valueClass);
+    while (!batch.isFull() && iter.next()) {
+      batch.append(iter.getKey(), iter.getValue());
+    }
+    return !batch.isEmpty();
+  }
+
   public float getProgress() throws IOException, InterruptedException {
     return raw.getProgress();
   }
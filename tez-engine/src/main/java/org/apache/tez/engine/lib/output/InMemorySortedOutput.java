@@ -22,6 +22,7 @@ import java.io.IOException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.tez.api.Master;
 import org.apache.tez.api.Output;
+import org.apache.tez.api.RecordBatch;
 import org.apache.tez.common.TezTask;
 import org.apache.tez.engine.common.sort.SortingOutput;
 import org.apache.tez.engine.common.sort.impl.dflt.InMemoryShuffleSorter;
@@ -32,7 +33,8 @@ import com.google.inject.assistedinject.Assisted;
 
 /**
  * {@link InMemorySortedOutput} is an {@link Output} which sorts key/value pairs 
- * written to it and persists it to a file.
+ * written to it and serves them to consumers from memory, falling back to a
+ * file if the output does not fit in the sort buffer.
  */
 public class InMemorySortedOutput implements SortingOutput {
   
@@ -59,6 +61,11 @@ public class InMemorySortedOutput implements SortingOutput {
     sorter.write(key, value);
   }
 
+  public void write(RecordBatch batch) throws IOException,
+      InterruptedException {
+    sorter.write(batch);
+  }
+
   public void close() throws IOException, InterruptedException {
     sorter.flush();
     sorter.close();
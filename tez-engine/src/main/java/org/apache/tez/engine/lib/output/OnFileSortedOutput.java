@@ -22,6 +22,7 @@ import java.io.IOException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.tez.api.Master;
 import org.apache.tez.api.Output;
+import org.apache.tez.api.RecordBatch;
 import org.apache.tez.common.TezTask;
 import org.apache.tez.engine.common.sort.SortingOutput;
 import org.apache.tez.engine.common.sort.impl.ExternalSorter;
@@ -60,6 +61,11 @@ public class OnFileSortedOutput implements SortingOutput {
     sorter.write(key, value);
   }
 
+  public void write(RecordBatch batch) throws IOException,
+      InterruptedException {
+    sorter.write(batch);
+  }
+
   public void close() throws IOException, InterruptedException {
     sorter.flush();
     sorter.close();
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.engine.common.combine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.Progress;
+import org.apache.tez.api.RecordBatch;
+import org.apache.tez.common.TezTaskReporter;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.engine.common.sort.impl.IFile;
+import org.apache.tez.engine.common.sort.impl.TezRawKeyValueIterator;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests moving records through a combiner's input and output in batches.
+ */
+public class TestCombineBatches {
+
+  private static final int NUM_RECORDS = 5;
+
+  private Configuration conf;
+  private TezCounters counters;
+  private TezTaskReporter reporter;
+
+  @Before
+  public void setUp() {
+    conf = new Configuration();
+    conf.setClass("mapreduce.map.output.key.class", IntWritable.class,
+        Object.class);
+    conf.setClass("mapreduce.map.output.value.class", Text.class,
+        Object.class);
+    counters = new TezCounters();
+    reporter = mockReporter(counters);
+  }
+
+  @Test
+  public void testCombineInputBatches() throws Exception {
+    CombineInput input = new CombineInput(new ListIterator(NUM_RECORDS));
+    input.initialize(conf, reporter);
+
+    RecordBatch batch = new RecordBatch(2, 1024);
+    List<Integer> sizes = new ArrayList<Integer>();
+    int next = 0;
+    while (input.nextBatch(batch)) {
+      assertSame(IntWritable.class, batch.getKeyClass());
+      assertSame(Text.class, batch.getValueClass());
+      sizes.add(batch.size());
+      for (int i = 0; i < batch.size(); ++i) {
+        assertRecord(batch, i, next++);
+      }
+    }
+    assertEquals(NUM_RECORDS, next);
+    assertEquals("[2, 2, 1]", sizes.toString());
+    assertTrue(batch.isEmpty());
+    assertEquals(NUM_RECORDS,
+        counters.findCounter(TaskCounter.COMBINE_INPUT_RECORDS).getValue());
+  }
+
+  @Test
+  public void testCombineOutputBatches() throws Exception {
+    FileSystem localFs = FileSystem.getLocal(conf);
+    Path file =
+        new Path(new Path(System.getProperty("test.build.data", "/tmp")),
+            "TestCombineBatches").makeQualified(localFs);
+    localFs.delete(file, true);
+
+    // Pass the batches from the input straight through to the output
+    CombineInput input = new CombineInput(new ListIterator(NUM_RECORDS));
+    input.initialize(conf, reporter);
+    CombineOutput output =
+        new CombineOutput(new IFile.Writer(conf, localFs, file));
+    RecordBatch batch = new RecordBatch(2, 1024);
+    while (input.nextBatch(batch)) {
+      output.write(batch);
+    }
+    output.close();
+
+    IFile.Reader reader = new IFile.Reader(conf, localFs, file, null, null);
+    DataInputBuffer keyIn = new DataInputBuffer();
+    DataInputBuffer valueIn = new DataInputBuffer();
+    IntWritable key = new IntWritable();
+    Text value = new Text();
+    try {
+      for (int i = 0; i < NUM_RECORDS; ++i) {
+        assertTrue(reader.nextRawKey(keyIn));
+        key.readFields(keyIn);
+        reader.nextRawValue(valueIn);
+        value.readFields(valueIn);
+        assertEquals(i, key.get());
+        assertEquals("v" + i, value.toString());
+      }
+      assertFalse(reader.nextRawKey(keyIn));
+    } finally {
+      reader.close();
+    }
+    localFs.delete(file, true);
+  }
+
+  private static void assertRecord(RecordBatch batch, int i, int expected)
+      throws IOException {
+    DataInputBuffer in = new DataInputBuffer();
+    IntWritable key = new IntWritable();
+    batch.getKey(i, in);
+    key.readFields(in);
+    assertEquals(expected, key.get());
+    Text value = new Text();
+    batch.getValue(i, in);
+    value.readFields(in);
+    assertEquals("v" + expected, value.toString());
+  }
+
+  /**
+   * Iterates over the serialized records (i, "v" + i).
+   */
+  private static class ListIterator implements TezRawKeyValueIterator {
+
+    private final List<byte[]> keys = new ArrayList<byte[]>();
+    private final List<byte[]> values = new ArrayList<byte[]>();
+    private final DataInputBuffer key = new DataInputBuffer();
+    private final DataInputBuffer value = new DataInputBuffer();
+    private final Progress progress = new Progress();
+    private int current = -1;
+
+    ListIterator(int numRecords) throws IOException {
+      for (int i = 0; i < numRecords; ++i) {
+        keys.add(serialize(new IntWritable(i)));
+        values.add(serialize(new Text("v" + i)));
+      }
+    }
+
+    private static byte[] serialize(Writable w)
+        throws IOException {
+      DataOutputBuffer out = new DataOutputBuffer();
+      w.write(out);
+      byte[] bytes = new byte[out.getLength()];
+      System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+      return bytes;
+    }
+
+    @Override
+    public DataInputBuffer getKey() throws IOException {
+      return key;
+    }
+
+    @Override
+    public DataInputBuffer getValue() throws IOException {
+      return value;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      if (++current >= keys.size()) {
+        return false;
+      }
+      key.reset(keys.get(current), keys.get(current).length);
+      value.reset(values.get(current), values.get(current).length);
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public Progress getProgress() {
+      return progress;
+    }
+  }
+
+  private static TezTaskReporter mockReporter(final TezCounters counters) {
+    TezTaskReporter reporter = mock(TezTaskReporter.class);
+    when(reporter.getCounter(any(Enum.class))).thenAnswer(
+        new Answer<TezCounter>() {
+          @Override
+          public TezCounter answer(InvocationOnMock invocation) {
+            return counters.findCounter(
+                (Enum<?>) invocation.getArguments()[0]);
+          }
+        });
+    return reporter;
+  }
+}
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.engine.common.shuffle.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.records.TezTaskAttemptID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBroadcastCache {
+
+  private static final byte[] DATA = "broadcast map-output".getBytes();
+
+  private FileSystem localFs;
+  private Path workDir;
+  private BroadcastCache cache;
+  private TezTaskAttemptID mapId;
+
+  @Before
+  public void setup() throws IOException {
+    Configuration conf = new Configuration();
+    localFs = FileSystem.getLocal(conf);
+    workDir =
+        new Path(new Path(System.getProperty("test.build.data", "/tmp")),
+            "TestBroadcastCache").makeQualified(localFs);
+    localFs.delete(workDir, true);
+    conf.set(TezJobConfig.LOCAL_DIR, workDir.toString());
+    cache = new BroadcastCache(conf);
+    mapId = new TezTaskAttemptID("200707121733", 3, "m", 0, 0);
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    localFs.delete(workDir, true);
+  }
+
+  @Test
+  public void testMiss() throws IOException {
+    assertNull(cache.lookup(mapId));
+  }
+
+  @Test
+  public void testHit() throws IOException {
+    Path stored = store(mapId);
+    assertEquals(stored, cache.lookup(mapId));
+    assertCached(stored);
+
+    // Storing the output again, as a concurrent fetch would, keeps a copy
+    assertEquals(stored, store(mapId));
+    assertCached(cache.lookup(mapId));
+
+    // Other outputs are not affected
+    assertNull(cache.lookup(
+        new TezTaskAttemptID("200707121733", 3, "m", 1, 0)));
+  }
+
+  @Test
+  public void testEvict() throws IOException {
+    Path stored = store(mapId);
+    cache.evict(mapId, stored);
+    assertNull(cache.lookup(mapId));
+
+    // The output can be cached again
+    store(mapId);
+    assertNotNull(cache.lookup(mapId));
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedOutputIsNotCached() throws IOException {
+    ShuffleHeader header =
+        new ShuffleHeader(mapId.toString(), DATA.length + 1, DATA.length, 0);
+    try {
+      cache.store(mapId, header, new ByteArrayInputStream(DATA));
+    } finally {
+      assertNull(cache.lookup(mapId));
+    }
+  }
+
+  private Path store(TezTaskAttemptID id) throws IOException {
+    ShuffleHeader header =
+        new ShuffleHeader(id.toString(), DATA.length, DATA.length, 0);
+    return cache.store(id, header, new ByteArrayInputStream(DATA));
+  }
+
+  /**
+   * Check that <code>cached</code> holds the header followed by the data.
+   */
+  private void assertCached(Path cached) throws IOException {
+    DataInputStream in = cache.open(cached);
+    try {
+      ShuffleHeader header = new ShuffleHeader();
+      header.readFields(in);
+      assertEquals(mapId.toString(), header.mapId);
+      assertEquals(DATA.length, header.getCompressedLength());
+      byte[] data = new byte[DATA.length];
+      in.readFully(data);
+      assertArrayEquals(DATA, data);
+      assertEquals(-1, in.read());
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,297 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.engine.common.shuffle.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.SecretKey;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.tez.common.TezTaskReporter;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.engine.common.security.JobTokenSecretManager;
+import org.apache.tez.engine.common.security.SecureShuffleUtils;
+import org.apache.tez.engine.common.sort.impl.IFileOutputStream;
+import org.apache.tez.engine.common.task.local.output.TezTaskOutputFiles;
+import org.apache.tez.records.TezTaskAttemptID;
+import org.apache.tez.records.TezTaskID;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests copying fetched map-outputs into memory and onto local disk.
+ */
+public class TestFetcher {
+
+  /** Larger than a few of the chunks map-outputs are copied in */
+  private static final int OUTPUT_SIZE = 200 * 1024 + 17;
+
+  private static final SecretKey SECRET =
+      JobTokenSecretManager.createSecretKey("secret".getBytes());
+
+  private Configuration conf;
+  private FileSystem localFs;
+  private Path workDir;
+  private MapHost host;
+  private ShuffleScheduler scheduler;
+  private MergeManager merger;
+  private TezTaskReporter reporter;
+  private ShuffleClientMetrics metrics;
+  private final Random random = new Random(1);
+
+  @Before
+  public void setup() throws IOException {
+    conf = new Configuration();
+    localFs = FileSystem.getLocal(conf);
+    workDir =
+        new Path(new Path(System.getProperty("test.build.data", "/tmp")),
+            "TestFetcher").makeQualified(localFs);
+    localFs.delete(workDir, true);
+
+    host = new MapHost("host1", "http://host1:8080/mapOutput?map=");
+    scheduler = mock(ShuffleScheduler.class);
+    merger = mock(MergeManager.class);
+    metrics = mock(ShuffleClientMetrics.class);
+    final TezCounters counters = new TezCounters();
+    reporter = mock(TezTaskReporter.class);
+    when(reporter.getCounter(anyString(), anyString())).thenAnswer(
+        new Answer<TezCounter>() {
+          @Override
+          public TezCounter answer(InvocationOnMock invocation) {
+            Object[] args = invocation.getArguments();
+            return counters.findCounter((String) args[0], (String) args[1]);
+          }
+        });
+  }
+
+  @After
+  public void cleanup() throws IOException {
+    localFs.delete(workDir, true);
+  }
+
+  @Test
+  public void testShuffleToMemory() throws IOException {
+    TezTaskAttemptID mapId = mapId(0);
+    byte[] data = randomBytes(OUTPUT_SIZE);
+    MapOutput mapOutput = new MapOutput(mapId, merger, data.length, true);
+    when(merger.reserve(any(TezTaskAttemptID.class), anyLong(), anyInt()))
+        .thenReturn(mapOutput);
+
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    long compressedLength = writeOutput(response, mapId, data);
+    fetch(response.toByteArray(), mapId);
+
+    verify(scheduler).copySucceeded(eq(mapId), same(host),
+        eq(compressedLength), anyLong(), same(mapOutput));
+    assertArrayEquals(data, mapOutput.getMemory());
+    // The decompressed bytes are accounted for as they are copied
+    verifyCopiedInChunks(data.length);
+  }
+
+  @Test
+  public void testShuffleToDisk() throws IOException {
+    final List<MapOutput> mapOutputs = new ArrayList<MapOutput>();
+    final TezTaskOutputFiles outputFiles = mock(TezTaskOutputFiles.class);
+    when(outputFiles.getInputFileForWrite(any(TezTaskID.class), anyLong()))
+        .thenAnswer(new Answer<Path>() {
+          @Override
+          public Path answer(InvocationOnMock invocation) {
+            return new Path(workDir, invocation.getArguments()[0] + ".out");
+          }
+        });
+    when(merger.reserve(any(TezTaskAttemptID.class), anyLong(), anyInt()))
+        .thenAnswer(new Answer<MapOutput>() {
+          @Override
+          public MapOutput answer(InvocationOnMock invocation)
+              throws IOException {
+            Object[] args = invocation.getArguments();
+            MapOutput mapOutput = new MapOutput((TezTaskAttemptID) args[0],
+                merger, (Long) args[1], conf, null, 0, true, outputFiles);
+            mapOutputs.add(mapOutput);
+            return mapOutput;
+          }
+        });
+
+    // Several map-outputs over one connection share the fetcher's buffer
+    TezTaskAttemptID mapId1 = mapId(0);
+    TezTaskAttemptID mapId2 = mapId(1);
+    byte[] data1 = randomBytes(OUTPUT_SIZE);
+    byte[] data2 = randomBytes(OUTPUT_SIZE / 3);
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    long compressedLength1 = writeOutput(response, mapId1, data1);
+    byte[] wire1 = Arrays.copyOfRange(response.toByteArray(),
+        response.size() - (int) compressedLength1, response.size());
+    long compressedLength2 = writeOutput(response, mapId2, data2);
+    byte[] wire2 = Arrays.copyOfRange(response.toByteArray(),
+        response.size() - (int) compressedLength2, response.size());
+    fetch(response.toByteArray(), mapId1, mapId2);
+
+    assertEquals(2, mapOutputs.size());
+    verify(scheduler).copySucceeded(eq(mapId1), same(host),
+        eq(compressedLength1), anyLong(), same(mapOutputs.get(0)));
+    verify(scheduler).copySucceeded(eq(mapId2), same(host),
+        eq(compressedLength2), anyLong(), same(mapOutputs.get(1)));
+    // On-disk map-outputs are kept exactly as they were sent
+    assertArrayEquals(wire1, readFetched(mapOutputs.get(0)));
+    assertArrayEquals(wire2, readFetched(mapOutputs.get(1)));
+    verifyCopiedInChunks(compressedLength1 + compressedLength2);
+  }
+
+  @Test
+  public void testTruncatedOutputFails() throws IOException {
+    TezTaskAttemptID mapId = mapId(0);
+    byte[] data = randomBytes(OUTPUT_SIZE);
+    MapOutput mapOutput = new MapOutput(mapId, merger, data.length, true);
+    when(merger.reserve(any(TezTaskAttemptID.class), anyLong(), anyInt()))
+        .thenReturn(mapOutput);
+
+    ByteArrayOutputStream response = new ByteArrayOutputStream();
+    writeOutput(response, mapId, data);
+    byte[] truncated = Arrays.copyOf(response.toByteArray(),
+        response.size() - data.length / 2);
+    fetch(truncated, mapId);
+
+    verify(scheduler, never()).copySucceeded(any(TezTaskAttemptID.class),
+        any(MapHost.class), anyLong(), anyLong(), any(MapOutput.class));
+    verify(scheduler).copyFailed(mapId, host, true);
+  }
+
+  /**
+   * Fetch <code>maps</code> from {@link #host}, which answers with
+   * <code>response</code>.
+   */
+  private void fetch(byte[] response, TezTaskAttemptID... maps)
+      throws IOException {
+    when(scheduler.getMapsForHost(host)).thenReturn(Arrays.asList(maps));
+    final HttpURLConnection connection = mock(HttpURLConnection.class);
+    when(connection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+    when(connection.getInputStream()).thenReturn(
+        new ByteArrayInputStream(response));
+
+    Fetcher fetcher = new Fetcher(conf, reduceId(), scheduler, merger,
+        reporter, metrics, mock(ExceptionReporter.class), SECRET, null) {
+      @Override
+      protected HttpURLConnection openConnection(URL url) throws IOException {
+        // Reply as the shuffle handler would
+        String encHash = SecureShuffleUtils.hashFromString(
+            SecureShuffleUtils.buildMsgFrom(url), SECRET);
+        when(connection.getHeaderField(
+            SecureShuffleUtils.HTTP_HEADER_REPLY_URL_HASH)).thenReturn(
+                SecureShuffleUtils.generateHash(encHash.getBytes(), SECRET));
+        return connection;
+      }
+    };
+    fetcher.copyFromHost(host);
+  }
+
+  /**
+   * Check that <code>numBytes</code> were accounted for in several chunks,
+   * with progress reported for each.
+   */
+  private void verifyCopiedInChunks(long numBytes) {
+    ArgumentCaptor<Long> chunks = ArgumentCaptor.forClass(Long.class);
+    verify(metrics, atLeast(3)).inputBytes(chunks.capture());
+    long total = 0;
+    for (long chunk : chunks.getAllValues()) {
+      assertTrue("Chunk of " + chunk + " bytes", chunk <= 64 * 1024);
+      total += chunk;
+    }
+    assertEquals(numBytes, total);
+    verify(reporter, atLeast(chunks.getAllValues().size())).progress();
+  }
+
+  /**
+   * Write a map-output of <code>data</code> to <code>out</code> as the
+   * shuffle handler sends it.
+   *
+   * @return the length of the map-output on the wire, without its header
+   */
+  private static long writeOutput(ByteArrayOutputStream out,
+      TezTaskAttemptID mapId, byte[] data) throws IOException {
+    ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    IFileOutputStream checksumOut = new IFileOutputStream(wire);
+    checksumOut.write(data);
+    checksumOut.close();
+
+    DataOutputStream dataOut = new DataOutputStream(out);
+    new ShuffleHeader(mapId.toString(), wire.size(), data.length, 0)
+        .write(dataOut);
+    wire.writeTo(dataOut);
+    dataOut.flush();
+    return wire.size();
+  }
+
+  private byte[] readFetched(MapOutput mapOutput) throws IOException {
+    // The fetcher leaves committing the map-output to the scheduler
+    Path fetched = mapOutput.getOutputPath().suffix("0");
+    byte[] bytes = new byte[(int) localFs.getFileStatus(fetched).getLen()];
+    FSDataInputStream in = localFs.open(fetched);
+    try {
+      in.readFully(bytes);
+    } finally {
+      in.close();
+    }
+    return bytes;
+  }
+
+  private byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  private static TezTaskAttemptID mapId(int id) {
+    return new TezTaskAttemptID("200707121733", 3, "m", id, 0);
+  }
+
+  private static TezTaskAttemptID reduceId() {
+    return new TezTaskAttemptID("200707121733", 3, "r", 0, 0);
+  }
+}
@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.engine.common.shuffle.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.TezTaskReporter;
+import org.apache.tez.common.counters.CounterGroup;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.records.TezTaskAttemptID;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestShuffleClientMetrics {
+
+  private TezCounters counters;
+  private ShuffleClientMetrics metrics;
+
+  @Before
+  public void setup() {
+    counters = new TezCounters();
+    Configuration conf = new Configuration();
+    conf.setInt(TezJobConfig.TEZ_ENGINE_SHUFFLE_METRICS_SLOWEST_HOSTS, 2);
+    metrics = new ShuffleClientMetrics(
+        new TezTaskAttemptID("200707121733", 3, "r", 0, 0), conf, "user",
+        "job", mockReporter(counters));
+  }
+
+  @Test
+  public void testFetchLatencyHistogram() {
+    metrics.fetchSucceeded("host1", 100, 0, true);
+    metrics.fetchSucceeded("host1", 100, 9, true);
+    metrics.fetchSucceeded("host1", 100, 10, true);
+    metrics.fetchSucceeded("host1", 100, 999, false);
+    metrics.fetchSucceeded("host1", 100, 9999, false);
+    metrics.fetchSucceeded("host1", 100, 10000, false);
+    metrics.fetchSucceeded("host1", 100, 60000, false);
+
+    // Buckets are bounded exclusively above
+    assertEquals(2, getLatencyCount("0-10ms"));
+    assertEquals(1, getLatencyCount("10-100ms"));
+    assertEquals(1, getLatencyCount("100ms-1s"));
+    assertEquals(1, getLatencyCount("1-10s"));
+    assertEquals(2, getLatencyCount("10s+"));
+
+    assertEquals(300,
+        counters.findCounter(TaskCounter.SHUFFLE_BYTES_TO_MEM).getValue());
+    assertEquals(400,
+        counters.findCounter(TaskCounter.SHUFFLE_BYTES_TO_DISK).getValue());
+  }
+
+  @Test
+  public void testSlowestHosts() {
+    // Average latencies: host1 10ms, host2 300ms, host3 100ms, host4 50ms
+    metrics.fetchSucceeded("host1", 100, 10, true);
+    metrics.fetchSucceeded("host2", 100, 200, true);
+    metrics.fetchSucceeded("host2", 100, 400, true);
+    metrics.fetchSucceeded("host3", 100, 100, true);
+    metrics.fetchSucceeded("host4", 100, 20, true);
+    metrics.fetchSucceeded("host4", 100, 80, true);
+
+    // Published once the copy phase is complete
+    CounterGroup slowest =
+        counters.getGroup(ShuffleClientMetrics.SLOWEST_HOSTS_GROUP_NAME);
+    assertEquals(0, slowest.size());
+    metrics.shuffleFinished();
+
+    assertEquals(2, slowest.size());
+    assertEquals(300, slowest.findCounter("host2").getValue());
+    assertEquals(100, slowest.findCounter("host3").getValue());
+  }
+
+  @Test
+  public void testStallAndWaitTimes() {
+    metrics.mergeStalled(5);
+    metrics.mergeStalled(7);
+    metrics.reserveWaited(3);
+    assertEquals(12, counters.findCounter(
+        TaskCounter.SHUFFLE_MERGE_STALL_MILLIS).getValue());
+    assertEquals(3, counters.findCounter(
+        TaskCounter.SHUFFLE_RESERVE_WAIT_MILLIS).getValue());
+  }
+
+  private long getLatencyCount(String bucket) {
+    return counters.findCounter(ShuffleClientMetrics.FETCH_LATENCY_GROUP_NAME,
+        bucket).getValue();
+  }
+
+  private static TezTaskReporter mockReporter(final TezCounters counters) {
+    TezTaskReporter reporter = mock(TezTaskReporter.class);
+    when(reporter.getCounter(any(Enum.class))).thenAnswer(
+        new Answer<TezCounter>() {
+          @Override
+          public TezCounter answer(InvocationOnMock invocation) {
+            return counters.findCounter(
+                (Enum<?>) invocation.getArguments()[0]);
+          }
+        });
+    when(reporter.getCounter(anyString(), anyString())).thenAnswer(
+        new Answer<TezCounter>() {
+          @Override
+          public TezCounter answer(InvocationOnMock invocation) {
+            Object[] args = invocation.getArguments();
+            return counters.findCounter((String) args[0], (String) args[1]);
+          }
+        });
+    return reporter;
+  }
+}
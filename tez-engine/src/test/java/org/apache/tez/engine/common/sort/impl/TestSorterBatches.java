@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.engine.common.sort.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.Progress;
+import org.apache.tez.api.RecordBatch;
+import org.apache.tez.common.Constants;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.TezTask;
+import org.apache.tez.common.TezTaskReporter;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.common.counters.TezCounters;
+import org.apache.tez.engine.common.sort.impl.dflt.DefaultSorter;
+import org.apache.tez.engine.common.task.local.output.TezLocalTaskOutputFiles;
+import org.apache.tez.records.TezTaskAttemptID;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests writing record batches to the sorters.
+ */
+public class TestSorterBatches {
+
+  private static final int[] KEYS = { 5, 3, 9, 1, 7 };
+
+  private Configuration conf;
+  private FileSystem localFs;
+  private TezCounters counters;
+  private TezTask task;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration();
+    localFs = FileSystem.getLocal(conf);
+    Path workDir =
+        new Path(new Path(System.getProperty("test.build.data", "/tmp")),
+            "TestSorterBatches").makeQualified(localFs);
+    localFs.delete(workDir, true);
+
+    conf.set(TezJobConfig.LOCAL_DIR, workDir.toString());
+    conf.setClass(Constants.TEZ_ENGINE_TASK_OUTPUT_MANAGER,
+        TezLocalTaskOutputFiles.class, Object.class);
+    conf.setInt(TezJobConfig.TEZ_ENGINE_IO_SORT_MB, 1);
+    conf.setClass("mapreduce.map.output.key.class", IntWritable.class,
+        Object.class);
+    conf.setClass("mapreduce.map.output.value.class", Text.class,
+        Object.class);
+
+    counters = new TezCounters();
+    task = mock(TezTask.class);
+    TezTaskReporter reporter = mockReporter(counters);
+    when(task.getTaskReporter()).thenReturn(reporter);
+    when(task.getProgress()).thenReturn(new Progress());
+    when(task.getTaskAttemptId()).thenReturn(
+        new TezTaskAttemptID("200707121733", 3, "m", 0, 0));
+  }
+
+  @Test
+  public void testDefaultSorterBatch() throws Exception {
+    DefaultSorter sorter = new DefaultSorter(task);
+    initialize(sorter);
+    sorter.write(createBatch(IntWritable.class, Text.class));
+    sorter.flush();
+
+    verifyOutput(sorter);
+  }
+
+  @Test
+  public void testPipelinedSorterBatch() throws Exception {
+    PipelinedSorter sorter = new PipelinedSorter(task);
+    initialize(sorter);
+    sorter.write(createBatch(IntWritable.class, Text.class));
+    sorter.flush();
+
+    verifyOutput(sorter);
+  }
+
+  @Test
+  public void testDefaultSorterBatchTypeMismatch() throws Exception {
+    DefaultSorter sorter = new DefaultSorter(task);
+    initialize(sorter);
+    verifyTypeMismatch(sorter);
+  }
+
+  @Test
+  public void testPipelinedSorterBatchTypeMismatch() throws Exception {
+    PipelinedSorter sorter = new PipelinedSorter(task);
+    initialize(sorter);
+    verifyTypeMismatch(sorter);
+  }
+
+  private void verifyTypeMismatch(ExternalSorter sorter) throws Exception {
+    assertWriteFails(sorter, createBatch(Text.class, Text.class),
+        "Type mismatch in key");
+    assertWriteFails(sorter, createBatch(IntWritable.class, IntWritable.class),
+        "Type mismatch in value");
+    // Batches must say what their records are serialized as
+    assertWriteFails(sorter, createBatch(null, null), "Type mismatch in key");
+    assertEquals(0,
+        counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue());
+  }
+
+  private void initialize(ExternalSorter sorter) throws Exception {
+    sorter.setTask(task);
+    sorter.initialize(conf, task.getTaskReporter());
+  }
+
+  private static void assertWriteFails(ExternalSorter sorter,
+      RecordBatch batch, String message) throws InterruptedException {
+    try {
+      sorter.write(batch);
+      fail("Wrote a batch of " + batch.getKeyClass() + "/"
+          + batch.getValueClass());
+    } catch (IOException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith(message));
+    }
+  }
+
+  /**
+   * A batch of {@link #KEYS} with the values "v" + key, tagged with the given
+   * classes.
+   */
+  private static RecordBatch createBatch(Class<?> keyClass,
+      Class<?> valueClass) throws IOException {
+    RecordBatch batch = new RecordBatch();
+    batch.setClasses(keyClass, valueClass);
+    DataOutputBuffer out = batch.getOutput();
+    for (int key : KEYS) {
+      batch.startKey();
+      new IntWritable(key).write(out);
+      batch.startValue();
+      new Text("v" + key).write(out);
+      batch.endRecord();
+    }
+    return batch;
+  }
+
+  private void verifyOutput(ExternalSorter sorter) throws IOException {
+    assertEquals(KEYS.length,
+        counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue());
+
+    Path outputFile = sorter.getMapOutput().getOutputFile();
+    IFile.Reader reader =
+        new IFile.Reader(conf, localFs, outputFile, null, null);
+    DataInputBuffer keyIn = new DataInputBuffer();
+    DataInputBuffer valueIn = new DataInputBuffer();
+    IntWritable key = new IntWritable();
+    Text value = new Text();
+    int prevKey = Integer.MIN_VALUE;
+    int numRecords = 0;
+    try {
+      while (reader.nextRawKey(keyIn)) {
+        key.readFields(keyIn);
+        reader.nextRawValue(valueIn);
+        value.readFields(valueIn);
+        assertTrue(prevKey + " before " + key.get(), prevKey < key.get());
+        assertEquals("v" + key.get(), value.toString());
+        prevKey = key.get();
+        ++numRecords;
+      }
+    } finally {
+      reader.close();
+    }
+    assertEquals(KEYS.length, numRecords);
+  }
+
+  private static TezTaskReporter mockReporter(final TezCounters counters) {
+    TezTaskReporter reporter = mock(TezTaskReporter.class);
+    when(reporter.getCounter(any(Enum.class))).thenAnswer(
+        new Answer<TezCounter>() {
+          @Override
+          public TezCounter answer(InvocationOnMock invocation) {
+            return counters.findCounter(
+                (Enum<?>) invocation.getArguments()[0]);
+          }
+        });
+    return reporter;
+  }
+}
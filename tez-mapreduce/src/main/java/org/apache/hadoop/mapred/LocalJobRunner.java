@@ -552,7 +552,8 @@ public class LocalJobRunner implements ClientProtocol {
         float numTasks = (float) this.numMapTasks;
 
         partialMapProgress[taskIndex] = taskStatus.getProgress();
-        mapCounters[taskIndex] = taskStatus.getCounters();
+        mapCounters[taskIndex] =
+            mergeCounters(mapCounters[taskIndex], taskStatus);
 
         float partialProgress = 0.0f;
         for (float f : partialMapProgress) {
@@ -560,7 +561,7 @@ public class LocalJobRunner implements ClientProtocol {
         }
         status.setMapProgress(partialProgress / numTasks);
       } else {
-        reduceCounters = taskStatus.getCounters();
+        reduceCounters = mergeCounters(reduceCounters, taskStatus);
         status.setReduceProgress(taskStatus.getProgress());
       }
 
@@ -568,6 +569,20 @@ public class LocalJobRunner implements ClientProtocol {
       return true;
     }
 
+    private TezCounters mergeCounters(TezCounters counters,
+        TezTaskStatus taskStatus) {
+      if (!taskStatus.isCountersDelta()) {
+        return taskStatus.getCounters();
+      }
+      // Don't modify counters, it may be the task's own instance
+      TezCounters merged = new TezCounters();
+      if (counters != null) {
+        merged.setAllCounters(counters);
+      }
+      merged.setAllCounters(taskStatus.getCounters());
+      return merged;
+    }
+
     /** Return the current values of the counters for this job,
      * including tasks that are in progress.
      */
@@ -178,12 +178,31 @@ public interface MRJobConfig {
 
   public static final String MAP_INPUT_START = "mapreduce.map.input.start";
 
+  /**
+   * The number of batches of input records a map task reads ahead of the
+   * mapper, on a thread of its own, so that mapping overlaps reading and
+   * decompressing the split. Progress and input statistics are then updated
+   * once per batch. 0 disables reading ahead.
+   */
+  public static final String MAP_INPUT_PREFETCH_BATCHES =
+      "mapreduce.map.input.prefetch.batches";
+  public static final int DEFAULT_MAP_INPUT_PREFETCH_BATCHES = 0;
+
   public static final String MAP_MEMORY_MB = "mapreduce.map.memory.mb";
   public static final int DEFAULT_MAP_MEMORY_MB = 1024;
 
   public static final String MAP_CPU_VCORES = "mapreduce.map.cpu.vcores";
   public static final int DEFAULT_MAP_CPU_VCORES = 1;
 
+  /**
+   * The number of threads running the map function of a task, each with a
+   * mapper of its own, for CPU bound mappers in containers with several
+   * cores. Records reach the mappers in no particular order. Only applies if
+   * the default map runner is used.
+   */
+  public static final String MAP_THREADS = "mapreduce.map.threads";
+  public static final int DEFAULT_MAP_THREADS = 1;
+
   public static final String MAP_MEMORY_PHYSICAL_MB = "mapreduce.map.memory.physical.mb";
 
   public static final String MAP_ENV = "mapreduce.map.env";
@@ -393,6 +412,14 @@ public interface MRJobConfig {
     MR_AM_PREFIX + "job.client.thread-count";
   public static final int DEFAULT_MR_AM_JOB_CLIENT_THREAD_COUNT = 1;
 
+  /** Number of threads dispatching events in the app master. With more than
+   * one thread, Task, TaskAttempt, AMContainer and AMNode events are sharded
+   * by entity over all but one of the threads, all other events are
+   * dispatched in order by the remaining thread.*/
+  public static final String MR_AM_DISPATCHER_THREAD_COUNT =
+    MR_AM_PREFIX + "dispatcher.thread-count";
+  public static final int DEFAULT_MR_AM_DISPATCHER_THREAD_COUNT = 1;
+
   /** 
    * Range of ports that the MapReduce AM can use when binding. Leave blank
    * if you want all possible ports.
@@ -439,6 +466,14 @@ public interface MRJobConfig {
   public static final String MR_AM_JOB_SPECULATOR =
     MR_AM_PREFIX + "job.speculator.class";
 
+  /**
+   * The time a speculation scan may spend on the running tasks of one type.
+   * The next scan carries on from where it stopped. 0 for no limit.
+   */
+  public static final String MR_AM_SPECULATOR_SCAN_BUDGET_MS =
+    MR_AM_PREFIX + "job.speculator.scan-budget-ms";
+  public static final long DEFAULT_MR_AM_SPECULATOR_SCAN_BUDGET_MS = 100l;
+
   /** Class used to estimate task resource needs.*/
   public static final String MR_AM_TASK_ESTIMATOR =
     MR_AM_PREFIX + "job.task.estimator.class";
@@ -460,6 +495,14 @@ public interface MRJobConfig {
     MR_AM_PREFIX + "job.task.listener.thread-count";
   public static final int DEFAULT_MR_AM_TASK_LISTENER_THREAD_COUNT = 30;
 
+  /** How long a getTask call from an idle container is held by the AM,
+   * waiting for a task to be assigned to the container, before returning
+   * empty-handed. 0 disables long-polling.*/
+  public static final String MR_AM_TASK_LISTENER_GET_TASK_WAIT_MS =
+    MR_AM_PREFIX + "job.task.listener.get-task.wait-ms";
+  public static final long DEFAULT_MR_AM_TASK_LISTENER_GET_TASK_WAIT_MS =
+    5 * 1000l;
+
   /** How often the AM should schedule assigning tasks with allocated
    * containers.*/
   public static final String MR_AM_SCHEDULER_INTERVAL =
@@ -478,6 +521,36 @@ public interface MRJobConfig {
   public static final String MR_AM_SCHEDULER_REUSE_MAX_ATTEMPTS_PER_CONTAINER =
       MR_AM_PREFIX + "scheduler.reuse.max-attempts-per-container";
   public static final int DEFAULT_MR_AM_SCHEDULER_REUSE_MAX_ATTEMPTS_PER_CONTAINER = -1;
+
+  /**
+   * The maximum number of launched, idle map containers the AM keeps around
+   * when reuse is enabled, so that bursts of map tasks start without waiting
+   * for containers to be allocated and launched. The pool is sized from the
+   * observed arrival rate of map tasks, up to this limit. 0 disables the pool.
+   */
+  public static final String MR_AM_SCHEDULER_REUSE_WARM_CONTAINERS_MAX =
+      MR_AM_PREFIX + "scheduler.reuse.warm-containers.max";
+  public static final int DEFAULT_MR_AM_SCHEDULER_REUSE_WARM_CONTAINERS_MAX = 0;
+
+  /**
+   * How long the AM holds on to a newly allocated map container which matches
+   * no waiting map's hosts or racks, while maps with known locations wait, in
+   * the hope of a better placed container or map turning up. 0 assigns such
+   * containers right away.
+   */
+  public static final String MR_AM_SCHEDULER_LOCALITY_DELAY_MS =
+      MR_AM_PREFIX + "scheduler.locality.delay-ms";
+  public static final long DEFAULT_MR_AM_SCHEDULER_LOCALITY_DELAY_MS = 0l;
+
+  /**
+   * How long a launched container whose attempt finished is kept idle, when
+   * reuse is enabled and no waiting attempt fits it, before it is released.
+   * It is offered to the attempts which arrive in the meantime, by locality
+   * first. 0 releases such containers right away.
+   */
+  public static final String MR_AM_SCHEDULER_REUSE_IDLE_TIMEOUT_MS =
+      MR_AM_PREFIX + "scheduler.reuse.idle-timeout-ms";
+  public static final long DEFAULT_MR_AM_SCHEDULER_REUSE_IDLE_TIMEOUT_MS = 0l;
   
   /** How often the AM should send heartbeats to the RM.*/
   public static final String MR_AM_TO_RM_HEARTBEAT_INTERVAL_MS =
@@ -493,6 +566,36 @@ public interface MRJobConfig {
     MR_AM_PREFIX + "scheduler.connection.wait.interval-ms";
   public static final int DEFAULT_MR_AM_TO_RM_WAIT_INTERVAL_MS = 360000;
 
+  /**
+   * The minimum time between two heartbeats to the RM. A heartbeat is sent
+   * before MR_AM_TO_RM_HEARTBEAT_INTERVAL_MS has passed, but no earlier than
+   * this, when enough new containers have been requested or when new
+   * containers are requested while heartbeats are backed off.
+   */
+  public static final String MR_AM_TO_RM_HEARTBEAT_MIN_INTERVAL_MS =
+    MR_AM_PREFIX + "scheduler.heartbeat.min-interval-ms";
+  public static final int DEFAULT_MR_AM_TO_RM_HEARTBEAT_MIN_INTERVAL_MS = 100;
+
+  /**
+   * The interval up to which heartbeats to the RM are backed off, doubling
+   * each time, while the AM has nothing outstanding to ask from or release to
+   * the RM and nothing is allocated or completed. Set to
+   * MR_AM_TO_RM_HEARTBEAT_INTERVAL_MS or lower to disable backing off.
+   */
+  public static final String MR_AM_TO_RM_HEARTBEAT_MAX_INTERVAL_MS =
+    MR_AM_PREFIX + "scheduler.heartbeat.max-interval-ms";
+  public static final int DEFAULT_MR_AM_TO_RM_HEARTBEAT_MAX_INTERVAL_MS = 4000;
+
+  /**
+   * The number of containers requested since the last heartbeat to the RM
+   * which causes the next heartbeat to be sent early. 0 disables early
+   * heartbeats.
+   */
+  public static final String MR_AM_TO_RM_HEARTBEAT_EARLY_REQUEST_THRESHOLD =
+    MR_AM_PREFIX + "scheduler.heartbeat.early-request-threshold";
+  public static final int DEFAULT_MR_AM_TO_RM_HEARTBEAT_EARLY_REQUEST_THRESHOLD =
+      50;
+
   /**
    * Boolean. Create the base dirs in the JobHistoryEventHandler
    * Set to false for multi-user clusters.  This is an internal config that
@@ -520,7 +623,54 @@ public interface MRJobConfig {
       MR_AM_PREFIX + "history.use-batched-flush.queue-size.threshold";
   public static final int DEFAULT_MR_AM_HISTORY_USE_BATCHED_FLUSH_QUEUE_SIZE_THRESHOLD =
       50;
-  
+
+  /**
+   * The number of history events waiting to be written past which the writer
+   * catches up, writing all of them in batches of
+   * {@link #MR_AM_HISTORY_WRITE_BATCH_SIZE} with at most a single flush at
+   * the end, so that the queue stops growing. Components generating history
+   * events never wait for the writer.
+   */
+  public static final String MR_AM_HISTORY_EVENT_QUEUE_CATCH_UP_SIZE =
+      MR_AM_PREFIX + "history.event-queue.catch-up-size";
+  public static final int DEFAULT_MR_AM_HISTORY_EVENT_QUEUE_CATCH_UP_SIZE =
+      10000;
+
+  /**
+   * The maximum number of history events waiting to be written which are
+   * held in memory. Further events are queued in a local directory of the AM
+   * container until the writer catches up.
+   */
+  public static final String MR_AM_HISTORY_EVENT_QUEUE_MAX_MEMORY_EVENTS =
+      MR_AM_PREFIX + "history.event-queue.max-memory-events";
+  public static final int DEFAULT_MR_AM_HISTORY_EVENT_QUEUE_MAX_MEMORY_EVENTS =
+      10000;
+
+  /**
+   * The maximum number of queued history events written in one go, with at
+   * most a single flush at the end, while the writer keeps up.
+   */
+  public static final String MR_AM_HISTORY_WRITE_BATCH_SIZE =
+      MR_AM_PREFIX + "history.write-batch-size";
+  public static final int DEFAULT_MR_AM_HISTORY_WRITE_BATCH_SIZE = 100;
+
+  /**
+   * Whether the AM writes a checkpoint of its completed tasks to the staging
+   * dir, which the next AM recovers from instead of the job history file.
+   */
+  public static final String MR_AM_RECOVERY_CHECKPOINT_ENABLED =
+      MR_AM_PREFIX + "recovery.checkpoint.enabled";
+  public static final boolean DEFAULT_MR_AM_RECOVERY_CHECKPOINT_ENABLED = true;
+
+  /**
+   * The interval at which the recovery checkpoint is synced. Tasks completing
+   * within the last interval before the AM goes down are re-run.
+   */
+  public static final String MR_AM_RECOVERY_CHECKPOINT_SYNC_INTERVAL_MS =
+      MR_AM_PREFIX + "recovery.checkpoint.sync-interval-ms";
+  public static final long
+      DEFAULT_MR_AM_RECOVERY_CHECKPOINT_SYNC_INTERVAL_MS = 1000l;
+
   public static final String MR_AM_ENV =
       MR_AM_PREFIX + "env";
   
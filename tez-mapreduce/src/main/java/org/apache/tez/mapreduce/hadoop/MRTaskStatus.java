@@ -46,6 +46,7 @@ public class MRTaskStatus implements TezTaskStatus {
   private String userStatusInfo = "";
   private Phase phase;
   private TezCounters counters;
+  private boolean countersDelta = false;
   
   private long localOutputSize;
   List<TezTaskAttemptID> failedTaskDependencies = 
@@ -170,6 +171,12 @@ public class MRTaskStatus implements TezTaskStatus {
   @Override
   public void setCounters(TezCounters counters) {
     this.counters = counters;
+    this.countersDelta = false;
+  }
+
+  @Override
+  public boolean isCountersDelta() {
+    return countersDelta;
   }
 
   @Override
@@ -201,6 +208,13 @@ public class MRTaskStatus implements TezTaskStatus {
     setCounters(counters);
   }
 
+  @Override
+  synchronized public void statusUpdate(float progress,
+      String userDiagnosticInfo, TezCounters counters, boolean countersDelta) {
+    statusUpdate(progress, userDiagnosticInfo, counters);
+    this.countersDelta = countersDelta;
+  }
+
   @Override
   public void setOutputSize(long localOutputSize) {
     this.localOutputSize = localOutputSize;
@@ -254,6 +268,7 @@ public class MRTaskStatus implements TezTaskStatus {
     WritableUtils.writeString(out, userStatusInfo);
     WritableUtils.writeEnum(out, phase);
 
+    out.writeBoolean(countersDelta);
     counters.write(out);
     
     out.writeLong(localOutputSize);
@@ -277,6 +292,7 @@ public class MRTaskStatus implements TezTaskStatus {
     diagnostics = WritableUtils.readString(in);
     userStatusInfo = WritableUtils.readString(in);
     phase = WritableUtils.readEnum(in, Phase.class);
+    countersDelta = in.readBoolean();
     counters = new TezCounters();
     
     counters.readFields(in);
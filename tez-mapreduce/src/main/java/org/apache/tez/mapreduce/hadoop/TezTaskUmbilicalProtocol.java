@@ -36,7 +36,7 @@ import org.apache.tez.records.OutputContext;
 @InterfaceStability.Stable
 public interface TezTaskUmbilicalProtocol extends Master {
 
-  public static final long versionID = 19L;
+  public static final long versionID = 21L;
 
   ContainerTask getTask(ContainerContext containerContext) throws IOException;
   
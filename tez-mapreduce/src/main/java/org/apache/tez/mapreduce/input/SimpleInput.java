@@ -20,6 +20,8 @@ package org.apache.tez.mapreduce.input;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,9 +30,12 @@ import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileSystem.Statistics;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.serializer.Deserializer;
 import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
 import org.apache.hadoop.mapred.FileSplit;
 import org.apache.hadoop.mapred.InputSplit;
 import org.apache.hadoop.mapred.JobConf;
@@ -40,11 +45,14 @@ import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.split.JobSplit.TaskSplitIndex;
 import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.tez.api.BatchInput;
 import org.apache.tez.api.Input;
 import org.apache.tez.api.Master;
+import org.apache.tez.api.RecordBatch;
 import org.apache.tez.common.TezTask;
 import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.mapreduce.hadoop.MRJobConfig;
 import org.apache.tez.mapreduce.processor.MRTask;
 import org.apache.tez.mapreduce.processor.MRTaskReporter;
 
@@ -57,9 +65,13 @@ import com.google.inject.assistedinject.Assisted;
  *
  * It is compatible with all standard Apache Hadoop MapReduce 
  * {@link InputFormat} implementations.
+ * 
+ * Read as a {@link BatchInput}, the records are serialized using the
+ * serializations configured for the classes of the keys and values returned
+ * by the <code>RecordReader</code>.
  */
 @SuppressWarnings({ "unchecked", "rawtypes" })
-public class SimpleInput implements Input {
+public class SimpleInput implements BatchInput {
 
   private static final Log LOG = LogFactory.getLog(SimpleInput.class);
   
@@ -85,6 +97,27 @@ public class SimpleInput implements Input {
   private List<Statistics> fsStats;
   private MRTaskReporter reporter;
 
+  // Serialization of records read in batches
+  private Serializer batchKeySerializer;
+  private Serializer batchValueSerializer;
+  private DataOutputBuffer batchOutput;
+  private Class batchKeyClass;
+  private Class batchValueClass;
+  private Object batchReadKey;
+  private Object batchReadValue;
+
+  // Reading ahead of the consumer
+  private int prefetchBatches;
+  private Prefetcher prefetcher;
+  private volatile float prefetchedProgress;
+  private RecordBatch prefetchedBatch;
+  private int prefetchedRecord;
+  private boolean prefetchDone;
+  private Deserializer prefetchKeyDeserializer;
+  private Deserializer prefetchValueDeserializer;
+  private final DataInputBuffer prefetchKeyIn = new DataInputBuffer();
+  private final DataInputBuffer prefetchValueIn = new DataInputBuffer();
+
   @Inject
   public SimpleInput(
       @Assisted TezTask task
@@ -115,6 +148,11 @@ public class SimpleInput implements Input {
 
     reporter = task.getMRReporter();
 
+    prefetchBatches = 
+        jobConf.getInt(
+            MRJobConfig.MAP_INPUT_PREFETCH_BATCHES, 
+            MRJobConfig.DEFAULT_MAP_INPUT_PREFETCH_BATCHES);
+
     if (useNewApi) {
       try {
         newInputFormat = 
@@ -159,6 +197,10 @@ public class SimpleInput implements Input {
   }
 
   public boolean hasNext() throws IOException, InterruptedException {
+    if (startPrefetcher()) {
+      return nextPrefetched();
+    }
+
     boolean hasNext = false;
     long bytesInPrev = getInputBytes();
 
@@ -179,6 +221,245 @@ public class SimpleInput implements Input {
     return hasNext;
   }
 
+  /**
+   * Read the next records into <code>batch</code>. Input statistics, progress
+   * and the input record counter are updated once per batch.
+   */
+  @Override
+  public boolean nextBatch(RecordBatch batch)
+      throws IOException, InterruptedException {
+    if (startPrefetcher()) {
+      return nextPrefetchedBatch(batch);
+    }
+    return readBatch(batch);
+  }
+
+  private boolean readBatch(RecordBatch batch)
+      throws IOException, InterruptedException {
+    batch.clear();
+    long bytesInPrev = getInputBytes();
+
+    while (!batch.isFull()) {
+      Object k;
+      Object v;
+      if (useNewApi) {
+        if (!newRecordReader.nextKeyValue()) {
+          break;
+        }
+        k = newRecordReader.getCurrentKey();
+        v = newRecordReader.getCurrentValue();
+      } else {
+        if (batchReadKey == null) {
+          batchReadKey = oldRecordReader.createKey();
+          batchReadValue = oldRecordReader.createValue();
+        }
+        if (!oldRecordReader.next(batchReadKey, batchReadValue)) {
+          break;
+        }
+        k = batchReadKey;
+        v = batchReadValue;
+      }
+
+      if (batchOutput != batch.getOutput()) {
+        openBatchSerializers(batch.getOutput(), k, v);
+      }
+      batch.startKey();
+      batchKeySerializer.serialize(k);
+      batch.startValue();
+      batchValueSerializer.serialize(v);
+      batch.endRecord();
+    }
+    batch.setClasses(batchKeyClass, batchValueClass);
+
+    long bytesInCurr = getInputBytes();
+    fileInputByteCounter.increment(bytesInCurr - bytesInPrev);
+    prefetchedProgress = getReaderProgress();
+    reporter.setProgress(prefetchedProgress);
+    inputRecordCounter.increment(batch.size());
+
+    return !batch.isEmpty();
+  }
+
+  /**
+   * Start reading ahead on a thread of its own, if enabled and not already
+   * started. The reader is only started once the first record is asked for,
+   * as the new API record reader is initialized after this input.
+   * @return true if records are prefetched
+   */
+  private boolean startPrefetcher() {
+    if (prefetcher == null && prefetchBatches > 0) {
+      prefetcher = new Prefetcher(prefetchBatches);
+      prefetcher.start();
+    }
+    return prefetcher != null;
+  }
+
+  /**
+   * Move to the next prefetched batch, returning the current one to the
+   * prefetcher.
+   * @return false if the input is exhausted
+   */
+  private boolean takePrefetchedBatch()
+      throws IOException, InterruptedException {
+    if (prefetchedBatch != null) {
+      prefetcher.freeBatches.add(prefetchedBatch);
+      prefetchedBatch = null;
+    }
+    if (prefetchDone) {
+      return false;
+    }
+    RecordBatch batch = prefetcher.fullBatches.take();
+    if (batch.isEmpty()) {
+      // end of input, or the prefetcher failed
+      prefetchDone = true;
+      prefetcher.checkFailure();
+      return false;
+    }
+    if (prefetchKeyDeserializer == null) {
+      SerializationFactory factory = new SerializationFactory(jobConf);
+      prefetchKeyDeserializer = factory.getDeserializer(batchKeyClass);
+      prefetchKeyDeserializer.open(prefetchKeyIn);
+      prefetchValueDeserializer = factory.getDeserializer(batchValueClass);
+      prefetchValueDeserializer.open(prefetchValueIn);
+    }
+    prefetchedBatch = batch;
+    prefetchedRecord = 0;
+    return true;
+  }
+
+  private boolean nextPrefetched() throws IOException, InterruptedException {
+    while (prefetchedBatch == null ||
+        prefetchedRecord == prefetchedBatch.size()) {
+      if (!takePrefetchedBatch()) {
+        return false;
+      }
+    }
+    prefetchedBatch.getKey(prefetchedRecord, prefetchKeyIn);
+    prefetchedBatch.getValue(prefetchedRecord, prefetchValueIn);
+    ++prefetchedRecord;
+
+    Object k = prefetchKeyDeserializer.deserialize(key);
+    Object v = prefetchValueDeserializer.deserialize(value);
+    if (!useNewApi && (k != key || v != value)) {
+      // the old API reads into the caller's instances
+      throw new IOException("Prefetching input needs serializations which " +
+          "deserialize into the given instance, for " + batchKeyClass +
+          " and " + batchValueClass);
+    }
+    key = k;
+    value = v;
+    return true;
+  }
+
+  private boolean nextPrefetchedBatch(RecordBatch batch)
+      throws IOException, InterruptedException {
+    batch.clear();
+    while (!batch.isFull()) {
+      if (prefetchedBatch == null ||
+          prefetchedRecord == prefetchedBatch.size()) {
+        if (!takePrefetchedBatch()) {
+          break;
+        }
+        continue;
+      }
+      prefetchedBatch.getKey(prefetchedRecord, prefetchKeyIn);
+      prefetchedBatch.getValue(prefetchedRecord, prefetchValueIn);
+      ++prefetchedRecord;
+      batch.append(prefetchKeyIn, prefetchValueIn);
+    }
+    batch.setClasses(batchKeyClass, batchValueClass);
+    return !batch.isEmpty();
+  }
+
+  /**
+   * Reads the input ahead of the consumer into a bounded number of batches,
+   * so that the consumer's processing overlaps reading and decompressing the
+   * split. Input statistics, progress and the input record counter are
+   * updated as batches are read.
+   */
+  private class Prefetcher extends Thread {
+
+    final BlockingQueue<RecordBatch> freeBatches =
+        new LinkedBlockingQueue<RecordBatch>();
+    // an empty batch follows the last batch of input
+    final BlockingQueue<RecordBatch> fullBatches =
+        new LinkedBlockingQueue<RecordBatch>();
+    private volatile Throwable failure;
+
+    Prefetcher(int numBatches) {
+      setName("InputPrefetcher");
+      setDaemon(true);
+      for (int i = 0; i < numBatches; ++i) {
+        freeBatches.add(new RecordBatch());
+      }
+    }
+
+    @Override
+    public void run() {
+      try {
+        boolean more = true;
+        while (more) {
+          RecordBatch batch = freeBatches.take();
+          more = readBatch(batch);
+          fullBatches.add(batch);
+        }
+      } catch (InterruptedException ie) {
+        // closed before the input was exhausted
+        fullBatches.add(new RecordBatch(1, 0));
+      } catch (Throwable t) {
+        LOG.error("Failed to read input", t);
+        failure = t;
+        fullBatches.add(new RecordBatch(1, 0));
+      }
+    }
+
+    void checkFailure() throws IOException {
+      if (failure != null) {
+        throw new IOException("Failed to read input", failure);
+      }
+    }
+
+    void shutdown() throws IOException {
+      interrupt();
+      try {
+        join();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted waiting for the prefetcher", ie);
+      }
+    }
+  }
+
+  private void openBatchSerializers(DataOutputBuffer out, Object k, Object v)
+      throws IOException {
+    if (batchKeySerializer == null) {
+      SerializationFactory factory = new SerializationFactory(jobConf);
+      batchKeyClass = k.getClass();
+      batchValueClass = v.getClass();
+      batchKeySerializer = factory.getSerializer(batchKeyClass);
+      batchValueSerializer = factory.getSerializer(batchValueClass);
+    }
+    batchKeySerializer.open(out);
+    batchValueSerializer.open(out);
+    batchOutput = out;
+  }
+
+  /**
+   * @return the class of the keys in the batches read, <code>null</code> if
+   *         no records have been read in batches
+   */
+  public Class getBatchKeyClass() {
+    return batchKeyClass;
+  }
+
+  /**
+   * @return the class of the values in the batches read, <code>null</code> if
+   *         no records have been read in batches
+   */
+  public Class getBatchValueClass() {
+    return batchValueClass;
+  }
+
   private SimpleValueIterator vIter = new SimpleValueIterator();
   private SimpleIterable valuesIterable =
       new SimpleIterable(vIter);
@@ -194,7 +475,7 @@ public class SimpleInput implements Input {
   }
 
   public Object getNextKey() throws IOException, InterruptedException {
-    if (useNewApi) {
+    if (useNewApi && prefetcher == null) {
       return newRecordReader.getCurrentKey();
     } else {
       return key;
@@ -203,12 +484,22 @@ public class SimpleInput implements Input {
 
   public Iterable getNextValues() throws IOException,
       InterruptedException {
-    value = newRecordReader.getCurrentValue();
+    if (prefetcher == null) {
+      value = newRecordReader.getCurrentValue();
+    }
     vIter.setValue(value);
     return valuesIterable;
   }
 
   public float getProgress() throws IOException, InterruptedException {
+    if (prefetcher != null) {
+      // the record reader belongs to the prefetcher
+      return prefetchedProgress;
+    }
+    return getReaderProgress();
+  }
+
+  private float getReaderProgress() throws IOException, InterruptedException {
     if (useNewApi) {
       return newRecordReader.getProgress();
     } else {
@@ -217,6 +508,9 @@ public class SimpleInput implements Input {
   }
 
   public void close() throws IOException {
+    if (prefetcher != null) {
+      prefetcher.shutdown();
+    }
     long bytesInPrev = getInputBytes();
     if (useNewApi) {
       newRecordReader.close();
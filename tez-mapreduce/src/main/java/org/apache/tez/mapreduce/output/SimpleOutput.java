@@ -23,10 +23,15 @@ import java.util.List;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileSystem.Statistics;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.serializer.Deserializer;
+import org.apache.hadoop.io.serializer.SerializationFactory;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.tez.api.BatchOutput;
 import org.apache.tez.api.Master;
 import org.apache.tez.api.Output;
+import org.apache.tez.api.RecordBatch;
 import org.apache.tez.common.TezTask;
 import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.mapreduce.processor.MRTask;
@@ -42,9 +47,12 @@ import com.google.inject.assistedinject.Assisted;
  * 
  * It is compatible with all standard Apache Hadoop MapReduce 
  * {@link OutputFormat} implementations. 
+ * 
+ * Records written as a {@link BatchOutput} must be serialized as the job's
+ * output key and value classes.
  */
 @SuppressWarnings({ "unchecked", "rawtypes" })
-public class SimpleOutput implements Output {
+public class SimpleOutput implements BatchOutput {
 
   private MRTask task;
   
@@ -62,6 +70,14 @@ public class SimpleOutput implements Output {
   private TezCounter fileOutputByteCounter; 
   private List<Statistics> fsStats;
   private MRTaskReporter reporter;
+
+  // Deserialization of records written in batches
+  private Deserializer batchKeyDeserializer;
+  private Deserializer batchValueDeserializer;
+  private final DataInputBuffer batchKeyIn = new DataInputBuffer();
+  private final DataInputBuffer batchValueIn = new DataInputBuffer();
+  private Object batchKey;
+  private Object batchValue;
   
   @Inject
   public SimpleOutput(
@@ -162,6 +178,44 @@ public class SimpleOutput implements Output {
 
   }
 
+  /**
+   * Write all records in <code>batch</code>, deserializing each into a reused
+   * key and value. Output statistics and the output record counter are
+   * updated once per batch.
+   */
+  @Override
+  public void write(RecordBatch batch)
+      throws IOException, InterruptedException {
+    if (batchKeyDeserializer == null) {
+      SerializationFactory factory = new SerializationFactory(jobConf);
+      batchKeyDeserializer =
+          factory.getDeserializer(jobConf.getOutputKeyClass());
+      batchKeyDeserializer.open(batchKeyIn);
+      batchValueDeserializer =
+          factory.getDeserializer(jobConf.getOutputValueClass());
+      batchValueDeserializer.open(batchValueIn);
+    }
+
+    reporter.progress();
+    long bytesOutPrev = getOutputBytes();
+
+    for (int i = 0; i < batch.size(); ++i) {
+      batch.getKey(i, batchKeyIn);
+      batchKey = batchKeyDeserializer.deserialize(batchKey);
+      batch.getValue(i, batchValueIn);
+      batchValue = batchValueDeserializer.deserialize(batchValue);
+      if (useNewApi) {
+        newRecordWriter.write(batchKey, batchValue);
+      } else {
+        oldRecordWriter.write(batchKey, batchValue);
+      }
+    }
+
+    long bytesOutCurr = getOutputBytes();
+    fileOutputByteCounter.increment(bytesOutCurr - bytesOutPrev);
+    outputRecordCounter.increment(batch.size());
+  }
+
   public void close() throws IOException, InterruptedException {
     reporter.progress();
     long bytesOutPrev = getOutputBytes();
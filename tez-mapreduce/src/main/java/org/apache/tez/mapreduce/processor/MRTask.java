@@ -113,6 +113,10 @@ extends org.apache.tez.common.TezTask {
    */
   private Map<String, FileSystemStatisticUpdater> statisticUpdaters =
      new HashMap<String, FileSystemStatisticUpdater>();
+  /**
+   * The number of FileSystem statistics the statisticUpdaters were set up for
+   */
+  private int numFileSystemStatistics = -1;
 
   public MRTask(TezTask context) {
     super(context.getTaskAttemptId(), context.getUser(), context.getJobName(),
@@ -517,29 +521,33 @@ extends org.apache.tez.common.TezTask {
   }
 
   public void updateCounters() {
-    // TODO Auto-generated method stub
-    // TODO TEZAM Implement.
-    Map<String, List<FileSystem.Statistics>> map = new 
-        HashMap<String, List<FileSystem.Statistics>>();
-    for(Statistics stat: FileSystem.getAllStatistics()) {
-      String uriScheme = stat.getScheme();
-      if (map.containsKey(uriScheme)) {
-        List<FileSystem.Statistics> list = map.get(uriScheme);
-        list.add(stat);
-      } else {
-        List<FileSystem.Statistics> list = new ArrayList<FileSystem.Statistics>();
-        list.add(stat);
-        map.put(uriScheme, list);
+    // FileSystem instances are cached, hence the set of statistics rarely
+    // changes. Only regroup them by scheme when it does.
+    List<Statistics> allStatistics = FileSystem.getAllStatistics();
+    if (allStatistics.size() != numFileSystemStatistics) {
+      Map<String, List<FileSystem.Statistics>> map = new 
+          HashMap<String, List<FileSystem.Statistics>>();
+      for(Statistics stat: allStatistics) {
+        String uriScheme = stat.getScheme();
+        if (map.containsKey(uriScheme)) {
+          List<FileSystem.Statistics> list = map.get(uriScheme);
+          list.add(stat);
+        } else {
+          List<FileSystem.Statistics> list =
+              new ArrayList<FileSystem.Statistics>();
+          list.add(stat);
+          map.put(uriScheme, list);
+        }
       }
-    }
-    for (Map.Entry<String, List<FileSystem.Statistics>> entry: map.entrySet()) {
-      FileSystemStatisticUpdater updater = statisticUpdaters.get(entry.getKey());
-      if(updater==null) {//new FileSystem has been found in the cache
-        updater =
+      for (Map.Entry<String, List<FileSystem.Statistics>> entry:
+          map.entrySet()) {
+        statisticUpdaters.put(entry.getKey(),
             new FileSystemStatisticUpdater(counters, entry.getValue(),
-                entry.getKey());
-        statisticUpdaters.put(entry.getKey(), updater);
+                entry.getKey()));
       }
+      numFileSystemStatistics = allStatistics.size();
+    }
+    for (FileSystemStatisticUpdater updater : statisticUpdaters.values()) {
       updater.updateCounters();
     }
     
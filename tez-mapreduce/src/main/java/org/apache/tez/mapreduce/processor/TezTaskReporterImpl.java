@@ -29,7 +29,9 @@ import org.apache.hadoop.ipc.ProtocolSignature;
 import org.apache.hadoop.util.Progress;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
+import org.apache.tez.common.counters.CounterGroup;
 import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.mapreduce.hadoop.TezTaskUmbilicalProtocol;
 import org.apache.tez.records.TezJobID;
 import org.apache.tez.records.TezTaskAttemptID;
@@ -41,6 +43,11 @@ class TezTaskReporterImpl
     implements org.apache.tez.common.TezTaskReporter, Runnable {
 
   private static final Log LOG = LogFactory.getLog(TezTaskReporterImpl.class);
+
+  /** The longest interval between progress reports. */
+  private static final long MAX_PROGRESS_INTERVAL = 30 * 1000;
+  /** Minimum ratio of the progress interval to the time taken by a report. */
+  private static final long PROGRESS_INTERVAL_TO_RPC_TIME_RATIO = 100;
   
   private final MRTask mrTask;
   private final TezTaskUmbilicalProtocol umbilical;
@@ -56,6 +63,25 @@ class TezTaskReporterImpl
    * Using AtomicBoolean since we need an atomic read & reset method. 
    */  
   private AtomicBoolean progressFlag = new AtomicBoolean(false);
+
+  /**
+   * The counters as last reported to the parent. Progress updates only carry
+   * the counters which changed since.
+   */
+  private final TezCounters reportedCounters = new TezCounters();
+
+  /**
+   * Whether the parent has received all the counters once. Until it has, the
+   * changes are sent as all the counters, for the parent to apply later
+   * changes to.
+   */
+  private boolean countersReported = false;
+
+  /**
+   * The interval between progress reports, stretched while the parent is
+   * slow to respond i.e. under load.
+   */
+  private long progressInterval = MRTask.PROGRESS_INTERVAL;
   
   TezTaskReporterImpl(MRTask mrTask, TezTaskUmbilicalProtocol umbilical) {
     this.mrTask = mrTask;
@@ -147,28 +173,41 @@ class TezTaskReporterImpl
           if (this.mrTask.taskDone.get()) {
             break;
           }
-          lock.wait(MRTask.PROGRESS_INTERVAL);
+          lock.wait(progressInterval);
         }
         if (this.mrTask.taskDone.get()) {
           break;
         }
 
+        long startTime = System.currentTimeMillis();
         if (sendProgress) {
           // we need to send progress update
           this.mrTask.updateCounters();
+          TezCounters changedCounters = getChangedCounters();
           this.mrTask.getStatus().statusUpdate(
               taskProgress.get(),
               taskProgress.toString(), 
-              this.mrTask.counters);
-          taskFound = 
-              umbilical.statusUpdate(
-                  this.mrTask.getTaskAttemptId(), this.mrTask.getStatus());
+              changedCounters, countersReported);
+          try {
+            taskFound = 
+                umbilical.statusUpdate(
+                    this.mrTask.getTaskAttemptId(), this.mrTask.getStatus());
+          } finally {
+            // Status updates sent by the task itself carry all the counters
+            this.mrTask.getStatus().setCounters(this.mrTask.counters);
+          }
+          reportedCounters.setAllCounters(changedCounters);
+          countersReported = true;
           this.mrTask.getStatus().clearStatus();
         }
         else {
           // send ping 
           taskFound = umbilical.ping(this.mrTask.getTaskAttemptId());
         }
+        progressInterval = Math.min(MAX_PROGRESS_INTERVAL,
+            Math.max(MRTask.PROGRESS_INTERVAL,
+                (System.currentTimeMillis() - startTime)
+                    * PROGRESS_INTERVAL_TO_RPC_TIME_RATIO));
 
         // if Task Tracker is not aware of our task ID (probably because it died and 
         // came back up), kill ourselves
@@ -195,6 +234,27 @@ class TezTaskReporterImpl
     //Notify that we are done with the work
     resetDoneFlag();
   }
+
+  /**
+   * Get the counters whose values differ from those last reported. Values are
+   * absolute rather than increments, so that re-sending them after a failed
+   * status update is harmless.
+   */
+  private TezCounters getChangedCounters() {
+    TezCounters changedCounters = new TezCounters();
+    for (CounterGroup group : this.mrTask.counters) {
+      CounterGroup reportedGroup = reportedCounters.getGroup(group.getName());
+      for (TezCounter counter : group) {
+        long value = counter.getValue();
+        if (reportedGroup.findCounter(counter.getName()).getValue() != value) {
+          changedCounters.findCounter(group.getName(), counter.getName())
+              .setValue(value);
+        }
+      }
+    }
+    return changedCounters;
+  }
+
   void resetDoneFlag() {
     synchronized (lock) {
       done = true;
@@ -25,6 +25,8 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.JobContext;
 import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.MapRunner;
+import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.RecordReader;
 import org.apache.hadoop.mapred.Reporter;
@@ -43,6 +45,7 @@ import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.common.counters.TaskCounter;
 import org.apache.tez.engine.common.sort.SortingOutput;
 import org.apache.tez.mapreduce.hadoop.IDConverter;
+import org.apache.tez.mapreduce.hadoop.MRJobConfig;
 import org.apache.tez.mapreduce.hadoop.mapred.TaskAttemptContextImpl;
 import org.apache.tez.mapreduce.input.SimpleInput;
 import org.apache.tez.mapreduce.output.SimpleOutput;
@@ -112,7 +115,14 @@ public class MapProcessor extends MRTask implements Processor {
     }
     SimpleInput input = (SimpleInput)in;
     
-    if (useNewApi) {
+    int numThreads = 
+        jobConf.getInt(MRJobConfig.MAP_THREADS, MRJobConfig.DEFAULT_MAP_THREADS);
+    if (numThreads > 1 && useNewApi) {
+      runParallelNewMapper(jobConf, reporter, input, out, numThreads);
+    } else if (numThreads > 1 && 
+        jobConf.getMapRunnerClass() == MapRunner.class) {
+      runParallelOldMapper(jobConf, reporter, input, out, numThreads);
+    } else if (useNewApi) {
       runNewMapper(jobConf, getSplitIndex(), reporter, input, out, getTaskReporter());
     } else {
       runOldMapper(jobConf, getSplitIndex(), reporter, input, out, getTaskReporter());
@@ -212,6 +222,163 @@ public class MapProcessor extends MRTask implements Processor {
     output.close(mapperContext);
   }
 
+  private void runParallelOldMapper(
+      final JobConf job,
+      final MRTaskReporter reporter,
+      final SimpleInput input,
+      final Output output,
+      int numThreads
+      ) throws IOException, InterruptedException {
+    ParallelMapRunner runner = 
+        new ParallelMapRunner(job, input, output, numThreads) {
+      @Override
+      protected void runMapper(WorkerInput in, WorkerOutput out)
+          throws IOException, InterruptedException {
+        Mapper mapper = 
+            ReflectionUtils.newInstance(job.getMapperClass(), job);
+        try {
+          while (in.next()) {
+            mapper.map(in.getKey(), in.getValue(), out, (Reporter)reporter);
+          }
+        } finally {
+          mapper.close();
+        }
+      }
+    };
+
+    try {
+      runner.run();
+      mapPhase.complete();
+      // start the sort phase only if there are reducers
+      if (job.getNumReduceTasks() > 0) {
+        setPhase(TezTaskStatus.Phase.SORT);
+      }
+      this.statusUpdate();
+    } finally {
+      //close
+      input.close();
+      output.close();
+    }
+  }
+
+  private void runParallelNewMapper(
+      final JobConf job,
+      final MRTaskReporter reporter,
+      final SimpleInput in,
+      final Output out,
+      int numThreads
+      ) throws IOException, InterruptedException {
+    // make a task context so we can get the classes
+    org.apache.hadoop.mapreduce.TaskAttemptContext taskContext =
+        new TaskAttemptContextImpl(job, getTaskAttemptId(), reporter);
+
+    final Class mapperClass;
+    try {
+      mapperClass = taskContext.getMapperClass();
+    } catch (ClassNotFoundException cnfe) {
+      throw new IOException(cnfe);
+    }
+
+    final org.apache.hadoop.mapreduce.InputSplit split = 
+        in.getNewInputSplit();
+    in.initializeNewRecordReader(split, taskContext);
+
+    ParallelMapRunner runner = 
+        new ParallelMapRunner(job, in, out, numThreads) {
+      @Override
+      protected void runMapper(final WorkerInput workerIn,
+          final WorkerOutput workerOut)
+          throws IOException, InterruptedException {
+        org.apache.hadoop.mapreduce.Mapper mapper = 
+            (org.apache.hadoop.mapreduce.Mapper)
+            ReflectionUtils.newInstance(mapperClass, job);
+        
+        org.apache.hadoop.mapreduce.MapContext 
+        mapContext = 
+        new org.apache.tez.mapreduce.hadoop.mapreduce.MapContextImpl(
+            job, IDConverter.toMRTaskAttemptId(getTaskAttemptId()), 
+            new WorkerRecordReader(workerIn), 
+            new WorkerRecordWriter(workerOut), 
+            getCommitter(), 
+            reporter, split);
+
+        mapper.run(new WrappedMapper().getMapContext(mapContext));
+      }
+    };
+
+    try {
+      runner.run();
+      mapPhase.complete();
+      setPhase(TezTaskStatus.Phase.SORT);
+      this.statusUpdate();
+    } finally {
+      //close
+      in.close();
+      out.close();
+    }
+  }
+
+  private static class WorkerRecordReader extends
+      org.apache.hadoop.mapreduce.RecordReader {
+    private final ParallelMapRunner.WorkerInput in;
+
+    private WorkerRecordReader(ParallelMapRunner.WorkerInput in) {
+      this.in = in;
+    }
+
+    @Override
+    public void initialize(org.apache.hadoop.mapreduce.InputSplit split,
+        TaskAttemptContext context) {
+      // the input is initialized once, for all the workers
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException,
+        InterruptedException {
+      return in.next();
+    }
+
+    @Override
+    public Object getCurrentKey() {
+      return in.getKey();
+    }
+
+    @Override
+    public Object getCurrentValue() {
+      return in.getValue();
+    }
+
+    @Override
+    public float getProgress() {
+      return in.getProgress();
+    }
+
+    @Override
+    public void close() {
+      // the input is closed once all the workers are done
+    }
+  }
+
+  private static class WorkerRecordWriter
+    extends org.apache.hadoop.mapreduce.RecordWriter {
+    private final ParallelMapRunner.WorkerOutput out;
+
+    WorkerRecordWriter(ParallelMapRunner.WorkerOutput out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(Object key, Object value) 
+        throws IOException, InterruptedException {
+      out.write(key, value);
+    }
+
+    @Override
+    public void close(TaskAttemptContext context) {
+      // the output is closed once all the workers are done
+    }
+  }
+
   private static class NewRecordReader extends
       org.apache.hadoop.mapreduce.RecordReader {
     private final SimpleInput in;
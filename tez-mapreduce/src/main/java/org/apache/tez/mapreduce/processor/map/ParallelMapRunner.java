@@ -0,0 +1,371 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.mapreduce.processor.map;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.serializer.Deserializer;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.tez.api.Output;
+import org.apache.tez.api.RecordBatch;
+import org.apache.tez.engine.common.ConfigUtils;
+import org.apache.tez.engine.common.sort.SortingOutput;
+import org.apache.tez.mapreduce.input.SimpleInput;
+
+/**
+ * Runs the map function of a task on several threads.
+ * 
+ * The calling thread reads the input in batches of serialized records and
+ * hands them to the worker threads over a queue. Each worker deserializes the
+ * records into a key and value of its own, and runs a mapper of its own.
+ * 
+ * Map output for a {@link SortingOutput} is collected by each worker into a
+ * batch of its own, which is written to the sorter once full. The workers
+ * contend for the sorter once per batch rather than once per record. Any
+ * other output is written to under a lock.
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+abstract class ParallelMapRunner {
+
+  private static final Log LOG = LogFactory.getLog(ParallelMapRunner.class);
+
+  // queued once per worker after the last batch of input
+  private static final RecordBatch END_OF_INPUT = new RecordBatch(1, 0);
+
+  // batches of input per worker, bounding how far reading runs ahead
+  private static final int BATCHES_PER_THREAD = 2;
+
+  private static final long POLL_INTERVAL_MS = 100;
+
+  private final JobConf job;
+  private final SimpleInput input;
+  private final Output output;
+  private final int numThreads;
+
+  private final BlockingQueue<RecordBatch> freeBatches =
+      new LinkedBlockingQueue<RecordBatch>();
+  private final BlockingQueue<RecordBatch> fullBatches =
+      new LinkedBlockingQueue<RecordBatch>();
+
+  private volatile float progress;
+  private volatile Throwable failure;
+  // the thread reading the input, until it is done
+  private Thread reader;
+  private boolean readerInterrupted;
+
+  ParallelMapRunner(JobConf job, SimpleInput input, Output output,
+      int numThreads) {
+    this.job = job;
+    this.input = input;
+    this.output = output;
+    this.numThreads = numThreads;
+    for (int i = 0; i < BATCHES_PER_THREAD * numThreads; ++i) {
+      freeBatches.add(new RecordBatch());
+    }
+  }
+
+  /**
+   * Run the map function over the records of <code>in</code>. Called on each
+   * worker thread.
+   */
+  protected abstract void runMapper(WorkerInput in, WorkerOutput out)
+      throws IOException, InterruptedException;
+
+  void run() throws IOException, InterruptedException {
+    LOG.info("Running the mapper on " + numThreads + " threads");
+    synchronized (this) {
+      reader = Thread.currentThread();
+    }
+    Worker[] workers = new Worker[numThreads];
+    try {
+      for (int i = 0; i < numThreads; ++i) {
+        workers[i] = new Worker(i);
+        workers[i].start();
+      }
+      readInput();
+    } catch (Throwable t) {
+      fail(t);
+    } finally {
+      synchronized (this) {
+        reader = null;
+        if (readerInterrupted) {
+          // raised by a failed worker, which is reported below
+          Thread.interrupted();
+        }
+      }
+      if (failure != null) {
+        // the workers need not map the input which is left
+        fullBatches.clear();
+      }
+      for (int i = 0; i < numThreads; ++i) {
+        fullBatches.add(END_OF_INPUT);
+      }
+      joinWorkers(workers);
+    }
+
+    Throwable t = failure;
+    if (t != null) {
+      if (t instanceof IOException) {
+        throw (IOException) t;
+      } else if (t instanceof InterruptedException) {
+        throw (InterruptedException) t;
+      } else if (t instanceof RuntimeException) {
+        throw (RuntimeException) t;
+      } else if (t instanceof Error) {
+        throw (Error) t;
+      }
+      throw new IOException(t);
+    }
+  }
+
+  /**
+   * Record the first failure. A worker failing interrupts the reading of the
+   * input, which may be blocked.
+   */
+  private synchronized void fail(Throwable t) {
+    if (failure != null) {
+      return;
+    }
+    failure = t;
+    if (reader != null && reader != Thread.currentThread()) {
+      reader.interrupt();
+      readerInterrupted = true;
+    }
+  }
+
+  /**
+   * Wait for the workers to exit. If the wait is interrupted, the workers are
+   * interrupted too, and still waited for.
+   */
+  private void joinWorkers(Worker[] workers) {
+    boolean interrupted = false;
+    for (Worker worker : workers) {
+      while (worker != null) {
+        try {
+          worker.join();
+          break;
+        } catch (InterruptedException ie) {
+          if (!interrupted) {
+            interrupted = true;
+            fail(ie);
+            for (Worker w : workers) {
+              if (w != null) {
+                w.interrupt();
+              }
+            }
+          }
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void readInput() throws IOException, InterruptedException {
+    while (failure == null) {
+      RecordBatch batch =
+          freeBatches.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+      if (batch == null) {
+        continue;
+      }
+      if (!input.nextBatch(batch)) {
+        return;
+      }
+      progress = input.getProgress();
+      fullBatches.add(batch);
+    }
+  }
+
+  private class Worker extends Thread {
+
+    private final WorkerInput in = new WorkerInput();
+    private final WorkerOutput out = new WorkerOutput();
+
+    Worker(int id) {
+      setName("MapWorker-" + id);
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try {
+        runMapper(in, out);
+        out.flush();
+      } catch (Throwable t) {
+        LOG.error(getName() + " failed", t);
+        fail(t);
+      }
+    }
+  }
+
+  /**
+   * The records of the input handed to a worker.
+   */
+  class WorkerInput {
+
+    private RecordBatch batch;
+    private int next;
+    private boolean done;
+
+    private final DataInputBuffer keyIn = new DataInputBuffer();
+    private final DataInputBuffer valueIn = new DataInputBuffer();
+    private Deserializer keyDeserializer;
+    private Deserializer valueDeserializer;
+    private Object key;
+    private Object value;
+
+    /**
+     * Move to the next record.
+     * @return false if there are no more records
+     */
+    boolean next() throws IOException, InterruptedException {
+      while (batch == null || next == batch.size()) {
+        if (batch != null) {
+          freeBatches.add(batch);
+          batch = null;
+        }
+        if (done) {
+          return false;
+        }
+        RecordBatch b = fullBatches.take();
+        if (b == END_OF_INPUT) {
+          done = true;
+          return false;
+        }
+        batch = b;
+        next = 0;
+      }
+
+      if (keyDeserializer == null) {
+        // the classes are known once a batch has been read
+        SerializationFactory factory = new SerializationFactory(job);
+        keyDeserializer = factory.getDeserializer(batch.getKeyClass());
+        keyDeserializer.open(keyIn);
+        valueDeserializer =
+            factory.getDeserializer(batch.getValueClass());
+        valueDeserializer.open(valueIn);
+      }
+      batch.getKey(next, keyIn);
+      key = keyDeserializer.deserialize(key);
+      batch.getValue(next, valueIn);
+      value = valueDeserializer.deserialize(value);
+      ++next;
+      return true;
+    }
+
+    Object getKey() {
+      return key;
+    }
+
+    Object getValue() {
+      return value;
+    }
+
+    /**
+     * @return the progress through the input as of the last batch read
+     */
+    float getProgress() {
+      return progress;
+    }
+  }
+
+  /**
+   * The map output of a worker.
+   */
+  class WorkerOutput implements OutputCollector {
+
+    private final SortingOutput sortingOutput;
+    private RecordBatch batch;
+    private Class keyClass;
+    private Class valueClass;
+    private Serializer keySerializer;
+    private Serializer valueSerializer;
+
+    WorkerOutput() {
+      sortingOutput =
+          output instanceof SortingOutput ? (SortingOutput) output : null;
+    }
+
+    @Override
+    public void collect(Object key, Object value) throws IOException {
+      try {
+        write(key, value);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupt exception", ie);
+      }
+    }
+
+    void write(Object key, Object value)
+        throws IOException, InterruptedException {
+      if (sortingOutput == null) {
+        synchronized (output) {
+          output.write(key, value);
+        }
+        return;
+      }
+
+      if (batch == null) {
+        batch = new RecordBatch();
+        keyClass = ConfigUtils.getMapOutputKeyClass(job);
+        valueClass = ConfigUtils.getMapOutputValueClass(job);
+        SerializationFactory factory = new SerializationFactory(job);
+        keySerializer = factory.getSerializer(keyClass);
+        keySerializer.open(batch.getOutput());
+        valueSerializer = factory.getSerializer(valueClass);
+        valueSerializer.open(batch.getOutput());
+        batch.setClasses(keyClass, valueClass);
+      }
+      if (key.getClass() != keyClass) {
+        throw new IOException("Type mismatch in key from map: expected "
+                              + keyClass.getName() + ", received "
+                              + key.getClass().getName());
+      }
+      if (value.getClass() != valueClass) {
+        throw new IOException("Type mismatch in value from map: expected "
+                              + valueClass.getName() + ", received "
+                              + value.getClass().getName());
+      }
+      batch.startKey();
+      keySerializer.serialize(key);
+      batch.startValue();
+      valueSerializer.serialize(value);
+      batch.endRecord();
+      if (batch.isFull()) {
+        flush();
+      }
+    }
+
+    void flush() throws IOException, InterruptedException {
+      if (batch != null && !batch.isEmpty()) {
+        sortingOutput.write(batch);
+        batch.clear();
+      }
+    }
+  }
+}
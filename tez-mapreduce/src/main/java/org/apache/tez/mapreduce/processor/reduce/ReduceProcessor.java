@@ -23,26 +23,31 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.mapred.Counters.Counter;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.JobContext;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.util.Progress;
 import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.tez.api.BatchOutput;
 import org.apache.tez.api.Input;
 import org.apache.tez.api.Master;
 import org.apache.tez.api.Output;
 import org.apache.tez.api.Processor;
+import org.apache.tez.api.RecordBatch;
 import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.TezTask;
 import org.apache.tez.common.TezTaskStatus;
 import org.apache.tez.common.counters.TezCounter;
 import org.apache.tez.common.counters.TaskCounter;
 import org.apache.tez.engine.common.ConfigUtils;
+import org.apache.tez.engine.common.sort.SortingOutput;
 import org.apache.tez.engine.common.sort.impl.TezRawKeyValueIterator;
 import org.apache.tez.engine.lib.input.ShuffledMergedInput;
 import org.apache.tez.mapreduce.hadoop.TezTaskUmbilicalProtocol;
@@ -101,6 +106,8 @@ implements Processor {
     
     if (out instanceof SimpleOutput) {
       ((SimpleOutput)out).setTask(this);
+    } else if (out instanceof SortingOutput) {
+      ((SortingOutput)out).setTask(this);
     }
     
     in.initialize(jobConf, getTaskReporter());
@@ -129,20 +136,23 @@ implements Processor {
     }
     ShuffledMergedInput shuffleInput = (ShuffledMergedInput)in;
 
-    if (useNewApi) {
+    if (out instanceof BatchOutput &&
+        isIdentityReducer(useNewApi, out, keyClass, valueClass)) {
+      runIdentityReducer(
+          reporter, shuffleInput, comparator, (BatchOutput) out);
+    } else if (useNewApi) {
       try {
         runNewReducer(
             jobConf, 
             (TezTaskUmbilicalProtocol)getUmbilical(), reporter, 
-            shuffleInput, comparator,  keyClass, valueClass, 
-            (SimpleOutput) out);
+            shuffleInput, comparator,  keyClass, valueClass, out);
       } catch (ClassNotFoundException cnfe) {
         throw new IOException(cnfe);
       }
     } else {
       runOldReducer(
           jobConf, (TezTaskUmbilicalProtocol)getUmbilical(), reporter, 
-          shuffleInput, comparator, keyClass, valueClass, (SimpleOutput) out);
+          shuffleInput, comparator, keyClass, valueClass, out);
     }
     
     done(out.getOutputContext(), reporter);
@@ -153,6 +163,83 @@ implements Processor {
     
   }
 
+  /**
+   * Check if the reducer passes its input through unchanged, in which case the
+   * merged records can be moved to the output in batches, without being
+   * deserialized into groups.
+   * 
+   * A {@link SortingOutput} of an intermediate stage serializes records as the
+   * same classes as are read from the input. Any other output writes the
+   * job's output classes, which must then match the input classes.
+   * 
+   * Only the identity reducer classes themselves qualify. A subclass may
+   * override reduce, so it is run as any other reducer.
+   */
+  private boolean isIdentityReducer(boolean useNewApi, Output out,
+      Class keyClass, Class valueClass) throws IOException {
+    if (!(out instanceof SortingOutput) &&
+        (keyClass != jobConf.getOutputKeyClass() ||
+            valueClass != jobConf.getOutputValueClass())) {
+      return false;
+    }
+    if (useNewApi) {
+      try {
+        return getTaskAttemptContext().getReducerClass() ==
+            org.apache.hadoop.mapreduce.Reducer.class;
+      } catch (ClassNotFoundException cnfe) {
+        throw new IOException(cnfe);
+      }
+    }
+    return jobConf.getReducerClass() == IdentityReducer.class;
+  }
+
+  void runIdentityReducer(final MRTaskReporter reporter,
+      ShuffledMergedInput input,
+      RawComparator comparator,
+      BatchOutput output) throws IOException, InterruptedException {
+    LOG.info("Identity reducer, moving records to the output in batches");
+    RecordBatch batch = new RecordBatch();
+    // the last key of the previous batch, to count groups across batches
+    DataOutputBuffer lastKey = new DataOutputBuffer();
+    boolean first = true;
+
+    while (input.nextBatch(batch)) {
+      byte[] data = batch.getData();
+      int groups = 0;
+      for (int i = 0; i < batch.size(); ++i) {
+        int keyStart = batch.getKeyStart(i);
+        int keyLength = batch.getValueStart(i) - keyStart;
+        if (i == 0) {
+          if (first || comparator.compare(
+              lastKey.getData(), 0, lastKey.getLength(),
+              data, keyStart, keyLength) != 0) {
+            ++groups;
+          }
+        } else {
+          int prevKeyStart = batch.getKeyStart(i - 1);
+          if (comparator.compare(
+              data, prevKeyStart, batch.getValueStart(i - 1) - prevKeyStart,
+              data, keyStart, keyLength) != 0) {
+            ++groups;
+          }
+        }
+      }
+      first = false;
+      int last = batch.size() - 1;
+      lastKey.reset();
+      lastKey.write(data, batch.getKeyStart(last),
+          batch.getValueStart(last) - batch.getKeyStart(last));
+
+      reduceInputKeyCounter.increment(groups);
+      reduceInputValueCounter.increment(batch.size());
+      output.write(batch);
+
+      reducePhase.set(input.getProgress());
+      reporter.progress();
+    }
+    output.close();
+  }
+
   void runOldReducer(JobConf job,
       TezTaskUmbilicalProtocol umbilical,
       final MRTaskReporter reporter,
@@ -160,7 +247,7 @@ implements Processor {
       RawComparator comparator,
       Class keyClass,
       Class valueClass,
-      final SimpleOutput output) throws IOException, InterruptedException {
+      final Output output) throws IOException, InterruptedException {
     
     Reducer reducer = 
         ReflectionUtils.newInstance(job.getReducerClass(), job);
@@ -240,6 +327,12 @@ implements Processor {
       return super.next();
     }
 
+    @Override
+    public DataInputBuffer nextRaw() throws IOException {
+      reduceInputValueCounter.increment(1);
+      return super.nextRaw();
+    }
+
     public void informReduceProgress() {
       reducePhase.set(super.in.getProgress().getProgress()); // update progress
       reporter.progress();
@@ -253,7 +346,7 @@ implements Processor {
       RawComparator comparator,
       Class keyClass,
       Class valueClass,
-      final SimpleOutput out
+      final Output out
       ) throws IOException,InterruptedException, 
       ClassNotFoundException {
     // wrap value iterator to report progress.
@@ -0,0 +1,108 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.tez.mapreduce.task.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.hadoop.yarn.YarnException;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+/**
+ * State which is expensive to set up and identical for every task run by a
+ * container, all of which belong to the same job. It is kept around so that
+ * tasks in a reused container start up quickly.
+ *
+ * Holds the job configuration as parsed from the localized job.xml, before
+ * any task specific changes are made to it, and a Guice {@link Injector} per
+ * task-module. The task-modules only bind factories, so the injectors can
+ * safely be shared by consecutive tasks.
+ */
+class TaskRuntimeCache {
+
+  private static final Log LOG = LogFactory.getLog(TaskRuntimeCache.class);
+
+  private final JobConf baseConf;
+  private final Map<String, Injector> injectors =
+      new HashMap<String, Injector>();
+  private Path workDir;
+
+  /**
+   * @param jobConf the job configuration. job.xml is overwritten with the
+   *          configuration of the running task, so this must be loaded before
+   *          the first task is configured.
+   */
+  TaskRuntimeCache(JobConf jobConf) {
+    // Force the resources to be loaded so that copies don't re-parse them.
+    jobConf.size();
+    this.baseConf = new JobConf(jobConf);
+  }
+
+  /**
+   * Get a fresh copy of the job configuration, which the caller is free to
+   * modify.
+   */
+  synchronized JobConf getJobConf() {
+    return new JobConf(baseConf);
+  }
+
+  synchronized Injector getInjector(String moduleClassName, JobConf job) {
+    Injector injector = injectors.get(moduleClassName);
+    if (injector != null) {
+      return injector;
+    }
+
+    LOG.info("Using Module: " + moduleClassName);
+    AbstractModule taskModule = null;
+    try {
+      Class<?> moduleClazz = Class.forName(moduleClassName);
+      if (AbstractModule.class.isAssignableFrom(moduleClazz)) {
+        taskModule = (AbstractModule) ReflectionUtils.newInstance(moduleClazz,
+            job);
+      } else {
+        throw new YarnException("Module class: " + moduleClazz.getName()
+            + " should be an instance of "
+            + AbstractModule.class.getCanonicalName());
+      }
+    } catch (ClassNotFoundException e) {
+      throw new YarnException("Unable to load moduleClass: "
+          + moduleClassName, e);
+    }
+
+    injector = Guice.createInjector(taskModule);
+    injectors.put(moduleClassName, injector);
+    return injector;
+  }
+
+  synchronized Path getWorkDir() {
+    return workDir;
+  }
+
+  synchronized void setWorkDir(Path workDir) {
+    this.workDir = workDir;
+  }
+}
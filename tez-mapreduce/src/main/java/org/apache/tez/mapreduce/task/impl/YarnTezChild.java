@@ -60,9 +60,7 @@ import org.apache.hadoop.security.SecurityUtil;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
-import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
-import org.apache.hadoop.yarn.YarnException;
 import org.apache.hadoop.yarn.YarnUncaughtExceptionHandler;
 import org.apache.hadoop.yarn.api.ApplicationConstants;
 import org.apache.hadoop.yarn.api.records.ContainerId;
@@ -71,6 +69,7 @@ import org.apache.log4j.LogManager;
 import org.apache.tez.api.Task;
 import org.apache.tez.common.TezJobConfig;
 import org.apache.tez.common.TezTask;
+import org.apache.tez.engine.common.shuffle.server.ShuffleHandler;
 import org.apache.tez.engine.runtime.TezEngineFactory;
 import org.apache.tez.mapreduce.hadoop.ContainerContext;
 import org.apache.tez.mapreduce.hadoop.ContainerTask;
@@ -82,8 +81,6 @@ import org.apache.tez.mapreduce.processor.MRTask;
 import org.apache.tez.records.TezJobID;
 import org.apache.tez.records.TezTaskAttemptID;
 
-import com.google.inject.AbstractModule;
-import com.google.inject.Guice;
 import com.google.inject.Injector;
 
 /**
@@ -152,16 +149,24 @@ public class YarnTezChild {
     TezTaskAttemptID taskAttemptId = null;
     MRTask task = null;
     ContainerContext containerContext = new ContainerContext(containerId, pid);
+    TaskRuntimeCache runtimeCache = new TaskRuntimeCache(defaultConf);
     
     try {
       while (true) {
-        // poll for new task
+        // poll for new task. The AM holds on to the request till a task is
+        // assigned or it times out, so only back off if it returned early.
+        long getTaskMillis = 0;
         for (int idle = 0; null == containerTask; ++idle) {
-          long sleepTimeMilliSecs = Math.min(idle * 500, 1500);
-          LOG.info("Sleeping for " + sleepTimeMilliSecs
-              + "ms before retrying again. Got null now.");
-          MILLISECONDS.sleep(sleepTimeMilliSecs);
+          long sleepTimeMilliSecs =
+              Math.max(0, Math.min(idle * 500, 1500) - getTaskMillis);
+          if (sleepTimeMilliSecs > 0) {
+            LOG.info("Sleeping for " + sleepTimeMilliSecs
+                + "ms before retrying again. Got null now.");
+            MILLISECONDS.sleep(sleepTimeMilliSecs);
+          }
+          long getTaskStart = System.currentTimeMillis();
           containerTask = umbilical.getTask(containerContext);
+          getTaskMillis = System.currentTimeMillis() - getTaskStart;
         }
         LOG.info("TaskInfo: shouldDie: "
             + containerTask.shouldDie()
@@ -176,7 +181,7 @@ public class YarnTezChild {
         taskAttemptId = taskContext.getTaskAttemptId();
 
         final Task t = createAndConfigureTezTask(taskContext, umbilical,
-            credentials, jt);
+            credentials, jt, runtimeCache);
         task = (MRTask) t.getProcessor();
         final JobConf job = task.getConf();
 
@@ -199,10 +204,12 @@ public class YarnTezChild {
       }
     } catch (FSError e) {
       LOG.fatal("FSError from child", e);
+      unregisterOutput(taskAttemptId);
       umbilical.fsError(taskAttemptId, e.getMessage());
     } catch (Exception exception) {
       LOG.warn("Exception running child : "
           + StringUtils.stringifyException(exception));
+      unregisterOutput(taskAttemptId);
       try {
         if (task != null) {
           // do cleanup for the task
@@ -231,6 +238,7 @@ public class YarnTezChild {
     } catch (Throwable throwable) {
       LOG.fatal("Error running child : "
     	        + StringUtils.stringifyException(throwable));
+      unregisterOutput(taskAttemptId);
       if (taskAttemptId != null) {
         Throwable tCause = throwable.getCause();
         String cause = tCause == null
@@ -239,6 +247,8 @@ public class YarnTezChild {
         umbilical.fatalError(taskAttemptId, cause);
       }
     } finally {
+      // Outputs served from this container are no longer needed
+      ShuffleHandler.stopSharedInstances();
       RPC.stopProxy(umbilical);
       DefaultMetricsSystem.shutdown();
       // Shutting down log4j of the child-vm...
@@ -248,19 +258,35 @@ public class YarnTezChild {
     }
   }
 
+  /**
+   * Stop serving the output of a failed task attempt, so that consumers
+   * don't fetch it while the attempt is being failed.
+   */
+  private static void unregisterOutput(TezTaskAttemptID taskAttemptId) {
+    if (taskAttemptId != null) {
+      ShuffleHandler.unregisterSharedOutput(taskAttemptId);
+    }
+  }
+
   /**
    * Configure mapred-local dirs. This config is used by the task for finding
    * out an output directory.
    * @throws IOException 
    */
-  private static void configureLocalDirs(MRTask task, JobConf job) throws IOException {
+  private static void configureLocalDirs(MRTask task, JobConf job,
+      TaskRuntimeCache runtimeCache) throws IOException {
     String[] localSysDirs = StringUtils.getTrimmedStrings(
         System.getenv(ApplicationConstants.LOCAL_DIR_ENV));
     job.setStrings(TezJobConfig.LOCAL_DIR, localSysDirs);
     LOG.info(TezJobConfig.LOCAL_DIR + " for child: " +
         job.get(TezJobConfig.LOCAL_DIR));
+    // The work dir was already set up by an earlier task in this container.
+    Path workDir = runtimeCache.getWorkDir();
+    if (workDir != null) {
+      job.set(MRJobConfig.JOB_LOCAL_DIR, workDir.toString());
+      return;
+    }
     LocalDirAllocator lDirAlloc = new LocalDirAllocator(TezJobConfig.LOCAL_DIR);
-    Path workDir = null;
     // First, try to find the JOB_LOCAL_DIR on this host.
     try {
       workDir = lDirAlloc.getLocalPathToRead("work", job);
@@ -288,11 +314,13 @@ public class YarnTezChild {
               + workDir.toString());
       }
     }
+    runtimeCache.setWorkDir(workDir);
     job.set(MRJobConfig.JOB_LOCAL_DIR,workDir.toString());
   }
 
   private static JobConf configureTask(MRTask task, Credentials credentials,
-      Token<JobTokenIdentifier> jt) throws IOException, InterruptedException {
+      Token<JobTokenIdentifier> jt, TaskRuntimeCache runtimeCache)
+      throws IOException, InterruptedException {
     JobConf job = task.getConf();
     
     String appAttemptIdEnv = System
@@ -314,7 +342,7 @@ public class YarnTezChild {
 //        JobTokenSecretManager.createSecretKey(jt.getPassword()));
 
     // setup the child's MRConfig.LOCAL_DIR.
-    configureLocalDirs(task, job);
+    configureLocalDirs(task, job, runtimeCache);
 
     // setup the child's attempt directories
     // Do the task-type specific localization
@@ -410,38 +438,24 @@ public class YarnTezChild {
   private static Task createAndConfigureTezTask(
       TezTask taskContext,
       TezTaskUmbilicalProtocol master, 
-      Credentials credentials, Token<JobTokenIdentifier> jt) 
+      Credentials credentials, Token<JobTokenIdentifier> jt,
+      TaskRuntimeCache runtimeCache)
       throws IOException, InterruptedException {
-    final JobConf job = new JobConf(MRJobConfig.JOB_CONF_FILE);
+    // A copy of the job configuration parsed when the container started,
+    // job.xml itself holds the configuration of the previous task by now.
+    final JobConf job = runtimeCache.getJobConf();
     job.setCredentials(credentials);
     
-    // Create the appropriate guice task-module
-    AbstractModule taskModule = null;
-    LOG.info("Using Module: " + taskContext.getTaskModuleClassName());
-    try {
-      Class<?> moduleClazz = Class
-          .forName(taskContext.getTaskModuleClassName());
-      if (AbstractModule.class.isAssignableFrom(moduleClazz)) {
-        taskModule = (AbstractModule) ReflectionUtils.newInstance(moduleClazz,
-            job);
-      } else {
-        throw new YarnException("Module class: " + moduleClazz.getName()
-            + " should be an instance of "
-            + AbstractModule.class.getCanonicalName());
-      }
-    } catch (ClassNotFoundException e) {
-      throw new YarnException("Unable to load moduleClass: "
-          + taskContext.getTaskModuleClassName(), e);
-    }
-
-    // Use the injector to create & bind input, processor, output & task
-    Injector injector = Guice.createInjector(taskModule);
+    // Use the injector for the guice task-module to create & bind input,
+    // processor, output & task
+    Injector injector = runtimeCache.getInjector(
+        taskContext.getTaskModuleClassName(), job);
     TezEngineFactory factory = injector.getInstance(TezEngineFactory.class);
     Task t = factory.createTask(taskContext);
     t.initialize(job, master);
     
     MRTask task = (MRTask)t.getProcessor();
-    configureTask(task, credentials, jt);
+    configureTask(task, credentials, jt, runtimeCache);
     
     return t;
   }
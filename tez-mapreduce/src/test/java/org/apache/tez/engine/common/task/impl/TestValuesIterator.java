@@ -0,0 +1,300 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.tez.engine.common.task.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.Progress;
+import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.TezTaskReporter;
+import org.apache.tez.common.counters.GenericCounter;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounter;
+import org.apache.tez.engine.common.combine.CombineInput;
+import org.apache.tez.engine.common.sort.impl.TezRawKeyValueIterator;
+import org.junit.Before;
+import org.junit.Test;
+
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class TestValuesIterator {
+
+  private static final long[] KEYS = { 1, 1, 2, 3, 3, 3 };
+  private static final String[] VALUES = { "a", "b", "c", "d", "e", "f" };
+
+  private Configuration conf;
+  private TezTaskReporter reporter;
+  private TezCounter combineInputCounter;
+
+  @Before
+  public void setUp() {
+    conf = new Configuration();
+    conf.setClass("mapreduce.map.output.key.class",
+        LongWritable.class, Object.class);
+    conf.setClass("mapreduce.map.output.value.class",
+        Text.class, Object.class);
+    conf.setBoolean(TezJobConfig.TEZ_ENGINE_INPUT_OBJECT_REUSE, true);
+    combineInputCounter = new GenericCounter();
+    reporter = mock(TezTaskReporter.class);
+    when(reporter.getCounter(TaskCounter.COMBINE_INPUT_RECORDS))
+        .thenReturn(combineInputCounter);
+  }
+
+  @Test
+  public void testGroups() throws Exception {
+    String expected = "1:[a, b] 2:[c] 3:[d, e, f] ";
+    Assert.assertEquals(expected, readGroups(createIterator(KEYS, VALUES)));
+
+    conf.setBoolean(TezJobConfig.TEZ_ENGINE_INPUT_OBJECT_REUSE, false);
+    Assert.assertEquals(expected, readGroups(createIterator(KEYS, VALUES)));
+  }
+
+  @Test
+  public void testKeyReused() throws Exception {
+    ValuesIterator<LongWritable, Text> iter = createIterator(KEYS, VALUES);
+    LongWritable firstKey = iter.getKey();
+    iter.nextKey();
+    Assert.assertSame(firstKey, iter.getKey());
+    Assert.assertEquals(2, iter.getKey().get());
+  }
+
+  @Test
+  public void testNextKeySkipsUnconsumedValues() throws Exception {
+    ValuesIterator<LongWritable, Text> iter = createIterator(KEYS, VALUES);
+    StringBuilder groups = new StringBuilder();
+    while (iter.more()) {
+      groups.append(iter.getKey().get()).append(':');
+      // Only consume the first value of the group, if any
+      if (iter.getKey().get() != 2) {
+        groups.append(iter.next());
+      }
+      groups.append(' ');
+      iter.nextKey();
+    }
+    Assert.assertEquals("1:a 2: 3:d ", groups.toString());
+    Assert.assertFalse(iter.hasNext());
+  }
+
+  @Test
+  public void testEmptyInput() throws Exception {
+    ValuesIterator<LongWritable, Text> iter =
+        createIterator(new long[0], new String[0]);
+    Assert.assertFalse(iter.more());
+    Assert.assertFalse(iter.hasNext());
+    Assert.assertEquals("", readGroups(iter));
+
+    conf.setBoolean(TezJobConfig.TEZ_ENGINE_INPUT_OBJECT_REUSE, false);
+    iter = createIterator(new long[0], new String[0]);
+    Assert.assertFalse(iter.more());
+    Assert.assertFalse(iter.hasNext());
+  }
+
+  @Test
+  public void testSingleRecordGroups() throws Exception {
+    Assert.assertEquals("5:[x] ",
+        readGroups(createIterator(new long[] { 5 }, new String[] { "x" })));
+    Assert.assertEquals("1:[x] 2:[y] ",
+        readGroups(createIterator(new long[] { 1, 2 },
+            new String[] { "x", "y" })));
+  }
+
+  @Test
+  public void testRawKeysAndValues() throws Exception {
+    CombineValuesIterator<LongWritable, Text> iter =
+        new CombineValuesIterator<LongWritable, Text>(
+            new ListIterator(KEYS, VALUES), getComparator(),
+            LongWritable.class, Text.class, conf, reporter,
+            combineInputCounter);
+    LongWritable key = new LongWritable();
+    Text value = new Text();
+    StringBuilder groups = new StringBuilder();
+    while (iter.more()) {
+      key.readFields(iter.getRawKey());
+      Assert.assertEquals(iter.getKey().get(), key.get());
+      groups.append(key.get()).append(':');
+      while (iter.hasNext()) {
+        value.readFields(iter.nextRaw());
+        groups.append(value);
+      }
+      groups.append(' ');
+      iter.nextKey();
+    }
+    Assert.assertEquals("1:ab 2:c 3:def ", groups.toString());
+    Assert.assertEquals(VALUES.length, combineInputCounter.getValue());
+  }
+
+  @Test
+  public void testRawAccessNeedsObjectReuse() throws Exception {
+    conf.setBoolean(TezJobConfig.TEZ_ENGINE_INPUT_OBJECT_REUSE, false);
+    ValuesIterator<LongWritable, Text> iter = createIterator(KEYS, VALUES);
+    try {
+      iter.nextRaw();
+      Assert.fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+    }
+    try {
+      iter.getRawKey();
+      Assert.fail("Expected IllegalStateException");
+    } catch (IllegalStateException e) {
+    }
+  }
+
+  @Test
+  public void testCombineInputGroups() throws Exception {
+    Assert.assertEquals("1:[a, b] 2:[c] 3:[d, e, f] ",
+        readCombineGroups(KEYS, VALUES));
+    Assert.assertEquals(VALUES.length, combineInputCounter.getValue());
+
+    Assert.assertEquals("", readCombineGroups(new long[0], new String[0]));
+    Assert.assertEquals("5:[x] ",
+        readCombineGroups(new long[] { 5 }, new String[] { "x" }));
+
+    conf.setBoolean(TezJobConfig.TEZ_ENGINE_INPUT_OBJECT_REUSE, false);
+    Assert.assertEquals("1:[a, b] 2:[c] 3:[d, e, f] ",
+        readCombineGroups(KEYS, VALUES));
+  }
+
+  @Test
+  public void testCombineInputSkipsUnconsumedValues() throws Exception {
+    CombineInput combineIn = new CombineInput(new ListIterator(KEYS, VALUES));
+    combineIn.initialize(conf, reporter);
+    StringBuilder keys = new StringBuilder();
+    while (combineIn.hasNext()) {
+      keys.append(combineIn.getNextKey()).append(' ');
+    }
+    combineIn.close();
+    Assert.assertEquals("1 2 3 ", keys.toString());
+    Assert.assertEquals(VALUES.length, combineInputCounter.getValue());
+  }
+
+  private String readGroups(ValuesIterator<LongWritable, Text> iter)
+      throws IOException {
+    StringBuilder groups = new StringBuilder();
+    while (iter.more()) {
+      List<String> values = new ArrayList<String>();
+      long key = iter.getKey().get();
+      while (iter.hasNext()) {
+        values.add(iter.next().toString());
+      }
+      groups.append(key).append(':').append(values).append(' ');
+      iter.nextKey();
+    }
+    return groups.toString();
+  }
+
+  private String readCombineGroups(long[] keys, String[] values)
+      throws Exception {
+    CombineInput combineIn = new CombineInput(new ListIterator(keys, values));
+    combineIn.initialize(conf, reporter);
+    StringBuilder groups = new StringBuilder();
+    while (combineIn.hasNext()) {
+      List<String> groupValues = new ArrayList<String>();
+      long key = ((LongWritable)combineIn.getNextKey()).get();
+      for (Object value : combineIn.getNextValues()) {
+        groupValues.add(value.toString());
+      }
+      groups.append(key).append(':').append(groupValues).append(' ');
+    }
+    combineIn.close();
+    return groups.toString();
+  }
+
+  private ValuesIterator<LongWritable, Text> createIterator(long[] keys,
+      String[] values) throws IOException {
+    return new ValuesIterator<LongWritable, Text>(
+        new ListIterator(keys, values), getComparator(),
+        LongWritable.class, Text.class, conf, reporter);
+  }
+
+  private static RawComparator<LongWritable> getComparator() {
+    return WritableComparator.get(LongWritable.class);
+  }
+
+  /**
+   * Iterates over serialized, sorted key/value pairs held in memory.
+   */
+  private static class ListIterator implements TezRawKeyValueIterator {
+
+    private final List<byte[]> keys = new ArrayList<byte[]>();
+    private final List<byte[]> values = new ArrayList<byte[]>();
+    private final DataInputBuffer key = new DataInputBuffer();
+    private final DataInputBuffer value = new DataInputBuffer();
+    private int current = -1;
+
+    ListIterator(long[] keys, String[] values) throws IOException {
+      DataOutputBuffer out = new DataOutputBuffer();
+      for (int i = 0; i < keys.length; ++i) {
+        out.reset();
+        new LongWritable(keys[i]).write(out);
+        this.keys.add(copyOf(out));
+        out.reset();
+        new Text(values[i]).write(out);
+        this.values.add(copyOf(out));
+      }
+    }
+
+    private static byte[] copyOf(DataOutputBuffer out) {
+      byte[] bytes = new byte[out.getLength()];
+      System.arraycopy(out.getData(), 0, bytes, 0, out.getLength());
+      return bytes;
+    }
+
+    @Override
+    public DataInputBuffer getKey() throws IOException {
+      return key;
+    }
+
+    @Override
+    public DataInputBuffer getValue() throws IOException {
+      return value;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+      if (++current >= keys.size()) {
+        return false;
+      }
+      key.reset(keys.get(current), keys.get(current).length);
+      value.reset(values.get(current), values.get(current).length);
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public Progress getProgress() {
+      return new Progress();
+    }
+  }
+}
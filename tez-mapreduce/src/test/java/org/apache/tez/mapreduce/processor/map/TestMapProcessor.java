@@ -19,6 +19,10 @@ package org.apache.tez.mapreduce.processor.map;
 
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.Assert;
 
@@ -27,20 +31,41 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.tez.api.Input;
+import org.apache.tez.api.Output;
+import org.apache.tez.api.Processor;
 import org.apache.tez.api.Task;
 import org.apache.tez.common.Constants;
 import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.TezTask;
+import org.apache.tez.engine.common.shuffle.server.ShuffleHandler;
 import org.apache.tez.engine.common.sort.impl.IFile;
+import org.apache.tez.engine.common.sort.impl.dflt.InMemoryShuffleSorter;
 import org.apache.tez.engine.common.task.local.output.TezLocalTaskOutputFiles;
 import org.apache.tez.engine.common.task.local.output.TezTaskOutput;
 import org.apache.tez.engine.lib.output.InMemorySortedOutput;
+import org.apache.tez.engine.runtime.InputFactory;
+import org.apache.tez.engine.runtime.OutputFactory;
+import org.apache.tez.engine.runtime.ProcessorFactory;
+import org.apache.tez.engine.runtime.TaskFactory;
+import org.apache.tez.engine.runtime.TezEngineFactory;
+import org.apache.tez.engine.runtime.TezEngineFactoryImpl;
+import org.apache.tez.engine.task.RuntimeTask;
 import org.apache.tez.mapreduce.TestUmbilicalProtocol;
+import org.apache.tez.mapreduce.hadoop.MRJobConfig;
+import org.apache.tez.mapreduce.input.SimpleInput;
 import org.apache.tez.mapreduce.processor.MapUtils;
 import org.apache.tez.mapreduce.task.InitialTaskWithInMemSort;
 import org.apache.tez.mapreduce.task.InitialTaskWithLocalSort;
+import org.apache.tez.mapreduce.task.impl.MRTaskContext;
 import org.jboss.netty.buffer.BigEndianHeapChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.TruncatedChannelBuffer;
@@ -48,6 +73,11 @@ import org.jboss.netty.handler.stream.ChunkedStream;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.assistedinject.FactoryModuleBuilder;
+
 
 public class TestMapProcessor {
   
@@ -80,6 +110,7 @@ public class TestMapProcessor {
         TezLocalTaskOutputFiles.class, 
         TezTaskOutput.class);
     job.setNumReduceTasks(1);
+    job.setInt(ShuffleHandler.SHUFFLE_PORT_CONFIG_KEY, 0);
     mapOutputs.setConf(job);
   }
   
@@ -112,6 +143,47 @@ public class TestMapProcessor {
     reader.close();
   }
 
+  @Test
+  public void testMapProcessorWithThreads() throws Exception {
+    job.setInt(MRJobConfig.MAP_THREADS, 4);
+    runAndVerifyMapOutput();
+  }
+
+  @Test
+  public void testMapProcessorWithPrefetch() throws Exception {
+    job.setInt(MRJobConfig.MAP_INPUT_PREFETCH_BATCHES, 2);
+    runAndVerifyMapOutput();
+  }
+
+  /**
+   * Run a map over the records written by MapUtils and check that every one
+   * is in the sorted map output exactly once.
+   */
+  private void runAndVerifyMapOutput() throws Exception {
+    localFs.delete(workDir, true);
+    MapUtils.runMapProcessor(
+        localFs, workDir, job, 0, new Path(workDir, "map0"), 
+        new InitialTaskWithLocalSort(), new TestUmbilicalProtocol()).close();
+
+    Path mapOutputFile = mapOutputs.getInputFile(0);
+    IFile.Reader reader =
+        new IFile.Reader(job, localFs, mapOutputFile, null, null);
+    LongWritable key = new LongWritable();
+    DataInputBuffer keyBuf = new DataInputBuffer();
+    DataInputBuffer valueBuf = new DataInputBuffer();
+    long prev = Long.MIN_VALUE;
+    int records = 0;
+    while (reader.nextRawKey(keyBuf)) {
+      reader.nextRawValue(valueBuf);
+      key.readFields(keyBuf);
+      Assert.assertTrue(prev <= key.get());
+      prev = key.get();
+      ++records;
+    }
+    reader.close();
+    Assert.assertEquals(10, records);
+  }
+
   //@Test (timeout=20000l)
   public void testMapProcessorWithInMemSort() throws Exception {
     final int partitions = 2;
@@ -138,6 +210,153 @@ public class TestMapProcessor {
     t.close();
   }
   
+  @Test (timeout=60000l)
+  public void testInMemSortWithBackgroundSpill() throws Exception {
+    final int partitions = 2;
+    job.setNumReduceTasks(partitions);
+    job.setInt(TezJobConfig.TEZ_ENGINE_TASK_OUTDEGREE, partitions);
+    // Spill in the background well before the map is done
+    job.setInt(TezJobConfig.TEZ_ENGINE_IO_SORT_MB, 1);
+    job.setFloat(TezJobConfig.TEZ_ENGINE_SORT_SPILL_PERCENT, 0.05f);
+    job.setMapperClass(FanOutMapper.class);
+
+    localFs.delete(workDir, true);
+    Task t =
+        MapUtils.runMapProcessor(
+            localFs, workDir, job, 0, new Path(workDir, "map0"),
+            new TaskWithRacingInMemSort(), new TestUmbilicalProtocol());
+    InMemorySortedOutput output = (InMemorySortedOutput)t.getOutput();
+    RacingInMemoryShuffleSorter sorter =
+        (RacingInMemoryShuffleSorter)output.getSorter();
+    Assert.assertTrue(sorter.backgroundSpill);
+
+    // The records of the background spill, which ran while the output was
+    // being flushed, must not be lost
+    int records = 0;
+    for (int i = 0; i < partitions; ++i) {
+      records += countSortedRecords(output, i);
+    }
+    Assert.assertEquals(10 * FanOutMapper.FAN_OUT, records);
+
+    t.close();
+  }
+
+  @Test (timeout=60000l)
+  public void testInMemSortOutputServedUntilUnregistered() throws Exception {
+    final int partitions = 2;
+    job.setNumReduceTasks(partitions);
+    job.setInt(TezJobConfig.TEZ_ENGINE_TASK_OUTDEGREE, partitions);
+
+    localFs.delete(workDir, true);
+    Task t =
+        MapUtils.runMapProcessor(
+            localFs, workDir, job, 0, new Path(workDir, "map0"),
+            new InitialTaskWithInMemSort(), new TestUmbilicalProtocol());
+    InMemorySortedOutput output = (InMemorySortedOutput)t.getOutput();
+    t.close();
+
+    // Every partition can be fetched again, e.g. by a retried consumer
+    for (int attempt = 0; attempt < 2; ++attempt) {
+      int records = 0;
+      for (int i = 0; i < partitions; ++i) {
+        Assert.assertNotNull(output.getSorter().getShuffleHeader(i));
+        records += countSortedRecords(output, i);
+      }
+      Assert.assertEquals(10, records);
+    }
+
+    // Another task of the job gets the same shuffle server
+    InMemoryShuffleSorter sorter = output.getSorter();
+    TezTask task = new MRTaskContext(sorter.getTaskAttemptId(), "tez", "tez",
+        InitialTaskWithInMemSort.class.getName(), null, "", 0, 0);
+    ShuffleHandler.getSharedInstance(job, task)
+        .unregisterOutput(sorter.getTaskAttemptId());
+    Assert.assertNull(sorter.getShuffleHeader(0));
+  }
+
+  @Test (timeout=60000l)
+  public void testInMemSortOutputMovedToDiskOverMemoryLimit()
+      throws Exception {
+    final int partitions = 2;
+    job.setNumReduceTasks(partitions);
+    job.setInt(TezJobConfig.TEZ_ENGINE_TASK_OUTDEGREE, partitions);
+    // No output fits in memory
+    job.setLong(TezJobConfig.TEZ_ENGINE_SHUFFLE_SERVER_MEMORY_LIMIT_BYTES, 1);
+
+    // Start a shuffle server with the limit
+    ShuffleHandler.stopSharedInstances();
+    localFs.delete(workDir, true);
+    try {
+      Task t =
+          MapUtils.runMapProcessor(
+              localFs, workDir, job, 0, new Path(workDir, "map0"),
+              new InitialTaskWithInMemSort(), new TestUmbilicalProtocol());
+      InMemorySortedOutput output = (InMemorySortedOutput)t.getOutput();
+      t.close();
+
+      Assert.assertTrue(localFs.exists(mapOutputs.getOutputFile()));
+      int records = 0;
+      for (int i = 0; i < partitions; ++i) {
+        Assert.assertNotNull(output.getSorter().getShuffleHeader(i));
+        records += countSortedRecords(output, i);
+      }
+      Assert.assertEquals(10, records);
+    } finally {
+      ShuffleHandler.stopSharedInstances();
+    }
+  }
+
+  @Test (timeout=60000l)
+  public void testInMemSortBroadcastToTwoConsumers() throws Exception {
+    final int consumers = 2;
+    job.setNumReduceTasks(consumers);
+    job.setInt(TezJobConfig.TEZ_ENGINE_TASK_OUTDEGREE, consumers);
+    job.setBoolean(TezJobConfig.TEZ_ENGINE_SHUFFLE_BROADCAST, true);
+
+    localFs.delete(workDir, true);
+    Task t =
+        MapUtils.runMapProcessor(
+            localFs, workDir, job, 0, new Path(workDir, "map0"),
+            new InitialTaskWithInMemSort(), new TestUmbilicalProtocol());
+    InMemorySortedOutput output = (InMemorySortedOutput)t.getOutput();
+    t.close();
+
+    // Every consumer fetches the single partition, and gets all the records
+    for (int i = 0; i < consumers; ++i) {
+      Assert.assertNotNull(output.getSorter().getShuffleHeader(0));
+      Assert.assertEquals(10, countSortedRecords(output, 0));
+    }
+  }
+
+  /**
+   * Copy a partition of the output to a file and count its records, checking
+   * that they are sorted.
+   */
+  private int countSortedRecords(InMemorySortedOutput output, int partition)
+      throws Exception {
+    Path partitionFile = new Path(workDir, "partition" + partition);
+    InputStream in = output.getSorter().getSortedStream(partition);
+    OutputStream out = localFs.create(partitionFile);
+    IOUtils.copyBytes(in, out, 4096, true);
+
+    IFile.Reader reader =
+        new IFile.Reader(job, localFs, partitionFile, null, null);
+    LongWritable key = new LongWritable();
+    DataInputBuffer keyBuf = new DataInputBuffer();
+    DataInputBuffer valueBuf = new DataInputBuffer();
+    long prev = Long.MIN_VALUE;
+    int records = 0;
+    while (reader.nextRawKey(keyBuf)) {
+      reader.nextRawValue(valueBuf);
+      key.readFields(keyBuf);
+      Assert.assertTrue(prev <= key.get());
+      prev = key.get();
+      ++records;
+    }
+    reader.close();
+    return records;
+  }
+
   private void verifyInMemSortedStream(
       InMemorySortedOutput output, int partition, int chunkSize) 
           throws Exception {
@@ -164,4 +383,93 @@ public class TestMapProcessor {
         output.getSorter().getShuffleHeader(partition).getCompressedLength(), 
         actualBytes);
   }
+
+  public static class FanOutMapper extends MapReduceBase
+      implements Mapper<LongWritable, Text, LongWritable, Text> {
+
+    static final int FAN_OUT = 1000;
+
+    private final LongWritable outKey = new LongWritable();
+
+    @Override
+    public void map(LongWritable key, Text value,
+        OutputCollector<LongWritable, Text> output, Reporter reporter)
+        throws IOException {
+      for (int i = 0; i < FAN_OUT; ++i) {
+        outKey.set(key.get() * FAN_OUT + i);
+        output.collect(outKey, value);
+      }
+    }
+  }
+
+  /**
+   * Holds the first background spill until the output is flushed, so that
+   * the spill thread and the flush race for the final output.
+   */
+  public static class RacingInMemoryShuffleSorter
+      extends InMemoryShuffleSorter {
+
+    private final CountDownLatch flushStarted = new CountDownLatch(1);
+    volatile boolean backgroundSpill = false;
+
+    public RacingInMemoryShuffleSorter(TezTask task) throws IOException {
+      super(task);
+    }
+
+    @Override
+    public void flush() throws IOException, InterruptedException {
+      flushStarted.countDown();
+      super.flush();
+    }
+
+    @Override
+    protected void spill(int mstart, int mend)
+        throws IOException, InterruptedException {
+      if (Thread.currentThread() instanceof SpillThread) {
+        backgroundSpill = true;
+        flushStarted.await(10, TimeUnit.SECONDS);
+      }
+      super.spill(mstart, mend);
+    }
+  }
+
+  public static class RacingInMemorySortedOutput extends InMemorySortedOutput {
+
+    @Inject
+    public RacingInMemorySortedOutput(
+        @Assisted TezTask task
+        ) throws IOException {
+      super(task);
+      sorter = new RacingInMemoryShuffleSorter(task);
+    }
+  }
+
+  public static class TaskWithRacingInMemSort extends AbstractModule {
+
+    @Override
+    protected void configure() {
+      install(
+          new FactoryModuleBuilder().implement(
+              Input.class, SimpleInput.class).
+          build(InputFactory.class)
+          );
+      install(
+          new FactoryModuleBuilder().implement(
+              Output.class, RacingInMemorySortedOutput.class).
+          build(OutputFactory.class)
+          );
+      install(
+          new FactoryModuleBuilder().implement(
+              Processor.class, MapProcessor.class).
+          build(ProcessorFactory.class)
+          );
+      install(
+          new FactoryModuleBuilder().implement(
+              Task.class, RuntimeTask.class).
+          build(TaskFactory.class)
+          );
+
+      bind(TezEngineFactory.class).to(TezEngineFactoryImpl.class);
+    }
+  }
 }
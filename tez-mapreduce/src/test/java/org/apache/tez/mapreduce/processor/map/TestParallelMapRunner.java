@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tez.mapreduce.processor.map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.tez.api.Output;
+import org.apache.tez.api.RecordBatch;
+import org.apache.tez.mapreduce.input.SimpleInput;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestParallelMapRunner {
+
+  private static final int NUM_THREADS = 4;
+
+  @Test(timeout = 30000)
+  public void testWorkerFailureStopsReading() throws Exception {
+    // The input never ends, so only the failure can stop reading it
+    SimpleInput input = mock(SimpleInput.class);
+    when(input.nextBatch(any(RecordBatch.class))).thenAnswer(
+        new Answer<Boolean>() {
+          @Override
+          public Boolean answer(InvocationOnMock invocation)
+              throws IOException {
+            RecordBatch batch = (RecordBatch) invocation.getArguments()[0];
+            batch.clear();
+            batch.setClasses(IntWritable.class, Text.class);
+            batch.startKey();
+            new IntWritable(1).write(batch.getOutput());
+            batch.startValue();
+            new Text("value").write(batch.getOutput());
+            batch.endRecord();
+            return true;
+          }
+        });
+
+    ParallelMapRunner runner = new FailingRunner(input);
+    assertRunFails(runner);
+  }
+
+  @Test(timeout = 30000)
+  public void testWorkerFailureInterruptsBlockedRead() throws Exception {
+    // Reading blocks until the reading thread is interrupted
+    SimpleInput input = mock(SimpleInput.class);
+    when(input.nextBatch(any(RecordBatch.class))).thenAnswer(
+        new Answer<Boolean>() {
+          @Override
+          public Boolean answer(InvocationOnMock invocation)
+              throws InterruptedException {
+            Thread.sleep(Long.MAX_VALUE);
+            return false;
+          }
+        });
+
+    ParallelMapRunner runner = new FailingRunner(input) {
+      @Override
+      protected void runMapper(WorkerInput in, WorkerOutput out)
+          throws IOException {
+        throw new IOException("map failed");
+      }
+    };
+    assertRunFails(runner);
+  }
+
+  private static void assertRunFails(ParallelMapRunner runner)
+      throws InterruptedException {
+    try {
+      runner.run();
+      fail("The failure of the mapper was not reported");
+    } catch (IOException e) {
+      assertEquals("map failed", e.getMessage());
+    }
+    // The interrupt of the reading thread is not left behind
+    assertFalse(Thread.interrupted());
+  }
+
+  /**
+   * Fails mapping the first record.
+   */
+  private static class FailingRunner extends ParallelMapRunner {
+
+    FailingRunner(SimpleInput input) {
+      super(new JobConf(), input, mock(Output.class), NUM_THREADS);
+    }
+
+    @Override
+    protected void runMapper(WorkerInput in, WorkerOutput out)
+        throws IOException, InterruptedException {
+      if (in.next()) {
+        throw new IOException("map failed");
+      }
+    }
+  }
+}
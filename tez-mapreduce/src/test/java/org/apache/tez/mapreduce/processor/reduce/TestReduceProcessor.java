@@ -17,28 +17,40 @@
  */
 package org.apache.tez.mapreduce.processor.reduce;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.JobContext;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
 import org.apache.tez.api.Task;
 import org.apache.tez.common.Constants;
 import org.apache.tez.common.TezJobConfig;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.engine.common.task.local.output.TezLocalTaskOutputFiles;
 import org.apache.tez.engine.common.task.local.output.TezTaskOutput;
 import org.apache.tez.engine.runtime.TezEngineFactory;
 import org.apache.tez.mapreduce.TezTestUtils;
 import org.apache.tez.mapreduce.TestUmbilicalProtocol;
 import org.apache.tez.mapreduce.hadoop.MRTaskType;
+import org.apache.tez.mapreduce.processor.MRTask;
 import org.apache.tez.mapreduce.processor.MapUtils;
 import org.apache.tez.mapreduce.task.InitialTaskWithLocalSort;
 import org.apache.tez.mapreduce.task.LocalFinalTask;
 import org.apache.tez.mapreduce.task.impl.MRTaskContext;
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -104,4 +116,88 @@ public class TestReduceProcessor {
 
   }
 
+  @Test
+  public void testIdentityReducerMatchesReducer() throws Exception {
+    localFs.delete(workDir, true);
+    MapUtils.runMapProcessor(
+        localFs, workDir, job, 0, new Path(workDir, "map0"), 
+        new InitialTaskWithLocalSort(), new TestUmbilicalProtocol()
+        );
+
+    // IdentityReducer moves the records in batches; a subclass of it is run
+    // as any other reducer
+    Path identityOutput = new Path(workDir, "identity");
+    TezCounters identityCounters =
+        runReduce(IdentityReducer.class, identityOutput);
+    Path reducerOutput = new Path(workDir, "reducer");
+    TezCounters reducerCounters =
+        runReduce(CopyingReducer.class, reducerOutput);
+
+    List<String> expected = readOutput(reducerOutput);
+    Assert.assertEquals(10, expected.size());
+    Assert.assertEquals(expected, readOutput(identityOutput));
+    for (TaskCounter counter : new TaskCounter[] {
+        TaskCounter.REDUCE_INPUT_GROUPS, TaskCounter.REDUCE_INPUT_RECORDS }) {
+      Assert.assertEquals(counter.name(),
+          reducerCounters.findCounter(counter).getValue(),
+          identityCounters.findCounter(counter).getValue());
+    }
+    Assert.assertEquals(10, identityCounters.findCounter(
+        TaskCounter.REDUCE_INPUT_RECORDS).getValue());
+  }
+
+  private TezCounters runReduce(Class<? extends Reducer> reducerClass,
+      Path outputDir) throws Exception {
+    JobConf reduceJob = new JobConf(job);
+    reduceJob.setReducerClass(reducerClass);
+    FileOutputFormat.setOutputPath(reduceJob, outputDir);
+
+    MRTaskContext taskContext = 
+        new MRTaskContext(
+            TezTestUtils.getMockTaskAttemptId(0, 0, 0, MRTaskType.REDUCE),
+            "tez", "tez", LocalFinalTask.class.getName(), null, "", 0, 1);
+    reduceJob.set(JobContext.TASK_ATTEMPT_ID,
+        taskContext.getTaskAttemptId().toString());
+    Injector injector = Guice.createInjector(new LocalFinalTask());
+    TezEngineFactory factory = injector.getInstance(TezEngineFactory.class);
+    Task t = factory.createTask(taskContext);
+    t.initialize(reduceJob, new TestUmbilicalProtocol());
+    t.run();
+    t.close();
+    return ((MRTask) t.getProcessor()).getCounters();
+  }
+
+  /**
+   * @return the lines of the part files under <code>outputDir</code>
+   */
+  private static List<String> readOutput(Path outputDir) throws IOException {
+    List<String> lines = new ArrayList<String>();
+    RemoteIterator<LocatedFileStatus> files =
+        localFs.listFiles(outputDir, true);
+    while (files.hasNext()) {
+      Path file = files.next().getPath();
+      if (!file.getName().startsWith("part-")) {
+        continue;
+      }
+      BufferedReader reader =
+          new BufferedReader(new InputStreamReader(localFs.open(file)));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines.add(line);
+        }
+      } finally {
+        reader.close();
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * Writes every value with its key, like {@link IdentityReducer}.
+   */
+  public static class CopyingReducer
+      extends IdentityReducer<Object, Object> {
+  }
+
 }
@@ -18,10 +18,13 @@
 
 package org.apache.hadoop.mapreduce.jobhistory;
 
-import java.util.Iterator;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.v2.app2.AppContext;
@@ -29,8 +32,23 @@ import org.apache.hadoop.yarn.Clock;
 import org.apache.hadoop.yarn.event.EventHandler;
 import org.apache.hadoop.yarn.service.AbstractService;
 
+/**
+ * Tracks the liveness of registered entities, and times out those which
+ * haven't pinged for a while.
+ *
+ * Registered entities are kept in a hashed timer wheel, with one bucket per
+ * timeout check interval, under the check at which they would time out if
+ * they didn't ping again. A ping only records the time, so its cost doesn't
+ * depend on the number of entities. Each check only looks at the entities of
+ * the buckets which came due. Those which pinged meanwhile go into the bucket
+ * of their new deadline. Ping times are taken from the time of the last
+ * check, rounded up to the next one, so a ping doesn't read the clock. If the
+ * next check is late, that could be earlier than the actual time of the ping;
+ * pings are then stamped with the clock, so no entity times out early.
+ */
 public abstract class HeartbeatHandlerBase<T> extends AbstractService {
 
+  private static final int MAX_WHEEL_SIZE = 1 << 16;
 
   protected int timeOut = 5 * 60 * 1000;// 5 mins
   protected int timeOutCheckInterval = 30 * 1000; // 30 seconds.
@@ -45,6 +63,15 @@ public abstract class HeartbeatHandlerBase<T> extends AbstractService {
   private ConcurrentMap<T, ReportTime> runningMap;
   private volatile boolean stopped;
 
+  // Guards the wheel, and the wheel positions of the entries
+  private final Object wheelLock = new Object();
+  private List<Set<T>> wheel;
+  private volatile long tickMs;
+  private volatile long tickNanos;
+  private long lastExpiredTick = 0;
+  // The time of the last check, null until the first one
+  private volatile CoarseTime coarseTime;
+
   public HeartbeatHandlerBase(AppContext appContext, int numThreads, String name) {
     super(name);
     this.name = name;
@@ -54,6 +81,7 @@ public abstract class HeartbeatHandlerBase<T> extends AbstractService {
     numThreads = numThreads == 0 ? 1 : numThreads;
     this.runningMap = new ConcurrentHashMap<T, HeartbeatHandlerBase.ReportTime>(
         16, 0.75f, numThreads);
+    createWheel();
   }
 
   @Override
@@ -61,6 +89,7 @@ public abstract class HeartbeatHandlerBase<T> extends AbstractService {
     super.init(conf);
     timeOut = getConfiguredTimeout(conf);
     timeOutCheckInterval = getConfiguredTimeoutCheckInterval(conf);
+    createWheel();
   }
 
   @Override
@@ -89,23 +118,136 @@ public abstract class HeartbeatHandlerBase<T> extends AbstractService {
   public void progressing(T id) {
     ReportTime time = runningMap.get(id);
     if (time != null) {
-      time.setLastProgress(clock.getTime());
+      time.setLastProgress(getPingTime());
     }
   }
   
   public void pinged(T id) {
     ReportTime time = runningMap.get(id);
     if (time != null) {
-      time.setLastPing(clock.getTime());
+      time.setLastPing(getPingTime());
     }
   }
   
   public void register(T id) {
-    runningMap.put(id, new ReportTime(clock.getTime()));
+    ReportTime report = new ReportTime(clock.getTime());
+    synchronized (wheelLock) {
+      ReportTime previous = runningMap.put(id, report);
+      if (previous != null) {
+        removeFromWheel(id, previous);
+      }
+      schedule(id, report);
+    }
   }
   
   public void unregister(T id) {
-    runningMap.remove(id);
+    ReportTime report = runningMap.remove(id);
+    if (report != null) {
+      synchronized (wheelLock) {
+        removeFromWheel(id, report);
+      }
+    }
+  }
+
+  private long getPingTime() {
+    CoarseTime time = coarseTime;
+    if (time == null || System.nanoTime() - time.nanos >= tickNanos) {
+      return clock.getTime();
+    }
+    return time.millis + tickMs;
+  }
+
+  /**
+   * Time out the entities which are due, and time the pings until the next
+   * check from now.
+   */
+  protected void checkTimeouts() {
+    long now = clock.getTime();
+    // Set before expiring, so pings handled meanwhile aren't stamped with the
+    // time of the previous check
+    coarseTime = new CoarseTime(now, System.nanoTime());
+    expire(now);
+  }
+
+  private void createWheel() {
+    synchronized (wheelLock) {
+      tickMs = Math.max(1, timeOutCheckInterval);
+      tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+      int wheelSize = timeOut > 0
+          ? (int) Math.min(MAX_WHEEL_SIZE, timeOut / tickMs + 3) : 1;
+      List<Set<T>> oldWheel = wheel;
+      wheel = new ArrayList<Set<T>>(wheelSize);
+      for (int i = 0; i < wheelSize; i++) {
+        wheel.add(new HashSet<T>());
+      }
+      if (oldWheel != null) {
+        for (Set<T> bucket : oldWheel) {
+          for (T id : bucket) {
+            ReportTime report = runningMap.get(id);
+            if (report != null) {
+              schedule(id, report);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  // Caller holds wheelLock
+  private void schedule(T id, ReportTime report) {
+    if (timeOut <= 0) {
+      // Nothing times out
+      report.wheelSlot = -1;
+      return;
+    }
+    // The first check after the deadline
+    long tick = (report.getLastPing() + timeOut) / tickMs + 1;
+    tick = Math.max(tick, lastExpiredTick + 1);
+    int slot = (int) (tick % wheel.size());
+    wheel.get(slot).add(id);
+    report.wheelSlot = slot;
+  }
+
+  // Caller holds wheelLock
+  private void removeFromWheel(T id, ReportTime report) {
+    if (report.wheelSlot >= 0 && report.wheelSlot < wheel.size()) {
+      wheel.get(report.wheelSlot).remove(id);
+    }
+    report.wheelSlot = -1;
+  }
+
+  private void expire(long currentTime) {
+    List<T> due = new ArrayList<T>();
+    synchronized (wheelLock) {
+      long currentTick = currentTime / tickMs;
+      // Going round the wheel once covers all the buckets
+      long tick = Math.max(lastExpiredTick + 1, currentTick - wheel.size() + 1);
+      for (; tick <= currentTick; tick++) {
+        Set<T> bucket = wheel.get((int) (tick % wheel.size()));
+        due.addAll(bucket);
+        bucket.clear();
+      }
+      lastExpiredTick = Math.max(lastExpiredTick, currentTick);
+    }
+
+    for (T id : due) {
+      ReportTime report = runningMap.get(id);
+      if (report == null) {
+        continue;
+      }
+      if (hasTimedOut(report, currentTime)) {
+        // Timed out. Removed from list and send out an event.
+        if (runningMap.remove(id, report)) {
+          handleTimeOut(id);
+        }
+      } else {
+        synchronized (wheelLock) {
+          if (runningMap.get(id) == report) {
+            schedule(id, report);
+          }
+        }
+      }
+    }
   }
   
   
@@ -113,6 +255,8 @@ public abstract class HeartbeatHandlerBase<T> extends AbstractService {
   protected static class ReportTime {
     private long lastPing;
     private long lastProgress;
+    // Guarded by the handler's wheelLock
+    private int wheelSlot = -1;
     
     public ReportTime(long time) {
       setLastProgress(time);
@@ -136,6 +280,20 @@ public abstract class HeartbeatHandlerBase<T> extends AbstractService {
     }
   }
   
+  /**
+   * The time of a check, along with {@link System#nanoTime()} at the time, to
+   * tell cheaply whether a tick has passed since.
+   */
+  private static class CoarseTime {
+    final long millis;
+    final long nanos;
+
+    CoarseTime(long millis, long nanos) {
+      this.millis = millis;
+      this.nanos = nanos;
+    }
+  }
+
   protected abstract boolean hasTimedOut(ReportTime report, long currentTime);
   
   protected abstract void handleTimeOut(T t);
@@ -145,20 +303,7 @@ public abstract class HeartbeatHandlerBase<T> extends AbstractService {
     @Override
     public void run() {
       while (!stopped && !Thread.currentThread().isInterrupted()) {
-        Iterator<Map.Entry<T, ReportTime>> iterator =
-            runningMap.entrySet().iterator();
-
-        // avoid calculating current time everytime in loop
-        long currentTime = clock.getTime();
-
-        while (iterator.hasNext()) {
-          Map.Entry<T, ReportTime> entry = iterator.next();    
-          if(hasTimedOut(entry.getValue(), currentTime)) {
-            // Timed out. Removed from list and send out an event.
-            iterator.remove();
-            handleTimeOut(entry.getKey());
-          }
-        }
+        checkTimeouts();
         try {
           Thread.sleep(timeOutCheckInterval);
         } catch (InterruptedException e) {
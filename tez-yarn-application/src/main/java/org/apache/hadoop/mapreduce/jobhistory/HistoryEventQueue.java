@@ -0,0 +1,227 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.hadoop.mapreduce.jobhistory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.v2.api.records.JobId;
+
+/**
+ * The history events waiting to be written, in order. Adding an event never
+ * waits for the writer.
+ *
+ * At most maxMemoryEvents events are held in memory. Once more are waiting,
+ * further events are appended to spill files on the local disk, in the job
+ * history format, and are read back once the events queued before them have
+ * been taken. Events are taken by a single thread.
+ */
+class HistoryEventQueue {
+
+  private static final Log LOG = LogFactory.getLog(HistoryEventQueue.class);
+
+  private final Configuration conf;
+  private final Path spillDir;
+  private final int maxMemoryEvents;
+  private FileSystem fs;
+
+  private final LinkedList<JobHistoryEvent> memoryEvents =
+      new LinkedList<JobHistoryEvent>();
+  // Spill files which are complete, oldest first
+  private final LinkedList<SpillFile> spillFiles = new LinkedList<SpillFile>();
+  // The spill file events are appended to
+  private SpillFile currentSpillFile;
+  private int numSpilledEvents = 0;
+  private int numSpillFiles = 0;
+  private long totalSpilledEvents = 0;
+
+  HistoryEventQueue(Configuration conf, Path spillDir, int maxMemoryEvents) {
+    this.conf = conf;
+    this.spillDir = spillDir;
+    this.maxMemoryEvents = maxMemoryEvents;
+  }
+
+  synchronized void put(JobHistoryEvent event) throws IOException {
+    // NormalizedResourceEvents can't be serialized. They are not written to
+    // the history file, so the order they are handled in doesn't matter.
+    if (event.getHistoryEvent() instanceof NormalizedResourceEvent
+        || (numSpilledEvents == 0 && memoryEvents.size() < maxMemoryEvents)) {
+      memoryEvents.add(event);
+    } else {
+      spill(event);
+    }
+    notifyAll();
+  }
+
+  private void spill(JobHistoryEvent event) throws IOException {
+    // Each spill file is read back into memory as a whole
+    if (currentSpillFile != null
+        && (currentSpillFile.numEvents >= maxMemoryEvents
+            || !currentSpillFile.jobId.equals(event.getJobID()))) {
+      closeCurrentSpillFile();
+    }
+    if (currentSpillFile == null) {
+      if (fs == null) {
+        fs = FileSystem.getLocal(conf);
+      }
+      Path path = new Path(spillDir, "spill" + numSpillFiles++);
+      currentSpillFile = new SpillFile(path, event.getJobID());
+      currentSpillFile.writer = new EventWriter(fs.create(path, true));
+      if (numSpilledEvents == 0) {
+        LOG.info("More than " + maxMemoryEvents + " history events are"
+            + " waiting to be written, queueing further events on disk");
+      }
+    }
+    currentSpillFile.writer.write(event.getHistoryEvent());
+    ++currentSpillFile.numEvents;
+    ++numSpilledEvents;
+    ++totalSpilledEvents;
+  }
+
+  private void closeCurrentSpillFile() throws IOException {
+    currentSpillFile.writer.close();
+    currentSpillFile.writer = null;
+    spillFiles.add(currentSpillFile);
+    currentSpillFile = null;
+  }
+
+  /**
+   * Take the next event, waiting for one if there is none.
+   */
+  JobHistoryEvent take() throws InterruptedException, IOException {
+    List<JobHistoryEvent> events = new ArrayList<JobHistoryEvent>(1);
+    while (drainTo(events, 1) == 0) {
+      synchronized (this) {
+        while (memoryEvents.isEmpty() && numSpilledEvents == 0) {
+          wait();
+        }
+      }
+    }
+    return events.get(0);
+  }
+
+  /**
+   * Take up to maxEvents of the waiting events, without waiting.
+   * @return the number of events taken
+   */
+  int drainTo(List<JobHistoryEvent> events, int maxEvents)
+      throws IOException {
+    if (maxEvents <= 0) {
+      return 0;
+    }
+    SpillFile spillFile = null;
+    synchronized (this) {
+      if (memoryEvents.isEmpty() && numSpilledEvents > 0) {
+        if (spillFiles.isEmpty()) {
+          closeCurrentSpillFile();
+        }
+        spillFile = spillFiles.removeFirst();
+      }
+    }
+    if (spillFile != null) {
+      // Read without holding the lock, so that producers don't wait. Events
+      // added meanwhile still go to disk, after the ones being read.
+      List<JobHistoryEvent> spilled = spillFile.read(fs);
+      synchronized (this) {
+        memoryEvents.addAll(spilled);
+        numSpilledEvents -= spillFile.numEvents;
+      }
+    }
+    synchronized (this) {
+      int n = 0;
+      while (n < maxEvents && !memoryEvents.isEmpty()) {
+        events.add(memoryEvents.removeFirst());
+        ++n;
+      }
+      return n;
+    }
+  }
+
+  /**
+   * @return the number of events waiting, in memory and on disk
+   */
+  synchronized int size() {
+    return memoryEvents.size() + numSpilledEvents;
+  }
+
+  /**
+   * @return the number of events which had to be queued on disk so far
+   */
+  synchronized long getTotalSpilledEvents() {
+    return totalSpilledEvents;
+  }
+
+  /**
+   * Delete the spill files. Events still waiting on disk are lost.
+   */
+  synchronized void close() throws IOException {
+    if (currentSpillFile != null) {
+      currentSpillFile.writer.close();
+      currentSpillFile = null;
+    }
+    if (numSpilledEvents > 0) {
+      LOG.warn("Dropping " + numSpilledEvents + " history events queued on"
+          + " disk");
+    }
+    spillFiles.clear();
+    numSpilledEvents = 0;
+    if (fs != null) {
+      fs.delete(spillDir, true);
+    }
+  }
+
+  private static class SpillFile {
+
+    final Path path;
+    final JobId jobId;
+    EventWriter writer;
+    int numEvents = 0;
+
+    SpillFile(Path path, JobId jobId) {
+      this.path = path;
+      this.jobId = jobId;
+    }
+
+    List<JobHistoryEvent> read(FileSystem fs) throws IOException {
+      List<JobHistoryEvent> events = new ArrayList<JobHistoryEvent>(numEvents);
+      EventReader reader = new EventReader(fs, path);
+      try {
+        HistoryEvent event;
+        while ((event = reader.getNextEvent()) != null) {
+          events.add(new JobHistoryEvent(jobId, event));
+        }
+      } finally {
+        reader.close();
+      }
+      if (events.size() != numEvents) {
+        throw new IOException("Read " + events.size() + " history events from"
+            + " " + path + ", expected " + numEvents);
+      }
+      fs.delete(path, false);
+      return events;
+    }
+  }
+}
@@ -19,18 +19,19 @@
 package org.apache.hadoop.mapreduce.jobhistory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience.Private;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileAlreadyExistsException;
@@ -86,9 +87,25 @@ public class JobHistoryEventHandler2 extends AbstractService
   private int numUnflushedCompletionEvents = 0;
   private boolean isTimerActive;
 
-
-  protected BlockingQueue<JobHistoryEvent> eventQueue =
-    new LinkedBlockingQueue<JobHistoryEvent>();
+  private int maxBatchSize;
+  private int catchUpQueueSize;
+  // Events of the batch being written which follow the current one. They
+  // count as queued when deciding whether to flush, so that a batch is
+  // flushed once, at its end.
+  private int eventsRemainingInBatch = 0;
+
+  // Back-pressure statistics
+  private volatile int maxQueueSize = 0;
+  private volatile long numBatches = 0;
+  private volatile long numBatchedEvents = 0;
+  private volatile long numCatchUpBatches = 0;
+  private volatile long numFlushes = 0;
+
+  private boolean checkpointEnabled;
+  private long checkpointSyncIntervalMs;
+
+  // Never blocks producers. Events past the in-memory limit wait on disk.
+  HistoryEventQueue eventQueue;
   protected Thread eventHandlingThread;
   private volatile boolean stopped;
   private final Object lock = new Object();
@@ -106,6 +123,18 @@ public class JobHistoryEventHandler2 extends AbstractService
     super("JobHistoryEventHandler");
     this.context = context;
     this.startCount = startCount;
+    this.eventQueue = new HistoryEventQueue(new Configuration(),
+        getEventQueueSpillDir(),
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .DEFAULT_MR_AM_HISTORY_EVENT_QUEUE_MAX_MEMORY_EVENTS);
+  }
+
+  /**
+   * @return the directory, relative to the container's working directory,
+   * holding the events which don't fit in memory
+   */
+  private Path getEventQueueSpillDir() {
+    return new Path("history-event-queue-" + startCount);
   }
 
   /* (non-Javadoc)
@@ -219,6 +248,32 @@ public class JobHistoryEventHandler2 extends AbstractService
         conf.getInt(
             MRJobConfig.MR_AM_HISTORY_USE_BATCHED_FLUSH_QUEUE_SIZE_THRESHOLD,
             MRJobConfig.DEFAULT_MR_AM_HISTORY_USE_BATCHED_FLUSH_QUEUE_SIZE_THRESHOLD);
+    maxBatchSize = Math.max(1, conf.getInt(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .MR_AM_HISTORY_WRITE_BATCH_SIZE,
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .DEFAULT_MR_AM_HISTORY_WRITE_BATCH_SIZE));
+    catchUpQueueSize = Math.max(1, conf.getInt(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .MR_AM_HISTORY_EVENT_QUEUE_CATCH_UP_SIZE,
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .DEFAULT_MR_AM_HISTORY_EVENT_QUEUE_CATCH_UP_SIZE));
+    eventQueue = new HistoryEventQueue(conf, getEventQueueSpillDir(),
+        Math.max(1, conf.getInt(
+            org.apache.tez.mapreduce.hadoop.MRJobConfig
+                .MR_AM_HISTORY_EVENT_QUEUE_MAX_MEMORY_EVENTS,
+            org.apache.tez.mapreduce.hadoop.MRJobConfig
+                .DEFAULT_MR_AM_HISTORY_EVENT_QUEUE_MAX_MEMORY_EVENTS)));
+    checkpointEnabled = conf.getBoolean(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .MR_AM_RECOVERY_CHECKPOINT_ENABLED,
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .DEFAULT_MR_AM_RECOVERY_CHECKPOINT_ENABLED);
+    checkpointSyncIntervalMs = conf.getLong(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .MR_AM_RECOVERY_CHECKPOINT_SYNC_INTERVAL_MS,
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .DEFAULT_MR_AM_RECOVERY_CHECKPOINT_SYNC_INTERVAL_MS);
     
     super.init(conf);
   }
@@ -247,37 +302,21 @@ public class JobHistoryEventHandler2 extends AbstractService
     eventHandlingThread = new Thread(new Runnable() {
       @Override
       public void run() {
-        JobHistoryEvent event = null;
         while (!stopped && !Thread.currentThread().isInterrupted()) {
 
           // Log the size of the history-event-queue every so often.
-          if (eventCounter != 0 && eventCounter % 1000 == 0) {
+          if (eventCounter >= 1000) {
             eventCounter = 0;
             LOG.info("Size of the JobHistory event queue is "
-                + eventQueue.size());
-          } else {
-            eventCounter++;
+                + eventQueue.size() + ". " + getQueueStats());
           }
 
           try {
-            event = eventQueue.take();
+            eventCounter += handleNextBatch();
           } catch (InterruptedException e) {
             LOG.info("EventQueue take interrupted. Returning");
             return;
           }
-          // If an event has been removed from the queue. Handle it.
-          // The rest of the queue is handled via stop()
-          // Clear the interrupt status if it's set before calling handleEvent
-          // and set it if it was set before calling handleEvent. 
-          // Interrupts received from other threads during handleEvent cannot be
-          // dealth with - Shell.runCommand() ignores them.
-          synchronized (lock) {
-            boolean isInterrupted = Thread.interrupted();
-            handleEvent(event);
-            if (isInterrupted) {
-              Thread.currentThread().interrupt();
-            }
-          }
         }
       }
     });
@@ -285,6 +324,80 @@ public class JobHistoryEventHandler2 extends AbstractService
     super.start();
   }
 
+  /**
+   * Write the next batch of queued events, waiting for one if the queue is
+   * empty. The batch holds up to maxBatchSize events, or the whole queue if
+   * it has grown past catchUpQueueSize, so that a writer falling behind
+   * catches up with a single flush. A catch-up batch is read and written
+   * maxBatchSize events at a time, so that neither the events nor the lock
+   * are held for all of it at once.
+   * @return the number of events written
+   */
+  int handleNextBatch() throws InterruptedException {
+    List<JobHistoryEvent> chunk = new ArrayList<JobHistoryEvent>(maxBatchSize);
+    int numEvents = 0;
+    boolean catchUp;
+    try {
+      chunk.add(eventQueue.take());
+      // Events queued after this point are left for the next batch
+      int backlog = eventQueue.size();
+      catchUp = backlog + 1 >= catchUpQueueSize;
+      if (catchUp) {
+        LOG.info("JobHistory event queue is behind, writing " + (backlog + 1)
+            + " events in one batch");
+      } else {
+        backlog = Math.min(backlog, maxBatchSize - 1);
+      }
+      do {
+        int n = eventQueue.drainTo(chunk,
+            Math.min(backlog, maxBatchSize - chunk.size()));
+        backlog = n == 0 ? 0 : backlog - n;
+        writeEvents(chunk, backlog);
+        numEvents += chunk.size();
+        chunk.clear();
+      } while (backlog > 0);
+    } catch (IOException e) {
+      LOG.error("Failed to read queued JobHistory events", e);
+      throw new YarnException(e);
+    }
+    synchronized (lock) {
+      numBatches++;
+      numBatchedEvents += numEvents;
+      if (catchUp) {
+        numCatchUpBatches++;
+      }
+    }
+    return numEvents;
+  }
+
+  /**
+   * Write events removed from the queue, counting the
+   * <code>eventsAfter</code> events of the batch still to be written as
+   * queued, so that the batch is flushed once.
+   */
+  private void writeEvents(List<JobHistoryEvent> events, int eventsAfter) {
+    // If events have been removed from the queue. Handle them.
+    // The rest of the queue is handled via stop()
+    // Clear the interrupt status if it's set before calling handleEvent
+    // and set it if it was set before calling handleEvent. 
+    // Interrupts received from other threads during handleEvent cannot be
+    // dealth with - Shell.runCommand() ignores them.
+    synchronized (lock) {
+      boolean isInterrupted = Thread.interrupted();
+      try {
+        for (int i = 0; i < events.size(); i++) {
+          eventsRemainingInBatch = events.size() - i - 1 + eventsAfter;
+          handleEvent(events.get(i));
+        }
+      } finally {
+        eventsRemainingInBatch = 0;
+      }
+      if (isInterrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
   @Override
   public void stop() {
     LOG.info("Stopping JobHistoryEventHandler. "
@@ -315,11 +428,24 @@ public class JobHistoryEventHandler2 extends AbstractService
     }
 
     //write all the events remaining in queue
-    Iterator<JobHistoryEvent> it = eventQueue.iterator();
-    while(it.hasNext()) {
-      JobHistoryEvent ev = it.next();
-      LOG.info("In stop, writing event " + ev.getType());
-      handleEvent(ev);
+    List<JobHistoryEvent> remaining =
+        new ArrayList<JobHistoryEvent>(maxBatchSize);
+    try {
+      while (eventQueue.drainTo(remaining, Math.max(1, maxBatchSize)) > 0) {
+        for (JobHistoryEvent ev : remaining) {
+          LOG.info("In stop, writing event " + ev.getType());
+          handleEvent(ev);
+        }
+        remaining.clear();
+      }
+    } catch (IOException e) {
+      LOG.error("Failed to read queued JobHistory events", e);
+    } finally {
+      try {
+        eventQueue.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to delete queued JobHistory events", e);
+      }
     }
 
     // Process JobUnsuccessfulCompletionEvent for jobIds which still haven't
@@ -353,6 +479,7 @@ public class JobHistoryEventHandler2 extends AbstractService
         LOG.info("Exception while closing file " + e.getMessage());
       }
     }
+    LOG.info("Stopped JobHistoryEventHandler. " + getQueueStats());
     LOG.info("Stopped JobHistoryEventHandler. super.stop()");
     super.stop();
   }
@@ -363,6 +490,13 @@ public class JobHistoryEventHandler2 extends AbstractService
     return new EventWriter(out);
   }
   
+  protected RecoveryCheckpointWriter createRecoveryCheckpointWriter(
+      Path checkpointFile) throws IOException {
+    FSDataOutputStream out = stagingDirFS.create(checkpointFile, true);
+    return new RecoveryCheckpointWriter(stagingDirFS, checkpointFile,
+        new EventWriter(out), checkpointSyncIntervalMs);
+  }
+  
   /**
    * Create an event writer for the Job represented by the jobID.
    * Writes out the job configuration to the log directory.
@@ -393,6 +527,8 @@ public class JobHistoryEventHandler2 extends AbstractService
 
     String jobName = context.getJob(jobId).getName();
     EventWriter writer = (oldFi == null) ? null : oldFi.writer;
+    RecoveryCheckpointWriter checkpoint =
+        (oldFi == null) ? null : oldFi.checkpoint;
  
     Path logDirConfPath =
         JobHistoryUtils.getStagingConfFile(stagingDirPath, jobId, startCount);
@@ -423,10 +559,23 @@ public class JobHistoryEventHandler2 extends AbstractService
           throw e;
         }
       }
+
+      if (checkpointEnabled) {
+        Path checkpointFile = RecoveryCheckpointWriter.getCheckpointFile(
+            stagingDirPath, TypeConverter.fromYarn(jobId).toString(),
+            startCount);
+        try {
+          checkpoint = createRecoveryCheckpointWriter(checkpointFile);
+        } catch (IOException e) {
+          // Not fatal, recovery falls back to the history file.
+          LOG.warn("Could not create recovery checkpoint ["
+              + checkpointFile + "]", e);
+        }
+      }
     }
 
     MetaInfo fi = new MetaInfo(historyFile, logDirConfPath, writer,
-        user, jobName, jobId);
+        checkpoint, user, jobName, jobId);
     fi.getJobSummary().setJobId(jobId);
     fileMap.put(jobId, fi);
   }
@@ -455,12 +604,83 @@ public class JobHistoryEventHandler2 extends AbstractService
             maxUnflushedCompletionEvents * postJobCompletionMultiplier;
       }
 
+      // Never waits for the writer. Events beyond the in-memory limit are
+      // queued on disk, and the writer catches up if the queue grows too
+      // large.
       eventQueue.put(event);
-    } catch (InterruptedException e) {
+      int queueSize = eventQueue.size();
+      if (queueSize > maxQueueSize) {
+        maxQueueSize = queueSize;
+      }
+    } catch (IOException e) {
+      LOG.error("Failed to queue JobHistory event " + event.getType(), e);
       throw new YarnException(e);
     }
   }
 
+  private String getQueueStats() {
+    return "Max queue size: " + getMaxQueueSize()
+        + ", batches: " + getNumBatches()
+        + ", avg batch size: " + getAvgBatchSize()
+        + ", catch-up batches: " + getNumCatchUpBatches()
+        + ", flushes: " + getNumFlushes()
+        + ", events queued on disk: " + getNumSpilledEvents();
+  }
+
+  /**
+   * @return the number of events waiting to be written
+   */
+  @Private
+  public int getQueueSize() {
+    return eventQueue.size();
+  }
+
+  /**
+   * @return the largest number of events seen waiting to be written
+   */
+  @Private
+  public int getMaxQueueSize() {
+    return maxQueueSize;
+  }
+
+  @Private
+  public long getNumBatches() {
+    return numBatches;
+  }
+
+  @Private
+  public float getAvgBatchSize() {
+    synchronized (lock) {
+      return numBatches == 0 ? 0f : (float) numBatchedEvents / numBatches;
+    }
+  }
+
+  /**
+   * @return the number of batches which took the whole queue, as it had
+   *         grown past the catch-up size
+   */
+  @Private
+  public long getNumCatchUpBatches() {
+    return numCatchUpBatches;
+  }
+
+  /**
+   * @return the number of flushes of the history files
+   */
+  /**
+   * @return the number of events which were queued on disk, because too many
+   * events were waiting to be written
+   */
+  @Private
+  public long getNumSpilledEvents() {
+    return eventQueue.getTotalSpilledEvents();
+  }
+
+  @Private
+  public long getNumFlushes() {
+    return numFlushes;
+  }
+
   private boolean isJobCompletionEvent(HistoryEvent historyEvent) {
     if (EnumSet.of(EventType.JOB_FINISHED, EventType.JOB_FAILED,
         EventType.JOB_KILLED).contains(historyEvent.getEventType())) {
@@ -745,17 +965,20 @@ public class JobHistoryEventHandler2 extends AbstractService
     private Path historyFile;
     private Path confFile;
     private EventWriter writer;
+    private RecoveryCheckpointWriter checkpoint;
     JobIndexInfo jobIndexInfo;
     JobSummary jobSummary;
     Timer flushTimer; 
     FlushTimerTask flushTimerTask;
     private boolean isTimerShutDown = false;
 
-    MetaInfo(Path historyFile, Path conf, EventWriter writer, String user,
-        String jobName, JobId jobId) {
+    MetaInfo(Path historyFile, Path conf, EventWriter writer,
+        RecoveryCheckpointWriter checkpoint, String user, String jobName,
+        JobId jobId) {
       this.historyFile = historyFile;
       this.confFile = conf;
       this.writer = writer;
+      this.checkpoint = checkpoint;
       this.jobIndexInfo =
           new JobIndexInfo(-1, -1, user, jobName, jobId, -1, -1, null);
       this.jobSummary = new JobSummary();
@@ -788,6 +1011,10 @@ public class JobHistoryEventHandler2 extends AbstractService
 
     void closeWriter() throws IOException {
       synchronized (lock) {
+        if (checkpoint != null) {
+          checkpoint.close();
+          checkpoint = null;
+        }
         if (writer != null) {
           writer.close();
         }
@@ -801,6 +1028,13 @@ public class JobHistoryEventHandler2 extends AbstractService
           writer.write(event);
           processEventForFlush(event);
           maybeFlush(event);
+          if (checkpoint != null) {
+            checkpoint.write(event);
+            // Sync at the end of a batch, like the history file
+            if (eventsRemainingInBatch == 0) {
+              checkpoint.maybeSync(isJobCompletionEvent(event));
+            }
+          }
         }
       }
     }
@@ -836,7 +1070,8 @@ public class JobHistoryEventHandler2 extends AbstractService
     }
 
     void maybeFlush(HistoryEvent historyEvent) throws IOException {
-      if ((eventQueue.size() < minQueueSizeForBatchingFlushes 
+      if ((eventQueue.size() + eventsRemainingInBatch
+              < minQueueSizeForBatchingFlushes
           && numUnflushedCompletionEvents > 0)
           || numUnflushedCompletionEvents >= maxUnflushedCompletionEvents 
           || isJobCompletionEvent(historyEvent)) {
@@ -848,6 +1083,7 @@ public class JobHistoryEventHandler2 extends AbstractService
       synchronized (lock) {
         if (numUnflushedCompletionEvents != 0) { // skipped timer cancel.
           writer.flush();
+          numFlushes++;
           numUnflushedCompletionEvents = 0;
           resetFlushTimer();
         }
@@ -0,0 +1,208 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.hadoop.mapreduce.jobhistory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskID;
+
+/**
+ * Writes a checkpoint of the completed tasks of a job, which lets the next AM
+ * recover them without parsing the whole job history file.
+ *
+ * The checkpoint is in the job history format, so it is read back with
+ * {@link JobHistoryParser}. It holds the AM_STARTED and JOB_INITED events
+ * and, for each successful task, the events of the task and of all its
+ * attempts. The events of a running task are held until the task completes
+ * and are then written out together; those of failed and killed tasks are
+ * dropped. Events of a task already in the checkpoint, such as those of an
+ * attempt re-run after the task succeeded, are written out as they come, so
+ * that the checkpoint matches the job history file for that task. The
+ * checkpoint is synced at most once per sync interval, so tasks completing
+ * within the last interval before the AM goes down are re-run.
+ *
+ * If the checkpoint cannot be written it is deleted, and recovery falls back
+ * to the job history file. Not thread safe.
+ */
+public class RecoveryCheckpointWriter {
+
+  private static final Log LOG =
+      LogFactory.getLog(RecoveryCheckpointWriter.class);
+
+  private static final String CHECKPOINT_FILE_SUFFIX = ".recovery";
+
+  private final FileSystem fs;
+  private final Path checkpointFile;
+  private final long syncIntervalMs;
+
+  private EventWriter writer;
+  private final Map<TaskID, List<HistoryEvent>> runningTasks =
+      new HashMap<TaskID, List<HistoryEvent>>();
+  private final Set<TaskID> checkpointedTasks = new HashSet<TaskID>();
+  private boolean unsynced = false;
+  private long lastSyncTime = 0;
+
+  public static Path getCheckpointFile(Path stagingDir, String jobId,
+      int startCount) {
+    return new Path(stagingDir, jobId + "_" + startCount
+        + CHECKPOINT_FILE_SUFFIX);
+  }
+
+  RecoveryCheckpointWriter(FileSystem fs, Path checkpointFile,
+      EventWriter writer, long syncIntervalMs) {
+    this.fs = fs;
+    this.checkpointFile = checkpointFile;
+    this.writer = writer;
+    this.syncIntervalMs = syncIntervalMs;
+    LOG.info("Writing recovery checkpoint to " + checkpointFile);
+  }
+
+  void write(HistoryEvent event) {
+    if (writer == null) {
+      return;
+    }
+    try {
+      TaskID taskId = getTaskId(event);
+      if (taskId != null && checkpointedTasks.contains(taskId)) {
+        writer.write(event);
+        unsynced = true;
+        return;
+      }
+      switch (event.getEventType()) {
+      case AM_STARTED:
+      case JOB_INITED:
+        writer.write(event);
+        unsynced = true;
+        break;
+      case TASK_STARTED:
+        List<HistoryEvent> events = new ArrayList<HistoryEvent>();
+        events.add(event);
+        runningTasks.put(taskId, events);
+        break;
+      case TASK_FINISHED:
+        events = runningTasks.remove(taskId);
+        if (events != null) {
+          for (HistoryEvent taskEvent : events) {
+            writer.write(taskEvent);
+          }
+          writer.write(event);
+          unsynced = true;
+          checkpointedTasks.add(taskId);
+        }
+        break;
+      case TASK_FAILED:
+        runningTasks.remove(taskId);
+        break;
+      default:
+        if (taskId != null) {
+          events = runningTasks.get(taskId);
+          if (events != null) {
+            events.add(event);
+          }
+        }
+      }
+    } catch (IOException e) {
+      abort(e);
+    }
+  }
+
+  /**
+   * Syncs the checkpoint if the sync interval has elapsed, or if force is set.
+   */
+  void maybeSync(boolean force) {
+    if (writer == null || !unsynced) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (!force && now - lastSyncTime < syncIntervalMs) {
+      return;
+    }
+    try {
+      writer.flush();
+      unsynced = false;
+      lastSyncTime = now;
+    } catch (IOException e) {
+      abort(e);
+    }
+  }
+
+  void close() {
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.close();
+      writer = null;
+      LOG.info("Closed recovery checkpoint " + checkpointFile + " with "
+          + checkpointedTasks.size() + " completed tasks");
+    } catch (IOException e) {
+      abort(e);
+    }
+    runningTasks.clear();
+  }
+
+  private void abort(IOException cause) {
+    LOG.warn("Failed to write recovery checkpoint " + checkpointFile
+        + ". Recovery will use the job history file", cause);
+    try {
+      writer.close();
+    } catch (IOException e) {
+      LOG.info("Exception while closing recovery checkpoint "
+          + e.getMessage());
+    }
+    writer = null;
+    runningTasks.clear();
+    try {
+      fs.delete(checkpointFile, false);
+    } catch (IOException e) {
+      LOG.warn("Failed to delete recovery checkpoint " + checkpointFile, e);
+    }
+  }
+
+  private static TaskID getTaskId(HistoryEvent event) {
+    if (event instanceof TaskStartedEvent) {
+      return ((TaskStartedEvent) event).getTaskId();
+    } else if (event instanceof TaskFinishedEvent) {
+      return ((TaskFinishedEvent) event).getTaskId();
+    } else if (event instanceof TaskFailedEvent) {
+      return ((TaskFailedEvent) event).getTaskId();
+    } else if (event instanceof TaskAttemptStartedEvent) {
+      return ((TaskAttemptStartedEvent) event).getTaskId();
+    } else if (event instanceof MapAttemptFinishedEvent) {
+      return ((MapAttemptFinishedEvent) event).getTaskId();
+    } else if (event instanceof ReduceAttemptFinishedEvent) {
+      return ((ReduceAttemptFinishedEvent) event).getTaskId();
+    } else if (event instanceof TaskAttemptFinishedEvent) {
+      return ((TaskAttemptFinishedEvent) event).getTaskId();
+    } else if (event instanceof TaskAttemptUnsuccessfulCompletionEvent) {
+      return ((TaskAttemptUnsuccessfulCompletionEvent) event).getTaskId();
+    }
+    return null;
+  }
+}
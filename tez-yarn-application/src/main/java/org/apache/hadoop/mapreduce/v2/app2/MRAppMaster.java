@@ -360,6 +360,14 @@ public class MRAppMaster extends CompositeService {
   } // end of init()
 
   protected Dispatcher createDispatcher() {
+    int numThreads = getConfig().getInt(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig.MR_AM_DISPATCHER_THREAD_COUNT,
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .DEFAULT_MR_AM_DISPATCHER_THREAD_COUNT);
+    if (numThreads > 1) {
+      LOG.info("Using a sharded dispatcher with " + numThreads + " threads");
+      return new ShardedDispatcher(numThreads);
+    }
     return new AsyncDispatcher();
   }
 
@@ -910,7 +918,7 @@ public class MRAppMaster extends CompositeService {
             (RMCommunicator) this.requestor);
       } else {
         this.containerAllocator = new RMContainerAllocator(this.requestor,
-            this.context);
+            this.context, metrics);
       }
       ((Service)this.containerAllocator).init(getConfig());
       ((Service)this.containerAllocator).start();
@@ -0,0 +1,368 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.hadoop.mapreduce.v2.app2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskAttemptEvent;
+import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskEvent;
+import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerEvent;
+import org.apache.hadoop.mapreduce.v2.app2.rm.node.AMNodeEvent;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsException;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.apache.hadoop.util.ShutdownHookManager;
+import org.apache.hadoop.yarn.YarnException;
+import org.apache.hadoop.yarn.event.Dispatcher;
+import org.apache.hadoop.yarn.event.Event;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.service.AbstractService;
+
+/**
+ * A {@link Dispatcher} which dispatches events on several threads, each with
+ * a queue of its own.
+ *
+ * Task and TaskAttempt events are sharded by TaskId, AMContainer events by
+ * ContainerId and AMNode events by NodeId over all but the first queue. All
+ * other events (Job, scheduler, launcher, history etc.) go to the first queue.
+ * Events for the same entity, and events which aren't sharded, are dispatched
+ * in the order they were sent, like with a single AsyncDispatcher. Events for
+ * different entities may be dispatched concurrently and out of order, so the
+ * handlers of sharded events must be thread-safe.
+ *
+ * The depth of each queue, and the number and latency (from the time the event
+ * is sent until its handler returns) of events per event type, are published
+ * as metrics.
+ */
+@SuppressWarnings("rawtypes")
+public class ShardedDispatcher extends AbstractService implements Dispatcher,
+    MetricsSource {
+
+  private static final Log LOG = LogFactory.getLog(ShardedDispatcher.class);
+
+  private static final String METRICS_SOURCE_NAME = "AMDispatcher";
+
+  private final BlockingQueue<QueuedEvent>[] eventQueues;
+  private final Thread[] eventHandlingThreads;
+  private volatile boolean stopped = false;
+  private boolean exitOnDispatchException;
+
+  private final Map<Class<? extends Enum>, EventHandler> eventDispatchers =
+      new ConcurrentHashMap<Class<? extends Enum>, EventHandler>();
+  private final ConcurrentMap<Enum, EventTypeStats> eventTypeStats =
+      new ConcurrentHashMap<Enum, EventTypeStats>();
+
+  private final EventHandler handlerInstance = new GenericEventHandler();
+
+  /**
+   * @param numThreads the number of dispatcher threads, at least 2. One
+   *          dispatches all events which aren't sharded, the others the
+   *          sharded events.
+   */
+  @SuppressWarnings("unchecked")
+  public ShardedDispatcher(int numThreads) {
+    super(ShardedDispatcher.class.getName());
+    if (numThreads < 2) {
+      throw new IllegalArgumentException(
+          "ShardedDispatcher needs at least 2 threads, got " + numThreads);
+    }
+    this.eventQueues = new BlockingQueue[numThreads];
+    for (int i = 0; i < numThreads; ++i) {
+      eventQueues[i] = new LinkedBlockingQueue<QueuedEvent>();
+    }
+    this.eventHandlingThreads = new Thread[numThreads];
+  }
+
+  @Override
+  public synchronized void init(Configuration conf) {
+    this.exitOnDispatchException =
+        conf.getBoolean(Dispatcher.DISPATCHER_EXIT_ON_ERROR_KEY,
+            Dispatcher.DEFAULT_DISPATCHER_EXIT_ON_ERROR);
+    super.init(conf);
+  }
+
+  @Override
+  public void start() {
+    //start all the components
+    super.start();
+    for (int i = 0; i < eventHandlingThreads.length; ++i) {
+      Thread thread = new Thread(createThread(eventQueues[i]));
+      thread.setName("AsyncDispatcher event handler " + i);
+      eventHandlingThreads[i] = thread;
+      thread.start();
+    }
+    try {
+      DefaultMetricsSystem.instance().register(METRICS_SOURCE_NAME,
+          "AM event dispatcher", this);
+    } catch (MetricsException e) {
+      // e.g. another dispatcher in the same JVM registered already
+      LOG.warn("Failed to register dispatcher metrics", e);
+    }
+  }
+
+  @Override
+  public void stop() {
+    stopped = true;
+    for (Thread thread : eventHandlingThreads) {
+      if (thread != null) {
+        thread.interrupt();
+      }
+    }
+    for (Thread thread : eventHandlingThreads) {
+      if (thread != null) {
+        try {
+          thread.join();
+        } catch (InterruptedException ie) {
+          LOG.debug("Interrupted Exception while stopping", ie);
+        }
+      }
+    }
+
+    // stop all the components
+    super.stop();
+  }
+
+  Runnable createThread(final BlockingQueue<QueuedEvent> eventQueue) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        while (!stopped && !Thread.currentThread().isInterrupted()) {
+          QueuedEvent queued;
+          try {
+            queued = eventQueue.take();
+          } catch(InterruptedException ie) {
+            if (!stopped) {
+              LOG.warn("AsyncDispatcher thread interrupted", ie);
+            }
+            return;
+          }
+          dispatch(queued.event);
+          getStats(queued.event.getType()).record(
+              System.nanoTime() - queued.sendTime);
+        }
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  protected void dispatch(Event event) {
+    //all events go thru this loop
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Dispatching the event " + event.getClass().getName() + "."
+          + event.toString());
+    }
+
+    Class<? extends Enum> type = event.getType().getDeclaringClass();
+
+    try {
+      EventHandler handler = eventDispatchers.get(type);
+      if (handler != null) {
+        handler.handle(event);
+      } else {
+        throw new Exception("No handler for registered for " + type);
+      }
+    } catch (Throwable t) {
+      //TODO Maybe log the state of the queue
+      LOG.fatal("Error in dispatcher thread", t);
+      if (exitOnDispatchException
+          && (ShutdownHookManager.get().isShutdownInProgress()) == false) {
+        LOG.info("Exiting, bbye..");
+        System.exit(-1);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public synchronized void register(Class<? extends Enum> eventType,
+      EventHandler handler) {
+    /* check to see if we have a listener registered */
+    EventHandler<Event> registeredHandler = (EventHandler<Event>)
+        eventDispatchers.get(eventType);
+    LOG.info("Registering " + eventType + " for " + handler.getClass());
+    if (registeredHandler == null) {
+      eventDispatchers.put(eventType, handler);
+    } else if (!(registeredHandler instanceof MultiListenerHandler)) {
+      /* for multiple listeners of an event add the multiple listener handler */
+      MultiListenerHandler multiHandler = new MultiListenerHandler();
+      multiHandler.addHandler(registeredHandler);
+      multiHandler.addHandler(handler);
+      eventDispatchers.put(eventType, multiHandler);
+    } else {
+      ((MultiListenerHandler) registeredHandler).addHandler(handler);
+    }
+  }
+
+  @Override
+  public EventHandler getEventHandler() {
+    return handlerInstance;
+  }
+
+  /**
+   * Pick the queue for <code>event</code>.
+   * @return 0 for events which aren't sharded, otherwise the index of the
+   *         queue of the entity the event is for
+   */
+  int getQueueIndex(Event event) {
+    Object entity;
+    if (event instanceof TaskAttemptEvent) {
+      // Same queue as the task, so that a task and its attempts see each
+      // other's events in order
+      entity = ((TaskAttemptEvent) event).getTaskAttemptID().getTaskId();
+    } else if (event instanceof TaskEvent) {
+      entity = ((TaskEvent) event).getTaskID();
+    } else if (event instanceof AMContainerEvent) {
+      entity = ((AMContainerEvent) event).getContainerId();
+    } else if (event instanceof AMNodeEvent) {
+      entity = ((AMNodeEvent) event).getNodeId();
+    } else {
+      return 0;
+    }
+    if (entity == null) {
+      return 0;
+    }
+    int numShards = eventQueues.length - 1;
+    return 1 + (entity.hashCode() & Integer.MAX_VALUE) % numShards;
+  }
+
+  /**
+   * @return the number of events waiting in queue <code>index</code>
+   */
+  int getQueueSize(int index) {
+    return eventQueues[index].size();
+  }
+
+  private EventTypeStats getStats(Enum type) {
+    EventTypeStats stats = eventTypeStats.get(type);
+    if (stats == null) {
+      stats = new EventTypeStats();
+      EventTypeStats existing = eventTypeStats.putIfAbsent(type, stats);
+      if (existing != null) {
+        stats = existing;
+      }
+    }
+    return stats;
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder rb = collector.addRecord(METRICS_SOURCE_NAME)
+        .setContext("mapred");
+    for (int i = 0; i < eventQueues.length; ++i) {
+      rb.addGauge(Interns.info("QueueDepth" + i,
+          "Events waiting in dispatcher queue " + i), eventQueues[i].size());
+    }
+    for (Map.Entry<Enum, EventTypeStats> entry : eventTypeStats.entrySet()) {
+      String name = entry.getKey().name();
+      EventTypeStats stats = entry.getValue();
+      long count = stats.count.get();
+      rb.addCounter(Interns.info(name + "NumEvents",
+          "Number of " + name + " events dispatched"), count);
+      rb.addGauge(Interns.info(name + "AvgLatencyMicros",
+          "Average latency of " + name + " events"),
+          count == 0 ? 0 : stats.totalNanos.get() / count / 1000);
+      rb.addGauge(Interns.info(name + "MaxLatencyMicros",
+          "Maximum latency of " + name + " events"),
+          stats.maxNanos.get() / 1000);
+    }
+  }
+
+  private static class QueuedEvent {
+    final Event event;
+    final long sendTime;
+
+    QueuedEvent(Event event) {
+      this.event = event;
+      this.sendTime = System.nanoTime();
+    }
+  }
+
+  private static class EventTypeStats {
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong totalNanos = new AtomicLong();
+    final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+      count.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      long max = maxNanos.get();
+      while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+        max = maxNanos.get();
+      }
+    }
+  }
+
+  class GenericEventHandler implements EventHandler<Event> {
+    public void handle(Event event) {
+      BlockingQueue<QueuedEvent> eventQueue =
+          eventQueues[getQueueIndex(event)];
+      /* all this method does is enqueue all the events onto the queue */
+      int qSize = eventQueue.size();
+      if (qSize !=0 && qSize %1000 == 0) {
+        LOG.info("Size of event-queue is " + qSize);
+      }
+      int remCapacity = eventQueue.remainingCapacity();
+      if (remCapacity < 1000) {
+        LOG.warn("Very low remaining capacity in the event-queue: "
+            + remCapacity);
+      }
+      try {
+        eventQueue.put(new QueuedEvent(event));
+      } catch (InterruptedException e) {
+        if (!stopped) {
+          LOG.warn("AsyncDispatcher thread interrupted", e);
+        }
+        throw new YarnException(e);
+      }
+    };
+  }
+
+  /**
+   * Multiplexing an event. Sending it to different handlers that
+   * are interested in the event.
+   */
+  static class MultiListenerHandler implements EventHandler<Event> {
+    private final List<EventHandler<Event>> listofHandlers =
+        new ArrayList<EventHandler<Event>>();
+
+    @Override
+    public void handle(Event event) {
+      for (EventHandler<Event> handler: listofHandlers) {
+        handler.handle(event);
+      }
+    }
+
+    void addHandler(EventHandler<Event> handler) {
+      listofHandlers.add(handler);
+    }
+  }
+}
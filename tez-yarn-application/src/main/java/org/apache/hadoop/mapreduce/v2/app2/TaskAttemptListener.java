@@ -42,6 +42,15 @@ public interface TaskAttemptListener {
 //  void unregisterRunningJvm(WrappedJvmID jvmID);
   
   void unregisterTaskAttempt(TaskAttemptId attemptID);
+
+  /**
+   * Inform the listener that a task attempt has been assigned to the
+   * container, so that a pending request for a task from the container can
+   * be served right away.
+   * @param containerId the container the attempt is assigned to.
+   */
+  void taskAttemptAssigned(ContainerId containerId);
+
   /**
    * Register a JVM with the listener.  This should be called as soon as a 
    * JVM ID is assigned to a task attempt, before it has been launched.
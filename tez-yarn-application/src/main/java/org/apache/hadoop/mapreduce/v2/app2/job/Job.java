@@ -35,6 +35,7 @@ import org.apache.hadoop.mapreduce.v2.api.records.TaskId;
 import org.apache.hadoop.mapreduce.v2.api.records.TaskType;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.authorize.AccessControlList;
+import org.apache.tez.records.TezTaskDependencyCompletionEventsUpdate;
 
 
 /**
@@ -90,6 +91,15 @@ public interface Job {
   TaskAttemptCompletionEvent[]
       getTaskAttemptCompletionEvents(int fromEventId, int maxEvents);
 
+  /**
+   * @return up to <code>maxEvents</code> completion events of the attempts of
+   *         tasks of type <code>taskType</code>, starting with event
+   *         <code>fromEventId</code> of that type, for tasks which depend on
+   *         them
+   */
+  TezTaskDependencyCompletionEventsUpdate getDependentTaskCompletionEvents(
+      TaskType taskType, int fromEventId, int maxEvents);
+
   /**
    * @return information for MR AppMasters (previously failed and current)
    */
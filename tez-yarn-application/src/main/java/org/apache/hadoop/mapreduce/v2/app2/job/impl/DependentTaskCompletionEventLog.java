@@ -0,0 +1,114 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.hadoop.mapreduce.v2.app2.job.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptCompletionEvent;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptCompletionEventStatus;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskType;
+import org.apache.tez.mapreduce.hadoop.TezTypeConverters;
+import org.apache.tez.records.TezDependentTaskCompletionEvent;
+import org.apache.tez.records.TezTaskDependencyCompletionEventsUpdate;
+
+/**
+ * Append-only log of the completion events of the tasks of one type, already
+ * converted to the form in which they are sent to dependent tasks.
+ *
+ * Events are numbered by their position in this log, so consumers can page
+ * through it with the count of events they received so far. Events are added
+ * by a single thread, ranges are served to any number of threads without
+ * locking and without copying.
+ */
+public class DependentTaskCompletionEventLog {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  // Readers read size before events. An event is stored before size is
+  // increased, and a grown array is published before either.
+  private volatile TezDependentTaskCompletionEvent[] events;
+  private volatile int size = 0;
+
+  // Position of the successful event of each task, to make it obsolete
+  // when another attempt of the task completes
+  private final Map<TaskId, Integer> successEventIndexes =
+      new HashMap<TaskId, Integer>();
+
+  public DependentTaskCompletionEventLog() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public DependentTaskCompletionEventLog(int initialCapacity) {
+    this.events = new TezDependentTaskCompletionEvent[
+        Math.max(1, initialCapacity)];
+  }
+
+  public synchronized void add(TaskAttemptCompletionEvent event) {
+    TaskId taskId = event.getAttemptId().getTaskId();
+    Integer successIndex = successEventIndexes.remove(taskId);
+    if (successIndex != null) {
+      // Replace rather than modify the event, it may be being sent
+      TezDependentTaskCompletionEvent success = events[successIndex];
+      events[successIndex] = new TezDependentTaskCompletionEvent(
+          success.getEventId(), success.getTaskAttemptID(),
+          success.isMapTask(), TezDependentTaskCompletionEvent.Status.OBSOLETE,
+          success.getTaskTrackerHttp());
+    }
+
+    int index = size;
+    if (TaskAttemptCompletionEventStatus.SUCCEEDED.equals(event.getStatus())) {
+      successEventIndexes.put(taskId, index);
+    }
+    TezDependentTaskCompletionEvent[] current = events;
+    if (index == current.length) {
+      current = Arrays.copyOf(current, current.length * 2);
+      events = current;
+    }
+    current[index] = new TezDependentTaskCompletionEvent(index,
+        TezTypeConverters.toTez(event.getAttemptId()),
+        taskId.getTaskType() == TaskType.MAP,
+        TezTypeConverters.toTez(event.getStatus()),
+        event.getMapOutputServerAddress());
+    size = index + 1;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return up to <code>maxEvents</code> events starting with event
+   *         <code>fromEventId</code>
+   */
+  public TezTaskDependencyCompletionEventsUpdate getEvents(int fromEventId,
+      int maxEvents) {
+    int currentSize = size;
+    TezDependentTaskCompletionEvent[] current = events;
+    if (fromEventId >= currentSize || maxEvents <= 0) {
+      return new TezTaskDependencyCompletionEventsUpdate(
+          TezDependentTaskCompletionEvent.EMPTY_ARRAY, false);
+    }
+    int length = Math.min(maxEvents, currentSize - fromEventId);
+    return new TezTaskDependencyCompletionEventsUpdate(current, fromEventId,
+        length, false);
+  }
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -29,6 +30,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -43,6 +45,8 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobACLsManager;
 import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
 import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.JobACL;
 import org.apache.hadoop.mapreduce.JobContext;
@@ -115,6 +119,7 @@ import org.apache.tez.mapreduce.task.FinalTask;
 import org.apache.tez.mapreduce.task.InitialTask;
 import org.apache.tez.mapreduce.task.InitialTaskWithInMemSort;
 import org.apache.tez.mapreduce.task.MapOnlyTask;
+import org.apache.tez.records.TezTaskDependencyCompletionEventsUpdate;
 
 /** Implementation of Job interface. Maintains the state machines of Job.
  * The read and write calls use ReadWriteLock for concurrency.
@@ -173,6 +178,17 @@ public class JobImpl implements org.apache.hadoop.mapreduce.v2.app2.job.Job,
   private Counters fullCounters = null;
   private Counters finalMapCounters = null;
   private Counters finalReduceCounters = null;
+
+  // Running totals of the progress and counters of all tasks. Tasks queue
+  // themselves in changedTasks when their status changes, and the totals are
+  // brought up to date from just those tasks when a report is requested.
+  private final ConcurrentLinkedQueue<TaskImpl> changedTasks =
+      new ConcurrentLinkedQueue<TaskImpl>();
+  private final Object aggregatesLock = new Object();
+  private double mapProgressSum = 0;
+  private double reduceProgressSum = 0;
+  private Counters taskCountersSum = new Counters();
+  private Counters countersSnapshot = null;
     // FIXME:  
     //
     // Can then replace task-level uber counters (MR-2424) with job-level ones
@@ -188,6 +204,10 @@ public class JobImpl implements org.apache.hadoop.mapreduce.v2.app2.job.Job,
   private int allowedMapFailuresPercent = 0;
   private int allowedReduceFailuresPercent = 0;
   private List<TaskAttemptCompletionEvent> taskAttemptCompletionEvents;
+  // The same events, by task type, for dependent tasks
+  private final Map<TaskType, DependentTaskCompletionEventLog>
+      dependentCompletionEventLogs =
+          new EnumMap<TaskType, DependentTaskCompletionEventLog>(TaskType.class);
   private final List<String> diagnostics = new ArrayList<String>();
   
   //task/attempt related datastructures
@@ -412,6 +432,10 @@ public class JobImpl implements org.apache.hadoop.mapreduce.v2.app2.job.Job,
     this.completedTasksFromPreviousRun = completedTasksFromPreviousRun;
     this.amInfos = amInfos;
     this.appContext = appContext;
+    for (TaskType taskType : TaskType.values()) {
+      dependentCompletionEventLogs.put(taskType,
+          new DependentTaskCompletionEventLog());
+    }
     this.userName = userName;
     this.queueName = conf.get(MRJobConfig.QUEUE_NAME, "default");
     this.appSubmitTime = appSubmitTime;
@@ -523,9 +547,16 @@ public class JobImpl implements org.apache.hadoop.mapreduce.v2.app2.job.Job,
         return fullCounters;
       }
 
-      Counters counters = new Counters();
-      counters.incrAllCounters(jobCounters);
-      return incrTaskCounters(counters, tasks.values());
+      updateAggregates();
+      synchronized (aggregatesLock) {
+        if (countersSnapshot == null) {
+          Counters counters = new Counters();
+          counters.incrAllCounters(jobCounters);
+          counters.incrAllCounters(taskCountersSum);
+          countersSnapshot = counters;
+        }
+        return countersSnapshot;
+      }
 
     } finally {
       readLock.unlock();
@@ -558,6 +589,15 @@ public class JobImpl implements org.apache.hadoop.mapreduce.v2.app2.job.Job,
     }
   }
 
+  @Override
+  public TezTaskDependencyCompletionEventsUpdate
+      getDependentTaskCompletionEvents(TaskType taskType, int fromEventId,
+          int maxEvents) {
+    // Not under the lock, the logs are safe to read concurrently
+    return dependentCompletionEventLogs.get(taskType).getEvents(fromEventId,
+        maxEvents);
+  }
+
   @Override
   public List<String> getDiagnostics() {
     readLock.lock();
@@ -615,26 +655,92 @@ public class JobImpl implements org.apache.hadoop.mapreduce.v2.app2.job.Job,
   private void computeProgress() {
     this.readLock.lock();
     try {
-      float mapProgress = 0f;
-      float reduceProgress = 0f;
-      for (Task task : this.tasks.values()) {
+      updateAggregates();
+      synchronized (aggregatesLock) {
+        float mapProgress = 0f;
+        float reduceProgress = 0f;
+        if (this.numMapTasks != 0) {
+          mapProgress = (float) (mapProgressSum / this.numMapTasks);
+        }
+        if (this.numReduceTasks != 0) {
+          reduceProgress = (float) (reduceProgressSum / this.numReduceTasks);
+        }
+        this.mapProgress = Math.max(0f, Math.min(1f, mapProgress));
+        this.reduceProgress = Math.max(0f, Math.min(1f, reduceProgress));
+      }
+    } finally {
+      this.readLock.unlock();
+    }
+  }
+
+  /**
+   * Called by a task when its progress, counters or state may have changed.
+   */
+  void taskStatusChanged(TaskImpl task) {
+    changedTasks.add(task);
+  }
+
+  /**
+   * Bring the running totals up to date with the tasks which changed since
+   * the last call, replacing their previous contribution with the current
+   * one.
+   */
+  private void updateAggregates() {
+    synchronized (aggregatesLock) {
+      boolean rebuildCounters = false;
+      TaskImpl task;
+      while ((task = changedTasks.poll()) != null) {
+        // Clear first, so that changes from here on queue the task again
+        task.clearStatusChanged();
+        float progress = task.isFinished() ? 1f : task.getProgress();
         if (task.getType() == TaskType.MAP) {
-          mapProgress += (task.isFinished() ? 1f : task.getProgress());
+          mapProgressSum += progress - task.aggregatedProgress;
         } else {
-          reduceProgress += (task.isFinished() ? 1f : task.getProgress());
+          reduceProgressSum += progress - task.aggregatedProgress;
         }
+        task.aggregatedProgress = progress;
+
+        Counters counters = new Counters();
+        counters.incrAllCounters(task.getCounters());
+        if (task.aggregatedCounters != null) {
+          rebuildCounters |=
+              decrAllCounters(taskCountersSum, task.aggregatedCounters);
+        }
+        taskCountersSum.incrAllCounters(counters);
+        task.aggregatedCounters = counters;
+        countersSnapshot = null;
       }
-      if (this.numMapTasks != 0) {
-        mapProgress = mapProgress / this.numMapTasks;
+      if (rebuildCounters) {
+        // A counter fell back to 0. No task may report it any more, so sum
+        // up the tasks again rather than leave it behind in the totals.
+        Counters counters = new Counters();
+        synchronized (tasksSyncHandle) {
+          for (Task t : tasks.values()) {
+            if (t instanceof TaskImpl
+                && ((TaskImpl) t).aggregatedCounters != null) {
+              counters.incrAllCounters(((TaskImpl) t).aggregatedCounters);
+            }
+          }
+        }
+        taskCountersSum = counters;
       }
-      if (this.numReduceTasks != 0) {
-        reduceProgress = reduceProgress / this.numReduceTasks;
+    }
+  }
+
+  /**
+   * Subtract <code>other</code> from <code>counters</code>.
+   * @return whether any counter subtracted from is left at 0
+   */
+  private static boolean decrAllCounters(Counters counters, Counters other) {
+    boolean zeroed = false;
+    for (CounterGroup group : other) {
+      for (Counter counter : group) {
+        Counter sum = counters.findCounter(group.getName(), counter.getName());
+        sum.increment(-counter.getValue());
+        zeroed |= sum.getValue() == 0;
       }
-      this.mapProgress = mapProgress;
-      this.reduceProgress = reduceProgress;
-    } finally {
-      this.readLock.unlock();
     }
+    return zeroed;
   }
 
   @Override
@@ -742,6 +848,9 @@ public class JobImpl implements org.apache.hadoop.mapreduce.v2.app2.job.Job,
       }
     }
     tasks.put(task.getID(), task);
+    if (task instanceof TaskImpl) {
+      ((TaskImpl) task).setJob(this);
+    }
     if (task.getType() == TaskType.MAP) {
       mapTasks.add(task.getID());
     } else if (task.getType() == TaskType.REDUCE) {
@@ -1360,6 +1469,8 @@ public class JobImpl implements org.apache.hadoop.mapreduce.v2.app2.job.Job,
       //eventId is equal to index in the arraylist
       tce.setEventId(job.taskAttemptCompletionEvents.size());
       job.taskAttemptCompletionEvents.add(tce);
+      job.dependentCompletionEventLogs.get(
+          tce.getAttemptId().getTaskId().getTaskType()).add(tce);
       
       TaskAttemptId attemptId = tce.getAttemptId();
       TaskId taskId = attemptId.getTaskId();
@@ -1565,6 +1676,9 @@ public class JobImpl implements org.apache.hadoop.mapreduce.v2.app2.job.Job,
         job.jobCounters.findCounter(ci.getCounterKey()).increment(
           ci.getIncrementValue());
       }
+      synchronized (job.aggregatesLock) {
+        job.countersSnapshot = null;
+      }
     }
   }
 
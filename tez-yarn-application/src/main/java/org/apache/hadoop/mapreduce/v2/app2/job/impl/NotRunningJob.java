@@ -42,6 +42,8 @@ import org.apache.hadoop.mapreduce.v2.util.MRBuilderUtils;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.authorize.AccessControlList;
 import org.apache.hadoop.yarn.api.records.ApplicationAttemptId;
+import org.apache.tez.records.TezDependentTaskCompletionEvent;
+import org.apache.tez.records.TezTaskDependencyCompletionEventsUpdate;
 
 public class NotRunningJob implements Job {
 
@@ -174,6 +176,14 @@ public class NotRunningJob implements Job {
     return null;
   }
 
+  @Override
+  public TezTaskDependencyCompletionEventsUpdate
+      getDependentTaskCompletionEvents(TaskType taskType, int fromEventId,
+          int maxEvents) {
+    return new TezTaskDependencyCompletionEventsUpdate(
+        TezDependentTaskCompletionEvent.EMPTY_ARRAY, false);
+  }
+
   @Override
   public List<AMInfo> getAMInfos() {
     return amInfos;
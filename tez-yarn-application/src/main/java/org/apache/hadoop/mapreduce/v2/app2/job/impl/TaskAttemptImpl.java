@@ -128,6 +128,7 @@ public abstract class TaskAttemptImpl implements TaskAttempt,
   protected EventHandler eventHandler;
   private final TaskAttemptId attemptId;
   private final TaskId taskId;
+  private volatile TaskImpl task;
   private final JobId jobId;
   private final Clock clock;
 //  private final TaskAttemptListener taskAttemptListener;
@@ -537,6 +538,14 @@ public abstract class TaskAttemptImpl implements TaskAttempt,
     } finally {
       writeLock.unlock();
     }
+    TaskImpl task = this.task;
+    if (task != null) {
+      task.statusChanged();
+    }
+  }
+
+  void setTask(TaskImpl task) {
+    this.task = task;
   }
   
   @VisibleForTesting
@@ -1068,6 +1077,10 @@ public abstract class TaskAttemptImpl implements TaskAttempt,
       TaskAttemptStatus newReportedStatus =
           ((TaskAttemptEventStatusUpdate) event)
               .getReportedTaskAttemptStatus();
+      if (newReportedStatus.counters == null) {
+        // The update carried no usable counters, keep the last ones
+        newReportedStatus.counters = ta.reportedStatus.counters;
+      }
       ta.reportedStatus = newReportedStatus;
       ta.reportedStatus.taskState = ta.getState();
 
@@ -25,6 +25,7 @@ import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -104,6 +105,13 @@ public abstract class TaskImpl implements Task, EventHandler<TaskEvent> {
   protected final TaskHeartbeatHandler taskHeartbeatHandler;
   protected final EventHandler eventHandler;
   private final TaskId taskId;
+
+  // The job this task reports changes to, and this task's share of the job's
+  // running totals, which is guarded by the job.
+  private volatile JobImpl job;
+  private final AtomicBoolean statusChangePending = new AtomicBoolean(false);
+  float aggregatedProgress = 0f;
+  Counters aggregatedCounters = null;
   private Map<TaskAttemptId, TaskAttempt> attempts;
   private final int maxAttempts;
   protected final Clock clock;
@@ -613,7 +621,8 @@ public abstract class TaskImpl implements Task, EventHandler<TaskEvent> {
 
   // This is always called in the Write Lock
   private void addAndScheduleAttempt() {
-    TaskAttempt attempt = createAttempt();
+    TaskAttemptImpl attempt = createAttempt();
+    attempt.setTask(this);
     if (LOG.isDebugEnabled()) {
       LOG.debug("Created attempt " + attempt.getID());
     }
@@ -677,6 +686,26 @@ public abstract class TaskImpl implements Task, EventHandler<TaskEvent> {
     } finally {
       writeLock.unlock();
     }
+    statusChanged();
+  }
+
+  void setJob(JobImpl job) {
+    this.job = job;
+  }
+
+  /**
+   * Let the job know that the progress, counters or state of this task may
+   * have changed, unless it already knows.
+   */
+  void statusChanged() {
+    JobImpl job = this.job;
+    if (job != null && statusChangePending.compareAndSet(false, true)) {
+      job.taskStatusChanged(this);
+    }
+  }
+
+  void clearStatusChanged() {
+    statusChangePending.set(false);
   }
 
   protected void internalError(TaskEventType type) {
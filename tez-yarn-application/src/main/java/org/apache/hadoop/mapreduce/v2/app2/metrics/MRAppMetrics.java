@@ -49,6 +49,10 @@ public class MRAppMetrics {
   @Metric MutableCounterInt reducesKilled;
   @Metric MutableGaugeInt reducesRunning;
   @Metric MutableGaugeInt reducesWaiting;
+
+  @Metric MutableCounterInt containersAssignedFresh;
+  @Metric MutableCounterInt containersAssignedReused;
+  @Metric MutableCounterInt idleContainersReleased;
   
   public static MRAppMetrics create() {
     return create(DefaultMetricsSystem.instance());
@@ -180,4 +184,24 @@ public class MRAppMetrics {
         break;
     }
   }
+
+  public void assignedFreshContainer() {
+    containersAssignedFresh.incr();
+  }
+
+  public void assignedReusedContainer() {
+    containersAssignedReused.incr();
+  }
+
+  public void releasedIdleContainer() {
+    idleContainersReleased.incr();
+  }
+
+  @Metric("Fraction of the container assignments which reused a launched"
+      + " container")
+  public float getContainerReuseHitRate() {
+    int fresh = containersAssignedFresh.value();
+    int reused = containersAssignedReused.value();
+    return fresh + reused == 0 ? 0f : (float) reused / (fresh + reused);
+  }
 }
@@ -31,6 +31,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileContext;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.OutputCommitter;
@@ -41,6 +42,7 @@ import org.apache.hadoop.mapreduce.jobhistory.JobHistoryParser;
 import org.apache.hadoop.mapreduce.jobhistory.JobHistoryParser.JobInfo;
 import org.apache.hadoop.mapreduce.jobhistory.JobHistoryParser.TaskAttemptInfo;
 import org.apache.hadoop.mapreduce.jobhistory.JobHistoryParser.TaskInfo;
+import org.apache.hadoop.mapreduce.jobhistory.RecoveryCheckpointWriter;
 import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
 import org.apache.hadoop.mapreduce.v2.api.records.AMInfo;
 import org.apache.hadoop.mapreduce.v2.api.records.Phase;
@@ -103,7 +105,8 @@ import org.apache.hadoop.yarn.util.ConverterUtils;
 
 /*
  * Recovers the completed tasks from the previous life of Application Master.
- * The completed tasks are deciphered from the history file of the previous life.
+ * The completed tasks are deciphered from the recovery checkpoint of the
+ * previous life, or from its history file if there is no checkpoint.
  * Recovery service intercepts and replay the events for completed tasks.
  * While recovery is in progress, the scheduling of new tasks are delayed by 
  * buffering the task schedule events.
@@ -205,23 +208,39 @@ public class RecoveryService extends CompositeService implements Recovery {
         TypeConverter.fromYarn(applicationAttemptId.getApplicationId()).toString();
     String jobhistoryDir = JobHistoryUtils.getConfiguredHistoryStagingDirPrefix(
         getConfig(), jobId);
-    FSDataInputStream in = null;
     Path historyFile = null;
     Path histDirPath = FileContext.getFileContext(getConfig()).makeQualified(
         new Path(jobhistoryDir));
     FileContext fc = FileContext.getFileContext(histDirPath.toUri(),
         getConfig());
-    //read the previous history file
-    historyFile = fc.makeQualified(JobHistoryUtils.getStagingJobHistoryFile(
-        histDirPath, jobId, (applicationAttemptId.getAttemptId() - 1)));
-    LOG.info("History file is at " + historyFile);
-    in = fc.open(historyFile);
-    JobHistoryParser parser = new JobHistoryParser(in);
-    jobInfo = parser.parse();
-    Exception parseException = parser.getParseException();
-    if (parseException != null) {
-      LOG.info("Got an error parsing job-history file " + historyFile + 
-          ", ignoring incomplete events.", parseException);
+    int previousStartCount = applicationAttemptId.getAttemptId() - 1;
+    // The checkpoint of the previous AM only holds its completed tasks, which
+    // is all that is needed here and much quicker to parse.
+    if (getConfig().getBoolean(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .MR_AM_RECOVERY_CHECKPOINT_ENABLED,
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .DEFAULT_MR_AM_RECOVERY_CHECKPOINT_ENABLED)) {
+      Path checkpointFile = fc.makeQualified(
+          RecoveryCheckpointWriter.getCheckpointFile(histDirPath, jobId,
+              previousStartCount));
+      if (fc.util().exists(checkpointFile)) {
+        LOG.info("Recovery checkpoint is at " + checkpointFile);
+        try {
+          jobInfo = parseHistory(fc, checkpointFile);
+        } catch (IOException e) {
+          LOG.warn("Could not read recovery checkpoint " + checkpointFile
+              + ", falling back to the history file", e);
+          jobInfo = null;
+        }
+      }
+    }
+    if (jobInfo == null) {
+      //read the previous history file
+      historyFile = fc.makeQualified(JobHistoryUtils.getStagingJobHistoryFile(
+          histDirPath, jobId, previousStartCount));
+      LOG.info("History file is at " + historyFile);
+      jobInfo = parseHistory(fc, historyFile);
     }
     Map<org.apache.hadoop.mapreduce.TaskID, TaskInfo> taskInfos = jobInfo
         .getAllTasks();
@@ -236,6 +255,25 @@ public class RecoveryService extends CompositeService implements Recovery {
     LOG.info("Read completed tasks from history "
         + completedTasks.size());
   }
+
+  private JobInfo parseHistory(FileContext fc, Path file)
+      throws IOException {
+    JobInfo info;
+    Exception parseException;
+    FSDataInputStream in = fc.open(file);
+    try {
+      JobHistoryParser parser = new JobHistoryParser(in);
+      info = parser.parse();
+      parseException = parser.getParseException();
+    } finally {
+      IOUtils.closeStream(in);
+    }
+    if (parseException != null) {
+      LOG.info("Got an error parsing job-history file " + file + 
+          ", ignoring incomplete events.", parseException);
+    }
+    return info;
+  }
   
   protected Dispatcher createRecoveryDispatcher() {
     return new RecoveryDispatcher();
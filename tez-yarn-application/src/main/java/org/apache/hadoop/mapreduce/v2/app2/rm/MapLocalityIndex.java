@@ -0,0 +1,193 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.hadoop.mapreduce.v2.app2.rm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptId;
+
+/**
+ * Index of the map attempts waiting for a container, by the hosts and racks
+ * holding their data.
+ *
+ * An attempt is listed under each of its hosts and racks, in the order the
+ * attempts were added. Taking an attempt for a host, a rack or any location
+ * removes it from all its lists, so none of them hold attempts which were
+ * already assigned. All operations take constant time, apart from
+ * {@link #add} and {@link #remove} which are linear in the number of
+ * locations of the attempt.
+ *
+ * Not thread safe.
+ */
+class MapLocalityIndex {
+
+  private static final String[] NO_LOCATIONS = new String[0];
+
+  private static class Locations {
+    final String[] hosts;
+    final String[] racks;
+
+    Locations(String[] hosts, String[] racks) {
+      this.hosts = hosts == null ? NO_LOCATIONS : hosts;
+      this.racks = racks == null ? NO_LOCATIONS : racks;
+    }
+  }
+
+  private final Map<TaskAttemptId, Locations> attempts =
+      new LinkedHashMap<TaskAttemptId, Locations>();
+  private final Map<String, LinkedHashSet<TaskAttemptId>> hostIndex =
+      new HashMap<String, LinkedHashSet<TaskAttemptId>>();
+  private final Map<String, LinkedHashSet<TaskAttemptId>> rackIndex =
+      new HashMap<String, LinkedHashSet<TaskAttemptId>>();
+  // Attempts which have at least one host
+  private int numWithHosts = 0;
+
+  void add(TaskAttemptId attemptId, String[] hosts, String[] racks) {
+    remove(attemptId);
+    Locations locations = new Locations(hosts, racks);
+    attempts.put(attemptId, locations);
+    for (String host : locations.hosts) {
+      addToIndex(hostIndex, host, attemptId);
+    }
+    for (String rack : locations.racks) {
+      addToIndex(rackIndex, rack, attemptId);
+    }
+    if (locations.hosts.length > 0) {
+      numWithHosts++;
+    }
+  }
+
+  /**
+   * @return true if the attempt was in the index
+   */
+  boolean remove(TaskAttemptId attemptId) {
+    Locations locations = attempts.remove(attemptId);
+    if (locations == null) {
+      return false;
+    }
+    for (String host : locations.hosts) {
+      removeFromIndex(hostIndex, host, attemptId);
+    }
+    for (String rack : locations.racks) {
+      removeFromIndex(rackIndex, rack, attemptId);
+    }
+    if (locations.hosts.length > 0) {
+      numWithHosts--;
+    }
+    return true;
+  }
+
+  boolean contains(TaskAttemptId attemptId) {
+    return attempts.containsKey(attemptId);
+  }
+
+  int size() {
+    return attempts.size();
+  }
+
+  /**
+   * @return whether any of the attempts would run host local on some host
+   */
+  boolean hasHostLocalAttempts() {
+    return numWithHosts > 0;
+  }
+
+  /**
+   * Removes the earliest added attempt with data on the host.
+   * @return the attempt, or null if there's none
+   */
+  TaskAttemptId pollHostLocal(String host) {
+    return poll(hostIndex.get(host));
+  }
+
+  /**
+   * Removes the earliest added attempt with data on the rack.
+   * @return the attempt, or null if there's none
+   */
+  TaskAttemptId pollRackLocal(String rack) {
+    return poll(rackIndex.get(rack));
+  }
+
+  /**
+   * Removes the earliest added attempt.
+   * @return the attempt, or null if the index is empty
+   */
+  TaskAttemptId pollAny() {
+    if (attempts.isEmpty()) {
+      return null;
+    }
+    TaskAttemptId attemptId = attempts.keySet().iterator().next();
+    remove(attemptId);
+    return attemptId;
+  }
+
+  /**
+   * @return a copy of the attempts with data on the host
+   */
+  List<TaskAttemptId> getAttemptsOnHost(String host) {
+    LinkedHashSet<TaskAttemptId> set = hostIndex.get(host);
+    if (set == null) {
+      return Collections.emptyList();
+    }
+    return new ArrayList<TaskAttemptId>(set);
+  }
+
+  private TaskAttemptId poll(LinkedHashSet<TaskAttemptId> set) {
+    if (set == null) {
+      return null;
+    }
+    Iterator<TaskAttemptId> it = set.iterator();
+    if (!it.hasNext()) {
+      return null;
+    }
+    TaskAttemptId attemptId = it.next();
+    remove(attemptId);
+    return attemptId;
+  }
+
+  private static void addToIndex(
+      Map<String, LinkedHashSet<TaskAttemptId>> index, String location,
+      TaskAttemptId attemptId) {
+    LinkedHashSet<TaskAttemptId> set = index.get(location);
+    if (set == null) {
+      set = new LinkedHashSet<TaskAttemptId>();
+      index.put(location, set);
+    }
+    set.add(attemptId);
+  }
+
+  private static void removeFromIndex(
+      Map<String, LinkedHashSet<TaskAttemptId>> index, String location,
+      TaskAttemptId attemptId) {
+    LinkedHashSet<TaskAttemptId> set = index.get(location);
+    if (set != null) {
+      set.remove(attemptId);
+      if (set.isEmpty()) {
+        index.remove(location);
+      }
+    }
+  }
+}
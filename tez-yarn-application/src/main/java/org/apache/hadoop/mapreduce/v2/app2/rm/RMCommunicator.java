@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.security.PrivilegedAction;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
@@ -64,6 +65,12 @@ import org.apache.hadoop.yarn.util.Records;
 public abstract class RMCommunicator extends AbstractService  {
   private static final Log LOG = LogFactory.getLog(RMContainerAllocator.class);
   private int rmPollInterval;//millis
+  private int minRmPollInterval;//millis
+  private int maxRmPollInterval;//millis
+  // Grows up to maxRmPollInterval while heartbeats have nothing to do
+  private volatile int currentRmPollInterval;//millis
+  private final Object heartbeatLock = new Object();
+  private boolean heartbeatRequested = false;
   protected ApplicationId applicationId;
   protected ApplicationAttemptId applicationAttemptId;
   private AtomicBoolean stopped;
@@ -99,6 +106,17 @@ public abstract class RMCommunicator extends AbstractService  {
     rmPollInterval =
         conf.getInt(MRJobConfig.MR_AM_TO_RM_HEARTBEAT_INTERVAL_MS,
             MRJobConfig.DEFAULT_MR_AM_TO_RM_HEARTBEAT_INTERVAL_MS);
+    minRmPollInterval = Math.min(rmPollInterval, conf.getInt(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .MR_AM_TO_RM_HEARTBEAT_MIN_INTERVAL_MS,
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .DEFAULT_MR_AM_TO_RM_HEARTBEAT_MIN_INTERVAL_MS));
+    maxRmPollInterval = Math.max(rmPollInterval, conf.getInt(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .MR_AM_TO_RM_HEARTBEAT_MAX_INTERVAL_MS,
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .DEFAULT_MR_AM_TO_RM_HEARTBEAT_MAX_INTERVAL_MS));
+    currentRmPollInterval = rmPollInterval;
   }
 
   @Override
@@ -243,7 +261,7 @@ public abstract class RMCommunicator extends AbstractService  {
       public void run() {
         while (!stopped.get() && !Thread.currentThread().isInterrupted()) {
           try {
-            Thread.sleep(rmPollInterval);
+            waitForNextHeartbeat();
             try {
               heartbeat();
             } catch (YarnException e) {
@@ -264,6 +282,59 @@ public abstract class RMCommunicator extends AbstractService  {
     allocatorThread.start();
   }
 
+  private void waitForNextHeartbeat() throws InterruptedException {
+    synchronized (heartbeatLock) {
+      long start = System.nanoTime();
+      while (true) {
+        long waitMs = (heartbeatRequested ? minRmPollInterval
+            : currentRmPollInterval)
+            - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (waitMs <= 0) {
+          break;
+        }
+        heartbeatLock.wait(waitMs);
+      }
+      heartbeatRequested = false;
+    }
+  }
+
+  /**
+   * Sends the next heartbeat as soon as the minimum interval since the
+   * previous one has passed, rather than after the full interval.
+   */
+  protected void requestHeartbeat() {
+    synchronized (heartbeatLock) {
+      currentRmPollInterval = rmPollInterval;
+      if (!heartbeatRequested) {
+        heartbeatRequested = true;
+        heartbeatLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Backs off the interval to the next heartbeat if the last one had nothing
+   * to do, resets it otherwise.
+   */
+  protected void updateHeartbeatInterval(boolean idle) {
+    synchronized (heartbeatLock) {
+      if (idle) {
+        currentRmPollInterval =
+            (int) Math.min(maxRmPollInterval, 2L * currentRmPollInterval);
+      } else {
+        currentRmPollInterval = rmPollInterval;
+      }
+    }
+  }
+
+  /**
+   * @return whether heartbeats are currently spaced further apart than the
+   *         configured interval, since they had nothing to do.
+   */
+  protected boolean isHeartbeatBackedOff() {
+    return currentRmPollInterval > rmPollInterval;
+  }
+
   protected AMRMProtocol createSchedulerProxy() {
     final Configuration conf = getConfig();
     final YarnRPC rpc = YarnRPC.create(conf);
@@ -19,6 +19,7 @@
 package org.apache.hadoop.mapreduce.v2.app2.rm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -59,6 +60,7 @@ import org.apache.hadoop.mapreduce.v2.app2.job.event.JobEvent;
 import org.apache.hadoop.mapreduce.v2.app2.job.event.JobEventType;
 import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskAttemptEventKillRequest;
 import org.apache.hadoop.mapreduce.v2.app2.job.impl.NotRunningJob;
+import org.apache.hadoop.mapreduce.v2.app2.metrics.MRAppMetrics;
 import org.apache.hadoop.mapreduce.v2.app2.rm.RMContainerRequestor.ContainerRequest;
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainer;
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerEventAssignTA;
@@ -68,6 +70,7 @@ import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerEventLaunchRe
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerMap;
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerState;
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerEventTASucceeded;
+import org.apache.hadoop.mapreduce.v2.app2.rm.node.AMNode;
 import org.apache.hadoop.mapreduce.v2.app2.rm.node.AMNodeEventTaskAttemptEnded;
 import org.apache.hadoop.mapreduce.v2.app2.rm.node.AMNodeEventTaskAttemptSucceeded;
 import org.apache.hadoop.yarn.Clock;
@@ -97,6 +100,9 @@ public class RMContainerAllocator extends AbstractService
   
   public static final 
   float DEFAULT_COMPLETED_MAPS_PERCENT_FOR_REDUCE_SLOWSTART = 0.05f;
+
+  // Weight of the past in the observed burst of map requests, per interval.
+  private static final float WARM_CONTAINERS_DECAY = 0.5f;
   
   public static final Priority PRIORITY_FAST_FAIL_MAP;
   public static final Priority PRIORITY_REDUCE;
@@ -174,6 +180,34 @@ public class RMContainerAllocator extends AbstractService
   private Set<ContainerId> preAllocatedSeenContainerIds =
       Collections.newSetFromMap(new ConcurrentHashMap<ContainerId, Boolean>());
   
+  // Launched map containers, kept idle for upcoming map requests.
+  private final LinkedHashSet<ContainerId> warmContainerIds =
+      new LinkedHashSet<ContainerId>();
+  private int maxWarmContainers;
+  private int warmContainersTarget = 0;
+  // Asks sent to the RM to fill up the pool of warm containers.
+  private int warmContainersRequested = 0;
+  private int mapRequestsInInterval = 0;
+  private int mapLaunchRequests = 0;
+  private float observedMapBurst = 0;
+  private long lastWarmContainersUpdateTime = 0l;
+  // Warm containers are not launched for a specific attempt, the job token and
+  // credentials are taken from the latest map request instead.
+  private AMSchedulerTALaunchRequestEvent lastMapLaunchRequest;
+
+  // New map containers held back from being assigned off-rack, in the hope
+  // of a better placed container for the waiting maps, with the time they
+  // were first held.
+  private final LinkedHashMap<ContainerId, Long> containersAwaitingLocality =
+      new LinkedHashMap<ContainerId, Long>();
+  private long localityDelay;
+  // Launched containers whose attempt finished, kept for upcoming attempts,
+  // with the time they became idle.
+  private final LinkedHashMap<ContainerId, Long> idleLaunchedContainers =
+      new LinkedHashMap<ContainerId, Long>();
+  private long reuseIdleTimeout;
+  private final Map<String, String> hostToRack = new HashMap<String, String>();
+
   private final Map<TaskAttemptId, AMSchedulerTALaunchRequestEvent> 
       attemptToLaunchRequestMap = new HashMap<TaskAttemptId, AMSchedulerTALaunchRequestEvent>();
   
@@ -183,6 +217,10 @@ public class RMContainerAllocator extends AbstractService
   private int containersReleased = 0;
   private int hostLocalAssigned = 0;
   private int rackLocalAssigned = 0;
+  private int freshContainerAssignments = 0;
+  private int reusedContainerAssignments = 0;
+  private int idleContainersReleased = 0;
+  private final MRAppMetrics metrics;
   
   private boolean recalculateReduceSchedule = false;
   private int mapResourceReqt;//memory
@@ -200,10 +238,11 @@ public class RMContainerAllocator extends AbstractService
     = new LinkedBlockingQueue<AMSchedulerEvent>();
 
   public RMContainerAllocator(ContainerRequestor requestor,
-      AppContext appContext) {
+      AppContext appContext, MRAppMetrics metrics) {
     super("RMContainerAllocator");
     this.requestor = requestor;
     this.appContext = appContext;
+    this.metrics = metrics;
     this.clock = appContext.getClock();
     this.eventHandler = appContext.getEventHandler();
     ApplicationId appId = appContext.getApplicationID();
@@ -239,8 +278,18 @@ public class RMContainerAllocator extends AbstractService
         conf.getInt(
             MRJobConfig.MR_AM_SCHEDULER_REUSE_MAX_ATTEMPTS_PER_CONTAINER,
             MRJobConfig.DEFAULT_MR_AM_SCHEDULER_REUSE_MAX_ATTEMPTS_PER_CONTAINER);
+    maxWarmContainers =
+        conf.getInt(MRJobConfig.MR_AM_SCHEDULER_REUSE_WARM_CONTAINERS_MAX,
+            MRJobConfig.DEFAULT_MR_AM_SCHEDULER_REUSE_WARM_CONTAINERS_MAX);
+    localityDelay = conf.getLong(MRJobConfig.MR_AM_SCHEDULER_LOCALITY_DELAY_MS,
+        MRJobConfig.DEFAULT_MR_AM_SCHEDULER_LOCALITY_DELAY_MS);
+    reuseIdleTimeout = conf.getLong(
+        MRJobConfig.MR_AM_SCHEDULER_REUSE_IDLE_TIMEOUT_MS,
+        MRJobConfig.DEFAULT_MR_AM_SCHEDULER_REUSE_IDLE_TIMEOUT_MS);
     if (!shouldReUse) { // For the next log message.
       maxAttemptsPerContainer = 1;
+      maxWarmContainers = 0;
+      reuseIdleTimeout = 0;
     } else {
       if (maxAttemptsPerContainer == 0 || maxAttemptsPerContainer < -1) {
         throw new YarnException("Invlaid configuration: "
@@ -250,6 +299,9 @@ public class RMContainerAllocator extends AbstractService
     }
     LOG.info("AMSchedulerConfiguration: " + "ReUseEnabled: " + shouldReUse
         + ", maxAttemptsPerContainer: " + maxAttemptsPerContainer
+        + ", maxWarmContainers: " + maxWarmContainers
+        + ", reuseIdleTimeout: " + reuseIdleTimeout + " ms"
+        + ", localityDelay: " + localityDelay + " ms"
         + ", reduceSlowStart: " + reduceSlowStart + ", maxReduceRampupLimit: "
         + maxReduceRampupLimit + ", maxReducePreemptionLimit: "
         + maxReducePreemptionLimit + ", scheduleThreadInterval: "
@@ -425,6 +477,11 @@ public class RMContainerAllocator extends AbstractService
       mapResourceReqt = maybeComputeNormalizedRequestForType(event,
           TaskType.MAP, mapResourceReqt);
       event.getCapability().setMemory(mapResourceReqt);
+      mapRequestsInInterval++;
+      if (!event.isRescheduled()) {
+        mapLaunchRequests++;
+      }
+      lastMapLaunchRequest = event;
       scheduledRequests.addMap(event);
     } else { // Reduce
       reduceResourceReqt = maybeComputeNormalizedRequestForType(event,
@@ -528,6 +585,9 @@ public class RMContainerAllocator extends AbstractService
     availableUnlaunchedContainerIds.remove(event.getContainerId());
     availableLaunchedContainerIds.remove(event.getContainerId());
     preAllocatedAvailableContainerIds.remove(event.getContainerId());
+    warmContainerIds.remove(event.getContainerId());
+    containersAwaitingLocality.remove(event.getContainerId());
+    idleLaunchedContainers.remove(event.getContainerId());
   }
 
   // TODO Add a test later if TestRMContainerAllocator does not have one for
@@ -536,7 +596,8 @@ public class RMContainerAllocator extends AbstractService
     NodeId nodeId = event.getNodeId();
     String host = nodeId.getHost();
     // Only maps would have asked for containers on a specific node.
-    List<TaskAttemptId> affectedAttemptIds = scheduledRequests.mapsHostMapping.get(host);
+    List<TaskAttemptId> affectedAttemptIds =
+        scheduledRequests.mapIndex.getAttemptsOnHost(host);
     for (TaskAttemptId taId : affectedAttemptIds) {
       ContainerRequestInfo cr = scheduledRequests.maps.get(taId);
       scheduledRequests.remove(taId);
@@ -562,11 +623,32 @@ public class RMContainerAllocator extends AbstractService
       for (ContainerId cId : availableLaunchedContainerIds) {
         LOG.debug("Available launched container: " + cId);
       }
+      for (ContainerId cId : warmContainerIds) {
+        LOG.debug("Warm container: " + cId);
+      }
+      for (ContainerId cId : containersAwaitingLocality.keySet()) {
+        LOG.debug("Container awaiting locality: " + cId);
+      }
+      for (ContainerId cId : idleLaunchedContainers.keySet()) {
+        LOG.debug("Idle launched container: " + cId);
+      }
     }
     LinkedHashSet<ContainerId> allAvailableContainers =
         new LinkedHashSet<ContainerId>(availableUnlaunchedContainerIds.size()
-            + availableLaunchedContainerIds.size());
+            + availableLaunchedContainerIds.size() + warmContainerIds.size()
+            + containersAwaitingLocality.size()
+            + idleLaunchedContainers.size());
+    // Launched containers go first, to be matched to the attempts local to
+    // them before fresh containers are. Idle ones are offered every time, to
+    // be released once they time out.
     allAvailableContainers.addAll(availableLaunchedContainerIds);
+    allAvailableContainers.addAll(idleLaunchedContainers.keySet());
+    // Warm containers are only of use if there's maps waiting for a container.
+    // Unassigned ones make their way back to the pool.
+    if (!scheduledRequests.maps.isEmpty()) {
+      allAvailableContainers.addAll(warmContainerIds);
+    }
+    allAvailableContainers.addAll(containersAwaitingLocality.keySet());
     allAvailableContainers.addAll(availableUnlaunchedContainerIds);
     
     if (allAvailableContainers.size() > 0) {
@@ -584,6 +666,11 @@ public class RMContainerAllocator extends AbstractService
     if (j == null) {
       return;
     }
+    if (maxWarmContainers > 0) {
+      updateWarmContainersTarget(j);
+      releaseExcessWarmContainers();
+      requestWarmContainers();
+    }
     // Nothign else here. All requests are sent to the Requester immediately.
     if (recalculateReduceSchedule) {
       preemptReducesIfNeeded();
@@ -629,6 +716,156 @@ public class RMContainerAllocator extends AbstractService
     }
   }
 
+  /**
+   * Size the pool of warm containers from the number of map requests seen per
+   * scheduling interval, decaying over time. There's no need for a pool once
+   * every map of the job has been asked for.
+   */
+  private void updateWarmContainersTarget(Job j) {
+    long now = clock.getTime();
+    if (now - lastWarmContainersUpdateTime < scheduleInterval) {
+      return;
+    }
+    lastWarmContainersUpdateTime = now;
+    observedMapBurst = Math.max(mapRequestsInInterval,
+        observedMapBurst * WARM_CONTAINERS_DECAY);
+    mapRequestsInInterval = 0;
+    int target = Math.min(maxWarmContainers, Math.round(observedMapBurst));
+    if (mapLaunchRequests >= j.getTotalMaps()) {
+      target = 0;
+    }
+    if (target != warmContainersTarget) {
+      LOG.info("Warm containers target changed from " + warmContainersTarget
+          + " to " + target + ", warm containers: " + warmContainerIds.size());
+      warmContainersTarget = target;
+    }
+  }
+
+  private void releaseExcessWarmContainers() {
+    Iterator<ContainerId> it = warmContainerIds.iterator();
+    while (warmContainerIds.size() > warmContainersTarget && it.hasNext()) {
+      ContainerId containerId = it.next();
+      it.remove();
+      LOG.info("Releasing warm container: " + containerId);
+      containersReleased++;
+      sendEvent(new AMContainerEvent(containerId,
+          AMContainerEventType.C_STOP_REQUEST));
+    }
+  }
+
+  private void requestWarmContainers() {
+    int needed = 0;
+    if (lastMapLaunchRequest != null) {
+      needed = Math.max(0, warmContainersTarget - warmContainerIds.size());
+    }
+    while (warmContainersRequested < needed) {
+      requestor.addContainerReq(createWarmContainerRequest());
+      warmContainersRequested++;
+    }
+    while (warmContainersRequested > needed) {
+      requestor.decContainerReq(createWarmContainerRequest());
+      warmContainersRequested--;
+    }
+  }
+
+  private ContainerRequest createWarmContainerRequest() {
+    final String[] emptyArray = new String[0];
+    return new ContainerRequest(lastMapLaunchRequest.getCapability(),
+        emptyArray, emptyArray, PRIORITY_MAP);
+  }
+
+  /**
+   * Keep a map container which couldn't be assigned to an attempt idle in the
+   * pool of warm containers, launching it if needed, instead of releasing it.
+   * @return true if the container was kept
+   */
+  @SuppressWarnings("unchecked")
+  private boolean maybeKeepWarm(Container allocated) {
+    ContainerId containerId = allocated.getId();
+    boolean isWarm = warmContainerIds.remove(containerId);
+    Job j = getJob();
+    if (maxWarmContainers == 0 || j == null || lastMapLaunchRequest == null
+        || warmContainerIds.size() >= warmContainersTarget
+        || !PRIORITY_MAP.equals(allocated.getPriority())
+        || allocated.getResource().getMemory() < mapResourceReqt
+        || appContext.getAllNodes().isHostBlackListed(
+            allocated.getNodeId().getHost())
+        || isNodeUnhealthy(allocated.getNodeId())) {
+      return false;
+    }
+    AMContainer amContainer = containerMap.get(containerId);
+    AMContainerState state = amContainer.getState();
+    if (state == AMContainerState.ALLOCATED) {
+      if (warmContainersRequested > 0) {
+        requestor.decContainerReq(createWarmContainerRequest());
+        warmContainersRequested--;
+      }
+      JobConf jobConf = new JobConf(j.getConf());
+      eventHandler.handle(new AMContainerEventLaunchRequest(containerId,
+          jobId, TaskType.MAP, lastMapLaunchRequest.getJobToken(),
+          lastMapLaunchRequest.getCredentials(), false, jobConf));
+      LOG.info("Launching warm container: " + containerId);
+    } else if (state != AMContainerState.LAUNCHING
+        && state != AMContainerState.IDLE
+        // A container made available as its attempt succeeded may not have
+        // processed the success yet.
+        && state != AMContainerState.RUNNING) {
+      return false;
+    } else if (!isWarm) {
+      LOG.info("Keeping container warm: " + containerId);
+    }
+    warmContainerIds.add(containerId);
+    return true;
+  }
+
+  /**
+   * Keep a launched container, which couldn't be assigned to an attempt, idle
+   * for upcoming attempts until the idle timeout passes, instead of releasing
+   * it.
+   * @return true if the container was kept
+   */
+  private boolean maybeKeepIdle(Container allocated) {
+    ContainerId containerId = allocated.getId();
+    Long idleSince = idleLaunchedContainers.remove(containerId);
+    if (reuseIdleTimeout <= 0 || getJob() == null
+        || appContext.getAllNodes().isHostBlackListed(
+            allocated.getNodeId().getHost())
+        || isNodeUnhealthy(allocated.getNodeId())) {
+      return false;
+    }
+    AMContainer amContainer = containerMap.get(containerId);
+    AMContainerState state = amContainer.getState();
+    if (state != AMContainerState.LAUNCHING
+        && state != AMContainerState.IDLE
+        // A container made available as its attempt succeeded may not have
+        // processed the success yet.
+        && state != AMContainerState.RUNNING) {
+      return false;
+    }
+    long now = clock.getTime();
+    if (idleSince == null) {
+      idleSince = now;
+      LOG.info("Keeping launched container idle: " + containerId);
+    } else if (now - idleSince >= reuseIdleTimeout) {
+      LOG.info("Releasing launched container idle for "
+          + (now - idleSince) + " ms: " + containerId);
+      idleContainersReleased++;
+      metrics.releasedIdleContainer();
+      return false;
+    }
+    idleLaunchedContainers.put(containerId, idleSince);
+    return true;
+  }
+
+  /**
+   * @return whether the node is known to be unhealthy. A node the AM has not
+   *         heard about yet is not.
+   */
+  private boolean isNodeUnhealthy(NodeId nodeId) {
+    AMNode amNode = appContext.getAllNodes().get(nodeId);
+    return amNode != null && amNode.isUnhealthy();
+  }
+
   @SuppressWarnings("unchecked")
   private int maybeComputeNormalizedRequestForType(
       AMSchedulerTALaunchRequestEvent event, TaskType taskType,
@@ -836,12 +1073,30 @@ public class RMContainerAllocator extends AbstractService
         " containersReleased:" + containersReleased +
         " hostLocalAssigned:" + hostLocalAssigned + 
         " rackLocalAssigned:" + rackLocalAssigned +
+        " warmContainers:" + warmContainerIds.size() +
+        " containersAwaitingLocality:" + containersAwaitingLocality.size() +
+        " freshContainerAssignments:" + freshContainerAssignments +
+        " reusedContainerAssignments:" + reusedContainerAssignments +
+        " reuseHitRate:" + getReuseHitRate() +
+        " idleLaunchedContainers:" + idleLaunchedContainers.size() +
+        " idleContainersReleased:" + idleContainersReleased +
         " availableResources(headroom):" + requestor.getAvailableResources();
     // TODO Can hostLocal/rackLocal be handled elsewhere.
   }
 
 
 
+  /**
+   * @return the fraction of the assignments which reused a launched
+   *         container.
+   */
+  @Private
+  public synchronized float getReuseHitRate() {
+    int assignments = freshContainerAssignments + reusedContainerAssignments;
+    return assignments == 0 ? 0f
+        : (float) reusedContainerAssignments / assignments;
+  }
+
   @Private
   public int getMemLimit() {
     int headRoom = requestor.getAvailableResources() != null ? requestor
@@ -860,11 +1115,8 @@ public class RMContainerAllocator extends AbstractService
     private final LinkedList<TaskAttemptId> earlierFailedMaps = 
       new LinkedList<TaskAttemptId>();
     
-    /** Maps from a host to a list of Map tasks with data on the host */
-    private final Map<String, LinkedList<TaskAttemptId>> mapsHostMapping = 
-      new HashMap<String, LinkedList<TaskAttemptId>>();
-    private final Map<String, LinkedList<TaskAttemptId>> mapsRackMapping = 
-      new HashMap<String, LinkedList<TaskAttemptId>>();
+    /** Map tasks by the hosts and racks with their data */
+    private final MapLocalityIndex mapIndex = new MapLocalityIndex();
     private final Map<TaskAttemptId, ContainerRequestInfo> maps = 
       new LinkedHashMap<TaskAttemptId, ContainerRequestInfo>();
     
@@ -875,11 +1127,10 @@ public class RMContainerAllocator extends AbstractService
     boolean remove(TaskAttemptId tId) {
       ContainerRequestInfo req = null;
       if (tId.getTaskId().getTaskType().equals(TaskType.MAP)) {
-        req = maps.remove(tId);
+        req = removeMap(tId);
       } else {
         req = reduces.remove(tId);
       }
-      // TODO XXX: Remove from mapsHostMapping and mapsRackMapping
       
       if (req == null) {
         return false;
@@ -889,6 +1140,11 @@ public class RMContainerAllocator extends AbstractService
       }
     }
     
+    private ContainerRequestInfo removeMap(TaskAttemptId tId) {
+      mapIndex.remove(tId);
+      return maps.remove(tId);
+    }
+
     ContainerRequestInfo removeReduce() {
       Iterator<Entry<TaskAttemptId, ContainerRequestInfo>> it = reduces.entrySet().iterator();
       if (it.hasNext()) {
@@ -915,35 +1171,21 @@ public class RMContainerAllocator extends AbstractService
       } else {
         List<String> hosts = new LinkedList<String>();
         for (String host : event.getHosts()) {
-          LinkedList<TaskAttemptId> list = mapsHostMapping.get(host);
-          if (list == null) {
-            list = new LinkedList<TaskAttemptId>();
-            mapsHostMapping.put(host, list);
-          }
-          list.add(event.getAttemptID());
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("Added attempt req to host " + host);
-          }
           if (!appContext.getAllNodes().isHostBlackListed(host)) {
             hosts.add(host);
           } else {
-            // Leaving the entries in mapsHostMapping etc. Will allow allocation
+            // Leaving the host in the mapIndex. Will allow allocation
             // in case all nodes get blacklisted / blacklisting gets enabled.
             LOG.info("XXX: Host: " + host
                 + " is blacklisted. Not including in Container request");
           }
-       }
-       for (String rack: event.getRacks()) {
-         LinkedList<TaskAttemptId> list = mapsRackMapping.get(rack);
-         if (list == null) {
-           list = new LinkedList<TaskAttemptId>();
-           mapsRackMapping.put(rack, list);
-         }
-         list.add(event.getAttemptID());
-         if (LOG.isDebugEnabled()) {
-            LOG.debug("Added attempt req to rack " + rack);
-         }
-       }
+        }
+        mapIndex.add(event.getAttemptID(), event.getHosts(), event.getRacks());
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Added attempt req to hosts "
+              + Arrays.toString(event.getHosts()) + ", racks "
+              + Arrays.toString(event.getRacks()));
+        }
         request = new ContainerRequest(event.getCapability(),
             hosts.toArray(new String[0]), event.getRacks(), PRIORITY_MAP);
       }
@@ -1002,9 +1244,7 @@ public class RMContainerAllocator extends AbstractService
           if (!usingPreAllocated) {
             // do a rack match
             String containerRack =
-                RackResolver.resolve(
-                    amContainer.getContainer().getNodeId().getHost())
-                      .getNetworkLocation();
+                resolveRack(amContainer.getContainer().getNodeId().getHost());
             for (String rack : event.getRacks()) {
               if (LOG.isDebugEnabled()) {
                 LOG.debug("Checking against pre-alloc container"
@@ -1135,8 +1375,7 @@ public class RMContainerAllocator extends AbstractService
     		boolean blackListed = false;
     		blackListed = appContext.getAllNodes().isHostBlackListed(
     					  allocatedHost);
-    		nodeUnhealthy = appContext.getAllNodes().get(allocated.getNodeId())
-    						.isUnhealthy();
+    		nodeUnhealthy = isNodeUnhealthy(allocated.getNodeId());
           
         if (nodeUnhealthy || blackListed) {
           // we need to request for a new container
@@ -1161,6 +1400,11 @@ public class RMContainerAllocator extends AbstractService
             requestor.decContainerReq(toBeReplacedReq.getContainerRequest());
             if (toBeReplacedReq.getAttemptId().getTaskId().getTaskType() == TaskType.MAP) {
               maps.put(newReq.getAttemptId(), newReq);
+              if (!newReq.launchRequestEvent.isRescheduled()) {
+                mapIndex.add(newReq.getAttemptId(),
+                    newReq.launchRequestEvent.getHosts(),
+                    newReq.launchRequestEvent.getRacks());
+              }
             } else {
               reduces.put(newReq.getAttemptId(), newReq);
             }
@@ -1214,7 +1458,12 @@ public class RMContainerAllocator extends AbstractService
 
 	    // TODO Maybe: ApplicationACLs should be populated into the appContext from the RMCommunicator.
 	    ContainerId containerId = allocated.getId();
+	    warmContainerIds.remove(containerId);
+	    containersAwaitingLocality.remove(containerId);
+	    idleLaunchedContainers.remove(containerId);
 	    if (appContext.getAllContainers().get(containerId).getState() == AMContainerState.ALLOCATED) {
+	      freshContainerAssignments++;
+	      metrics.assignedFreshContainer();
 	      AMSchedulerTALaunchRequestEvent tlrEvent = attemptToLaunchRequestMap
 	          .get(assigned.getAttemptId());
 	      JobConf jobConf = new JobConf(getJob().getConf());
@@ -1226,6 +1475,9 @@ public class RMContainerAllocator extends AbstractService
 	              jobConf, tlrEvent.getRemoteTaskContext()), jobConf);
 	
 	      eventHandler.handle(launchRequest);
+	    } else {
+	      reusedContainerAssignments++;
+	      metrics.assignedReusedContainer();
 	    }
 	    eventHandler.handle(new AMContainerEventAssignTA(containerId,
 	        assigned.getAttemptId(), attemptToLaunchRequestMap.get(
@@ -1241,6 +1493,7 @@ public class RMContainerAllocator extends AbstractService
     }
     
     private void containerNotAssigned(Container allocated) {
+      containersAwaitingLocality.remove(allocated.getId());
       if (preAllocatedAvailableContainerIds.contains(allocated.getId())) {
         LOG.debug("Not releasing pre-allocated container until it can be"
             + " assigned");
@@ -1248,6 +1501,11 @@ public class RMContainerAllocator extends AbstractService
         LOG.debug("Not able to assign a pre-allocated container"
             + ", putting it back into available pool");
         preAllocatedAvailableContainerIds.add(allocated.getId());
+      } else if (maybeKeepWarm(allocated)) {
+        idleLaunchedContainers.remove(allocated.getId());
+        LOG.debug("Not releasing container, kept in the warm pool");
+      } else if (maybeKeepIdle(allocated)) {
+        LOG.debug("Not releasing container, kept idle for reuse");
       } else {
         containersReleased++;
         sendEvent(new AMContainerEvent(allocated.getId(),
@@ -1303,17 +1561,11 @@ public class RMContainerAllocator extends AbstractService
         LOG.info("Replacing MAP container " + allocated.getId());
         // allocated container was for a map
         String host = allocated.getNodeId().getHost();
-        LinkedList<TaskAttemptId> list = mapsHostMapping.get(host);
-        if (list != null && list.size() > 0) {
-          TaskAttemptId tId = list.removeLast();
-          if (maps.containsKey(tId)) {
-            toBeReplaced = maps.remove(tId);
-          }
+        TaskAttemptId tId = mapIndex.pollHostLocal(host);
+        if (tId == null) {
+          tId = maps.keySet().iterator().next();
         }
-        else {
-          TaskAttemptId tId = maps.keySet().iterator().next();
-          toBeReplaced = maps.remove(tId);          
-        }        
+        toBeReplaced = removeMap(tId);
       }
       else if (PRIORITY_REDUCE.equals(priority)) {
         TaskAttemptId tId = reduces.keySet().iterator().next();
@@ -1358,73 +1610,70 @@ public class RMContainerAllocator extends AbstractService
     private void assignMapsWithLocality(LinkedHashSet<ContainerId> allocatedContainerIds) {
       // try to assign to all nodes first to match node local
       Iterator<ContainerId> it = allocatedContainerIds.iterator();
-      while(it.hasNext() && maps.size() > 0){
+      while(it.hasNext() && mapIndex.size() > 0){
         Container allocated = containerMap.get(it.next()).getContainer();        
         Priority priority = allocated.getPriority();
         assert PRIORITY_MAP.equals(priority);
-        // "if (maps.containsKey(tId))" below should be almost always true.
-        // hence this while loop would almost always have O(1) complexity
         String host = allocated.getNodeId().getHost();
-        LinkedList<TaskAttemptId> list = mapsHostMapping.get(host);
-        while (list != null && list.size() > 0) {
+        TaskAttemptId tId = mapIndex.pollHostLocal(host);
+        if (tId != null) {
           if (LOG.isDebugEnabled()) {
             LOG.debug("Host matched to the request list " + host);
           }
-          TaskAttemptId tId = list.removeFirst();
-          if (maps.containsKey(tId)) {
-            ContainerRequestInfo assigned = maps.remove(tId);
-            containerAssigned(allocated, assigned);
-            it.remove();
-            JobEventCounterUpdate jce =
-                new JobEventCounterUpdate(tId.getTaskId().getJobId());
-            jce.addCounterUpdate(JobCounter.DATA_LOCAL_MAPS, 1);
-            eventHandler.handle(jce);
-            hostLocalAssigned++;
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("Assigned based on host match " + host);
-            }
-            break;
+          ContainerRequestInfo assigned = maps.remove(tId);
+          containerAssigned(allocated, assigned);
+          it.remove();
+          JobEventCounterUpdate jce =
+              new JobEventCounterUpdate(tId.getTaskId().getJobId());
+          jce.addCounterUpdate(JobCounter.DATA_LOCAL_MAPS, 1);
+          eventHandler.handle(jce);
+          hostLocalAssigned++;
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Assigned based on host match " + host);
           }
         }
       }
       
       // try to match all rack local
       it = allocatedContainerIds.iterator();
-      while(it.hasNext() && maps.size() > 0){
+      while(it.hasNext() && mapIndex.size() > 0){
         Container allocated = containerMap.get(it.next()).getContainer();
         Priority priority = allocated.getPriority();
         assert PRIORITY_MAP.equals(priority);
-        // "if (maps.containsKey(tId))" below should be almost always true.
-        // hence this while loop would almost always have O(1) complexity
-        String host = allocated.getNodeId().getHost();
-        String rack = RackResolver.resolve(host).getNetworkLocation();
-        LinkedList<TaskAttemptId> list = mapsRackMapping.get(rack);
-        while (list != null && list.size() > 0) {
-          TaskAttemptId tId = list.removeFirst();
-          if (maps.containsKey(tId)) {
-            ContainerRequestInfo assigned = maps.remove(tId);
-            containerAssigned(allocated, assigned);
-            it.remove();
-            JobEventCounterUpdate jce =
-                new JobEventCounterUpdate(tId.getTaskId().getJobId());
-            jce.addCounterUpdate(JobCounter.RACK_LOCAL_MAPS, 1);
-            eventHandler.handle(jce);
-            rackLocalAssigned++;
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("Assigned based on rack match " + rack);
-            }
-            break;
+        String rack = resolveRack(allocated.getNodeId().getHost());
+        TaskAttemptId tId = mapIndex.pollRackLocal(rack);
+        if (tId != null) {
+          ContainerRequestInfo assigned = maps.remove(tId);
+          containerAssigned(allocated, assigned);
+          it.remove();
+          JobEventCounterUpdate jce =
+              new JobEventCounterUpdate(tId.getTaskId().getJobId());
+          jce.addCounterUpdate(JobCounter.RACK_LOCAL_MAPS, 1);
+          eventHandler.handle(jce);
+          rackLocalAssigned++;
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Assigned based on rack match " + rack);
           }
         }
       }
       
       // assign remaining
+      long now = clock.getTime();
       it = allocatedContainerIds.iterator();
       while(it.hasNext() && maps.size() > 0){
-        Container allocated = containerMap.get(it.next()).getContainer();
+        ContainerId containerId = it.next();
+        if (shouldAwaitLocality(containerId, now)) {
+          it.remove();
+          continue;
+        }
+        Container allocated = containerMap.get(containerId).getContainer();
         Priority priority = allocated.getPriority();
         assert PRIORITY_MAP.equals(priority);
-        TaskAttemptId tId = maps.keySet().iterator().next();
+        TaskAttemptId tId = mapIndex.pollAny();
+        if (tId == null) {
+          // Only rescheduled maps left, which aren't in the index
+          tId = maps.keySet().iterator().next();
+        }
         ContainerRequestInfo assigned = maps.remove(tId);
         containerAssigned(allocated, assigned);
         it.remove();
@@ -1437,6 +1686,31 @@ public class RMContainerAllocator extends AbstractService
         }
       }
     }
+
+    /**
+     * Delay scheduling. Holds on to a newly allocated container instead of
+     * assigning it off-rack, for up to localityDelay, while some waiting map
+     * would run data local somewhere. The container is offered to the maps
+     * again on the next assignment.
+     * @return true if the container is to be held
+     */
+    private boolean shouldAwaitLocality(ContainerId containerId, long now) {
+      if (localityDelay <= 0 || !mapIndex.hasHostLocalAttempts()
+          || preAllocatedSeenContainerIds.contains(containerId)
+          || containerMap.get(containerId).getState()
+              != AMContainerState.ALLOCATED) {
+        return false;
+      }
+      Long since = containersAwaitingLocality.get(containerId);
+      if (since == null) {
+        containersAwaitingLocality.put(containerId, now);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Holding container " + containerId + " for locality");
+        }
+        return true;
+      }
+      return now - since < localityDelay;
+    }
   }
 
   /**
@@ -1500,6 +1774,18 @@ public class RMContainerAllocator extends AbstractService
     }
   }
 
+  /**
+   * Resolves the rack of a host once, rather than for every container on it.
+   */
+  private String resolveRack(String host) {
+    String rack = hostToRack.get(host);
+    if (rack == null) {
+      rack = RackResolver.resolve(host).getNetworkLocation();
+      hostToRack.put(host, rack);
+    }
+    return rack;
+  }
+
   protected ContainerRequestInfo getFilteredContainerRequest(
       ContainerRequestInfo origRequestInfo) {
     ContainerRequest orig = origRequestInfo.getContainerRequest();
@@ -19,12 +19,14 @@
 package org.apache.hadoop.mapreduce.v2.app2.rm;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -89,7 +91,10 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
   remoteRequestsTable =
       new TreeMap<Priority, Map<String, Map<Resource, ResourceRequest>>>();
 
-  private final Set<ResourceRequest> ask = new TreeSet<ResourceRequest>();
+  // Holds at most one request per priority, resource name and capability,
+  // the latest one, so that repeated updates are sent to the RM only once.
+  private final Set<ResourceRequest> ask =
+      new TreeSet<ResourceRequest>(new ResourceRequestComparator());
   private final Set<ContainerId> release = new TreeSet<ContainerId>();
   
   private Lock releaseLock = new ReentrantLock();
@@ -98,6 +103,12 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
   private final List<ResourceRequest> emptyAskList = new ArrayList<ResourceRequest>();
   
   private int clusterNmCount = 0;
+
+  // Containers requested since the last heartbeat, and not yet assigned
+  private final AtomicInteger newContainerRequests = new AtomicInteger(0);
+  private final AtomicInteger outstandingContainerRequests =
+      new AtomicInteger(0);
+  private int earlyHeartbeatRequestThreshold;
   
   // TODO Consider allowing sync comm between the requestor and allocator... 
   
@@ -137,6 +148,11 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
     retryInterval = getConfig().getLong(
         MRJobConfig.MR_AM_TO_RM_WAIT_INTERVAL_MS,
         MRJobConfig.DEFAULT_MR_AM_TO_RM_WAIT_INTERVAL_MS);
+    earlyHeartbeatRequestThreshold = getConfig().getInt(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .MR_AM_TO_RM_HEARTBEAT_EARLY_REQUEST_THRESHOLD,
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .DEFAULT_MR_AM_TO_RM_HEARTBEAT_EARLY_REQUEST_THRESHOLD);
   }
   
   @Override
@@ -172,6 +188,16 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
 
     // Off-switch
     addResourceRequest(req.priority, ANY, req.capability); 
+
+    outstandingContainerRequests.incrementAndGet();
+    int newRequests = newContainerRequests.incrementAndGet();
+    // Don't let a burst of requests, or the first request after an idle
+    // period, wait for a full heartbeat interval.
+    if ((earlyHeartbeatRequestThreshold > 0
+        && newRequests == earlyHeartbeatRequestThreshold)
+        || (newRequests == 1 && isHeartbeatBackedOff())) {
+      requestHeartbeat();
+    }
   }
 
   public void decContainerReq(ContainerRequest req) {
@@ -185,6 +211,7 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
     }
    
     decResourceRequest(req.priority, ANY, req.capability);
+    outstandingContainerRequests.decrementAndGet();
   }
 
   private void addResourceRequest(Priority priority, String resourceName,
@@ -221,14 +248,7 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
     // 0 is a special case to re-add the request to the ask table.
 
     // Note this down for next interaction with ResourceManager
-    int askSize = 0;
-    askLock.lock();
-    try {
-      ask.add(remoteRequest);
-      askSize = ask.size();
-    } finally {
-      askLock.unlock();
-    }
+    int askSize = addResourceRequestToAsk(remoteRequest);
     if (LOG.isDebugEnabled()) {
       LOG.debug("addResourceRequest:" + " applicationId="
           + applicationId.getId() + " priority=" + priority.getPriority()
@@ -270,22 +290,9 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
       if (remoteRequests.size() == 0) {
         remoteRequestsTable.remove(priority);
       }
-      //remove from ask if it may have
-      askLock.lock();
-      try {
-        ask.remove(remoteRequest);
-      } finally {
-        askLock.unlock();
-      }
-    } else {
-      askLock.lock();
-      try {
-        ask.add(remoteRequest);//this will override the request if ask doesn't
-      //already have it.
-      } finally {
-        askLock.unlock();
-      }
     }
+    // Requests down to 0 are sent as well, to cancel what was asked before.
+    addResourceRequestToAsk(remoteRequest);
 
     if (LOG.isDebugEnabled()) {
       LOG.info("AFTER decResourceRequest:" + " applicationId="
@@ -295,6 +302,22 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
     }
   }
   
+  /**
+   * Replaces any pending update of the same request, which may be a different
+   * object if the request was removed from the table in between.
+   * @return the number of pending updates
+   */
+  private int addResourceRequestToAsk(ResourceRequest remoteRequest) {
+    askLock.lock();
+    try {
+      ask.remove(remoteRequest);
+      ask.add(remoteRequest);
+      return ask.size();
+    } finally {
+      askLock.unlock();
+    }
+  }
+
   private int getAskSize() {
     askLock.lock();
     try {
@@ -304,6 +327,15 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
     }
   }
 
+  private int getReleaseSize() {
+    releaseLock.lock();
+    try {
+      return release.size();
+    } finally {
+      releaseLock.unlock();
+    }
+  }
+
   private String getStat() {
     StringBuilder sb = new StringBuilder();
     sb.append("ContainersAllocated: ").append(numContainersAllocated)
@@ -317,6 +349,7 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
   @Override
   protected void heartbeat() throws Exception {
     LOG.info("BeforeHeartbeat: " + getStat());
+    newContainerRequests.set(0);
     int headRoom = getAvailableResources() != null ? getAvailableResources()
         .getMemory() : 0;// first time it would be null
     int lastClusterNmCount = clusterNmCount;
@@ -337,6 +370,11 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
     logUpdatedNodes(updatedNodeReports);
  
     LOG.info("AfterHeartbeat: " + getStat());
+
+    updateHeartbeatInterval(outstandingContainerRequests.get() <= 0
+        && getAskSize() == 0 && getReleaseSize() == 0
+        && newContainers.isEmpty() && finishedContainers.isEmpty()
+        && updatedNodeReports.isEmpty());
     
     if (clusterNmCount != lastClusterNmCount) {
       LOG.info("Num cluster nodes changed from " + lastClusterNmCount + " to "
@@ -507,8 +545,29 @@ public class RMContainerRequestor extends RMCommunicator implements ContainerReq
   
   private void rePopulateAskList(List<ResourceRequest> clonedAskList) {
     for (ResourceRequest rr : clonedAskList) {
-      addResourceRequest(rr.getPriority(), rr.getHostName(),
-          rr.getCapability(), 0);
+      // Requests updated since they were cloned are already in the ask
+      if (!ask.contains(rr)) {
+        ask.add(rr);
+      }
+    }
+  }
+
+  /**
+   * Orders requests by what they ask for, ignoring how many containers, so
+   * that the ask holds a single update per request.
+   */
+  private static class ResourceRequestComparator implements
+      Comparator<ResourceRequest> {
+    @Override
+    public int compare(ResourceRequest r1, ResourceRequest r2) {
+      int ret = r1.getPriority().compareTo(r2.getPriority());
+      if (ret == 0) {
+        ret = r1.getHostName().compareTo(r2.getHostName());
+      }
+      if (ret == 0) {
+        ret = r1.getCapability().compareTo(r2.getCapability());
+      }
+      return ret;
     }
   }
 
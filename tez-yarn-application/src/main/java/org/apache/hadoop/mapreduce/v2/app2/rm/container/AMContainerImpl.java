@@ -424,6 +424,7 @@ public class AMContainerImpl implements AMContainer {
       LOG.info("DEBUG: AssignTA: attempt: " + event.getRemoteTaskContext());
       container.remoteTaskMap
           .put(event.getTaskAttemptId(), event.getRemoteTaskContext());
+      container.notifyTAListenerOfAssignment();
       return container.getState();
     }
   }
@@ -896,6 +897,10 @@ public class AMContainerImpl implements AMContainer {
     taskAttemptListener.unregisterTaskAttempt(attemptId);
   }
 
+  protected void notifyTAListenerOfAssignment() {
+    taskAttemptListener.taskAttemptAssigned(containerId);
+  }
+
   protected void registerWithTAListener() {
     taskAttemptListener.registerRunningContainer(containerId);
   }
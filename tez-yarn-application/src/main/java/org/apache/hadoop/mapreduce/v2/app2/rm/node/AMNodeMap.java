@@ -46,7 +46,7 @@ public class AMNodeMap extends AbstractService implements
   private final EventHandler eventHandler;
   private final AppContext appContext;
   private int numClusterNodes;
-  private boolean ignoreBlacklisting = false;
+  private volatile boolean ignoreBlacklisting = false;
   private int maxTaskFailuresPerNode;
   private boolean nodeBlacklistingEnabled;
   private int blacklistDisablePercent;
@@ -127,12 +127,23 @@ public class AMNodeMap extends AbstractService implements
   */
 
   public void handle(AMNodeEvent rEvent) {
-    // No synchronization required until there's multiple dispatchers.
     NodeId nodeId = rEvent.getNodeId();
+    switch (rEvent.getType()) {
+    case N_NODE_WAS_BLACKLISTED:
+    case N_NODE_COUNT_UPDATED:
+      // Events for different nodes may be dispatched concurrently.
+      handleBlacklistEvent(rEvent);
+      break;
+    default:
+      nodeMap.get(nodeId).handle(rEvent);
+    }
+  }
+
+  private synchronized void handleBlacklistEvent(AMNodeEvent rEvent) {
     switch (rEvent.getType()) {
     case N_NODE_WAS_BLACKLISTED:
       // When moving away from IGNORE_BLACKLISTING state, nodes will send out blacklisted events. These need to be ignored.
-      addToBlackList(nodeId);
+      addToBlackList(rEvent.getNodeId());
       computeIgnoreBlacklisting();
       break;
     case N_NODE_COUNT_UPDATED:
@@ -141,7 +152,7 @@ public class AMNodeMap extends AbstractService implements
       computeIgnoreBlacklisting();
       break;
     default:
-      nodeMap.get(nodeId).handle(rEvent);
+      break;
     }
   }
   
@@ -20,7 +20,10 @@ package org.apache.hadoop.mapreduce.v2.app2.speculate;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
@@ -72,8 +75,22 @@ public class DefaultSpeculator extends AbstractService implements
 
   private static final Log LOG = LogFactory.getLog(DefaultSpeculator.class);
 
-  private final ConcurrentMap<TaskId, Boolean> runningTasks
+  // The tasks which have started an attempt, by type. Only these are looked
+  //  at when scanning for speculations, rather than all the tasks of the job.
+  //  A task is dropped when an attempt reports it isn't running, or when a
+  //  scan finds it isn't running anymore.
+  private final ConcurrentMap<TaskId, Boolean> runningMapTasks
       = new ConcurrentHashMap<TaskId, Boolean>();
+  private final ConcurrentMap<TaskId, Boolean> runningReduceTasks
+      = new ConcurrentHashMap<TaskId, Boolean>();
+
+  // The task the next scan of each type starts from, if the last one ran
+  //  out of time. Scans go through the running tasks in TaskId order, so a
+  //  scan carries on where the last one stopped even if tasks started or
+  //  finished in the meantime.
+  private TaskId mapScanResumePoint = null;
+  private TaskId reduceScanResumePoint = null;
+  private final long scanBudgetNanos;
 
   private final Map<Task, AtomicBoolean> pendingSpeculations
       = new ConcurrentHashMap<Task, AtomicBoolean>();
@@ -156,6 +173,11 @@ public class DefaultSpeculator extends AbstractService implements
     this.estimator = estimator;
     this.clock = clock;
     this.eventHandler = context.getEventHandler();
+    this.scanBudgetNanos = TimeUnit.MILLISECONDS.toNanos(conf.getLong(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .MR_AM_SPECULATOR_SCAN_BUDGET_MS,
+        org.apache.tez.mapreduce.hadoop.MRJobConfig
+            .DEFAULT_MR_AM_SPECULATOR_SCAN_BUDGET_MS));
   }
 
 /*   *************************************************************    */
@@ -240,6 +262,10 @@ public class DefaultSpeculator extends AbstractService implements
 
   // This section contains the code that gets run for a SpeculatorEvent
 
+  private ConcurrentMap<TaskId, Boolean> runningTasks(TaskType taskType) {
+    return taskType == TaskType.MAP ? runningMapTasks : runningReduceTasks;
+  }
+
   private AtomicInteger containerNeed(TaskId taskID) {
     JobId jobID = taskID.getJobId();
     TaskType taskType = taskID.getTaskType();
@@ -275,6 +301,8 @@ public class DefaultSpeculator extends AbstractService implements
         LOG.info("ATTEMPT_START " + event.getTaskID());
         estimator.enrollAttempt
             (event.getReportedStatus(), event.getTimestamp());
+        runningTasks(event.getTaskID().getTaskType())
+            .putIfAbsent(event.getTaskID(), Boolean.TRUE);
         break;
       }
       
@@ -323,9 +351,9 @@ public class DefaultSpeculator extends AbstractService implements
     }
 
     if (stateString.equals(TaskAttemptState.RUNNING.name())) {
-      runningTasks.putIfAbsent(taskID, Boolean.TRUE);
+      runningTasks(taskID.getTaskType()).putIfAbsent(taskID, Boolean.TRUE);
     } else {
-      runningTasks.remove(taskID, Boolean.TRUE);
+      runningTasks(taskID.getTaskType()).remove(taskID, Boolean.TRUE);
     }
   }
 
@@ -459,22 +487,47 @@ public class DefaultSpeculator extends AbstractService implements
       int numberSpeculationsAlready = 0;
       int numberRunningTasks = 0;
 
-      // loop through the tasks of the kind
-      Job job = context.getJob(jobEntry.getKey());
-
-      Map<TaskId, Task> tasks = job.getTasks(type);
+      JobId jobID = jobEntry.getKey();
+      Job job = context.getJob(jobID);
+      int totalTasks
+          = type == TaskType.MAP ? job.getTotalMaps() : job.getTotalReduces();
 
       int numberAllowedSpeculativeTasks
           = (int) Math.max(MINIMUM_ALLOWED_SPECULATIVE_TASKS,
-                           PROPORTION_TOTAL_TASKS_SPECULATABLE * tasks.size());
+                           PROPORTION_TOTAL_TASKS_SPECULATABLE * totalTasks);
 
       TaskId bestTaskID = null;
       long bestSpeculationValue = -1L;
 
-      // this loop is potentially pricey.
-      // TODO track the tasks that are potentially worth looking at
-      for (Map.Entry<TaskId, Task> taskEntry : tasks.entrySet()) {
-        long mySpeculationValue = speculationValue(taskEntry.getKey(), now);
+      // loop through the running tasks of the kind, starting where the last
+      //  scan ran out of time
+      ConcurrentMap<TaskId, Boolean> running = runningTasks(type);
+      List<TaskId> candidates = new ArrayList<TaskId>(running.size());
+      for (TaskId taskID : running.keySet()) {
+        if (taskID.getJobId().equals(jobID)) {
+          candidates.add(taskID);
+        }
+      }
+      Collections.sort(candidates);
+      int numberCandidates = candidates.size();
+      int start = 0;
+      TaskId resumePoint = scanResumePoint(type);
+      if (resumePoint != null) {
+        // The resume point, or the first task after it if it's gone
+        start = Collections.binarySearch(candidates, resumePoint);
+        if (start < 0) {
+          start = -start - 1;
+        }
+        if (start >= numberCandidates) {
+          start = 0;
+        }
+      }
+      long scanStartNanos = System.nanoTime();
+      int scanned = 0;
+      while (scanned < numberCandidates) {
+        TaskId taskID = candidates.get((start + scanned) % numberCandidates);
+        ++scanned;
+        long mySpeculationValue = speculationValue(taskID, now);
 
         if (mySpeculationValue == ALREADY_SPECULATING) {
           ++numberSpeculationsAlready;
@@ -482,13 +535,34 @@ public class DefaultSpeculator extends AbstractService implements
 
         if (mySpeculationValue != NOT_RUNNING) {
           ++numberRunningTasks;
+        } else {
+          running.remove(taskID, Boolean.TRUE);
         }
 
         if (mySpeculationValue > bestSpeculationValue) {
-          bestTaskID = taskEntry.getKey();
+          bestTaskID = taskID;
           bestSpeculationValue = mySpeculationValue;
         }
+
+        if (scanBudgetNanos > 0
+            && System.nanoTime() - scanStartNanos > scanBudgetNanos) {
+          break;
+        }
+      }
+      if (scanned < numberCandidates) {
+        LOG.info("Speculation scan of " + type + " tasks ran out of time after "
+            + scanned + " of " + numberCandidates + " running tasks");
+        // Assume the tasks not scanned are like the ones scanned
+        numberRunningTasks
+            = (int) ((long) numberRunningTasks * numberCandidates / scanned);
+        numberSpeculationsAlready = (int) (((long) numberSpeculationsAlready
+            * numberCandidates + scanned - 1) / scanned);
+        setScanResumePoint(type,
+            candidates.get((start + scanned) % numberCandidates));
+      } else {
+        setScanResumePoint(type, null);
       }
+
       numberAllowedSpeculativeTasks
           = (int) Math.max(numberAllowedSpeculativeTasks,
                            PROPORTION_RUNNING_TASKS_SPECULATABLE * numberRunningTasks);
@@ -504,7 +578,20 @@ public class DefaultSpeculator extends AbstractService implements
     return successes;
   }
 
-  private int computeSpeculations() {
+  private TaskId scanResumePoint(TaskType type) {
+    return type == TaskType.MAP ? mapScanResumePoint : reduceScanResumePoint;
+  }
+
+  private void setScanResumePoint(TaskType type, TaskId taskID) {
+    if (type == TaskType.MAP) {
+      mapScanResumePoint = taskID;
+    } else {
+      reduceScanResumePoint = taskID;
+    }
+  }
+
+  // Package private for the tests, which scan without the background thread
+  int computeSpeculations() {
     // We'll try to issue one map and one reduce speculation per job per run
     return maybeScheduleAMapSpeculation() + maybeScheduleAReduceSpeculation();
   }
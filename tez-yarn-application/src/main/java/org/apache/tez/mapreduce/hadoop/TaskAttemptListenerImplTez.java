@@ -22,10 +22,10 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,10 +36,10 @@ import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.mapred.TaskAttemptID;
 import org.apache.hadoop.mapred.TaskStatus;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.TypeConverter;
 import org.apache.hadoop.mapreduce.jobhistory.ContainerHeartbeatHandler;
 import org.apache.hadoop.mapreduce.security.token.JobTokenSecretManager;
-import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptCompletionEvent;
 import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptId;
 import org.apache.hadoop.mapreduce.v2.api.records.TaskState;
 import org.apache.hadoop.mapreduce.v2.api.records.TaskType;
@@ -63,6 +63,7 @@ import org.apache.hadoop.yarn.YarnException;
 import org.apache.hadoop.yarn.api.records.ContainerId;
 import org.apache.hadoop.yarn.service.AbstractService;
 import org.apache.tez.common.TezTaskStatus;
+import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.mapreduce.hadoop.ContainerContext;
 import org.apache.tez.mapreduce.hadoop.ContainerTask;
 import org.apache.tez.mapreduce.hadoop.IDConverter;
@@ -71,7 +72,6 @@ import org.apache.tez.mapreduce.hadoop.TezTaskUmbilicalProtocol;
 import org.apache.tez.mapreduce.hadoop.TezTypeConverters;
 import org.apache.tez.mapreduce.hadoop.records.ProceedToCompletionResponse;
 import org.apache.tez.mapreduce.task.impl.MRTaskContext;
-import org.apache.tez.records.TezDependentTaskCompletionEvent;
 import org.apache.tez.records.TezJobID;
 import org.apache.tez.records.TezTaskAttemptID;
 import org.apache.tez.records.TezTaskDependencyCompletionEventsUpdate;
@@ -105,6 +105,20 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
   
   private Set<ContainerId> registeredContainers = Collections
       .newSetFromMap(new ConcurrentHashMap<ContainerId, Boolean>());
+
+  // Used to park getTask calls from idle containers till a task is assigned.
+  private ConcurrentMap<ContainerId, TaskAssignmentMonitor> assignmentMonitors =
+      new ConcurrentHashMap<ContainerId, TaskAssignmentMonitor>();
+  private long getTaskWaitMs;
+  // Limits the number of RPC handlers which may be parked in getTask, so that
+  // heartbeats from running tasks are not starved.
+  private Semaphore getTaskWaiters;
+  private volatile boolean stopped = false;
+
+  // Counters last reported by running attempts. Status updates usually only
+  // carry the counters which changed, which are merged into these.
+  private ConcurrentMap<TezTaskAttemptID, ReportedCounters> reportedCounters =
+      new ConcurrentHashMap<TezTaskAttemptID, ReportedCounters>();
   
   public TaskAttemptListenerImplTez(AppContext context,
       TaskHeartbeatHandler thh, ContainerHeartbeatHandler chh,
@@ -116,6 +130,18 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
     this.containerHeartbeatHandler = chh;
   }
 
+  @Override
+  public void init(Configuration conf) {
+    getTaskWaitMs = conf.getLong(
+        MRJobConfig.MR_AM_TASK_LISTENER_GET_TASK_WAIT_MS,
+        MRJobConfig.DEFAULT_MR_AM_TASK_LISTENER_GET_TASK_WAIT_MS);
+    int handlerCount = conf.getInt(
+        MRJobConfig.MR_AM_TASK_LISTENER_THREAD_COUNT,
+        MRJobConfig.DEFAULT_MR_AM_TASK_LISTENER_THREAD_COUNT);
+    getTaskWaiters = new Semaphore(Math.max(1, handlerCount / 2));
+    super.init(conf);
+  }
+
   @Override
   public void start() {
     startRpcServer();
@@ -156,6 +182,10 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
 
   @Override
   public void stop() {
+    stopped = true;
+    for (TaskAssignmentMonitor monitor : assignmentMonitors.values()) {
+      monitor.wakeUp();
+    }
     stopRpcServer();
     super.stop();
   }
@@ -188,30 +218,19 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
     LOG.info("Dependency Completion Events request from " + taskAttemptID
         + ". fromEventID " + fromEventIdx + " maxEvents " + maxEvents);
 
-    // TODO: shouldReset is never used. See TT. Ask for Removal.
-    boolean shouldReset = false;
     TaskAttemptId mrv2AttemptId = TypeConverter.toYarn(IDConverter
         .toMRTaskAttemptId(taskAttemptID));
 
-    TaskAttemptCompletionEvent[] events = context.getJob(
-        mrv2AttemptId.getTaskId().getJobId()).getTaskAttemptCompletionEvents(
-        fromEventIdx, maxEvents);
+    // Only map completion events, already in the Tez format. fromEventIdx
+    // counts map completion events only.
+    TezTaskDependencyCompletionEventsUpdate update = context.getJob(
+        mrv2AttemptId.getTaskId().getJobId()).getDependentTaskCompletionEvents(
+        TaskType.MAP, fromEventIdx, maxEvents);
 
     taskHeartbeatHandler.progressing(mrv2AttemptId);
     pingContainerHeartbeatHandler(taskAttemptID);
 
-    // Filter the events to return only map completion events in the Tez format.
-    List<TezDependentTaskCompletionEvent> mapEvents = new ArrayList<TezDependentTaskCompletionEvent>();
-    for (TaskAttemptCompletionEvent event : events) {
-      if (event.getAttemptId().getTaskId().getTaskType() == TaskType.MAP) {
-        mapEvents.add(TezTypeConverters.toTez(event));
-      }
-    }
-
-    return new TezTaskDependencyCompletionEventsUpdate(
-        mapEvents
-            .toArray(new TezDependentTaskCompletionEvent[mapEvents.size()]),
-        shouldReset);
+    return update;
   }
 
   @Override
@@ -234,8 +253,12 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
         task = TASK_FOR_INVALID_JVM;
       } else {
         pingContainerHeartbeatHandler(containerId);
-        MRTaskContext taskContext = pullTaskAttemptContext(containerId);
-        if (taskContext == null) {
+        MRTaskContext taskContext = waitForTaskAttemptContext(containerId);
+        if (!registeredContainers.contains(containerId)) {
+          LOG.info("Container with id: " + containerId
+              + " was unregistered while waiting for a task");
+          task = TASK_FOR_INVALID_JVM;
+        } else if (taskContext == null) {
           LOG.info("No task currently assigned to Container with id: "
               + containerId);
         } else {
@@ -262,7 +285,9 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
   @Override
   public boolean statusUpdate(TezTaskAttemptID taskAttemptId,
       TezTaskStatus taskStatus) throws IOException, InterruptedException {
-    LOG.info("DEBUG: " + "Status update from: " + taskAttemptId);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Status update from: " + taskAttemptId);
+    }
     TaskAttemptId mrv2AttemptId = TypeConverter.toYarn(IDConverter
         .toMRTaskAttemptId(taskAttemptId));
     taskHeartbeatHandler.progressing(mrv2AttemptId);
@@ -271,8 +296,10 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
     taskAttemptStatus.id = mrv2AttemptId;
     // Task sends the updated progress to the TT.
     taskAttemptStatus.progress = taskStatus.getProgress();
-    LOG.info("DEBUG: " + "Progress of TaskAttempt " + mrv2AttemptId + " is : "
-        + taskStatus.getProgress());
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Progress of TaskAttempt " + mrv2AttemptId + " is : "
+          + taskStatus.getProgress());
+    }
 
     // Task sends the updated state-string to the TT.
     taskAttemptStatus.stateString = taskStatus.getStateString();
@@ -288,7 +315,7 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
     // Counters are updated by the task. Convert counters into new format as
     // that is the primary storage format inside the AM to avoid multiple
     // conversions and unnecessary heap usage.
-    taskAttemptStatus.counters = TezTypeConverters.fromTez(taskStatus.getCounters());
+    taskAttemptStatus.counters = getReportedCounters(taskAttemptId, taskStatus);
     
 
     // Map Finish time set by the task (map only)
@@ -346,6 +373,37 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
     return true;
   }
 
+  /**
+   * Get the counters of the attempt, including the changes carried by
+   * <code>taskStatus</code>.
+   * @return the counters, <code>null</code> if <code>taskStatus</code> only
+   *         carries changes to counters which are not known
+   */
+  private Counters getReportedCounters(TezTaskAttemptID taskAttemptId,
+      TezTaskStatus taskStatus) {
+    if (!taskStatus.isCountersDelta()) {
+      if (!attemptToContainerIdMap.containsKey(taskAttemptId)) {
+        // Not (or no longer) registered, don't keep track of its counters
+        return TezTypeConverters.fromTez(taskStatus.getCounters());
+      }
+      ReportedCounters reported =
+          new ReportedCounters(taskStatus.getCounters());
+      reportedCounters.put(taskAttemptId, reported);
+      return reported.getCounters();
+    }
+    // The first update of an attempt carries all its counters. Changes
+    // without those to apply them to would replace the attempt's counters
+    // with a partial set, so they are dropped.
+    ReportedCounters reported = reportedCounters.get(taskAttemptId);
+    if (reported == null) {
+      LOG.warn("Ignoring counter changes from " + taskAttemptId
+          + ", which has not reported all its counters");
+      return null;
+    }
+    reported.merge(taskStatus.getCounters());
+    return reported.getCounters();
+  }
+
   @Override
   public void reportDiagnosticInfo(TezTaskAttemptID taskAttemptId, String trace)
       throws IOException {
@@ -533,8 +591,48 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
   // TODO EVENTUALLY remove all mrv2 ids.
   @Override
   public void unregisterTaskAttempt(TaskAttemptId attemptId) {
-    attemptToContainerIdMap.remove(IDConverter
-        .fromMRTaskAttemptId(TypeConverter.fromYarn(attemptId)));
+    TezTaskAttemptID tezAttemptId = IDConverter
+        .fromMRTaskAttemptId(TypeConverter.fromYarn(attemptId));
+    attemptToContainerIdMap.remove(tezAttemptId);
+    reportedCounters.remove(tezAttemptId);
+  }
+
+  /**
+   * Pull the task assigned to the container, waiting up to
+   * {@link MRJobConfig#MR_AM_TASK_LISTENER_GET_TASK_WAIT_MS} for one to be
+   * assigned if there is none, so that idle containers pick up a task as soon
+   * as it is assigned instead of polling for it.
+   */
+  private MRTaskContext waitForTaskAttemptContext(ContainerId containerId) {
+    TaskAssignmentMonitor monitor = assignmentMonitors.get(containerId);
+    if (monitor == null || getTaskWaitMs <= 0) {
+      return pullTaskAttemptContext(containerId);
+    }
+
+    monitor.reset();
+    MRTaskContext taskContext = pullTaskAttemptContext(containerId);
+    if (taskContext != null || !getTaskWaiters.tryAcquire()) {
+      return taskContext;
+    }
+    try {
+      long deadline = System.currentTimeMillis() + getTaskWaitMs;
+      while (taskContext == null && !stopped
+          && registeredContainers.contains(containerId)) {
+        long waitMs = deadline - System.currentTimeMillis();
+        if (waitMs <= 0) {
+          break;
+        }
+        if (monitor.await(waitMs)) {
+          monitor.reset();
+          taskContext = pullTaskAttemptContext(containerId);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      getTaskWaiters.release();
+    }
+    return taskContext;
   }
 
   public MRTaskContext pullTaskAttemptContext(ContainerId containerId) {
@@ -550,6 +648,15 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
           + " registered with TaskAttemptListener");
     }
     registeredContainers.add(containerId);
+    assignmentMonitors.put(containerId, new TaskAssignmentMonitor());
+  }
+
+  @Override
+  public void taskAttemptAssigned(ContainerId containerId) {
+    TaskAssignmentMonitor monitor = assignmentMonitors.get(containerId);
+    if (monitor != null) {
+      monitor.wakeUp();
+    }
   }
 
   @Override
@@ -567,6 +674,10 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
           + containerId);
     }
     registeredContainers.remove(containerId);
+    TaskAssignmentMonitor monitor = assignmentMonitors.remove(containerId);
+    if (monitor != null) {
+      monitor.wakeUp();
+    }
   }
   
   private void pingContainerHeartbeatHandler(ContainerId containerId) {
@@ -582,4 +693,58 @@ public class TaskAttemptListenerImplTez extends AbstractService implements
           + ", ContainerId not known for this attempt");
     }
   }
+
+  /**
+   * The counters reported by an attempt, along with their conversion for the
+   * TaskAttempt, which is only redone when the counters change.
+   */
+  private static class ReportedCounters {
+
+    private final TezCounters tezCounters;
+    private Counters counters;
+
+    ReportedCounters(TezCounters tezCounters) {
+      this.tezCounters = tezCounters;
+    }
+
+    synchronized void merge(TezCounters changedCounters) {
+      if (changedCounters.countCounters() > 0) {
+        tezCounters.setAllCounters(changedCounters);
+        counters = null;
+      }
+    }
+
+    synchronized Counters getCounters() {
+      if (counters == null) {
+        counters = TezTypeConverters.fromTez(tezCounters);
+      }
+      return counters;
+    }
+  }
+
+  /**
+   * Signals a getTask call parked for a container that a task may have been
+   * assigned to it. A signal raised between {@link #reset()} and
+   * {@link #await(long)} is not lost.
+   */
+  private static class TaskAssignmentMonitor {
+
+    private boolean signalled = false;
+
+    synchronized void reset() {
+      signalled = false;
+    }
+
+    synchronized boolean await(long waitMs) throws InterruptedException {
+      if (!signalled) {
+        wait(waitMs);
+      }
+      return signalled;
+    }
+
+    synchronized void wakeUp() {
+      signalled = true;
+      notifyAll();
+    }
+  }
 }
@@ -17,36 +17,55 @@
 */
 package org.apache.hadoop.mapred;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.jobhistory.ContainerHeartbeatHandler;
 import org.apache.hadoop.mapreduce.security.token.JobTokenSecretManager;
 import org.apache.hadoop.mapreduce.v2.app2.AppContext;
 import org.apache.hadoop.mapreduce.v2.app2.TaskHeartbeatHandler;
 import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskAttemptEventType;
 import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskAttemptEventStartedRemotely;
+import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskAttemptEventStatusUpdate;
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerImpl;
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerMap;
 import org.apache.hadoop.yarn.api.records.ContainerId;
 import org.apache.hadoop.yarn.event.Event;
 import org.apache.hadoop.yarn.event.EventHandler;
 import org.apache.hadoop.yarn.util.BuilderUtils;
+import org.apache.tez.common.TezTaskStatus.Phase;
+import org.apache.tez.common.counters.TaskCounter;
+import org.apache.tez.common.counters.TezCounters;
 import org.apache.tez.mapreduce.hadoop.ContainerContext;
 import org.apache.tez.mapreduce.hadoop.ContainerTask;
+import org.apache.tez.mapreduce.hadoop.MRJobConfig;
+import org.apache.tez.mapreduce.hadoop.MRTaskStatus;
 import org.apache.tez.mapreduce.hadoop.MRTaskType;
 import org.apache.tez.mapreduce.hadoop.TaskAttemptListenerImplTez;
+import org.apache.tez.mapreduce.hadoop.TezTypeConverters;
 import org.apache.tez.mapreduce.task.impl.MRTaskContext;
 import org.apache.tez.records.TezTaskAttemptID;
 import org.junit.Test;
@@ -106,6 +125,7 @@ public class TestTaskAttemptListenerImpl {
     MockTaskAttemptListenerImpl listener = 
       new MockTaskAttemptListenerImpl(appCtx, secret, chh, thh);
     Configuration conf = new Configuration();
+    conf.setLong(MRJobConfig.MR_AM_TASK_LISTENER_GET_TASK_WAIT_MS, 100);
     listener.init(conf);
     listener.start();
 
@@ -150,4 +170,195 @@ public class TestTaskAttemptListenerImpl {
 
     listener.stop();
   }
+
+  @SuppressWarnings("rawtypes")
+  @Test
+  public void testGetTaskWaitsForAssignment() throws Exception {
+    AppContext appCtx = mock(AppContext.class);
+    EventHandler mockHandler = mock(EventHandler.class);
+    AMContainerMap amContainers = mock(AMContainerMap.class);
+
+    MRTaskContext task = mock(MRTaskContext.class);
+    TezTaskAttemptID taId = new TezTaskAttemptID("1", 1, MRTaskType.MAP.toString(), 1, 1);
+    when(task.getTaskAttemptId()).thenReturn(taId);
+
+    // No task assigned on the first request, assigned afterwards.
+    ContainerId containerId = BuilderUtils.newContainerId(1, 1, 1, 1);
+    final AMContainerImpl amContainer = mock(AMContainerImpl.class);
+    when(amContainer.pullTaskContext()).thenReturn(null, task);
+    when(amContainers.get(containerId)).thenReturn(amContainer);
+
+    when(appCtx.getAllContainers()).thenReturn(amContainers);
+    when(appCtx.getEventHandler()).thenReturn(mockHandler);
+
+    final MockTaskAttemptListenerImpl listener = new MockTaskAttemptListenerImpl(
+        appCtx, mock(JobTokenSecretManager.class),
+        mock(ContainerHeartbeatHandler.class), mock(TaskHeartbeatHandler.class));
+    Configuration conf = new Configuration();
+    conf.setLong(MRJobConfig.MR_AM_TASK_LISTENER_GET_TASK_WAIT_MS, 60 * 1000l);
+    listener.init(conf);
+    listener.start();
+    listener.registerRunningContainer(containerId);
+
+    final ContainerContext context = new ContainerContext(containerId, "");
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      long start = System.currentTimeMillis();
+      Future<ContainerTask> result = executor.submit(
+          new Callable<ContainerTask>() {
+            @Override
+            public ContainerTask call() throws Exception {
+              return listener.getTask(context);
+            }
+          });
+
+      // The request is parked till the container is assigned a task.
+      verify(amContainer, timeout(10 * 1000)).pullTaskContext();
+      assertFalse(result.isDone());
+      listener.taskAttemptAssigned(containerId);
+
+      ContainerTask containerTask = result.get(10, TimeUnit.SECONDS);
+      assertNotNull(containerTask);
+      assertFalse(containerTask.shouldDie());
+      assertTrue(containerTask.getMrTaskContext() == task);
+      assertTrue(System.currentTimeMillis() - start < 60 * 1000l);
+
+      // A parked request is answered as soon as the container is unregistered.
+      when(amContainer.pullTaskContext()).thenReturn(null);
+      result = executor.submit(new Callable<ContainerTask>() {
+        @Override
+        public ContainerTask call() throws Exception {
+          return listener.getTask(context);
+        }
+      });
+      verify(amContainer, timeout(10 * 1000).times(3)).pullTaskContext();
+      listener.unregisterRunningContainer(containerId);
+      containerTask = result.get(10, TimeUnit.SECONDS);
+      assertNotNull(containerTask);
+      assertTrue(containerTask.shouldDie());
+    } finally {
+      executor.shutdownNow();
+      listener.stop();
+    }
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test
+  public void testStatusUpdateMergesChangedCounters() throws Exception {
+    AppContext appCtx = mock(AppContext.class);
+    EventHandler mockHandler = mock(EventHandler.class);
+    when(appCtx.getEventHandler()).thenReturn(mockHandler);
+
+    MockTaskAttemptListenerImpl listener = new MockTaskAttemptListenerImpl(
+        appCtx, mock(JobTokenSecretManager.class),
+        mock(ContainerHeartbeatHandler.class), mock(TaskHeartbeatHandler.class));
+    listener.init(new Configuration());
+    listener.start();
+
+    TezTaskAttemptID taId = new TezTaskAttemptID("1", 1, MRTaskType.MAP.toString(), 1, 1);
+    ContainerId containerId = BuilderUtils.newContainerId(1, 1, 1, 1);
+    listener.registerRunningContainer(containerId);
+    listener.registerTaskAttempt(TezTypeConverters.toYarn(taId), containerId);
+
+    // Full update
+    TezCounters counters = new TezCounters();
+    counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).setValue(5);
+    counters.findCounter("group", "counter").setValue(1);
+    MRTaskStatus status = new MRTaskStatus(taId, counters, Phase.MAP);
+    status.statusUpdate(0.1f, "", counters);
+    listener.statusUpdate(taId, status);
+
+    // Only the changed counter, which also makes it through serialization.
+    TezCounters changed = new TezCounters();
+    changed.findCounter(TaskCounter.MAP_INPUT_RECORDS).setValue(7);
+    status.statusUpdate(0.2f, "", changed, true);
+    DataOutputBuffer out = new DataOutputBuffer();
+    status.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    MRTaskStatus received = new MRTaskStatus();
+    received.readFields(in);
+    assertTrue(received.isCountersDelta());
+    listener.statusUpdate(taId, received);
+
+    // Nothing changed
+    status.statusUpdate(0.3f, "", new TezCounters(), true);
+    listener.statusUpdate(taId, status);
+
+    ArgumentCaptor<Event> ac = ArgumentCaptor.forClass(Event.class);
+    verify(mockHandler, times(3)).handle(ac.capture());
+    List<Event> events = ac.getAllValues();
+    Counters first = getReportedCounters(events.get(0));
+    assertEquals(5, first.findCounter(TaskCounter.class.getName(),
+        TaskCounter.MAP_INPUT_RECORDS.name()).getValue());
+    assertEquals(1, first.findCounter("group", "counter").getValue());
+    Counters second = getReportedCounters(events.get(1));
+    assertEquals(7, second.findCounter(TaskCounter.class.getName(),
+        TaskCounter.MAP_INPUT_RECORDS.name()).getValue());
+    assertEquals(1, second.findCounter("group", "counter").getValue());
+    assertSame(second, getReportedCounters(events.get(2)));
+
+    listener.stop();
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test
+  public void testStatusUpdateIgnoresChangesWithoutBase() throws Exception {
+    AppContext appCtx = mock(AppContext.class);
+    EventHandler mockHandler = mock(EventHandler.class);
+    when(appCtx.getEventHandler()).thenReturn(mockHandler);
+
+    MockTaskAttemptListenerImpl listener = new MockTaskAttemptListenerImpl(
+        appCtx, mock(JobTokenSecretManager.class),
+        mock(ContainerHeartbeatHandler.class), mock(TaskHeartbeatHandler.class));
+    listener.init(new Configuration());
+    listener.start();
+
+    TezCounters changed = new TezCounters();
+    changed.findCounter(TaskCounter.MAP_INPUT_RECORDS).setValue(7);
+
+    // An attempt which never registered
+    TezTaskAttemptID unknownId =
+        new TezTaskAttemptID("1", 1, MRTaskType.MAP.toString(), 2, 1);
+    MRTaskStatus status = new MRTaskStatus(unknownId, changed, Phase.MAP);
+    status.statusUpdate(0.1f, "", changed, true);
+    listener.statusUpdate(unknownId, status);
+
+    // A registered attempt which hasn't reported all its counters yet
+    TezTaskAttemptID taId =
+        new TezTaskAttemptID("1", 1, MRTaskType.MAP.toString(), 1, 1);
+    ContainerId containerId = BuilderUtils.newContainerId(1, 1, 1, 1);
+    listener.registerRunningContainer(containerId);
+    listener.registerTaskAttempt(TezTypeConverters.toYarn(taId), containerId);
+    status = new MRTaskStatus(taId, changed, Phase.MAP);
+    status.statusUpdate(0.1f, "", changed, true);
+    listener.statusUpdate(taId, status);
+
+    // Once it has, changes apply
+    TezCounters counters = new TezCounters();
+    counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).setValue(5);
+    counters.findCounter("group", "counter").setValue(1);
+    status.statusUpdate(0.2f, "", counters);
+    listener.statusUpdate(taId, status);
+    status.statusUpdate(0.3f, "", changed, true);
+    listener.statusUpdate(taId, status);
+
+    ArgumentCaptor<Event> ac = ArgumentCaptor.forClass(Event.class);
+    verify(mockHandler, times(4)).handle(ac.capture());
+    List<Event> events = ac.getAllValues();
+    // The status is still reported, without counters
+    assertNull(getReportedCounters(events.get(0)));
+    assertNull(getReportedCounters(events.get(1)));
+    Counters merged = getReportedCounters(events.get(3));
+    assertEquals(7, merged.findCounter(TaskCounter.class.getName(),
+        TaskCounter.MAP_INPUT_RECORDS.name()).getValue());
+    assertEquals(1, merged.findCounter("group", "counter").getValue());
+
+    listener.stop();
+  }
+
+  private static Counters getReportedCounters(Event event) {
+    return ((TaskAttemptEventStatusUpdate) event)
+        .getReportedTaskAttemptStatus().counters;
+  }
 }
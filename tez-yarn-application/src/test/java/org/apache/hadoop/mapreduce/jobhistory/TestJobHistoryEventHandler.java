@@ -18,12 +18,14 @@
 
 package org.apache.hadoop.mapreduce.jobhistory;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -32,6 +34,7 @@ import org.apache.hadoop.fs.FileContext;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.MRJobConfig;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
 import org.apache.hadoop.mapreduce.TaskID;
 import org.apache.hadoop.mapreduce.TaskType;
 import org.apache.hadoop.mapreduce.TypeConverter;
@@ -45,6 +48,7 @@ import org.apache.hadoop.yarn.api.records.ApplicationId;
 import org.apache.hadoop.yarn.api.records.ContainerId;
 import org.apache.hadoop.yarn.util.BuilderUtils;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
 public class TestJobHistoryEventHandler {
@@ -225,18 +229,187 @@ public class TestJobHistoryEventHandler {
     }
   }
 
+  @Test
+  public void testBatchFlushedOnce() throws Exception {
+    TestParams t = new TestParams();
+    Configuration conf = new Configuration();
+    conf.set(MRJobConfig.MR_AM_STAGING_DIR, t.workDir);
+    conf.setLong(MRJobConfig.MR_AM_HISTORY_COMPLETE_EVENT_FLUSH_TIMEOUT_MS,
+        60 * 1000l);
+    conf.setInt(MRJobConfig.MR_AM_HISTORY_MAX_UNFLUSHED_COMPLETE_EVENTS, 1000);
+    conf.setInt(
+        MRJobConfig.MR_AM_HISTORY_USE_BATCHED_FLUSH_QUEUE_SIZE_THRESHOLD, 1);
+    conf.setInt(org.apache.tez.mapreduce.hadoop.MRJobConfig
+        .MR_AM_HISTORY_WRITE_BATCH_SIZE, 10);
+    conf.setInt(org.apache.tez.mapreduce.hadoop.MRJobConfig
+        .MR_AM_HISTORY_EVENT_QUEUE_CATCH_UP_SIZE, 50);
+
+    JHEvenHandlerForTest realJheh =
+        new JHEvenHandlerForTest(t.mockAppContext, 0);
+    JHEvenHandlerForTest jheh = spy(realJheh);
+    jheh.init(conf);
+
+    EventWriter mockWriter = null;
+    try {
+      jheh.start();
+      handleEvent(jheh, new JobHistoryEvent(t.jobId, new AMStartedEvent(
+          t.appAttemptId, 200, t.containerId, "nmhost", 3000, 4000)));
+      mockWriter = jheh.getEventWriter();
+
+      for (int i = 0; i < 25; i++) {
+        queueEvent(jheh, new JobHistoryEvent(t.jobId, new TaskFinishedEvent(
+            t.taskID, null, 0, TaskType.MAP, "", null)));
+      }
+
+      // Not flushed while more completion events are queued
+      assertEquals(10, jheh.handleNextBatch());
+      assertEquals(10, jheh.handleNextBatch());
+      verify(mockWriter, times(0)).flush();
+
+      // Flushed once at the end of the last batch
+      assertEquals(5, jheh.handleNextBatch());
+      verify(mockWriter).flush();
+      verify(mockWriter, times(26)).write(any(HistoryEvent.class));
+      assertEquals(1, jheh.getNumFlushes());
+      assertEquals(3, jheh.getNumBatches());
+      assertEquals(25f / 3, jheh.getAvgBatchSize(), 0.0001f);
+      assertEquals(0, jheh.getNumCatchUpBatches());
+    } finally {
+      jheh.stop();
+      verify(mockWriter).close();
+    }
+  }
+
+  @Test
+  public void testCatchUpWhenQueueGrows() throws Exception {
+    TestParams t = new TestParams();
+    Configuration conf = new Configuration();
+    conf.set(MRJobConfig.MR_AM_STAGING_DIR, t.workDir);
+    conf.setLong(MRJobConfig.MR_AM_HISTORY_COMPLETE_EVENT_FLUSH_TIMEOUT_MS,
+        60 * 1000l);
+    conf.setInt(MRJobConfig.MR_AM_HISTORY_MAX_UNFLUSHED_COMPLETE_EVENTS, 1000);
+    conf.setInt(
+        MRJobConfig.MR_AM_HISTORY_USE_BATCHED_FLUSH_QUEUE_SIZE_THRESHOLD, 1);
+    conf.setInt(org.apache.tez.mapreduce.hadoop.MRJobConfig
+        .MR_AM_HISTORY_WRITE_BATCH_SIZE, 10);
+    conf.setInt(org.apache.tez.mapreduce.hadoop.MRJobConfig
+        .MR_AM_HISTORY_EVENT_QUEUE_CATCH_UP_SIZE, 50);
+
+    JHEvenHandlerForTest realJheh =
+        new JHEvenHandlerForTest(t.mockAppContext, 0);
+    JHEvenHandlerForTest jheh = spy(realJheh);
+    jheh.init(conf);
+
+    EventWriter mockWriter = null;
+    try {
+      jheh.start();
+      handleEvent(jheh, new JobHistoryEvent(t.jobId, new AMStartedEvent(
+          t.appAttemptId, 200, t.containerId, "nmhost", 3000, 4000)));
+      mockWriter = jheh.getEventWriter();
+
+      // Nothing is writing events. Queueing them never waits for the writer.
+      for (int i = 0; i < 200; i++) {
+        queueEvent(jheh, new JobHistoryEvent(t.jobId, new TaskFinishedEvent(
+            t.taskID, null, 0, TaskType.MAP, "", null)));
+      }
+      assertEquals(200, jheh.getQueueSize());
+      assertEquals(200, jheh.getMaxQueueSize());
+
+      // The writer is behind, it takes the whole queue with a single flush
+      assertEquals(200, jheh.handleNextBatch());
+      assertEquals(0, jheh.getQueueSize());
+      verify(mockWriter).flush();
+      assertEquals(1, jheh.getNumCatchUpBatches());
+
+      // Back to regular batches once caught up
+      for (int i = 0; i < 15; i++) {
+        queueEvent(jheh, new JobHistoryEvent(t.jobId, new TaskFinishedEvent(
+            t.taskID, null, 0, TaskType.MAP, "", null)));
+      }
+      assertEquals(10, jheh.handleNextBatch());
+      assertEquals(5, jheh.handleNextBatch());
+      verify(mockWriter, times(2)).flush();
+      assertEquals(1, jheh.getNumCatchUpBatches());
+      assertEquals(200, jheh.getMaxQueueSize());
+    } finally {
+      jheh.stop();
+      verify(mockWriter).close();
+    }
+  }
+
+  @Test
+  public void testEventsQueuedOnDiskPastMemoryLimit() throws Exception {
+    TestParams t = new TestParams();
+    Configuration conf = new Configuration();
+    conf.set(MRJobConfig.MR_AM_STAGING_DIR, t.workDir);
+    conf.setLong(MRJobConfig.MR_AM_HISTORY_COMPLETE_EVENT_FLUSH_TIMEOUT_MS,
+        60 * 1000l);
+    conf.setInt(MRJobConfig.MR_AM_HISTORY_MAX_UNFLUSHED_COMPLETE_EVENTS, 1000);
+    conf.setInt(
+        MRJobConfig.MR_AM_HISTORY_USE_BATCHED_FLUSH_QUEUE_SIZE_THRESHOLD, 1);
+    conf.setInt(org.apache.tez.mapreduce.hadoop.MRJobConfig
+        .MR_AM_HISTORY_WRITE_BATCH_SIZE, 10);
+    conf.setInt(org.apache.tez.mapreduce.hadoop.MRJobConfig
+        .MR_AM_HISTORY_EVENT_QUEUE_CATCH_UP_SIZE, 50);
+    conf.setInt(org.apache.tez.mapreduce.hadoop.MRJobConfig
+        .MR_AM_HISTORY_EVENT_QUEUE_MAX_MEMORY_EVENTS, 10);
+
+    JHEvenHandlerForTest realJheh =
+        new JHEvenHandlerForTest(t.mockAppContext, 0);
+    JHEvenHandlerForTest jheh = spy(realJheh);
+    jheh.init(conf);
+
+    EventWriter mockWriter = null;
+    try {
+      jheh.start();
+      handleEvent(jheh, new JobHistoryEvent(t.jobId, new AMStartedEvent(
+          t.appAttemptId, 200, t.containerId, "nmhost", 3000, 4000)));
+      mockWriter = jheh.getEventWriter();
+
+      TaskAttemptID attemptID =
+          TaskAttemptID.forName("attempt_200707121733_0003_m_000005_0");
+      for (int i = 0; i < 35; i++) {
+        queueEvent(jheh, new JobHistoryEvent(t.jobId, new TaskFinishedEvent(
+            t.taskID, attemptID, i, TaskType.MAP, "", new Counters())));
+      }
+      // Events past the first 10 wait on disk
+      assertEquals(35, jheh.getQueueSize());
+      assertEquals(25, jheh.getNumSpilledEvents());
+
+      assertEquals(10, jheh.handleNextBatch());
+      assertEquals(10, jheh.handleNextBatch());
+      assertEquals(10, jheh.handleNextBatch());
+      assertEquals(5, jheh.handleNextBatch());
+      assertEquals(0, jheh.getQueueSize());
+
+      // Written in the order they were queued
+      ArgumentCaptor<HistoryEvent> written =
+          ArgumentCaptor.forClass(HistoryEvent.class);
+      verify(mockWriter, times(36)).write(written.capture());
+      List<HistoryEvent> events = written.getAllValues();
+      for (int i = 0; i < 35; i++) {
+        TaskFinishedEvent event = (TaskFinishedEvent) events.get(i + 1);
+        assertEquals(i, event.getFinishTime());
+        assertEquals(t.taskID, event.getTaskId());
+      }
+    } finally {
+      jheh.stop();
+      verify(mockWriter).close();
+    }
+  }
+
   private void queueEvent(JHEvenHandlerForTest jheh, JobHistoryEvent event) {
     jheh.handle(event);
   }
 
   private void handleEvent(JHEvenHandlerForTest jheh, JobHistoryEvent event)
-      throws InterruptedException {
+      throws InterruptedException, IOException {
     jheh.handle(event);
     jheh.handleEvent(jheh.eventQueue.take());
   }
 
   private void handleNextNEvents(JHEvenHandlerForTest jheh, int numEvents)
-      throws InterruptedException {
+      throws InterruptedException, IOException {
     for (int i = 0; i < numEvents; i++) {
       jheh.handleEvent(jheh.eventQueue.take());
     }
@@ -361,6 +534,12 @@ class JHEvenHandlerForTest extends JobHistoryEventHandler2 {
     return this.eventWriter;
   }
 
+  @Override
+  protected RecoveryCheckpointWriter createRecoveryCheckpointWriter(
+      Path checkpointFile) {
+    return null;
+  }
+
   @Override
   protected void closeEventWriter(JobId jobId) {
   }
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapreduce.jobhistory;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.TaskID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class TestRecoveryCheckpointWriter {
+
+  private static final Path CHECKPOINT_FILE =
+      new Path("/staging/job_200707121733_0003_1.recovery");
+
+  private final TaskID taskId1 =
+      TaskID.forName("task_200707121733_0003_m_000001");
+  private final TaskID taskId2 =
+      TaskID.forName("task_200707121733_0003_m_000002");
+
+  @Test
+  public void testOnlySuccessfulTasksWritten() throws Exception {
+    EventWriter mockWriter = mock(EventWriter.class);
+    RecoveryCheckpointWriter checkpoint = new RecoveryCheckpointWriter(
+        mock(FileSystem.class), CHECKPOINT_FILE, mockWriter, 0);
+
+    TaskStartedEvent started1 =
+        new TaskStartedEvent(taskId1, 0, TaskType.MAP, "");
+    TaskStartedEvent started2 =
+        new TaskStartedEvent(taskId2, 0, TaskType.MAP, "");
+    HistoryEvent attemptStarted1 = createAttemptStartedEvent(taskId1);
+    HistoryEvent attemptStarted2 = createAttemptStartedEvent(taskId2);
+    TaskFinishedEvent finished1 = new TaskFinishedEvent(taskId1, null, 0,
+        TaskType.MAP, "", new Counters());
+
+    checkpoint.write(started1);
+    checkpoint.write(started2);
+    checkpoint.write(attemptStarted1);
+    checkpoint.write(attemptStarted2);
+    verify(mockWriter, never()).write(any(HistoryEvent.class));
+
+    checkpoint.write(finished1);
+    checkpoint.write(createTaskFailedEvent(taskId2));
+    InOrder inOrder = inOrder(mockWriter);
+    inOrder.verify(mockWriter).write(started1);
+    inOrder.verify(mockWriter).write(attemptStarted1);
+    inOrder.verify(mockWriter).write(finished1);
+    verify(mockWriter, times(3)).write(any(HistoryEvent.class));
+
+    checkpoint.maybeSync(false);
+    verify(mockWriter).flush();
+    // Nothing new to sync
+    checkpoint.maybeSync(true);
+    verify(mockWriter).flush();
+
+    checkpoint.close();
+    verify(mockWriter).close();
+  }
+
+  @Test
+  public void testEventsAfterTaskCheckpointed() throws Exception {
+    EventWriter mockWriter = mock(EventWriter.class);
+    RecoveryCheckpointWriter checkpoint = new RecoveryCheckpointWriter(
+        mock(FileSystem.class), CHECKPOINT_FILE, mockWriter, 0);
+
+    TaskStartedEvent started1 =
+        new TaskStartedEvent(taskId1, 0, TaskType.MAP, "");
+    HistoryEvent attemptStarted1 = createAttemptStartedEvent(taskId1);
+    TaskFinishedEvent finished1 = new TaskFinishedEvent(taskId1, null, 0,
+        TaskType.MAP, "", new Counters());
+    checkpoint.write(started1);
+    checkpoint.write(attemptStarted1);
+    checkpoint.write(finished1);
+    checkpoint.maybeSync(false);
+    verify(mockWriter).flush();
+
+    // The successful attempt fails later on, and the task is re-run
+    HistoryEvent attemptFailed1 = createAttemptFailedEvent(taskId1);
+    HistoryEvent attemptRestarted1 = createAttemptStartedEvent(taskId1);
+    TaskFinishedEvent refinished1 = new TaskFinishedEvent(taskId1, null, 0,
+        TaskType.MAP, "", new Counters());
+    checkpoint.write(attemptFailed1);
+    checkpoint.write(attemptRestarted1);
+    checkpoint.maybeSync(false);
+    verify(mockWriter, times(2)).flush();
+    checkpoint.write(refinished1);
+
+    InOrder inOrder = inOrder(mockWriter);
+    inOrder.verify(mockWriter).write(started1);
+    inOrder.verify(mockWriter).write(attemptStarted1);
+    inOrder.verify(mockWriter).write(finished1);
+    inOrder.verify(mockWriter).write(attemptFailed1);
+    inOrder.verify(mockWriter).write(attemptRestarted1);
+    inOrder.verify(mockWriter).write(refinished1);
+    verify(mockWriter, times(6)).write(any(HistoryEvent.class));
+
+    // And fails for good this time
+    HistoryEvent failed1 = createTaskFailedEvent(taskId1);
+    checkpoint.write(failed1);
+    verify(mockWriter).write(failed1);
+    checkpoint.maybeSync(false);
+    verify(mockWriter, times(3)).flush();
+  }
+
+  @Test
+  public void testSyncInterval() throws Exception {
+    EventWriter mockWriter = mock(EventWriter.class);
+    RecoveryCheckpointWriter checkpoint = new RecoveryCheckpointWriter(
+        mock(FileSystem.class), CHECKPOINT_FILE, mockWriter, 60 * 1000l);
+
+    checkpoint.write(new TaskStartedEvent(taskId1, 0, TaskType.MAP, ""));
+    checkpoint.write(new TaskFinishedEvent(taskId1, null, 0, TaskType.MAP, "",
+        new Counters()));
+    checkpoint.maybeSync(false);
+    verify(mockWriter).flush();
+
+    checkpoint.write(new TaskStartedEvent(taskId2, 0, TaskType.MAP, ""));
+    checkpoint.write(new TaskFinishedEvent(taskId2, null, 0, TaskType.MAP, "",
+        new Counters()));
+    checkpoint.maybeSync(false);
+    verify(mockWriter).flush();
+    checkpoint.maybeSync(true);
+    verify(mockWriter, times(2)).flush();
+  }
+
+  @Test
+  public void testCheckpointDeletedOnWriteFailure() throws Exception {
+    EventWriter mockWriter = mock(EventWriter.class);
+    FileSystem mockFs = mock(FileSystem.class);
+    RecoveryCheckpointWriter checkpoint = new RecoveryCheckpointWriter(
+        mockFs, CHECKPOINT_FILE, mockWriter, 0);
+    doThrow(new IOException("disk full")).when(mockWriter).flush();
+
+    checkpoint.write(new TaskStartedEvent(taskId1, 0, TaskType.MAP, ""));
+    checkpoint.write(new TaskFinishedEvent(taskId1, null, 0, TaskType.MAP, "",
+        new Counters()));
+    checkpoint.maybeSync(true);
+    verify(mockWriter).close();
+    verify(mockFs).delete(CHECKPOINT_FILE, false);
+
+    // Further events are ignored
+    checkpoint.write(new TaskStartedEvent(taskId2, 0, TaskType.MAP, ""));
+    checkpoint.write(new TaskFinishedEvent(taskId2, null, 0, TaskType.MAP, "",
+        new Counters()));
+    verify(mockWriter, times(2)).write(any(HistoryEvent.class));
+  }
+
+  private static HistoryEvent createAttemptStartedEvent(TaskID taskId) {
+    TaskAttemptStartedEvent event = mock(TaskAttemptStartedEvent.class);
+    when(event.getEventType()).thenReturn(EventType.MAP_ATTEMPT_STARTED);
+    when(event.getTaskId()).thenReturn(taskId);
+    return event;
+  }
+
+  private static HistoryEvent createAttemptFailedEvent(TaskID taskId) {
+    TaskAttemptUnsuccessfulCompletionEvent event =
+        mock(TaskAttemptUnsuccessfulCompletionEvent.class);
+    when(event.getEventType()).thenReturn(EventType.MAP_ATTEMPT_FAILED);
+    when(event.getTaskId()).thenReturn(taskId);
+    return event;
+  }
+
+  private static HistoryEvent createTaskFailedEvent(TaskID taskId) {
+    TaskFailedEvent event = mock(TaskFailedEvent.class);
+    when(event.getEventType()).thenReturn(EventType.TASK_FAILED);
+    when(event.getTaskId()).thenReturn(taskId);
+    return event;
+  }
+}
@@ -484,6 +484,12 @@ public class MRApp extends MRAppMaster {
         // TODO Auto-generated method stub
         
       }
+
+      @Override
+      public void taskAttemptAssigned(ContainerId containerId) {
+        // TODO Auto-generated method stub
+        
+      }
     };
   }
   
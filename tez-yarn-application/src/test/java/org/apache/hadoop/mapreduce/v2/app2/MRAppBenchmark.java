@@ -240,7 +240,7 @@ public class MRAppBenchmark {
       protected ContainerAllocator createAMScheduler(
           ContainerRequestor requestor, AppContext appContext) {
         return new RMContainerAllocator((RMContainerRequestor) requestor,
-            appContext);
+            appContext, metrics);
       }
 
       @Override
@@ -67,6 +67,7 @@ import org.apache.hadoop.yarn.api.records.ContainerId;
 import org.apache.hadoop.yarn.api.records.NodeId;
 import org.apache.hadoop.yarn.util.BuilderUtils;
 import org.apache.hadoop.yarn.util.Records;
+import org.apache.tez.records.TezTaskDependencyCompletionEventsUpdate;
 
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
@@ -566,6 +567,13 @@ public class MockJobs extends MockApps {
         return null;
       }
 
+      @Override
+      public TezTaskDependencyCompletionEventsUpdate
+          getDependentTaskCompletionEvents(TaskType taskType,
+              int fromEventId, int maxEvents) {
+        return null;
+      }
+
       @Override
       public Map<TaskId, Task> getTasks(TaskType taskType) {
         throw new UnsupportedOperationException("Not supported yet.");
@@ -24,6 +24,8 @@ import java.util.Iterator;
 import junit.framework.Assert;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.jobhistory.JobHistoryEvent;
 import org.apache.hadoop.mapreduce.jobhistory.JobHistoryEventHandler2;
@@ -33,6 +35,7 @@ import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptCompletionEventStat
 import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptId;
 import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptState;
 import org.apache.hadoop.mapreduce.v2.api.records.TaskState;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskType;
 import org.apache.hadoop.mapreduce.v2.app2.job.Job;
 import org.apache.hadoop.mapreduce.v2.app2.job.Task;
 import org.apache.hadoop.mapreduce.v2.app2.job.TaskAttempt;
@@ -40,6 +43,9 @@ import org.apache.hadoop.mapreduce.v2.app2.job.event.JobEventTaskAttemptFetchFai
 import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskAttemptEvent;
 import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskAttemptEventType;
 import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.tez.mapreduce.hadoop.TezTypeConverters;
+import org.apache.tez.records.TezDependentTaskCompletionEvent;
+import org.apache.tez.records.TezTaskDependencyCompletionEventsUpdate;
 import org.junit.Test;
 
 public class TestFetchFailure {
@@ -144,6 +150,37 @@ public class TestFetchFailure {
         TaskAttemptCompletionEventStatus.SUCCEEDED, events[2].getStatus());
     Assert.assertEquals("Event status not correct for reduce attempt1",
         TaskAttemptCompletionEventStatus.SUCCEEDED, events[3].getStatus());
+
+    // Map events for reduces, numbered among map events only. Check them
+    // after a trip over the wire.
+    TezTaskDependencyCompletionEventsUpdate update =
+        job.getDependentTaskCompletionEvents(TaskType.MAP, 0, 100);
+    DataOutputBuffer out = new DataOutputBuffer();
+    update.write(out);
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(out.getData(), out.getLength());
+    update = new TezTaskDependencyCompletionEventsUpdate();
+    update.readFields(in);
+    TezDependentTaskCompletionEvent[] mapEvents =
+        update.getDependentTaskCompletionEvents();
+    Assert.assertEquals("Num map completion events not correct",
+        3, mapEvents.length);
+    Assert.assertEquals(TezTypeConverters.toTez(mapAttempt1.getID()),
+        mapEvents[0].getTaskAttemptID());
+    Assert.assertEquals(TezTypeConverters.toTez(mapAttempt2.getID()),
+        mapEvents[2].getTaskAttemptID());
+    Assert.assertEquals(TezDependentTaskCompletionEvent.Status.OBSOLETE,
+        mapEvents[0].getStatus());
+    Assert.assertEquals(TezDependentTaskCompletionEvent.Status.FAILED,
+        mapEvents[1].getStatus());
+    Assert.assertEquals(TezDependentTaskCompletionEvent.Status.SUCCEEDED,
+        mapEvents[2].getStatus());
+    for (int i = 0; i < mapEvents.length; ++i) {
+      Assert.assertEquals(i, mapEvents[i].getEventId());
+      Assert.assertTrue(mapEvents[i].isMapTask());
+    }
+    Assert.assertEquals(0, job.getDependentTaskCompletionEvents(TaskType.MAP,
+        3, 100).getDependentTaskCompletionEvents().length);
   }
   
   /**
@@ -75,6 +75,7 @@ import org.apache.hadoop.yarn.event.EventHandler;
 import org.apache.hadoop.yarn.factories.RecordFactory;
 import org.apache.hadoop.yarn.factory.providers.RecordFactoryProvider;
 import org.apache.hadoop.yarn.service.CompositeService;
+import org.apache.tez.records.TezTaskDependencyCompletionEventsUpdate;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -454,6 +455,13 @@ public class TestRuntimeEstimators {
       throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    @Override
+    public TezTaskDependencyCompletionEventsUpdate
+        getDependentTaskCompletionEvents(TaskType taskType, int fromEventId,
+            int maxEvents) {
+      throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     @Override
     public String getName() {
       throw new UnsupportedOperationException("Not supported yet.");
@@ -0,0 +1,125 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.hadoop.mapreduce.v2.app2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.v2.api.records.JobId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskType;
+import org.apache.hadoop.mapreduce.v2.app2.job.event.JobEvent;
+import org.apache.hadoop.mapreduce.v2.app2.job.event.JobEventType;
+import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskAttemptEvent;
+import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskAttemptEventType;
+import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskEvent;
+import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskEventType;
+import org.apache.hadoop.mapreduce.v2.util.MRBuilderUtils;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.util.BuilderUtils;
+import org.junit.Test;
+
+public class TestShardedDispatcher {
+
+  private static final int NUM_TASKS = 20;
+  private static final int EVENTS_PER_TASK = 100;
+
+  @Test
+  public void testQueueIndex() {
+    ShardedDispatcher dispatcher = new ShardedDispatcher(4);
+    JobId jobId = createJobId();
+    assertEquals(0, dispatcher.getQueueIndex(
+        new JobEvent(jobId, JobEventType.JOB_START)));
+    for (int i = 0; i < NUM_TASKS; ++i) {
+      TaskId taskId = MRBuilderUtils.newTaskId(jobId, i, TaskType.MAP);
+      TaskAttemptId attemptId = MRBuilderUtils.newTaskAttemptId(taskId, 0);
+      int index = dispatcher.getQueueIndex(
+          new TaskEvent(taskId, TaskEventType.T_SCHEDULE));
+      assertTrue(index >= 1 && index < 4);
+      // Attempts are dispatched by the same thread as their task
+      assertEquals(index, dispatcher.getQueueIndex(
+          new TaskAttemptEvent(attemptId, TaskAttemptEventType.TA_SCHEDULE)));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test(timeout = 10000)
+  public void testPerTaskOrdering() throws Exception {
+    final Map<TaskId, List<TaskEventType>> received =
+        new HashMap<TaskId, List<TaskEventType>>();
+    final CountDownLatch done =
+        new CountDownLatch(NUM_TASKS * EVENTS_PER_TASK);
+
+    ShardedDispatcher dispatcher = new ShardedDispatcher(4);
+    dispatcher.register(TaskEventType.class, new EventHandler<TaskEvent>() {
+      @Override
+      public void handle(TaskEvent event) {
+        synchronized (received) {
+          List<TaskEventType> events = received.get(event.getTaskID());
+          if (events == null) {
+            events = new ArrayList<TaskEventType>();
+            received.put(event.getTaskID(), events);
+          }
+          events.add(event.getType());
+        }
+        done.countDown();
+      }
+    });
+    dispatcher.init(new Configuration());
+    dispatcher.start();
+    try {
+      JobId jobId = createJobId();
+      TaskEventType[] types = TaskEventType.values();
+      for (int e = 0; e < EVENTS_PER_TASK; ++e) {
+        for (int i = 0; i < NUM_TASKS; ++i) {
+          TaskId taskId = MRBuilderUtils.newTaskId(jobId, i, TaskType.MAP);
+          dispatcher.getEventHandler().handle(
+              new TaskEvent(taskId, types[e % types.length]));
+        }
+      }
+      assertTrue(done.await(5, TimeUnit.SECONDS));
+    } finally {
+      dispatcher.stop();
+    }
+
+    assertEquals(NUM_TASKS, received.size());
+    TaskEventType[] types = TaskEventType.values();
+    for (List<TaskEventType> events : received.values()) {
+      assertEquals(EVENTS_PER_TASK, events.size());
+      for (int e = 0; e < EVENTS_PER_TASK; ++e) {
+        assertEquals(types[e % types.length], events.get(e));
+      }
+    }
+  }
+
+  private static JobId createJobId() {
+    ApplicationId appId = BuilderUtils.newApplicationId(0l, 5);
+    return MRBuilderUtils.newJobId(appId, 4);
+  }
+}
@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.mapreduce.v2.app2;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.v2.api.records.JobId;
@@ -70,4 +72,114 @@ public class TestTaskHeartbeatHandler {
     }
   }
 
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test
+  public void testPingsKeepAlive() throws InterruptedException {
+    EventHandler mockHandler = mock(EventHandler.class);
+    Clock clock = new SystemClock();
+    AppContext context = mock(AppContext.class);
+    when(context.getEventHandler()).thenReturn(mockHandler);
+    when(context.getClock()).thenReturn(clock);
+
+    TaskHeartbeatHandler hb = new TaskHeartbeatHandler(context, 1);
+
+    Configuration conf = new Configuration();
+    conf.setInt(MRJobConfig.TASK_TIMEOUT, 200); //200 ms
+    conf.setInt(MRJobConfig.TASK_TIMEOUT_CHECK_INTERVAL_MS, 10); //10 ms
+
+    hb.init(conf);
+    hb.start();
+    try {
+      ApplicationId appId = BuilderUtils.newApplicationId(0l, 5);
+      JobId jobId = MRBuilderUtils.newJobId(appId, 4);
+      TaskId tid = MRBuilderUtils.newTaskId(jobId, 3, TaskType.MAP);
+      TaskAttemptId pingingId = MRBuilderUtils.newTaskAttemptId(tid, 2);
+      TaskAttemptId unregisteredId = MRBuilderUtils.newTaskAttemptId(tid, 3);
+      hb.register(pingingId);
+      hb.register(unregisteredId);
+      hb.unregister(unregisteredId);
+      for (int i = 0; i < 20; i++) {
+        Thread.sleep(25);
+        hb.pinged(pingingId);
+      }
+      verify(mockHandler, never()).handle(any(Event.class));
+
+      Thread.sleep(500);
+      //Timed out once pings stopped
+      verify(mockHandler, times(2)).handle(any(Event.class));
+    } finally {
+      hb.stop();
+    }
+  }
+
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Test
+  public void testLateCheckDoesNotTimeOutEarly() throws InterruptedException {
+    EventHandler mockHandler = mock(EventHandler.class);
+    final AtomicLong time = new AtomicLong(1000);
+    Clock clock = new Clock() {
+      @Override
+      public long getTime() {
+        return time.get();
+      }
+    };
+    AppContext context = mock(AppContext.class);
+    when(context.getEventHandler()).thenReturn(mockHandler);
+    when(context.getClock()).thenReturn(clock);
+
+    ManualTaskHeartbeatHandler hb = new ManualTaskHeartbeatHandler(context);
+    Configuration conf = new Configuration();
+    conf.setInt(MRJobConfig.TASK_TIMEOUT, 1000);
+    conf.setInt(MRJobConfig.TASK_TIMEOUT_CHECK_INTERVAL_MS, 100);
+    hb.init(conf);
+    hb.start();
+    try {
+      ApplicationId appId = BuilderUtils.newApplicationId(0l, 5);
+      JobId jobId = MRBuilderUtils.newJobId(appId, 4);
+      TaskId tid = MRBuilderUtils.newTaskId(jobId, 3, TaskType.MAP);
+      TaskAttemptId taid = MRBuilderUtils.newTaskAttemptId(tid, 2);
+      hb.register(taid);
+      hb.check();
+
+      // The next check is late. The ping is stamped with the clock rather
+      // than the rounded up time of the last check, 1100.
+      Thread.sleep(150);
+      time.set(5000);
+      hb.pinged(taid);
+
+      time.set(5500);
+      hb.check();
+      verify(mockHandler, never()).handle(any(Event.class));
+
+      time.set(6200);
+      hb.check();
+      verify(mockHandler, times(2)).handle(any(Event.class));
+    } finally {
+      hb.stop();
+    }
+  }
+
+  /**
+   * Checks for timeouts only when told to.
+   */
+  private static class ManualTaskHeartbeatHandler extends TaskHeartbeatHandler {
+
+    ManualTaskHeartbeatHandler(AppContext context) {
+      super(context, 1);
+    }
+
+    @Override
+    protected Runnable createPingChecker() {
+      return new Runnable() {
+        @Override
+        public void run() {
+        }
+      };
+    }
+
+    void check() {
+      checkTimeouts();
+    }
+  }
+
 }
@@ -25,17 +25,22 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.JobACL;
 import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobCounter;
 import org.apache.hadoop.mapreduce.JobID;
 import org.apache.hadoop.mapreduce.MRConfig;
 import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.TaskCounter;
 import org.apache.hadoop.mapreduce.TypeConverter;
 import org.apache.hadoop.mapreduce.jobhistory.JobHistoryEvent;
 import org.apache.hadoop.mapreduce.security.token.JobTokenSecretManager;
@@ -44,12 +49,14 @@ import org.apache.hadoop.mapreduce.v2.api.records.JobId;
 import org.apache.hadoop.mapreduce.v2.api.records.JobState;
 import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptState;
 import org.apache.hadoop.mapreduce.v2.api.records.TaskId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskType;
 import org.apache.hadoop.mapreduce.v2.app2.MRApp;
 import org.apache.hadoop.mapreduce.v2.app2.job.Job;
 import org.apache.hadoop.mapreduce.v2.app2.job.JobStateInternal;
 import org.apache.hadoop.mapreduce.v2.app2.job.Task;
 import org.apache.hadoop.mapreduce.v2.app2.job.TaskAttempt;
 import org.apache.hadoop.mapreduce.v2.app2.job.event.JobEvent;
+import org.apache.hadoop.mapreduce.v2.app2.job.event.JobEventCounterUpdate;
 import org.apache.hadoop.mapreduce.v2.app2.job.impl.JobImpl.InitTransition;
 import org.apache.hadoop.mapreduce.v2.app2.job.impl.JobImpl.JobNoTasksCompletedTransition;
 import org.apache.hadoop.mapreduce.v2.app2.metrics.MRAppMetrics;
@@ -413,6 +420,127 @@ public class TestJobImpl {
     mrApp.waitForState(job, JobState.SUCCEEDED);
   }
   
+  // Job level counters, as updated through the job
+  private final Counters jobCounters = new Counters();
+
+  @Test
+  public void testIncrementalProgressAndCounters() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setInt(MRJobConfig.NUM_REDUCES, 1);
+    JobImpl job = createJob(conf);
+    getInitTransition().transition(job, mock(JobEvent.class));
+
+    // Stand in for the tasks, as seen through their current best attempt
+    List<TaskImpl> maps = new ArrayList<TaskImpl>();
+    List<TaskImpl> reduces = new ArrayList<TaskImpl>();
+    for (Task task : new ArrayList<Task>(job.getTasks().values())) {
+      TaskImpl mockTask = mock(TaskImpl.class);
+      when(mockTask.getID()).thenReturn(task.getID());
+      when(mockTask.getType()).thenReturn(task.getType());
+      when(mockTask.getCounters()).thenReturn(new Counters());
+      job.addTask(mockTask);
+      (task.getType() == TaskType.MAP ? maps : reduces).add(mockTask);
+    }
+    Assert.assertEquals(2, maps.size());
+    Assert.assertEquals(1, reduces.size());
+    TaskImpl map0 = maps.get(0);
+    TaskImpl map1 = maps.get(1);
+    TaskImpl reduce0 = reduces.get(0);
+    assertAggregatesMatch(job);
+
+    // First attempt of map0 makes progress
+    updateTask(job, map0, 0.5f, false, TaskCounter.MAP_INPUT_RECORDS, 5);
+    assertAggregatesMatch(job);
+
+    // ... then fails, and is retried from scratch
+    updateTask(job, map0, 0f, false, null, 0);
+    updateJobCounter(job, JobCounter.NUM_FAILED_MAPS, 1);
+    assertAggregatesMatch(job);
+
+    // A speculative attempt of map1 overtakes the original one
+    updateTask(job, map1, 0.4f, false, TaskCounter.MAP_INPUT_RECORDS, 4);
+    assertAggregatesMatch(job);
+    updateTask(job, map1, 0.7f, false, TaskCounter.MAP_INPUT_RECORDS, 7);
+    assertAggregatesMatch(job);
+
+    // Several tasks change between two reports
+    updateTask(job, map1, 1f, true, TaskCounter.MAP_INPUT_RECORDS, 10);
+    updateTask(job, reduce0, 0.3f, false, TaskCounter.REDUCE_INPUT_RECORDS, 3);
+    updateJobCounter(job, JobCounter.TOTAL_LAUNCHED_MAPS, 3);
+    assertAggregatesMatch(job);
+
+    // map1 is re-run after it succeeded, e.g. on fetch failures
+    updateTask(job, map1, 0f, false, null, 0);
+    updateJobCounter(job, JobCounter.NUM_FAILED_MAPS, 1);
+    assertAggregatesMatch(job);
+
+    updateTask(job, map0, 1f, true, TaskCounter.MAP_INPUT_RECORDS, 5);
+    updateTask(job, map1, 1f, true, TaskCounter.MAP_INPUT_RECORDS, 10);
+    updateTask(job, reduce0, 1f, true, TaskCounter.REDUCE_INPUT_RECORDS, 15);
+    assertAggregatesMatch(job);
+    Assert.assertEquals(0.9f, job.getProgress(), 0.001f);
+  }
+
+  private JobImpl createJob(Configuration conf) {
+    JobID jobID = JobID.forName("job_1234567890000_0001");
+    JobId jobId = TypeConverter.toYarn(jobID);
+    MRAppMetrics mrAppMetrics = MRAppMetrics.create();
+    return new JobImpl(jobId, Records
+        .newRecord(ApplicationAttemptId.class), conf, mock(EventHandler.class),
+        null, mock(JobTokenSecretManager.class), null, null, null,
+        mrAppMetrics, mock(OutputCommitter.class), true, null, 0, null, null, null);
+  }
+
+  private void updateTask(JobImpl job, TaskImpl task, float progress,
+      boolean finished, TaskCounter counter, long value) {
+    Counters counters = new Counters();
+    if (counter != null) {
+      counters.findCounter(counter).setValue(value);
+    }
+    when(task.getProgress()).thenReturn(progress);
+    when(task.isFinished()).thenReturn(finished);
+    when(task.getCounters()).thenReturn(counters);
+    job.taskStatusChanged(task);
+  }
+
+  private void updateJobCounter(JobImpl job, JobCounter counter, long incr) {
+    JobEventCounterUpdate update = new JobEventCounterUpdate(job.getID());
+    update.addCounterUpdate(counter, incr);
+    job.handle(update);
+    jobCounters.findCounter(counter).increment(incr);
+  }
+
+  /**
+   * Check the job's progress and counters against a full recompute over all
+   * its tasks.
+   */
+  private void assertAggregatesMatch(JobImpl job) {
+    float mapProgress = 0f;
+    float reduceProgress = 0f;
+    for (Task task : job.getTasks().values()) {
+      float progress = task.isFinished() ? 1f : task.getProgress();
+      if (task.getType() == TaskType.MAP) {
+        mapProgress += progress / 2;
+      } else {
+        reduceProgress += progress;
+      }
+    }
+    Assert.assertEquals(0.45f * mapProgress + 0.45f * reduceProgress,
+        job.getProgress(), 0.001f);
+
+    Counters expected = new Counters();
+    expected.incrAllCounters(jobCounters);
+    JobImpl.incrTaskCounters(expected, job.getTasks().values());
+    Counters actual = new Counters();
+    actual.incrAllCounters(job.getAllCounters());
+    Assert.assertEquals(expected, actual);
+    // Unchanged since the last report
+    Counters again = new Counters();
+    again.incrAllCounters(job.getAllCounters());
+    Assert.assertEquals(expected, again);
+  }
+
+
   private void finishNextNTasks(MRApp mrApp, Iterator<Task> it, int n,
       DrainDispatcher dispatcher) throws Exception {
     finishNextNTasks(mrApp, it, n);
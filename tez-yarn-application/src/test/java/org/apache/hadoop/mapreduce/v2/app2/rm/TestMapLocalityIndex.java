@@ -0,0 +1,85 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.hadoop.mapreduce.v2.app2.rm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.mapreduce.v2.api.records.JobId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskType;
+import org.apache.hadoop.mapreduce.v2.util.MRBuilderUtils;
+import org.apache.hadoop.yarn.api.records.ApplicationId;
+import org.apache.hadoop.yarn.util.BuilderUtils;
+import org.junit.Test;
+
+public class TestMapLocalityIndex {
+
+  @Test
+  public void testPollRemovesFromAllLocations() {
+    MapLocalityIndex index = new MapLocalityIndex();
+    TaskAttemptId a0 = createAttemptId(0);
+    TaskAttemptId a1 = createAttemptId(1);
+    TaskAttemptId a2 = createAttemptId(2);
+    index.add(a0, new String[] { "h1", "h2" }, new String[] { "r1" });
+    index.add(a1, new String[] { "h2", "h3" }, new String[] { "r1", "r2" });
+    index.add(a2, new String[0], new String[0]);
+    assertEquals(3, index.size());
+    assertTrue(index.hasHostLocalAttempts());
+
+    // Taken on h2, a0 is no longer listed under h1 or r1
+    assertEquals(a0, index.pollHostLocal("h2"));
+    assertNull(index.pollHostLocal("h1"));
+    assertEquals(a1, index.pollRackLocal("r1"));
+    assertNull(index.pollHostLocal("h3"));
+    assertNull(index.pollRackLocal("r2"));
+    assertFalse(index.hasHostLocalAttempts());
+
+    assertEquals(a2, index.pollAny());
+    assertNull(index.pollAny());
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void testRemove() {
+    MapLocalityIndex index = new MapLocalityIndex();
+    TaskAttemptId a0 = createAttemptId(0);
+    TaskAttemptId a1 = createAttemptId(1);
+    index.add(a0, new String[] { "h1" }, new String[] { "r1" });
+    index.add(a1, new String[] { "h1" }, new String[] { "r1" });
+    assertEquals(2, index.getAttemptsOnHost("h1").size());
+
+    assertTrue(index.remove(a0));
+    assertFalse(index.remove(a0));
+    assertFalse(index.contains(a0));
+    assertEquals(1, index.getAttemptsOnHost("h1").size());
+    assertEquals(a1, index.pollRackLocal("r1"));
+    assertTrue(index.getAttemptsOnHost("h1").isEmpty());
+  }
+
+  private static TaskAttemptId createAttemptId(int taskNum) {
+    ApplicationId appId = BuilderUtils.newApplicationId(0l, 1);
+    JobId jobId = MRBuilderUtils.newJobId(appId, 1);
+    TaskId taskId = MRBuilderUtils.newTaskId(jobId, taskNum, TaskType.MAP);
+    return MRBuilderUtils.newTaskAttemptId(taskId, 0);
+  }
+}
@@ -29,6 +29,7 @@ import static org.mockito.Mockito.doCallRealMethod;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -52,18 +53,22 @@ import org.apache.hadoop.mapreduce.TypeConverter;
 import org.apache.hadoop.mapreduce.jobhistory.ContainerHeartbeatHandler;
 import org.apache.hadoop.mapreduce.v2.api.records.JobId;
 import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptState;
 import org.apache.hadoop.mapreduce.v2.api.records.TaskId;
 import org.apache.hadoop.mapreduce.v2.api.records.TaskType;
 import org.apache.hadoop.mapreduce.v2.app2.AppContext;
 import org.apache.hadoop.mapreduce.v2.app2.ControlledClock;
 import org.apache.hadoop.mapreduce.v2.app2.TaskAttemptListener;
 import org.apache.hadoop.mapreduce.v2.app2.job.Job;
+import org.apache.hadoop.mapreduce.v2.app2.metrics.MRAppMetrics;
 import org.apache.hadoop.mapreduce.v2.app2.rm.RMContainerRequestor.ContainerRequest;
+import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainer;
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerEventAssignTA;
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerEvent;
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerEventType;
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerEventLaunchRequest;
 import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerMap;
+import org.apache.hadoop.mapreduce.v2.app2.rm.container.AMContainerState;
 import org.apache.hadoop.mapreduce.v2.app2.rm.node.AMNodeEvent;
 import org.apache.hadoop.mapreduce.v2.app2.rm.node.AMNodeEventNodeCountUpdated;
 import org.apache.hadoop.mapreduce.v2.app2.rm.node.AMNodeEventType;
@@ -716,6 +721,308 @@ public class TestRMContainerAllocator {
         scheduler.recalculatedReduceSchedule);
   }
   
+  /**
+   * Verifies that unassigned map containers are launched and kept warm, used
+   * for later map requests, and released once no more maps are expected.
+   */
+  @Test
+  public void testWarmContainers() throws Exception {
+    LOG.info("Running testWarmContainers");
+    YarnConfiguration conf = new YarnConfiguration();
+    conf.setBoolean(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig.MR_AM_SCHEDULER_REUSE_ENABLE,
+        true);
+    conf.setInt(org.apache.tez.mapreduce.hadoop.MRJobConfig
+        .MR_AM_SCHEDULER_REUSE_WARM_CONTAINERS_MAX, 2);
+
+    TrackingEventHandler eventHandler = new TrackingEventHandler();
+    AppContext appContext = setupDefaultTestContext(eventHandler, conf);
+    ControlledClock clock = (ControlledClock) appContext.getClock();
+    clock.setTime(10000);
+
+    TrackingAMContainerRequestor rmComm = new TrackingAMContainerRequestor(
+        appContext);
+    rmComm.init(conf);
+    rmComm.start();
+    RMContainerAllocatorForTest scheduler = new RMContainerAllocatorForTest(
+        rmComm, appContext);
+    scheduler.init(conf);
+    scheduler.start();
+
+    JobId jobId = TypeConverter.toYarn(TypeConverter.fromYarn(appContext
+        .getApplicationID()));
+    Job job = appContext.getJob(jobId);
+    doReturn(3).when(job).getTotalMaps();
+
+    AMSchedulerTALaunchRequestEvent event1 = createTALaunchReq(jobId, 1, 1024,
+        new String[] { "h1" });
+    AMSchedulerTALaunchRequestEvent event2 = createTALaunchReq(jobId, 2, 1024,
+        new String[] { "h2" });
+    scheduler.handleEvent(event1);
+    scheduler.handleEvent(event2);
+
+    // A burst of 2 maps, asks go out for 2 warm containers.
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+    assertEquals(4, rmComm.addRequests.size());
+
+    Container container1 = newContainer(appContext, 1, "h1", 1024, MAP_PRIORITY);
+    Container container2 = newContainer(appContext, 2, "h2", 1024, MAP_PRIORITY);
+    Container container3 = newContainer(appContext, 3, "h3", 1024, MAP_PRIORITY);
+    Container container4 = newContainer(appContext, 4, "h4", 1024, MAP_PRIORITY);
+    List<ContainerId> containerIds = new LinkedList<ContainerId>();
+    containerIds.add(container1.getId());
+    containerIds.add(container2.getId());
+    containerIds.add(container3.getId());
+    containerIds.add(container4.getId());
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        containerIds, false));
+
+    // Containers not needed by the maps are launched, instead of released.
+    checkAssignments(new AMSchedulerTALaunchRequestEvent[] { event1, event2 },
+        eventHandler.launchRequests.subList(0, 2), eventHandler.assignEvents,
+        true, appContext);
+    assertEquals(4, eventHandler.launchRequests.size());
+    assertEquals(container3.getId(),
+        eventHandler.launchRequests.get(2).getContainerId());
+    assertEquals(container4.getId(),
+        eventHandler.launchRequests.get(3).getContainerId());
+    assertEquals(0, eventHandler.stopEvents.size());
+    assertEquals(4, rmComm.decRequests.size());
+
+    // The next map goes to a warm container. Since it's the last map of the
+    // job, the other warm container is released.
+    eventHandler.reset();
+    clock.setTime(20000);
+    AMSchedulerTALaunchRequestEvent event3 = createTALaunchReq(jobId, 3, 1024,
+        new String[] { "h5" });
+    scheduler.handleEvent(event3);
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+
+    assertEquals(1, eventHandler.assignEvents.size());
+    assertEquals(event3.getAttemptID(),
+        eventHandler.assignEvents.get(0).getTaskAttemptId());
+    assertEquals(container3.getId(),
+        eventHandler.assignEvents.get(0).getContainerId());
+    assertEquals(1, eventHandler.stopEvents.size());
+    assertEquals(container4.getId(),
+        eventHandler.stopEvents.get(0).getContainerId());
+  }
+
+  /**
+   * Verifies that a container matching no waiting map's location is held for
+   * up to the locality delay, and is assigned to a map local to it arriving in
+   * the meantime, or to any map once the delay passes.
+   */
+  @Test
+  public void testLocalityDelay() throws Exception {
+    LOG.info("Running testLocalityDelay");
+    YarnConfiguration conf = new YarnConfiguration();
+    conf.setLong(org.apache.tez.mapreduce.hadoop.MRJobConfig
+        .MR_AM_SCHEDULER_LOCALITY_DELAY_MS, 1000);
+
+    TrackingEventHandler eventHandler = new TrackingEventHandler();
+    AppContext appContext = setupDefaultTestContext(eventHandler, conf);
+    ControlledClock clock = (ControlledClock) appContext.getClock();
+    clock.setTime(10000);
+
+    TrackingAMContainerRequestor rmComm = new TrackingAMContainerRequestor(
+        appContext);
+    rmComm.init(conf);
+    rmComm.start();
+    RMContainerAllocatorForTest scheduler = new RMContainerAllocatorForTest(
+        rmComm, appContext);
+    scheduler.init(conf);
+    scheduler.start();
+
+    JobId jobId = TypeConverter.toYarn(TypeConverter.fromYarn(appContext
+        .getApplicationID()));
+
+    // A map with data on another rack than the one of the containers.
+    AMSchedulerTALaunchRequestEvent event1 = createTALaunchReq(jobId, 1, 1024,
+        new String[] { "h1" }, new String[] { "/rack1" });
+    scheduler.handleEvent(event1);
+
+    Container container1 = newContainer(appContext, 1, "h3", 1024, MAP_PRIORITY);
+    List<ContainerId> containerIds = new LinkedList<ContainerId>();
+    containerIds.add(container1.getId());
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        containerIds, false));
+
+    // The off-rack container is held, neither assigned nor released.
+    assertEquals(0, eventHandler.assignEvents.size());
+    assertEquals(0, eventHandler.stopEvents.size());
+
+    // A map local to the held container shows up within the delay.
+    clock.setTime(10500);
+    AMSchedulerTALaunchRequestEvent event2 = createTALaunchReq(jobId, 2, 1024,
+        new String[] { "h3" });
+    scheduler.handleEvent(event2);
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+
+    checkAssignments(new AMSchedulerTALaunchRequestEvent[] { event2 },
+        eventHandler.launchRequests, eventHandler.assignEvents, true,
+        appContext);
+    assertEquals(container1.getId(),
+        eventHandler.assignEvents.get(0).getContainerId());
+
+    // Another off-rack container for the first map.
+    eventHandler.reset();
+    clock.setTime(11000);
+    Container container2 = newContainer(appContext, 2, "h4", 1024, MAP_PRIORITY);
+    containerIds.clear();
+    containerIds.add(container2.getId());
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        containerIds, false));
+    assertEquals(0, eventHandler.assignEvents.size());
+
+    clock.setTime(11999);
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+    assertEquals(0, eventHandler.assignEvents.size());
+
+    // The delay has passed, the map runs off-rack.
+    clock.setTime(12000);
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+    checkAssignments(new AMSchedulerTALaunchRequestEvent[] { event1 },
+        eventHandler.launchRequests, eventHandler.assignEvents, false,
+        appContext);
+    assertEquals(container2.getId(),
+        eventHandler.assignEvents.get(0).getContainerId());
+    assertEquals(0, eventHandler.stopEvents.size());
+  }
+
+  /**
+   * Verifies that launched containers whose attempt finished are kept idle for
+   * later attempts, released once idle for the timeout or on a blacklisted
+   * node, and that the reuse hit rate counts reused containers.
+   */
+  @Test
+  public void testIdleContainerReuse() throws Exception {
+    LOG.info("Running testIdleContainerReuse");
+    YarnConfiguration conf = new YarnConfiguration();
+    conf.setBoolean(
+        org.apache.tez.mapreduce.hadoop.MRJobConfig.MR_AM_SCHEDULER_REUSE_ENABLE,
+        true);
+    conf.setLong(org.apache.tez.mapreduce.hadoop.MRJobConfig
+        .MR_AM_SCHEDULER_REUSE_IDLE_TIMEOUT_MS, 1000);
+    conf.setBoolean(MRJobConfig.MR_AM_JOB_NODE_BLACKLISTING_ENABLE, true);
+    conf.setInt(
+        MRJobConfig.MR_AM_IGNORE_BLACKLISTING_BLACKLISTED_NODE_PERECENT, -1);
+
+    TrackingEventHandler eventHandler = new TrackingEventHandler();
+    AppContext appContext = setupDefaultTestContext(eventHandler, conf);
+    AMContainerMap containers = spy(appContext.getAllContainers());
+    when(appContext.getAllContainers()).thenReturn(containers);
+    AMNodeMap nodes = spy(appContext.getAllNodes());
+    when(appContext.getAllNodes()).thenReturn(nodes);
+    ControlledClock clock = (ControlledClock) appContext.getClock();
+    clock.setTime(10000);
+    MRAppMetrics metrics = MRAppMetrics.create();
+
+    TrackingAMContainerRequestor rmComm = new TrackingAMContainerRequestor(
+        appContext);
+    rmComm.init(conf);
+    rmComm.start();
+    RMContainerAllocatorForTest scheduler = new RMContainerAllocatorForTest(
+        rmComm, appContext, metrics);
+    scheduler.init(conf);
+    scheduler.start();
+
+    JobId jobId = TypeConverter.toYarn(TypeConverter.fromYarn(appContext
+        .getApplicationID()));
+
+    AMSchedulerTALaunchRequestEvent event1 = createTALaunchReq(jobId, 1, 1024,
+        new String[] { "h1" });
+    AMSchedulerTALaunchRequestEvent event2 = createTALaunchReq(jobId, 2, 1024,
+        new String[] { "h2" });
+    scheduler.handleEvent(event1);
+    scheduler.handleEvent(event2);
+
+    Container container1 = newContainer(appContext, 1, "h1", 1024, MAP_PRIORITY);
+    Container container2 = newContainer(appContext, 2, "h2", 1024, MAP_PRIORITY);
+    List<ContainerId> containerIds = new LinkedList<ContainerId>();
+    containerIds.add(container1.getId());
+    containerIds.add(container2.getId());
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        containerIds, false));
+    checkAssignments(new AMSchedulerTALaunchRequestEvent[] { event1, event2 },
+        eventHandler.launchRequests, eventHandler.assignEvents, true,
+        appContext);
+    assertEquals(0f, scheduler.getReuseHitRate(), 0f);
+
+    // Both attempts succeed, with no attempt waiting. The containers are
+    // kept idle.
+    doReturn(launchedContainer(container1)).when(containers).get(
+        container1.getId());
+    doReturn(launchedContainer(container2)).when(containers).get(
+        container2.getId());
+    eventHandler.reset();
+    scheduler.handleEvent(new AMSchedulerEventTAEnded(event1.getAttemptID(),
+        container1.getId(), TaskAttemptState.SUCCEEDED));
+    scheduler.handleEvent(new AMSchedulerEventTAEnded(event2.getAttemptID(),
+        container2.getId(), TaskAttemptState.SUCCEEDED));
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+    assertEquals(0, eventHandler.stopEvents.size());
+
+    // Nodes the AM hasn't heard about are not taken to be unhealthy
+    doReturn(null).when(nodes).get(container1.getNodeId());
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+    assertEquals(0, eventHandler.stopEvents.size());
+    doCallRealMethod().when(nodes).get(container1.getNodeId());
+
+    // The idle container on a blacklisted node is released.
+    clock.setTime(10500);
+    blacklistNode(container2.getNodeId(), appContext);
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+    assertEquals(1, eventHandler.stopEvents.size());
+    assertEquals(container2.getId(),
+        eventHandler.stopEvents.get(0).getContainerId());
+
+    // The other one is reused by the next attempt, without a new launch.
+    eventHandler.reset();
+    clock.setTime(10800);
+    AMSchedulerTALaunchRequestEvent event3 = createTALaunchReq(jobId, 3, 1024,
+        new String[] { "h3" });
+    scheduler.handleEvent(event3);
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+    assertEquals(0, eventHandler.launchRequests.size());
+    assertEquals(1, eventHandler.assignEvents.size());
+    assertEquals(event3.getAttemptID(),
+        eventHandler.assignEvents.get(0).getTaskAttemptId());
+    assertEquals(container1.getId(),
+        eventHandler.assignEvents.get(0).getContainerId());
+    assertEquals(1f / 3, scheduler.getReuseHitRate(), 0.0001f);
+
+    // Idle again once the attempt succeeds, released after the timeout.
+    eventHandler.reset();
+    clock.setTime(11000);
+    scheduler.handleEvent(new AMSchedulerEventTAEnded(event3.getAttemptID(),
+        container1.getId(), TaskAttemptState.SUCCEEDED));
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+    clock.setTime(11999);
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+    assertEquals(0, eventHandler.stopEvents.size());
+
+    clock.setTime(12000);
+    scheduler.handleEvent(new AMSchedulerEventContainersAllocated(
+        new LinkedList<ContainerId>(), false));
+    assertEquals(1, eventHandler.stopEvents.size());
+    assertEquals(container1.getId(),
+        eventHandler.stopEvents.get(0).getContainerId());
+    assertEquals(1f / 3, scheduler.getReuseHitRate(), 0.0001f);
+    assertEquals(1f / 3, metrics.getContainerReuseHitRate(), 0.0001f);
+  }
+
   // TODO XXX Unit test for AMNode to simulate node health status change.
   
   
@@ -826,6 +1133,16 @@ public class TestRMContainerAllocator {
   }
 
   
+  /**
+   * A container which was launched and is idle, between attempts.
+   */
+  private AMContainer launchedContainer(Container container) {
+    AMContainer amContainer = mock(AMContainer.class);
+    when(amContainer.getContainer()).thenReturn(container);
+    when(amContainer.getState()).thenReturn(AMContainerState.IDLE);
+    return amContainer;
+  }
+
   /**
    * Create containers for allocation. Will also register the associated node 
    * with the AMNodeMap, and the container with the AMContainerMap.
@@ -850,6 +1167,16 @@ public class TestRMContainerAllocator {
     return createTALaunchReq(jobId, taskAttemptId, memory, hosts, false, false);
   }
   
+  private AMSchedulerTALaunchRequestEvent createTALaunchReq(JobId jobId,
+      int taskAttemptId, int memory, String[] hosts, String[] racks) {
+    Resource resource = BuilderUtils.newResource(memory, 1);
+    TaskId taskId = MRBuilderUtils.newTaskId(jobId, 0, TaskType.MAP);
+    TaskAttemptId attemptId = MRBuilderUtils.newTaskAttemptId(taskId,
+        taskAttemptId);
+    return new AMSchedulerTALaunchRequestEvent(attemptId, false, resource,
+        null, null, null, null, hosts, racks);
+  }
+
   private AMSchedulerTALaunchRequestEvent createTALaunchReq(JobId jobId,
       int taskAttemptId, int memory, String[] hosts,
       boolean earlierFailedAttempt, boolean reduce) {
@@ -881,7 +1208,12 @@ public class TestRMContainerAllocator {
 
     public RMContainerAllocatorForTest(ContainerRequestor requestor,
         AppContext appContext) {
-      super(requestor, appContext);
+      this(requestor, appContext, MRAppMetrics.create());
+    }
+
+    public RMContainerAllocatorForTest(ContainerRequestor requestor,
+        AppContext appContext, MRAppMetrics metrics) {
+      super(requestor, appContext, metrics);
     }
 
     @Override
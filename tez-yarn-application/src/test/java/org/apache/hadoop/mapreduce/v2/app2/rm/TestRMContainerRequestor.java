@@ -19,6 +19,7 @@
 package org.apache.hadoop.mapreduce.v2.app2.rm;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
@@ -27,9 +28,13 @@ import static org.mockito.Mockito.when;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.Assert;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.JobID;
 import org.apache.hadoop.mapreduce.TypeConverter;
 import org.apache.hadoop.mapreduce.v2.api.records.JobId;
@@ -62,6 +67,7 @@ import org.apache.hadoop.yarn.exceptions.YarnRemoteException;
 import org.apache.hadoop.yarn.ipc.RPCUtil;
 import org.apache.hadoop.yarn.util.BuilderUtils;
 import org.apache.hadoop.yarn.util.Records;
+import org.apache.tez.mapreduce.hadoop.MRJobConfig;
 import org.junit.Test;
 
 public class TestRMContainerRequestor {
@@ -122,6 +128,48 @@ public class TestRMContainerRequestor {
     verifyAsks(askSet, 4, 3, 4, 4);
   }
   
+  @Test
+  public void testAskCoalesced() throws Exception {
+    AppContext appContext = setupDefaultTestContext();
+    TrackingAMRMProtocol amrm = new TrackingAMRMProtocol();
+    RMContainerRequestorForTest rmComm = new RMContainerRequestorForTest(appContext, amrm);
+    rmComm.init(new YarnConfiguration());
+    rmComm.start();
+
+    Resource resource = BuilderUtils.newResource(512, 1);
+    String [] racks = new String[]{"rack1"};
+    Priority priority = BuilderUtils.newPriority(5);
+    ContainerRequest cr1 = new ContainerRequest(resource,
+        new String[]{"host1", "host2"}, racks, priority);
+    ContainerRequest cr2 = new ContainerRequest(resource,
+        new String[]{"host1"}, racks, priority);
+
+    // Repeated updates of a request are sent once, with the latest count.
+    rmComm.addContainerReq(cr1);
+    rmComm.addContainerReq(cr2);
+    rmComm.decContainerReq(cr1);
+    Set<ResourceRequest> askSet = rmComm.getAskSet();
+    assertEquals(4, askSet.size());
+    verifyAsks(askSet, 1, 0, 1, 1);
+
+    rmComm.heartbeat();
+    assertEquals(4, amrm.allocateRequest.getAskCount());
+    assertEquals(0, rmComm.getAskSet().size());
+
+    // Requests going down to 0 are sent, to cancel them on the RM.
+    rmComm.decContainerReq(cr2);
+    askSet = rmComm.getAskSet();
+    assertEquals(3, askSet.size());
+    verifyAsks(askSet, 0, 0, 0, 0);
+    assertEquals(0, rmComm.getRemoteRequestTable().size());
+
+    // A request recreated before the cancellation is sent replaces it.
+    rmComm.addContainerReq(cr2);
+    askSet = rmComm.getAskSet();
+    assertEquals(3, askSet.size());
+    verifyAsks(askSet, 1, 0, 1, 1);
+  }
+
   /**
    * Verify job progress is being reported to the RM.
    */
@@ -151,6 +199,46 @@ public class TestRMContainerRequestor {
   
   
   
+  @Test(timeout = 20000)
+  public void testHeartbeatBackoff() throws Exception {
+    Configuration conf = new YarnConfiguration();
+    conf.setInt(MRJobConfig.MR_AM_TO_RM_HEARTBEAT_INTERVAL_MS, 100);
+    conf.setInt(MRJobConfig.MR_AM_TO_RM_HEARTBEAT_MIN_INTERVAL_MS, 10);
+    conf.setInt(MRJobConfig.MR_AM_TO_RM_HEARTBEAT_MAX_INTERVAL_MS, 800);
+    IdleRMCommunicator rmComm =
+        new IdleRMCommunicator(setupDefaultTestContext());
+    rmComm.init(conf);
+    rmComm.start();
+    try {
+      // Idle heartbeats are spaced further apart, up to the maximum interval
+      long last = rmComm.nextHeartbeat();
+      for (int interval : new int[] { 200, 400, 800 }) {
+        long next = rmComm.nextHeartbeat();
+        assertInterval(next - last, interval, 2 * interval);
+        last = next;
+      }
+      assertTrue(rmComm.isHeartbeatBackedOff());
+      long next = rmComm.nextHeartbeat();
+      assertInterval(next - last, 800, 1600);
+
+      // A requested heartbeat is sent right away and resets the interval
+      long requested = System.nanoTime();
+      rmComm.requestHeartbeat();
+      last = rmComm.nextHeartbeat();
+      assertInterval(last - requested, 0, 400);
+      assertInterval(rmComm.nextHeartbeat() - last, 200, 800);
+    } finally {
+      rmComm.stop();
+    }
+  }
+
+  private static void assertInterval(long nanos, long minMs, long maxMs) {
+    long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+    assertTrue("Heartbeat after " + ms + "ms, expected " + minMs + "-"
+        + maxMs + "ms", nanos >= TimeUnit.MILLISECONDS.toNanos(minMs)
+        && ms < maxMs);
+  }
+
   private void verifyAsks(Set<ResourceRequest> askSet, int host1, int host2, int rack1, int generic) {
     for (ResourceRequest rr : askSet) {
       if (rr.getHostName().equals("*")) {
@@ -253,6 +341,40 @@ public class TestRMContainerRequestor {
     @Override public void startAllocatorThread() {}
   }
 
+  /**
+   * Records when heartbeats are sent, none of which has anything to do.
+   */
+  private static class IdleRMCommunicator extends RMCommunicator {
+
+    private final BlockingQueue<Long> heartbeats =
+        new LinkedBlockingQueue<Long>();
+
+    IdleRMCommunicator(AppContext context) {
+      super(null, context);
+    }
+
+    @Override
+    protected void heartbeat() {
+      updateHeartbeatInterval(true);
+      heartbeats.add(System.nanoTime());
+    }
+
+    /**
+     * @return the time the next heartbeat was sent at, in nanoseconds
+     */
+    long nextHeartbeat() throws InterruptedException {
+      return heartbeats.take();
+    }
+
+    @Override
+    protected AMRMProtocol createSchedulerProxy() {
+      return mock(AMRMProtocol.class);
+    }
+
+    @Override protected void register() {}
+    @Override protected void unregister() {}
+  }
+
   private static class TrackingAMRMProtocol implements AMRMProtocol {
 
     RegisterApplicationMasterRequest registerRequest;
@@ -0,0 +1,177 @@
+/**
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+package org.apache.hadoop.mapreduce.v2.app2.speculate;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.v2.api.records.JobId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskAttemptState;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskId;
+import org.apache.hadoop.mapreduce.v2.api.records.TaskType;
+import org.apache.hadoop.mapreduce.v2.app2.AppContext;
+import org.apache.hadoop.mapreduce.v2.app2.job.Job;
+import org.apache.hadoop.mapreduce.v2.app2.job.Task;
+import org.apache.hadoop.mapreduce.v2.app2.job.TaskAttempt;
+import org.apache.hadoop.mapreduce.v2.app2.job.event.TaskAttemptEventStatusUpdate.TaskAttemptStatus;
+import org.apache.hadoop.mapreduce.v2.util.MRBuilderUtils;
+import org.apache.hadoop.yarn.Clock;
+import org.apache.hadoop.yarn.event.EventHandler;
+import org.apache.hadoop.yarn.util.BuilderUtils;
+import org.apache.tez.mapreduce.hadoop.MRJobConfig;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class TestDefaultSpeculator {
+
+  private final JobId jobId =
+      MRBuilderUtils.newJobId(BuilderUtils.newApplicationId(1, 1), 1);
+  private final Map<TaskId, Task> tasks = new HashMap<TaskId, Task>();
+  // The tasks looked at by the scans, in order
+  private final List<TaskId> scanned = new ArrayList<TaskId>();
+  private long scanDelayMs = 0;
+  private DefaultSpeculator speculator;
+
+  @Test
+  public void testRunningTasksMaintained() throws Exception {
+    createSpeculator(0);
+    TaskId task1 = startTask(1);
+    TaskId task2 = startTask(2);
+    TaskId task3 = startTask(3);
+
+    // Reported as done, or found not running by the scan
+    reportState(task2, TaskAttemptState.SUCCEEDED);
+    setState(task3, TaskAttemptState.KILLED);
+    Assert.assertEquals(0, speculator.computeSpeculations());
+    Assert.assertEquals(Arrays.asList(task1, task3), scanned);
+
+    scanned.clear();
+    speculator.computeSpeculations();
+    Assert.assertEquals(Arrays.asList(task1), scanned);
+
+    // Running again
+    reportState(task2, TaskAttemptState.RUNNING);
+    scanned.clear();
+    speculator.computeSpeculations();
+    Assert.assertEquals(Arrays.asList(task1, task2), scanned);
+  }
+
+  @Test
+  public void testScanResumesWhereBudgetRanOut() throws Exception {
+    // Each scan runs out of time after a single task
+    createSpeculator(1);
+    scanDelayMs = 10;
+    startTask(1);
+    TaskId task2 = startTask(2);
+    TaskId task3 = startTask(3);
+    TaskId task4 = startTask(4);
+
+    speculator.computeSpeculations();
+    Assert.assertEquals(1, scanned.size());
+    TaskId task1 = scanned.get(0);
+
+    // Tasks starting or finishing don't make the scans skip or repeat tasks
+    TaskId task0 = startTask(0);
+    speculator.computeSpeculations();
+    reportState(task3, TaskAttemptState.SUCCEEDED);
+    speculator.computeSpeculations();
+    speculator.computeSpeculations();
+    speculator.computeSpeculations();
+    Assert.assertEquals(Arrays.asList(task1, task2, task4, task0, task1),
+        scanned);
+  }
+
+  @SuppressWarnings("rawtypes")
+  private void createSpeculator(long scanBudgetMs) {
+    Configuration conf = new Configuration();
+    conf.setLong(MRJobConfig.MR_AM_SPECULATOR_SCAN_BUDGET_MS, scanBudgetMs);
+
+    Job job = mock(Job.class);
+    when(job.getTotalMaps()).thenReturn(100);
+    when(job.getTask(any(TaskId.class))).thenAnswer(new Answer<Task>() {
+      @Override
+      public Task answer(InvocationOnMock invocation) {
+        return tasks.get(invocation.getArguments()[0]);
+      }
+    });
+    AppContext context = mock(AppContext.class);
+    when(context.getJob(jobId)).thenReturn(job);
+    when(context.getEventHandler()).thenReturn(mock(EventHandler.class));
+    Clock clock = mock(Clock.class);
+    when(clock.getTime()).thenReturn(10000l);
+
+    // Running attempts are all on schedule
+    TaskRuntimeEstimator estimator = mock(TaskRuntimeEstimator.class);
+    when(estimator.thresholdRuntime(any(TaskId.class))).thenAnswer(
+        new Answer<Long>() {
+          @Override
+          public Long answer(InvocationOnMock invocation) throws Throwable {
+            scanned.add((TaskId) invocation.getArguments()[0]);
+            if (scanDelayMs > 0) {
+              Thread.sleep(scanDelayMs);
+            }
+            return 1000l;
+          }
+        });
+
+    speculator = new DefaultSpeculator(conf, context, estimator, clock);
+  }
+
+  private TaskId startTask(int id) {
+    TaskId taskId = MRBuilderUtils.newTaskId(jobId, id, TaskType.MAP);
+    TaskAttemptId attemptId = MRBuilderUtils.newTaskAttemptId(taskId, 0);
+    TaskAttempt attempt = mock(TaskAttempt.class);
+    when(attempt.getID()).thenReturn(attemptId);
+    when(attempt.getState()).thenReturn(TaskAttemptState.RUNNING);
+    Task task = mock(Task.class);
+    when(task.getAttempts()).thenReturn(
+        Collections.singletonMap(attemptId, attempt));
+    tasks.put(taskId, task);
+
+    speculator.handle(new SpeculatorEvent(taskId, 0));
+    speculator.handle(new SpeculatorEvent(attemptId, false, 0));
+    return taskId;
+  }
+
+  private TaskAttempt setState(TaskId taskId, TaskAttemptState state) {
+    TaskAttempt attempt =
+        tasks.get(taskId).getAttempts().values().iterator().next();
+    when(attempt.getState()).thenReturn(state);
+    return attempt;
+  }
+
+  private void reportState(TaskId taskId, TaskAttemptState state) {
+    TaskAttemptStatus status = new TaskAttemptStatus();
+    status.id = setState(taskId, state).getID();
+    status.taskState = state;
+    speculator.handleAttempt(status);
+  }
+}